@@ -28,6 +28,19 @@ public class HiveProperties {
 	private String username; 
 	private String password;
 	private String executionEngine;  // e.g. mr/tez/spark or blank to not specify
+	private int fetchSize = 10000;	// rows per JDBC fetch
+	private int cacheMaxEntries = 100;	// statistics results remembered
+	private int cacheTtlSec = 600;		// age at which a remembered statistics result is re-run.  0 means never.
+	private int jobThreads = 4;			// queryHiveToResults jobs run at once
+	private int jobQueueSize = 100;		// queryHiveToResults jobs waiting to run, beyond which requests fail
+	
+	// results and status services, for queries stored as jobs
+	private String resultsServiceProtocol = "http";
+	private String resultsServiceServer;
+	private int resultsServicePort;
+	private String statusServiceProtocol = "http";
+	private String statusServiceServer;
+	private int statusServicePort;
 	
 	public void setUsername(String username){
 		this.username = username;
@@ -52,4 +65,92 @@ public class HiveProperties {
 	public String getExecutionEngine(){
 		return executionEngine;
 	}
+	
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	public int getCacheMaxEntries() {
+		return cacheMaxEntries;
+	}
+
+	public void setCacheMaxEntries(int cacheMaxEntries) {
+		this.cacheMaxEntries = cacheMaxEntries;
+	}
+
+	public int getCacheTtlSec() {
+		return cacheTtlSec;
+	}
+
+	public void setCacheTtlSec(int cacheTtlSec) {
+		this.cacheTtlSec = cacheTtlSec;
+	}
+
+	public int getJobThreads() {
+		return jobThreads;
+	}
+
+	public void setJobThreads(int jobThreads) {
+		this.jobThreads = jobThreads;
+	}
+
+	public int getJobQueueSize() {
+		return jobQueueSize;
+	}
+
+	public void setJobQueueSize(int jobQueueSize) {
+		this.jobQueueSize = jobQueueSize;
+	}
+
+	public String getResultsServiceProtocol() {
+		return resultsServiceProtocol;
+	}
+
+	public void setResultsServiceProtocol(String resultsServiceProtocol) {
+		this.resultsServiceProtocol = resultsServiceProtocol;
+	}
+
+	public String getResultsServiceServer() {
+		return resultsServiceServer;
+	}
+
+	public void setResultsServiceServer(String resultsServiceServer) {
+		this.resultsServiceServer = resultsServiceServer;
+	}
+
+	public int getResultsServicePort() {
+		return resultsServicePort;
+	}
+
+	public void setResultsServicePort(int resultsServicePort) {
+		this.resultsServicePort = resultsServicePort;
+	}
+
+	public String getStatusServiceProtocol() {
+		return statusServiceProtocol;
+	}
+
+	public void setStatusServiceProtocol(String statusServiceProtocol) {
+		this.statusServiceProtocol = statusServiceProtocol;
+	}
+
+	public String getStatusServiceServer() {
+		return statusServiceServer;
+	}
+
+	public void setStatusServiceServer(String statusServiceServer) {
+		this.statusServiceServer = statusServiceServer;
+	}
+
+	public int getStatusServicePort() {
+		return statusServicePort;
+	}
+
+	public void setStatusServicePort(int statusServicePort) {
+		this.statusServicePort = statusServicePort;
+	}
 }
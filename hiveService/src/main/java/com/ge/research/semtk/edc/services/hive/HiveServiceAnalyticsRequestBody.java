@@ -0,0 +1,29 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.edc.services.hive;
+
+import java.util.List;
+
+public class HiveServiceAnalyticsRequestBody extends HiveServiceRequestBody {
+    public String table;
+    public List<ColumnOperation> columnOperations;	// optional
+    public List<HistogramSpec> histograms;			// optional
+    public List<PercentileSpec> percentiles;		// optional
+    public String samplePercent;					// optional, e.g. "10" to scan a 10 percent TABLESAMPLE
+}
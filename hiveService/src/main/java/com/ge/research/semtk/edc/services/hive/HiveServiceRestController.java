@@ -18,6 +18,19 @@
 
 package com.ge.research.semtk.edc.services.hive;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -26,7 +39,16 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 import org.json.simple.JSONObject;
 
+import com.ge.research.semtk.edc.client.ResultsClient;
+import com.ge.research.semtk.edc.client.ResultsClientConfig;
+import com.ge.research.semtk.edc.client.StatusClient;
+import com.ge.research.semtk.edc.client.StatusClientConfig;
 import com.ge.research.semtk.query.rdb.HiveConnector;
+import com.ge.research.semtk.query.rdb.PreparedQuery;
+import com.ge.research.semtk.query.rdb.QueryTableCache;
+import com.ge.research.semtk.query.rdb.ResultStreamWriter;
+import com.ge.research.semtk.query.rdb.ResultsStorageHandler;
+import com.ge.research.semtk.resultSet.SimpleResultSet;
 import com.ge.research.semtk.resultSet.Table;
 import com.ge.research.semtk.resultSet.TableResultSet;
 import com.ge.research.semtk.edc.services.hive.HiveProperties;
@@ -40,6 +62,9 @@ import com.ge.research.semtk.edc.services.hive.HiveProperties;
 public class HiveServiceRestController {
 
 	private static String setStmt = "set hive.exec.stagingdir=/tmp/hive-staging;";
+	private static int RESULTS_BATCH_SIZE = 10000;	// rows per call when storing results with the results service
+	private static QueryTableCache statsCache = new QueryTableCache(100, 10 * 60 * 1000);	// results of the statistics endpoints
+	private static ExecutorService jobExecutor = newJobExecutor(4, 100);		// runs queryHiveToResults jobs
 
 	@Autowired
 	HiveProperties props;
@@ -50,8 +75,102 @@ public class HiveServiceRestController {
 	@CrossOrigin
 	@RequestMapping(value="/queryHive", method= RequestMethod.POST)
 	public JSONObject queryHive(@RequestBody HiveServiceQueryRequestBody requestBody){
-		String query = requestBody.query;
-		return runQuery (requestBody, query);
+		return runQuery (requestBody, requestBody.query);
+	}
+
+	/**
+	 * Execute arbitrary query in Hive, writing rows to the response as they are fetched
+	 * instead of building the whole table.  Format is "jsonl" (default) or "csv".
+	 */
+	@CrossOrigin
+	@RequestMapping(value="/queryHiveStream", method= RequestMethod.POST)
+	public void queryHiveStream(@RequestBody HiveServiceQueryStreamRequestBody requestBody, HttpServletResponse resp){
+		ResultStreamWriter writer = null;
+		try {
+			resp.setContentType(ResultStreamWriter.getContentType(requestBody.format));
+			HiveConnector oc = getConnector(requestBody);
+			String query = addSetStatements(requestBody.query);
+			System.out.println("Hive query: " + query);
+			
+			writer = new ResultStreamWriter(resp.getWriter(), requestBody.format);
+			oc.query(query, writer);
+			writer.finish();
+			System.out.println("Streamed num rows: " + writer.getNumRows());
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+			try {
+				if (!resp.isCommitted()) {
+					// nothing sent yet: send a failed result set
+					resp.reset();
+					resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+					resp.setContentType("application/json");
+					TableResultSet tableResultSet = new TableResultSet();
+					tableResultSet.setSuccess(false);
+					tableResultSet.addRationaleMessage(e.getMessage());
+					resp.getWriter().write(tableResultSet.toJson().toJSONString());
+				} else if (writer != null) {
+					writer.writeError(e.getMessage());
+				}
+			} catch (Exception e2) {
+				e2.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Execute arbitrary query in Hive as a job, storing rows with the results service as they are fetched.
+	 * Returns the job's requestID immediately.  Track it with the status service.
+	 * Fails if the job queue is full.
+	 */
+	@CrossOrigin
+	@RequestMapping(value="/queryHiveToResults", method= RequestMethod.POST)
+	public JSONObject queryHiveToResults(@RequestBody HiveServiceQueryRequestBody requestBody){
+		final String jobId = "req_" + UUID.randomUUID();
+		SimpleResultSet retval = new SimpleResultSet(true);
+		retval.addResult("requestID", jobId);
+		
+		try {
+			final HiveConnector oc = getConnector(requestBody);
+			final String query = addSetStatements(requestBody.query);
+			final StatusClient statusClient = new StatusClient(new StatusClientConfig(props.getStatusServiceProtocol(), props.getStatusServiceServer(), props.getStatusServicePort(), jobId));
+			final ResultsClient resultsClient = new ResultsClient(new ResultsClientConfig(props.getResultsServiceProtocol(), props.getResultsServiceServer(), props.getResultsServicePort()));
+			statusClient.execSetPercentComplete(0);
+			
+			Runnable job = new Runnable() {
+				public void run() {
+					try {
+						System.out.println("Hive query for job " + jobId + ": " + query);
+						ResultsStorageHandler handler = new ResultsStorageHandler(resultsClient, jobId, RESULTS_BATCH_SIZE);
+						oc.query(query, handler);
+						handler.finish();
+						System.out.println("Stored num rows for job " + jobId + ": " + handler.getNumRows());
+						statusClient.execSetSuccess();
+					} catch (Exception e) {
+						e.printStackTrace();
+						try {
+							statusClient.execSetFailure(e.getMessage());
+						} catch (Exception e2) {
+							e2.printStackTrace();
+						}
+					}
+				}
+			};
+			try {
+				jobExecutor.execute(job);
+			} catch (RejectedExecutionException e) {
+				String message = "Too many Hive jobs are running or queued.  Try again later.";
+				statusClient.execSetFailure(message);
+				throw new Exception(message);
+			}
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+			retval.setSuccess(false);
+			retval.addRationaleMessage(e.getMessage());
+		}
+		
+		return retval.toJson();
 	}
 
 	/**
@@ -60,9 +179,15 @@ public class HiveServiceRestController {
 	@CrossOrigin
 	@RequestMapping(value="/count", method= RequestMethod.POST)
 	public JSONObject count(@RequestBody HiveServiceCountRequestBody requestBody){
-		String col = requestBody.column;
-		String query = "select " + col + ", count(" + col + ") as " + col + "_count from " + requestBody.table + " group by " + col;
-		return runQuery (requestBody, query);
+		try {
+			String col = PreparedQuery.validateIdentifier(requestBody.column);
+			PreparedQuery query = new PreparedQuery("select " + col + ", count(" + col + ") as " + alias(col) + "_count from ")
+					.appendIdentifier(requestBody.table)
+					.append(" group by " + col);
+			return runQuery (requestBody, query, true);
+		} catch (Exception e) {
+			return failureResult(e.getMessage());
+		}
 	}
 
 	/**
@@ -71,8 +196,13 @@ public class HiveServiceRestController {
 	@CrossOrigin
 	@RequestMapping(value="/countRows", method= RequestMethod.POST)
 	public JSONObject countRows(@RequestBody HiveServiceCountRowsRequestBody requestBody){
-		String query = "select count(*) as " + requestBody.table + "_count from " + requestBody.table;
-		return runQuery (requestBody, query);
+		try {
+			String table = PreparedQuery.validateIdentifier(requestBody.table);
+			PreparedQuery query = new PreparedQuery("select count(*) as " + alias(table) + "_count from " + table);
+			return runQuery (requestBody, query, true);
+		} catch (Exception e) {
+			return failureResult(e.getMessage());
+		}
 	}
 
 	/**
@@ -81,8 +211,15 @@ public class HiveServiceRestController {
 	@CrossOrigin
 	@RequestMapping(value="/randomSampling", method= RequestMethod.POST)
 	public JSONObject randomSampling(@RequestBody HiveServiceRandomSamplingRequestBody requestBody){
-		String query = "select * from " + requestBody.table + " distribute by rand() sort by rand() limit " + requestBody.numRows;
-		return runQuery (requestBody, query);
+		try {
+			PreparedQuery query = new PreparedQuery("select * from ")
+					.appendIdentifier(requestBody.table)
+					.append(" distribute by rand() sort by rand() limit ")
+					.appendParameter(requestBody.numRows);
+			return runQuery (requestBody, query, false);
+		} catch (Exception e) {
+			return failureResult(e.getMessage());
+		}
 	}
 
 	/**
@@ -101,57 +238,73 @@ public class HiveServiceRestController {
 					break;
 			case "max":	sortOrder = "desc";
 					break;
-			default:	TableResultSet tableResultSet = new TableResultSet();
-					tableResultSet.setSuccess(false);
-					tableResultSet.addRationaleMessage("Unknown operation: " + requestBody.operation + ".\n  Valid options are: min or max.");
-					return tableResultSet.toJson();
+			default:	return failureResult("Unknown operation: " + requestBody.operation + ".\n  Valid options are: min or max.");
 		}
 
-		String query = "select * from (SELECT *, rank() over (order by cast(" + requestBody.column + " as DOUBLE) " + sortOrder + ") as rank FROM " + requestBody.table + ") S where S.rank = 1";
-
-		return runQuery (requestBody, query);
+		try {
+			PreparedQuery query = new PreparedQuery("select * from (SELECT *, rank() over (order by cast(")
+					.appendIdentifier(requestBody.column)
+					.append(" as DOUBLE) " + sortOrder + ") as rank FROM ")
+					.appendIdentifier(requestBody.table)
+					.append(") S where S.rank = 1");
+			return runQuery (requestBody, query, true);
+		} catch (Exception e) {
+			return failureResult(e.getMessage());
+		}
 	}
 
 	/**
-	 * Execute row filter query on one or more columns in Hive
+	 * Execute row filter query on one or more columns in Hive.
+	 * Values are bound as parameters, and may be given with or without surrounding single quotes.
 	 */
 	@CrossOrigin
 	@RequestMapping(value="/rowFilter", method= RequestMethod.POST)
 	public JSONObject rowFilter(@RequestBody HiveServiceRowFilterRequestBody requestBody){
 
-		String whereClause = "";
-		for (ColumnFilter co : requestBody.columnFilters) {
-			String operation = null;
-			String op = co.operation;
-			if (op == null)
-				op = "";
-			op = op.toLowerCase ();
-			switch (op) {
-				case "gt":	operation = ">";
-						break;
-				case "lt":	operation = "<";
-						break;
-				case "gte":	operation = ">=";
-						break;
-				case "lte":	operation = "<=";
-						break;
-				case "eq": operation = "=";
-						break;
-				default:	TableResultSet tableResultSet = new TableResultSet();
-						tableResultSet.setSuccess(false);
-						tableResultSet.addRationaleMessage("Unknown operation: " + co.operation + ".\n  Valid options are: min, max, avg, sum, variance, and stddev.");
-						return tableResultSet.toJson();
+		try {
+			PreparedQuery query = new PreparedQuery("select S.* from ")
+					.appendIdentifier(requestBody.table)
+					.append(" S  where ");
+			boolean first = true;
+			for (ColumnFilter co : requestBody.columnFilters) {
+				String operation = null;
+				String op = co.operation;
+				if (op == null)
+					op = "";
+				op = op.toLowerCase ();
+				switch (op) {
+					case "gt":	operation = ">";
+							break;
+					case "lt":	operation = "<";
+							break;
+					case "gte":	operation = ">=";
+							break;
+					case "lte":	operation = "<=";
+							break;
+					case "eq": operation = "=";
+							break;
+					default:	return failureResult("Unknown operation: " + co.operation + ".\n  Valid options are: gt, lt, gte, lte, and eq.");
+				}
+				if (!first)
+					query.append(" and ");
+				first = false;
+				
+				String value = co.value;
+				if (value != null && value.length() >= 2 && value.startsWith("'") && value.endsWith("'"))
+					value = value.substring(1, value.length() - 1);
+				
+				if (co.type == null || co.type.equalsIgnoreCase("string")) {
+					query.appendIdentifier(co.column).append(" " + operation + " ").appendParameter(value);
+				} else {
+					String type = PreparedQuery.validateType(co.type);
+					query.append("cast(").appendIdentifier(co.column).append(" as " + type + ") " + operation + " cast(")
+						.appendParameter(value).append(" as " + type + ")");
+				}
 			}
-			if (!whereClause.equals (""))
-				whereClause += " and ";
-			String col = co.column;
-			if (!co.type.toLowerCase().equalsIgnoreCase("string"))
-				col = "cast(" + col + " as " + co.type + ")";
-			whereClause += col + " " + operation + " " + co.value;
+			return runQuery (requestBody, query, false);
+		} catch (Exception e) {
+			return failureResult(e.getMessage());
 		}
-
-		String query = "select S.* from " + requestBody.table + " S  where " + whereClause;
-		return runQuery (requestBody, query);
 	}
 
 	/**
@@ -160,39 +313,23 @@ public class HiveServiceRestController {
 	@CrossOrigin
 	@RequestMapping(value="/stat", method= RequestMethod.POST)
 	public JSONObject stat(@RequestBody HiveServiceStatRequestBody requestBody){
-
-		String query = "";
-		for (ColumnOperation co : requestBody.columnOperations) {
-			String operation = null;
-			String op = co.operation;
-			if (op == null)
-				op = "";
-			op = op.toLowerCase ();
-			switch (op) {
-				case "min":	operation = "min";
-						break;
-				case "max":	operation = "max";
-						break;
-				case "avg":	operation = "avg";
-						break;
-				case "sum":	operation = "sum";
-						break;
-				case "variance": operation = "variance";
-						break;
-				case "stddev":	operation = "stddev_pop";
-						break;
-				default:	TableResultSet tableResultSet = new TableResultSet();
-						tableResultSet.setSuccess(false);
-						tableResultSet.addRationaleMessage("Unknown operation: " + co.operation + ".\n  Valid options are: min, max, avg, sum, variance, and stddev.");
-						return tableResultSet.toJson();
+		try {
+			PreparedQuery query = new PreparedQuery("select ");
+			boolean first = true;
+			HashSet<String> aliases = new HashSet<String>();
+			for (ColumnOperation co : requestBody.columnOperations) {
+				if (!aliases.add(String.valueOf(co.operation).toLowerCase() + "_" + alias(co.column)))
+					continue;
+				if (!first)
+					query.append(", ");
+				first = false;
+				appendStatExpression(query, co);
 			}
-			if (!query.equals (""))
-				query += ", ";
-			query += operation + "(cast(" + co.column + " as DOUBLE)) as " + co.operation + "_" + co.column;
+			query.append(" from ").appendIdentifier(requestBody.table);
+			return runQuery (requestBody, query, true);
+		} catch (Exception e) {
+			return failureResult(e.getMessage());
 		}
-
-		query = "select " + query + " from " + requestBody.table;
-		return runQuery (requestBody, query);
 	}
 
 	/**
@@ -201,15 +338,23 @@ public class HiveServiceRestController {
 	@CrossOrigin
 	@RequestMapping(value="/histogram", method= RequestMethod.POST)
 	public JSONObject histogram(@RequestBody HiveServiceHistogramRequestBody requestBody){
-		String query = "";
-		for (String column : requestBody.columns) {
-			if (!query.equals (""))
-				query += ", ";
-			query += "histogram_numeric(cast(" + column + " as DOUBLE), " + requestBody.numBuckets + ") as histogram_" + column;
+		try {
+			PreparedQuery query = new PreparedQuery("select ");
+			boolean first = true;
+			HashSet<String> aliases = new HashSet<String>();
+			for (String column : requestBody.columns) {
+				if (!aliases.add(alias(column)))
+					continue;
+				if (!first)
+					query.append(", ");
+				first = false;
+				appendHistogramExpression(query, column, requestBody.numBuckets);
+			}
+			query.append(" from ").appendIdentifier(requestBody.table);
+			return runQuery (requestBody, query, true);
+		} catch (Exception e) {
+			return failureResult(e.getMessage());
 		}
-
-		query = "select " + query + " from " + requestBody.table;
-		return runQuery (requestBody, query);
 	}
 
 	/**
@@ -218,49 +363,273 @@ public class HiveServiceRestController {
 	@CrossOrigin
 	@RequestMapping(value="/percentile", method= RequestMethod.POST)
 	public JSONObject percentile(@RequestBody HiveServicePercentileRequestBody requestBody){
-		String percentiles = "";
-		for (String percentile : requestBody.percentiles) {
-			if (!percentiles.equals (""))
-				percentiles += ", ";
-			if (percentile.startsWith("."))
-				percentiles += "0";
-			percentiles += percentile;
+		try {
+			PreparedQuery query = new PreparedQuery("select ");
+			boolean first = true;
+			HashSet<String> aliases = new HashSet<String>();
+			for (String column : requestBody.columns) {
+				if (!aliases.add(alias(column)))
+					continue;
+				if (!first)
+					query.append(", ");
+				first = false;
+				appendPercentileExpression(query, column, requestBody.percentiles);
+			}
+			query.append(" from ").appendIdentifier(requestBody.table);
+			return runQuery (requestBody, query, true);
+		} catch (Exception e) {
+			return failureResult(e.getMessage());
 		}
+	}
 
-		String query = "";
-		for (String column : requestBody.columns) {
-			if (!query.equals (""))
-				query += ", ";
-			query += "percentile_approx(cast(" + column + " as DOUBLE), array(" + percentiles + ")) as percentile_" + column;
+	/**
+	 * Execute stats, histograms and percentiles on one or more columns in a single Hive query,
+	 * so the table is scanned once.  Optionally over a sample of the table.
+	 * Returns one row with a column per statistic, named as by /stat, /histogram and /percentile.
+	 * A statistic requested more than once is returned once.
+	 */
+	@CrossOrigin
+	@RequestMapping(value="/analytics", method= RequestMethod.POST)
+	public JSONObject analytics(@RequestBody HiveServiceAnalyticsRequestBody requestBody){
+		try {
+			PreparedQuery query = new PreparedQuery("select ");
+			boolean first = true;
+			HashSet<String> aliases = new HashSet<String>();	// a repeated alias would fail the query
+			if (requestBody.columnOperations != null) {
+				for (ColumnOperation co : requestBody.columnOperations) {
+					if (!aliases.add(String.valueOf(co.operation).toLowerCase() + "_" + alias(co.column)))
+						continue;
+					if (!first)
+						query.append(", ");
+					first = false;
+					appendStatExpression(query, co);
+				}
+			}
+			if (requestBody.histograms != null) {
+				for (HistogramSpec h : requestBody.histograms) {
+					if (!aliases.add("histogram_" + alias(h.column)))
+						continue;
+					if (!first)
+						query.append(", ");
+					first = false;
+					appendHistogramExpression(query, h.column, h.numBuckets);
+				}
+			}
+			if (requestBody.percentiles != null) {
+				for (PercentileSpec p : requestBody.percentiles) {
+					if (!aliases.add("percentile_" + alias(p.column)))
+						continue;
+					if (!first)
+						query.append(", ");
+					first = false;
+					appendPercentileExpression(query, p.column, p.percentiles);
+				}
+			}
+			if (first) {
+				return failureResult("No columnOperations, histograms or percentiles were requested");
+			}
+
+			query.append(" from ").appendIdentifier(requestBody.table);
+			if (requestBody.samplePercent != null && !requestBody.samplePercent.trim().isEmpty()) {
+				double pct;
+				try {
+					pct = Double.parseDouble(requestBody.samplePercent.trim());
+				} catch (Exception e) {
+					pct = -1;
+				}
+				if (pct <= 0 || pct > 100) {
+					return failureResult("samplePercent must be a number greater than 0 and at most 100: " + requestBody.samplePercent);
+				}
+				query.append(" TABLESAMPLE(" + pct + " PERCENT)");
+			}
+			return runQuery (requestBody, query, true);
+		} catch (Exception e) {
+			return failureResult(e.getMessage());
 		}
+	}
 
-		query = "select " + query + " from " + requestBody.table;
-		return runQuery (requestBody, query);
+	/**
+	 * Append the select expression for one stat, e.g. min(cast(col as DOUBLE)) as min_col
+	 * @throws Exception if the operation is unknown or the column is not a valid identifier
+	 */
+	private static void appendStatExpression(PreparedQuery query, ColumnOperation co) throws Exception {
+		String operation = null;
+		String op = co.operation;
+		if (op == null)
+			op = "";
+		op = op.toLowerCase ();
+		switch (op) {
+			case "min":	operation = "min";
+					break;
+			case "max":	operation = "max";
+					break;
+			case "avg":	operation = "avg";
+					break;
+			case "sum":	operation = "sum";
+					break;
+			case "variance": operation = "variance";
+					break;
+			case "stddev":	operation = "stddev_pop";
+					break;
+			default:	throw new Exception("Unknown operation: " + co.operation + ".\n  Valid options are: min, max, avg, sum, variance, and stddev.");
+		}
+		String col = PreparedQuery.validateIdentifier(co.column);
+		query.append(operation + "(cast(" + col + " as DOUBLE)) as " + op + "_" + alias(col));
+	}
+
+	/**
+	 * Append the select expression for a histogram of a column
+	 */
+	private static void appendHistogramExpression(PreparedQuery query, String column, String numBuckets) throws Exception {
+		String col = PreparedQuery.validateIdentifier(column);
+		query.append("histogram_numeric(cast(" + col + " as DOUBLE), ")
+			.appendParameter(parseInt("numBuckets", numBuckets))
+			.append(") as histogram_" + alias(col));
 	}
 
 	/**
-	 * Execute query in Hive
+	 * Append the select expression for percentiles of a column
+	 */
+	private static void appendPercentileExpression(PreparedQuery query, String column, List<String> percentileList) throws Exception {
+		String col = PreparedQuery.validateIdentifier(column);
+		query.append("percentile_approx(cast(" + col + " as DOUBLE), array(");
+		for (int i = 0; i < percentileList.size(); i++) {
+			if (i > 0)
+				query.append(", ");
+			try {
+				query.appendParameter(Double.valueOf(percentileList.get(i)));
+			} catch (NumberFormatException e) {
+				throw new Exception("Invalid percentile: " + percentileList.get(i));
+			}
+		}
+		query.append(")) as percentile_" + alias(col));
+	}
+
+	/**
+	 * Column alias part for an identifier, e.g. db.table becomes db_table, since an alias can't contain "."
+	 */
+	private static String alias(String identifier) {
+		return (identifier == null) ? null : identifier.replace('.', '_');
+	}
+
+	private static Integer parseInt(String name, String value) throws Exception {
+		try {
+			return Integer.valueOf(value.trim());
+		} catch (Exception e) {
+			throw new Exception("Invalid " + name + ": " + value);
+		}
+	}
+
+	private static JSONObject failureResult(String message) {
+		TableResultSet tableResultSet = new TableResultSet();
+		tableResultSet.setSuccess(false);
+		tableResultSet.addRationaleMessage(message);
+		return tableResultSet.toJson();
+	}
+
+	/**
+	 * Get the hit/miss counts of the cache used by the statistics endpoints
+	 */
+	@CrossOrigin
+	@RequestMapping(value="/cacheStats", method= RequestMethod.POST)
+	public JSONObject cacheStats(){
+		SimpleResultSet retval = new SimpleResultSet(true);
+		retval.addResult("hits", statsCache.getHits());
+		retval.addResult("misses", statsCache.getMisses());
+		retval.addResult("joins", statsCache.getJoins());
+		retval.addResult("size", statsCache.size());
+		return retval.toJson();
+	}
+
+	/**
+	 * Empty the cache used by the statistics endpoints, e.g. after tables are reloaded
+	 */
+	@CrossOrigin
+	@RequestMapping(value="/clearCache", method= RequestMethod.POST)
+	public JSONObject clearCache(){
+		statsCache.clear();
+		return new SimpleResultSet(true).toJson();
+	}
+
+	/**
+	 * Set the cache used by the statistics endpoints
+	 */
+	public static void setStatsCache(QueryTableCache cache) {
+		statsCache = cache;
+	}
+
+	/**
+	 * Set the executor for queryHiveToResults jobs.  Jobs already queued on the old one still run.
+	 */
+	public static void setJobExecutor(ExecutorService executor) {
+		ExecutorService old = jobExecutor;
+		jobExecutor = executor;
+		old.shutdown();
+	}
+
+	/**
+	 * Executor running up to numThreads jobs at once, with up to queueSize more waiting
+	 */
+	public static ExecutorService newJobExecutor(int numThreads, int queueSize) {
+		return new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "hive-results-job");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Execute arbitrary SQL in Hive as written, without parameters
 	 */
 	private JSONObject runQuery (HiveServiceRequestBody requestBody, String query) {
 		
-		// prepend statement to set execution engine (should be mr/tez/spark - Hive itself will give a nice error if not)
-		String setStmtExecutionEngine = "";  
-		if(props.getExecutionEngine() != null && !props.getExecutionEngine().trim().isEmpty()){ // if property missing or blank, then don't include this clause
-			setStmtExecutionEngine = "set hive.execution.engine=" + props.getExecutionEngine().trim() + ";";
-		}
-		query = setStmt + " " + setStmtExecutionEngine + " " + query;
+		String fullQuery = addSetStatements(query);
 		
 		TableResultSet tableResultSet = new TableResultSet();
 
-		// get credentials from property file
-		String username = props.getUsername();
-		String password = props.getPassword();
+		try {
+			HiveConnector oc = getConnector(requestBody);
+			System.out.println("Hive query: " + fullQuery);
+			Table table = oc.query(fullQuery);
+			System.out.println("Returning num rows: " + (table != null ? String.valueOf(table.getNumRows()) : "<null>"));
+			tableResultSet.addResults(table);
+			tableResultSet.setSuccess(true);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			tableResultSet.setSuccess(false);
+			tableResultSet.addRationaleMessage(e.getMessage());
+		}
+
+		return tableResultSet.toJson();
+	}
+
+	/**
+	 * Execute query with bound parameters in Hive
+	 * @param useCache - if true, reuse a recent or in-flight result of the same query on the same database
+	 */
+	private JSONObject runQuery (HiveServiceRequestBody requestBody, PreparedQuery query, boolean useCache) {
+		
+		final PreparedQuery fullQuery = new PreparedQuery(addSetStatements(query.getSql()), query.getParameters());
+		
+		TableResultSet tableResultSet = new TableResultSet();
 
 		try {
-			System.out.println("Connecting to: " + HiveConnector.getDatabaseURL(requestBody.host, Integer.valueOf(requestBody.port), requestBody.database));
-			HiveConnector oc = new HiveConnector(requestBody.host, Integer.valueOf(requestBody.port), requestBody.database, username, password);
-			System.out.println("Hive query: " + query);
-			Table table = oc.query(query);
+			final HiveConnector oc = getConnector(requestBody);
+			System.out.println("Hive query: " + fullQuery);
+			Table table;
+			if (useCache) {
+				String key = QueryTableCache.buildKey(HiveConnector.getDatabaseURL(requestBody.host, Integer.valueOf(requestBody.port), requestBody.database), fullQuery.toString());
+				table = statsCache.get(key, new Callable<Table>() {
+					public Table call() throws Exception {
+						return oc.query(fullQuery);
+					}
+				});
+			} else {
+				table = oc.query(fullQuery);
+			}
 			System.out.println("Returning num rows: " + (table != null ? String.valueOf(table.getNumRows()) : "<null>"));
 			tableResultSet.addResults(table);
 			tableResultSet.setSuccess(true);
@@ -273,5 +642,31 @@ public class HiveServiceRestController {
 
 		return tableResultSet.toJson();
 	}
+	
+	/**
+	 * Prepend statements to set staging dir and execution engine
+	 */
+	private String addSetStatements(String query) {
+		
+		// prepend statement to set execution engine (should be mr/tez/spark - Hive itself will give a nice error if not)
+		String setStmtExecutionEngine = "";  
+		if(props.getExecutionEngine() != null && !props.getExecutionEngine().trim().isEmpty()){ // if property missing or blank, then don't include this clause
+			setStmtExecutionEngine = "set hive.execution.engine=" + props.getExecutionEngine().trim() + ";";
+		}
+		return setStmt + " " + setStmtExecutionEngine + " " + query;
+	}
+	
+	/**
+	 * Connect to the database in the request, with credentials from the property file
+	 */
+	private HiveConnector getConnector(HiveServiceRequestBody requestBody) throws Exception {
+		String username = props.getUsername();
+		String password = props.getPassword();
+
+		System.out.println("Connecting to: " + HiveConnector.getDatabaseURL(requestBody.host, Integer.valueOf(requestBody.port), requestBody.database));
+		HiveConnector oc = new HiveConnector(requestBody.host, Integer.valueOf(requestBody.port), requestBody.database, username, password);
+		oc.setFetchSize(props.getFetchSize());
+		return oc;
+	}
 
 }
@@ -4,6 +4,8 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
 
+import com.ge.research.semtk.query.rdb.QueryTableCache;
+
 @Component
 public class HiveServiceStartup implements ApplicationListener<ApplicationReadyEvent> {
 
@@ -16,8 +18,24 @@ public class HiveServiceStartup implements ApplicationListener<ApplicationReadyE
 	  System.out.println("----- PROPERTIES: -----");
 	  System.out.println("hive.username: " + event.getApplicationContext().getEnvironment().getProperty("hive.username"));
 	  System.out.println("hive.executionEngine: " + event.getApplicationContext().getEnvironment().getProperty("hive.executionEngine"));
+	  System.out.println("hive.fetchSize: " + event.getApplicationContext().getEnvironment().getProperty("hive.fetchSize"));
+	  System.out.println("hive.cacheMaxEntries: " + event.getApplicationContext().getEnvironment().getProperty("hive.cacheMaxEntries"));
+	  System.out.println("hive.cacheTtlSec: " + event.getApplicationContext().getEnvironment().getProperty("hive.cacheTtlSec"));
+	  System.out.println("hive.jobThreads: " + event.getApplicationContext().getEnvironment().getProperty("hive.jobThreads"));
+	  System.out.println("hive.jobQueueSize: " + event.getApplicationContext().getEnvironment().getProperty("hive.jobQueueSize"));
+	  System.out.println("hive.resultsServiceServer: " + event.getApplicationContext().getEnvironment().getProperty("hive.resultsServiceServer"));
+	  System.out.println("hive.resultsServicePort: " + event.getApplicationContext().getEnvironment().getProperty("hive.resultsServicePort"));
+	  System.out.println("hive.statusServiceServer: " + event.getApplicationContext().getEnvironment().getProperty("hive.statusServiceServer"));
+	  System.out.println("hive.statusServicePort: " + event.getApplicationContext().getEnvironment().getProperty("hive.statusServicePort"));
 	  System.out.println("-----------------------");
 	  
+	  // set up the cache for statistics queries
+	  HiveProperties props = event.getApplicationContext().getBean(HiveProperties.class);
+	  HiveServiceRestController.setStatsCache(new QueryTableCache(props.getCacheMaxEntries(), props.getCacheTtlSec() * 1000L));
+	  
+	  // run queries stored as jobs on a bounded pool
+	  HiveServiceRestController.setJobExecutor(HiveServiceRestController.newJobExecutor(props.getJobThreads(), props.getJobQueueSize()));
+	  
 	  return;
   }
  
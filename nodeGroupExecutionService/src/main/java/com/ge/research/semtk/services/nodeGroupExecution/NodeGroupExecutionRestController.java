@@ -25,6 +25,8 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -49,6 +51,7 @@ import com.ge.research.semtk.edc.client.ResultsClient;
 import com.ge.research.semtk.edc.client.ResultsClientConfig;
 import com.ge.research.semtk.edc.client.StatusClient;
 import com.ge.research.semtk.edc.client.StatusClientConfig;
+import com.ge.research.semtk.edc.client.TableResultsIterator;
 import com.ge.research.semtk.load.client.IngestorClientConfig;
 import com.ge.research.semtk.load.client.IngestorRestClient;
 import com.ge.research.semtk.nodeGroupStore.client.NodeGroupStoreConfig;
@@ -172,19 +175,39 @@ public class NodeGroupExecutionRestController {
 		return retval.toJson();
 	}
 	
+	/**
+	 * Get a job's results as a table.
+	 * With "stream", rows are written to the response a page at a time as they are fetched
+	 * from the results service, so results larger than memory can be returned.
+	 * The response has the same format either way.
+	 */
 	@CrossOrigin
 	@RequestMapping(value="/getResultsTable", method=RequestMethod.POST)
-	public JSONObject getResultsTable(@RequestBody StatusRequestBody requestBody ){
+	public JSONObject getResultsTable(@RequestBody ResultsTableRequestBody requestBody, HttpServletResponse resp){
 		TableResultSet retval = new TableResultSet();
 		
 		try{
 			NodeGroupExecutor nge = this.getExecutor(prop, requestBody.getJobID());
+			if(requestBody.getStream()){
+				TableResultsIterator results = nge.openResults();
+				try{
+					resp.setContentType("application/json");
+					results.writeTableResultSetJson(resp.getWriter());
+				}
+				finally{
+					results.close();
+				}
+				return null;	// response is already written
+			}
 			Table retTable = nge.getTableResults();
 			retval.setSuccess(true);
 			retval.addResults(retTable);
 		}
 		catch(Exception e){
 			e.printStackTrace();
+			if(resp.isCommitted()){
+				return null;	// failed part way through streaming: the response is truncated
+			}
 			retval = new TableResultSet();
 			retval.setSuccess(false);
 			retval.addRationaleMessage(e.getMessage());
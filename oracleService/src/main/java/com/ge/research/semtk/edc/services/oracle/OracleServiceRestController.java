@@ -18,6 +18,8 @@
 
 package com.ge.research.semtk.edc.services.oracle;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -26,6 +28,7 @@ import org.springframework.web.bind.annotation.RestController;
 import org.json.simple.JSONObject;
 
 import com.ge.research.semtk.query.rdb.OracleConnector;
+import com.ge.research.semtk.query.rdb.ResultStreamWriter;
 import com.ge.research.semtk.resultSet.Table;
 import com.ge.research.semtk.resultSet.TableResultSet;
 
@@ -63,4 +66,44 @@ public class OracleServiceRestController {
 		return tableResultSet.toJson();
 	}			
 	
+	/**
+	 * Execute query on Oracle, writing rows to the response as they are fetched
+	 * instead of building the whole table.  Format is "jsonl" (default) or "csv".
+	 */
+	@CrossOrigin
+	@RequestMapping(value="/queryOracleStream", method= RequestMethod.POST)
+	public void queryOracleStream(@RequestBody OracleServiceStreamRequestBody requestBody, HttpServletResponse resp){
+		
+		ResultStreamWriter writer = null;
+		try {
+			resp.setContentType(ResultStreamWriter.getContentType(requestBody.format));
+			System.out.println("Connect to " + OracleConnector.getDatabaseURL(requestBody.host, Integer.valueOf(requestBody.port), requestBody.database));
+			OracleConnector oc = new OracleConnector(requestBody.host, Integer.valueOf(requestBody.port), requestBody.database, requestBody.username, requestBody.password);
+			oc.setFetchSize(requestBody.fetchSize);
+			
+			writer = new ResultStreamWriter(resp.getWriter(), requestBody.format);
+			oc.query(requestBody.query, writer);
+			writer.finish();
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+			try {
+				if (!resp.isCommitted()) {
+					// nothing sent yet: send a failed result set
+					resp.reset();
+					resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+					resp.setContentType("application/json");
+					TableResultSet tableResultSet = new TableResultSet();
+					tableResultSet.setSuccess(false);
+					tableResultSet.addRationaleMessage(e.getMessage());
+					resp.getWriter().write(tableResultSet.toJson().toJSONString());
+				} else if (writer != null) {
+					writer.writeError(e.getMessage());
+				}
+			} catch (Exception e2) {
+				e2.printStackTrace();
+			}
+		}
+	}
+	
 }
@@ -57,6 +57,11 @@ public class DispatchProperties {
 	
 	private String dispatcherClassName;
 	
+	private int pageSize = 0;		// rows per page for paged selects. 0 runs each query whole.
+	
+	private int resultsCacheSize = 0;		// most select queries whose results are reused. 0 turns the cache off.
+	private int resultsCacheTtlSec = 600;	// seconds a cached result is reused.
+	
 	public String getSparqlServiceServer() {
 		return sparqlServiceServer;
 	}
@@ -199,4 +204,24 @@ public class DispatchProperties {
 		this.sparqlServiceAuthEndpoint = sparqlServiceAuthEndpoint;
 	}
 	
+	public int getPageSize() {
+		return pageSize;
+	}
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+	
+	public int getResultsCacheSize() {
+		return resultsCacheSize;
+	}
+	public void setResultsCacheSize(int resultsCacheSize) {
+		this.resultsCacheSize = resultsCacheSize;
+	}
+	
+	public int getResultsCacheTtlSec() {
+		return resultsCacheTtlSec;
+	}
+	public void setResultsCacheTtlSec(int resultsCacheTtlSec) {
+		this.resultsCacheTtlSec = resultsCacheTtlSec;
+	}
 }
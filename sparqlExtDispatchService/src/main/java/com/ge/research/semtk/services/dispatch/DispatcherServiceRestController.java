@@ -53,6 +53,7 @@ import com.ge.research.semtk.sparqlX.client.SparqlQueryClientConfig;
 import com.ge.research.semtk.sparqlX.asynchronousQuery.AsynchronousNodeGroupBasedQueryDispatcher;
 import com.ge.research.semtk.sparqlX.asynchronousQuery.AsynchronousNodeGroupDispatcher;
 import com.ge.research.semtk.sparqlX.asynchronousQuery.DispatcherSupportedQueryTypes;
+import com.ge.research.semtk.sparqlX.asynchronousQuery.QueryResultsCache;
 
 @RestController
 @RequestMapping("/dispatcher")
@@ -170,6 +171,7 @@ public class DispatcherServiceRestController {
 		// get the things we need for the dispatcher
 		try {
 			dsp = getDispatcher(props, requestId, (NodegroupRequestBody) requestBody, useAuth);
+			dsp.setPrebuiltSparql(requestBody.getPrebuiltSparql());
 			
 			WorkThread doIt = new WorkThread(dsp, requestBody.getConstraintSetJson(), qt);
 			
@@ -241,6 +243,32 @@ public class DispatcherServiceRestController {
 		return retval.toJson();
 	}
 	
+	/**
+	 * Forget cached select results for a dataset, e.g. after another service writes to it.
+	 * Succeeds whether or not the cache is turned on.
+	 */
+	@CrossOrigin
+	@RequestMapping(value="/invalidateResultsCache", method=RequestMethod.POST)
+	public JSONObject invalidateResultsCache(@RequestBody ResultsCacheRequestBody requestBody){
+		SimpleResultSet retval = new SimpleResultSet(true);
+		
+		QueryResultsCache cache = AsynchronousNodeGroupBasedQueryDispatcher.getResultsCache();
+		int removed = 0;
+		if(cache != null){
+			if(requestBody.getServerAndPort() == null){
+				removed = cache.size();
+				cache.clear();
+			}
+			else{
+				removed = cache.invalidateDataset(requestBody.getServerAndPort(), requestBody.getDataset());
+			}
+		}
+		System.err.println("invalidated " + removed + " cached results for " + requestBody.getServerAndPort() + " " + requestBody.getDataset());
+		
+		retval.addResult("entriesRemoved", removed);
+		return retval.toJson();
+	}
+	
 	private String getRequestId(){
 		return "req_" + UUID.randomUUID();
 	}
@@ -340,6 +368,7 @@ public class DispatcherServiceRestController {
 				}
 			}
 			dsp = (AsynchronousNodeGroupBasedQueryDispatcher) ctor.newInstance(requestId, sgJson, rClient, sClient, queryClient);
+			dsp.setPageSize(props.getPageSize());
 			
 		}
 		catch(Exception failedToFindClass){
@@ -21,6 +21,9 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
 
+import com.ge.research.semtk.sparqlX.asynchronousQuery.AsynchronousNodeGroupBasedQueryDispatcher;
+import com.ge.research.semtk.sparqlX.asynchronousQuery.QueryResultsCache;
+
 @Component
 public class DispatcherServiceStartup implements ApplicationListener<ApplicationReadyEvent> {
 
@@ -46,8 +49,19 @@ public class DispatcherServiceStartup implements ApplicationListener<Application
 	  System.out.println("dispatch.statusServiceServer: " + event.getApplicationContext().getEnvironment().getProperty("dispatch.statusServiceServer"));
 	  System.out.println("dispatch.statusServicePort: " + event.getApplicationContext().getEnvironment().getProperty("dispatch.statusServicePort"));
 	  
+	  System.out.println("dispatch.resultsCacheSize: " + event.getApplicationContext().getEnvironment().getProperty("dispatch.resultsCacheSize"));
+	  System.out.println("dispatch.resultsCacheTtlSec: " + event.getApplicationContext().getEnvironment().getProperty("dispatch.resultsCacheTtlSec"));
+	  
 	  System.out.println("-----------------------");
 	  
+	  // set up the shared results cache
+	  DispatchProperties props = event.getApplicationContext().getBean(DispatchProperties.class);
+	  if (props.getResultsCacheSize() > 0) {
+		  AsynchronousNodeGroupBasedQueryDispatcher.setResultsCache(new QueryResultsCache(props.getResultsCacheSize(), props.getResultsCacheTtlSec() * 1000L));
+	  } else {
+		  AsynchronousNodeGroupBasedQueryDispatcher.setResultsCache(null);
+	  }
+	  
 	  return;
   }
  
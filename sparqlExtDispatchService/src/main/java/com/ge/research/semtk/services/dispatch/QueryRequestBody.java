@@ -28,6 +28,7 @@ public class QueryRequestBody extends NodegroupRequestBody {
 	// to bolt security to it . 
 	
 	private String constraintSet;
+	private String prebuiltSparql;	// optional: sparql the caller already generated from the nodegroup
 
 	public void setConstraintSet(String constraintSet){
 		this.constraintSet = constraintSet;
@@ -37,6 +38,14 @@ public class QueryRequestBody extends NodegroupRequestBody {
 		return this.constraintSet;
 	}
 	
+	public void setPrebuiltSparql(String prebuiltSparql){
+		this.prebuiltSparql = prebuiltSparql;
+	}
+	
+	public String getPrebuiltSparql(){
+		return this.prebuiltSparql;
+	}
+	
 	public JSONObject getConstraintSetJson(){
 		JSONParser prsr = new JSONParser();
 		JSONObject retval = null;
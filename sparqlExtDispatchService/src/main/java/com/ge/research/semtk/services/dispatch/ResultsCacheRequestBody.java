@@ -0,0 +1,37 @@
+/**
+ ** Copyright 2017 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.services.dispatch;
+
+public class ResultsCacheRequestBody {
+
+	private String serverAndPort;
+	private String dataset;		// null for every dataset on serverAndPort
+	
+	public String getServerAndPort() {
+		return serverAndPort;
+	}
+	public void setServerAndPort(String serverAndPort) {
+		this.serverAndPort = serverAndPort;
+	}
+	public String getDataset() {
+		return dataset;
+	}
+	public void setDataset(String dataset) {
+		this.dataset = dataset;
+	}
+}
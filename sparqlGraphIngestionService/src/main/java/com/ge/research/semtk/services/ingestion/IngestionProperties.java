@@ -31,6 +31,11 @@ public class IngestionProperties extends EasyLogEnabledConfigProperties{
 	private String sparqlPassword = "";
 	private int batchSize = 50;
 	
+	// dispatcher to notify after loads, so it drops cached results.  no server means none.
+	private String dispatchServiceProtocol = "http";
+	private String dispatchServiceServer = "";
+	private int dispatchServicePort = 0;
+	
 	// get, set, etc
 	public String getSparqlUserName(){
 		return this.sparqlUserName;
@@ -55,4 +60,28 @@ public class IngestionProperties extends EasyLogEnabledConfigProperties{
 	public int getBatchSize(){
 		return this.batchSize;
 	}
+	
+	public String getDispatchServiceProtocol(){
+		return this.dispatchServiceProtocol;
+	}
+	
+	public void setDispatchServiceProtocol(String dispatchServiceProtocol){
+		this.dispatchServiceProtocol = dispatchServiceProtocol;
+	}
+	
+	public String getDispatchServiceServer(){
+		return this.dispatchServiceServer;
+	}
+	
+	public void setDispatchServiceServer(String dispatchServiceServer){
+		this.dispatchServiceServer = dispatchServiceServer;
+	}
+	
+	public int getDispatchServicePort(){
+		return this.dispatchServicePort;
+	}
+	
+	public void setDispatchServicePort(int dispatchServicePort){
+		this.dispatchServicePort = dispatchServicePort;
+	}
 }
@@ -41,10 +41,14 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ge.research.semtk.services.ingestion.IngestionFromStringsRequestBody;
 import com.ge.research.semtk.services.ingestion.IngestionProperties;
 import com.ge.research.semtk.sparqlX.SparqlConnection;
+import com.ge.research.semtk.sparqlX.SparqlEndpointInterface;
+import com.ge.research.semtk.sparqlX.dispatch.client.DispatchClientConfig;
+import com.ge.research.semtk.sparqlX.dispatch.client.DispatchRestClient;
 import com.ge.research.semtk.load.DataLoader;
 import com.ge.research.semtk.load.dataset.CSVDataset;
 import com.ge.research.semtk.load.dataset.Dataset;
 import com.ge.research.semtk.load.dataset.ODBCDataset;
+import com.ge.research.semtk.load.dataset.PartitionedODBCDataset;
 import com.ge.research.semtk.load.utility.SparqlGraphJson;
 import com.ge.research.semtk.logging.DetailsTuple;
 import com.ge.research.semtk.logging.easyLogger.LoggerRestClient;
@@ -217,7 +221,11 @@ public class IngestionRestController {
 						
 			DataLoader dl = new DataLoader(sgJson, prop.getBatchSize(), ds, sparqlEndpointUser, sparqlEndpointPassword);
 			
-			recordsProcessed = dl.importData(safeLoad); 	// defaulting to preflight.
+			try{
+				recordsProcessed = dl.importData(safeLoad); 	// defaulting to preflight.
+			} finally {
+				this.invalidateDispatchCache(sgJson);
+			}
 	
 			String endTime = dateFormat.format(cal.getTime());
 			if(logger != null) { 
@@ -267,7 +275,7 @@ public class IngestionRestController {
 
 	@CrossOrigin
 	@RequestMapping(value="/fromOracleODBC", method= RequestMethod.POST)
-	public JSONObject fromOracleODBC(@RequestParam("template") MultipartFile templateFile, @RequestParam("dbHost") String dbHost, @RequestParam("dbPort") String dbPort, @RequestParam("dbDatabase") String dbDatabase, @RequestParam("dbUser") String dbUser, @RequestParam("dbPassword") String dbPassword, @RequestParam("dbQuery") String dbQuery){
+	public JSONObject fromOracleODBC(@RequestParam("template") MultipartFile templateFile, @RequestParam("dbHost") String dbHost, @RequestParam("dbPort") String dbPort, @RequestParam("dbDatabase") String dbDatabase, @RequestParam("dbUser") String dbUser, @RequestParam("dbPassword") String dbPassword, @RequestParam("dbQuery") String dbQuery, @RequestParam(value="partitionColumn", required=false) String partitionColumn, @RequestParam(value="parallelism", required=false, defaultValue="1") int parallelism){
 		
 		TableResultSet retval = new TableResultSet();
 		int recordsProcessed = 0;
@@ -290,11 +298,16 @@ public class IngestionRestController {
 			// get an ODBC data set to use in the load. 
 			String oracleDriver = OracleConnector.getDriver();
 			String dbUrl = OracleConnector.getDatabaseURL(dbHost, Integer.valueOf(dbPort), dbDatabase);
-			Dataset ds = new ODBCDataset(oracleDriver, dbUrl, dbUser, dbPassword, dbQuery);
+			Dataset ds = this.getODBCDataset(oracleDriver, dbUrl, dbUser, dbPassword, dbQuery, partitionColumn, parallelism);
 			
 			// perform actual load
-			DataLoader dl = new DataLoader(new SparqlGraphJson(json), prop.getBatchSize(), ds, sparqlEndpointUser, sparqlEndpointPassword);
-			recordsProcessed = dl.importData(true);	// defaulting to preflight.
+			SparqlGraphJson sgJson = new SparqlGraphJson(json);
+			DataLoader dl = new DataLoader(sgJson, prop.getBatchSize(), ds, sparqlEndpointUser, sparqlEndpointPassword);
+			try{
+				recordsProcessed = dl.importData(true);	// defaulting to preflight.
+			} finally {
+				this.invalidateDispatchCache(sgJson);
+			}
 	
 			retval.setSuccess(true);
 			retval.addResultsJSON(dl.getLoadingErrorReport().toJson());
@@ -312,7 +325,7 @@ public class IngestionRestController {
 	
 	
 	@RequestMapping(value="/fromPostgresODBC", method= RequestMethod.POST)
-	public JSONObject fromPostgresODBC(@RequestParam("template") MultipartFile templateFile, @RequestParam("dbHost") String dbHost, @RequestParam("dbPort") String dbPort, @RequestParam("dbDatabase") String dbDatabase, @RequestParam("dbUser") String dbUser, @RequestParam("dbPassword") String dbPassword, @RequestParam("dbQuery") String dbQuery){
+	public JSONObject fromPostgresODBC(@RequestParam("template") MultipartFile templateFile, @RequestParam("dbHost") String dbHost, @RequestParam("dbPort") String dbPort, @RequestParam("dbDatabase") String dbDatabase, @RequestParam("dbUser") String dbUser, @RequestParam("dbPassword") String dbPassword, @RequestParam("dbQuery") String dbQuery, @RequestParam(value="partitionColumn", required=false) String partitionColumn, @RequestParam(value="parallelism", required=false, defaultValue="1") int parallelism){
 		
 		TableResultSet retval = new TableResultSet();
 		int recordsProcessed = 0;
@@ -336,11 +349,16 @@ public class IngestionRestController {
 			// get an ODBC data set to use in the load. 
 			String postgresDriver = PostgresConnector.getDriver();
 			String dbUrl = PostgresConnector.getDatabaseURL(dbHost, Integer.valueOf(dbPort), dbDatabase);
-			Dataset ds = new ODBCDataset(postgresDriver, dbUrl, dbUser, dbPassword, dbQuery);
+			Dataset ds = this.getODBCDataset(postgresDriver, dbUrl, dbUser, dbPassword, dbQuery, partitionColumn, parallelism);
 			
 			// perform actual load
-			DataLoader dl = new DataLoader(new SparqlGraphJson(json), prop.getBatchSize(), ds, sparqlEndpointUser, sparqlEndpointPassword);
-			recordsProcessed = dl.importData(true);	// defaulting to preflight.
+			SparqlGraphJson sgJson = new SparqlGraphJson(json);
+			DataLoader dl = new DataLoader(sgJson, prop.getBatchSize(), ds, sparqlEndpointUser, sparqlEndpointPassword);
+			try{
+				recordsProcessed = dl.importData(true);	// defaulting to preflight.
+			} finally {
+				this.invalidateDispatchCache(sgJson);
+			}
 	
 			retval.setSuccess(true);
 			retval.addResultsJSON(dl.getLoadingErrorReport().toJson());
@@ -356,6 +374,35 @@ public class IngestionRestController {
 		return retval.toJson();
 	}	
 	
+	/**
+	 * Get a dataset reading the query, split into ranges of partitionColumn read in parallel if one is given.
+	 */
+	private Dataset getODBCDataset(String driver, String dbUrl, String dbUser, String dbPassword, String dbQuery, String partitionColumn, int parallelism) throws Exception{
+		if(partitionColumn != null && !partitionColumn.trim().isEmpty() && parallelism > 1){
+			return new PartitionedODBCDataset(driver, dbUrl, dbUser, dbPassword, dbQuery, partitionColumn, parallelism, ODBCDataset.DEFAULT_FETCH_SIZE);
+		} else {
+			return new ODBCDataset(driver, dbUrl, dbUser, dbPassword, dbQuery, ODBCDataset.DEFAULT_FETCH_SIZE, true);
+		}
+	}
+	
+	/**
+	 * Tell the dispatcher the load's dataset changed, so it stops reusing cached query results.
+	 * Does nothing if no dispatcher is configured.  Like logging, this never fails the load.
+	 */
+	private void invalidateDispatchCache(SparqlGraphJson sgJson){
+		if(prop.getDispatchServiceServer() == null || prop.getDispatchServiceServer().isEmpty()){
+			return;
+		}
+		try{
+			SparqlEndpointInterface sei = sgJson.getSparqlConn().getInsertInterface();
+			DispatchRestClient client = new DispatchRestClient(new DispatchClientConfig(prop.getDispatchServiceProtocol(), prop.getDispatchServiceServer(), prop.getDispatchServicePort()));
+			client.executeInvalidateResultsCache(sei.getServerAndPort(), sei.getDataset());
+		}
+		catch(Exception e){
+			System.err.println("unable to invalidate dispatcher results cache: " + e.getMessage());
+		}
+	}
+	
 	private LoggerRestClient loggerConfigInitialization(LoggerRestClient logger, LoggerClientConfig lcc){
 		// send a log of the load having occurred.
 		try{	// wrapped in a try block because logging never announces a failure.
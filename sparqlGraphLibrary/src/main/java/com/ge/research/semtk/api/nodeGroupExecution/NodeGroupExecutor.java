@@ -29,6 +29,7 @@ import com.ge.research.semtk.belmont.NodeGroup;
 import com.ge.research.semtk.belmont.runtimeConstraints.RuntimeConstrainedItems;
 import com.ge.research.semtk.edc.client.ResultsClient;
 import com.ge.research.semtk.edc.client.StatusClient;
+import com.ge.research.semtk.edc.client.TableResultsIterator;
 import com.ge.research.semtk.load.client.IngestorRestClient;
 import com.ge.research.semtk.load.utility.SparqlGraphJson;
 import com.ge.research.semtk.nodeGroupStore.client.NodeGroupStoreRestClient;
@@ -52,6 +53,9 @@ public class NodeGroupExecutor {
 	// internal data.
 	private String currentJobId = null;
 	
+	// compiled queries for stored nodegroups, shared by all executors
+	private static QueryTemplateCache templateCache = new QueryTemplateCache();
+	
 	// the Stored Query Executor will be the heart of the stored Query Executor Service.
 	// all of the most important actions will occur in this class
 	
@@ -195,6 +199,21 @@ public class NodeGroupExecutor {
 		
 	}
 	
+	/**
+	 * Iterate over the current job's results, fetched a page at a time,
+	 * for results too large to hold as one Table.  Close the iterator when done.
+	 */
+	public TableResultsIterator openResults() throws Exception{
+		if(this.currentJobId == null){
+			throw new Exception("StoredQueryExecutor::openResults -- the current job ID is null. unable to get info on nonexistent job.");
+		}
+		return this.openResults(this.currentJobId);
+	}
+	
+	public TableResultsIterator openResults(String jobId) throws Exception{
+		return this.rc.openTableResults(jobId);
+	}
+	
 	// Dispatch actions
 	public void dispatchRawSparql(SparqlConnection sc, String sparqlQuery) throws Exception {
 	
@@ -207,6 +226,14 @@ public class NodeGroupExecutor {
 	}
 	
 	public void dispatchJob(DispatcherSupportedQueryTypes qt, SparqlConnection sc, NodeGroup ng, JSONObject externalConstraints, JSONArray runtimeConstraints, String targetObjectSparqlID) throws Exception{
+		this.dispatchJob(qt, sc, ng, externalConstraints, runtimeConstraints, targetObjectSparqlID, null);
+	}
+	
+	/**
+	 * @param prebuiltSparql - sparql already generated for ng and qt, or null.  
+	 *                         The dispatcher runs it in place of generating its own, unless it pages the query.
+	 */
+	private void dispatchJob(DispatcherSupportedQueryTypes qt, SparqlConnection sc, NodeGroup ng, JSONObject externalConstraints, JSONArray runtimeConstraints, String targetObjectSparqlID, String prebuiltSparql) throws Exception{
 		// externalConstraints as used by executeQueryFromNodeGroup
 
 		// apply the runtimeConstraints
@@ -228,16 +255,16 @@ public class NodeGroupExecutor {
 		
 		// select the appropriate type and try to dispatch the job.
 		if(qt.equals(DispatcherSupportedQueryTypes.SELECT_DISTINCT)){
-			simpleRes = this.drc.executeSelectQueryFromNodeGroup(sendable, externalConstraints);
+			simpleRes = this.drc.executeSelectQueryFromNodeGroup(sendable, externalConstraints, prebuiltSparql);
 		}
 		else if(qt.equals(DispatcherSupportedQueryTypes.COUNT)){
-			simpleRes = this.drc.executeCountQueryFromNodeGroup(sendable, externalConstraints);			
+			simpleRes = this.drc.executeCountQueryFromNodeGroup(sendable, externalConstraints, prebuiltSparql);			
 		}
 		else if(qt.equals(DispatcherSupportedQueryTypes.FILTERCONSTRAINT)){
 			
 			sendable.put("targetObjectSparqlID", targetObjectSparqlID);
 			
-			simpleRes = this.drc.executeFilterQueryFromNodeGroup(sendable, targetObjectSparqlID, externalConstraints);			
+			simpleRes = this.drc.executeFilterQueryFromNodeGroup(sendable, targetObjectSparqlID, externalConstraints, prebuiltSparql);			
 		}
 		else if(qt.equals(DispatcherSupportedQueryTypes.DELETE)){
 			simpleRes = this.drc.executeDeleteQueryFromNodeGroup(sendable, externalConstraints);			
@@ -258,6 +285,8 @@ public class NodeGroupExecutor {
 		Table t = trs.getResults();
 		
 		if(t.getNumRows() < 1){ 
+			// deleted from the store: nothing compiled from it is valid any more
+			templateCache.invalidate(storedNodeGroupId);
 			throw new Exception("StoredQueryExecutor::dispatchJob -- the ID passed to look up a remote node group (" + storedNodeGroupId + ") did not return any results.");
 		}
 		if(t.getNumRows() > 1){
@@ -266,6 +295,19 @@ public class NodeGroupExecutor {
 		
 		String serializedNodeGroup = t.getRow(0).get( t.getColumnIndex("NodeGroup") );
 		
+		// external constraints are applied by the dispatcher, so only the plain case can use a compiled query
+		if(externalConstraints == null){
+			QueryTemplateCache.QueryTemplate template = templateCache.getTemplate(storedNodeGroupId, serializedNodeGroup, qt, sc, runtimeConstraints, targetObjectSparqlID);
+			if(template != null){
+				QueryTemplateCache.FilledQuery filled = template.fill(runtimeConstraints);
+				if(filled != null){
+					// runtime constraints are already applied to the filled nodegroup
+					this.dispatchJob(qt, sc, filled.getNodeGroup(), null, null, targetObjectSparqlID, filled.getSparql());
+					return;
+				}
+			}
+		}
+		
 		JSONParser jParse = new JSONParser();
 		JSONObject encodedNodeGroup = (JSONObject) jParse.parse(serializedNodeGroup);
 		NodeGroup ng = new NodeGroup();	
@@ -0,0 +1,338 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ **
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ **
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.api.nodeGroupExecution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import com.ge.research.semtk.belmont.AutoGeneratedQueryTypes;
+import com.ge.research.semtk.belmont.Node;
+import com.ge.research.semtk.belmont.NodeGroup;
+import com.ge.research.semtk.belmont.PropertyItem;
+import com.ge.research.semtk.belmont.Returnable;
+import com.ge.research.semtk.belmont.ValueConstraint;
+import com.ge.research.semtk.belmont.runtimeConstraints.RuntimeConstrainedItems;
+import com.ge.research.semtk.sparqlX.SparqlConnection;
+import com.ge.research.semtk.sparqlX.asynchronousQuery.DispatcherSupportedQueryTypes;
+
+/**
+ * Cache of compiled SPARQL for stored nodegroups.
+ *
+ * A template is the SPARQL generated for a stored nodegroup, query type and connection
+ * with a placeholder in place of each runtime constraint.  Running it again with new
+ * constraint values only needs the constraint strings and a substitution.
+ *
+ * Templates are versioned by the stored nodegroup json: a fetch that returns
+ * different json for an id drops every template for that id.
+ */
+public class QueryTemplateCache {
+
+	public static final int DEFAULT_MAX_TEMPLATES = 500;
+
+	private static final String PLACEHOLDER_PREFIX = "__SEMTK_RUNTIME_CONSTRAINT_";
+	private static final String PLACEHOLDER_SUFFIX = "__";
+
+	private HashMap<String, String> versions = new HashMap<String, String>();   // nodegroup id -> stored json the templates were built from
+	private HashMap<String, HashSet<String>> keysById = new HashMap<String, HashSet<String>>();
+	private LinkedHashMap<String, QueryTemplate> templates = null;
+
+	public QueryTemplateCache() {
+		this(DEFAULT_MAX_TEMPLATES);
+	}
+
+	public QueryTemplateCache(final int maxTemplates) {
+		// access-ordered so the least recently used template is dropped first
+		this.templates = new LinkedHashMap<String, QueryTemplate>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, QueryTemplate> eldest) {
+				if (this.size() > maxTemplates) {
+					QueryTemplateCache.this.forgetKey(eldest.getValue().getNodeGroupId(), eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Get the template for a stored nodegroup, compiling and caching it if needed.
+	 * @param nodeGroupId - id in the nodegroup store
+	 * @param serializedNodeGroup - json currently held by the store for nodeGroupId
+	 * @param qt - SELECT_DISTINCT, COUNT or FILTERCONSTRAINT
+	 * @param conn - connection the query will run against
+	 * @param runtimeConstraints - runtime constraints json, or null
+	 * @param targetObjectSparqlID - target for FILTERCONSTRAINT, otherwise ignored
+	 * @return template, or null if this request can't be templated
+	 * @throws Exception
+	 */
+	public QueryTemplate getTemplate(String nodeGroupId, String serializedNodeGroup, DispatcherSupportedQueryTypes qt, SparqlConnection conn, JSONArray runtimeConstraints, String targetObjectSparqlID) throws Exception {
+
+		if (!qt.equals(DispatcherSupportedQueryTypes.SELECT_DISTINCT) &&
+			!qt.equals(DispatcherSupportedQueryTypes.COUNT) &&
+			!qt.equals(DispatcherSupportedQueryTypes.FILTERCONSTRAINT)) {
+			return null;
+		}
+
+		ArrayList<String> constrainedIds = getConstrainedIds(runtimeConstraints);
+		if (constrainedIds == null) {
+			return null;
+		}
+
+		String connJson = conn.toJson().toJSONString();
+		String key = buildKey(nodeGroupId, qt, targetObjectSparqlID, constrainedIds, connJson);
+
+		synchronized (this) {
+			String version = this.versions.get(nodeGroupId);
+			if (version != null && !version.equals(serializedNodeGroup)) {
+				this.invalidate(nodeGroupId);
+			} else {
+				QueryTemplate cached = this.templates.get(key);
+				if (cached != null) {
+					return cached;
+				}
+			}
+		}
+
+		QueryTemplate template = compile(nodeGroupId, serializedNodeGroup, qt, new SparqlConnection(conn), constrainedIds, targetObjectSparqlID);
+		if (template == null) {
+			return null;
+		}
+
+		synchronized (this) {
+			String version = this.versions.get(nodeGroupId);
+			if (version != null && !version.equals(serializedNodeGroup)) {
+				// the store changed while compiling: whichever arrives last wins
+				this.invalidate(nodeGroupId);
+			}
+			this.versions.put(nodeGroupId, serializedNodeGroup);
+			if (!this.keysById.containsKey(nodeGroupId)) {
+				this.keysById.put(nodeGroupId, new HashSet<String>());
+			}
+			this.keysById.get(nodeGroupId).add(key);
+			this.templates.put(key, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Drop all templates for a nodegroup id, e.g. when it is stored again or deleted.
+	 * @param nodeGroupId
+	 */
+	public synchronized void invalidate(String nodeGroupId) {
+		HashSet<String> keys = this.keysById.remove(nodeGroupId);
+		if (keys != null) {
+			for (String key : keys) {
+				this.templates.remove(key);
+			}
+		}
+		this.versions.remove(nodeGroupId);
+	}
+
+	public synchronized void clear() {
+		this.templates.clear();
+		this.keysById.clear();
+		this.versions.clear();
+	}
+
+	public synchronized int size() {
+		return this.templates.size();
+	}
+
+	private void forgetKey(String nodeGroupId, String key) {
+		HashSet<String> keys = this.keysById.get(nodeGroupId);
+		if (keys != null) {
+			keys.remove(key);
+			if (keys.isEmpty()) {
+				this.keysById.remove(nodeGroupId);
+				this.versions.remove(nodeGroupId);
+			}
+		}
+	}
+
+	private static String buildKey(String nodeGroupId, DispatcherSupportedQueryTypes qt, String targetObjectSparqlID, ArrayList<String> constrainedIds, String connJson) {
+		StringBuilder key = new StringBuilder();
+		key.append(nodeGroupId).append("\n");
+		key.append(qt.name()).append("\n");
+		key.append(qt.equals(DispatcherSupportedQueryTypes.FILTERCONSTRAINT) ? targetObjectSparqlID : "").append("\n");
+		key.append(String.join(",", constrainedIds)).append("\n");
+		key.append(connJson);
+		return key.toString();
+	}
+
+	/**
+	 * Sorted, distinct SparqlIDs in the runtime constraints json.
+	 * Constrained items change the shape of the query, so each set gets its own template.
+	 * @return list or null if the json isn't understood
+	 */
+	private static ArrayList<String> getConstrainedIds(JSONArray runtimeConstraints) {
+		HashSet<String> ids = new HashSet<String>();
+		if (runtimeConstraints != null) {
+			for (Object o : runtimeConstraints) {
+				if (!(o instanceof JSONObject) || ((JSONObject) o).get("SparqlID") == null) {
+					return null;
+				}
+				ids.add(((JSONObject) o).get("SparqlID").toString());
+			}
+		}
+		ArrayList<String> ret = new ArrayList<String>(ids);
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private static QueryTemplate compile(String nodeGroupId, String serializedNodeGroup, DispatcherSupportedQueryTypes qt, SparqlConnection conn, ArrayList<String> constrainedIds, String targetObjectSparqlID) throws Exception {
+
+		JSONObject encodedNodeGroup = (JSONObject) (new JSONParser()).parse(serializedNodeGroup);
+		NodeGroup ng = new NodeGroup();
+		if (encodedNodeGroup.containsKey("sNodeGroup")) {
+			ng.addJsonEncodedNodeGroup((JSONObject) encodedNodeGroup.get("sNodeGroup"));
+		} else if (encodedNodeGroup.containsKey("sNodeList")) {
+			ng.addJsonEncodedNodeGroup(encodedNodeGroup);
+		} else {
+			return null;
+		}
+		ng.setSparqlConnection(conn);
+
+		// put a placeholder constraint on each item that will be constrained at runtime
+		ArrayList<Returnable> items = new ArrayList<Returnable>();
+		for (int i=0; i < constrainedIds.size(); i++) {
+			Returnable item = getReturnable(ng, constrainedIds.get(i));
+			if (item == null || !item.getIsRuntimeConstrained()) {
+				return null;
+			}
+			item.setValueConstraint(new ValueConstraint(getPlaceholder(i)));
+			items.add(item);
+		}
+
+		String sparql = null;
+		if (qt.equals(DispatcherSupportedQueryTypes.SELECT_DISTINCT)) {
+			sparql = ng.generateSparql(AutoGeneratedQueryTypes.QUERY_DISTINCT, false, null, null);
+		} else if (qt.equals(DispatcherSupportedQueryTypes.COUNT)) {
+			sparql = ng.generateSparql(AutoGeneratedQueryTypes.QUERY_COUNT, false, null, null);
+		} else {
+			Returnable target = getReturnable(ng, targetObjectSparqlID);
+			if (target == null) {
+				return null;
+			}
+			sparql = ng.generateSparql(AutoGeneratedQueryTypes.QUERY_CONSTRAINT, false, null, target);
+		}
+
+		return new QueryTemplate(nodeGroupId, ng, sparql, constrainedIds);
+	}
+
+	private static Returnable getReturnable(NodeGroup ng, String sparqlId) {
+		if (sparqlId == null) {
+			return null;
+		}
+		Returnable ret = ng.getNodeBySparqlID(sparqlId);
+		if (ret == null) {
+			ret = ng.getPropertyItemBySparqlID(sparqlId);
+		}
+		return ret;
+	}
+
+	private static String getPlaceholder(int i) {
+		return PLACEHOLDER_PREFIX + i + PLACEHOLDER_SUFFIX;
+	}
+
+	/**
+	 * Compiled SPARQL for one stored nodegroup / query type / connection / set of constrained items.
+	 * Immutable once built, so it may be filled by many threads at once.
+	 */
+	public static class QueryTemplate {
+		private String nodeGroupId;
+		private NodeGroup nodegroup;          // carries the placeholder constraints. only ever read.
+		private String sparql;
+		private ArrayList<String> constrainedIds;
+
+		private QueryTemplate(String nodeGroupId, NodeGroup nodegroup, String sparql, ArrayList<String> constrainedIds) {
+			this.nodeGroupId = nodeGroupId;
+			this.nodegroup = nodegroup;
+			this.sparql = sparql;
+			this.constrainedIds = constrainedIds;
+		}
+
+		public String getNodeGroupId() {
+			return this.nodeGroupId;
+		}
+
+		/**
+		 * Build the query for a set of runtime constraint values.
+		 * Values are validated and rendered exactly as RuntimeConstrainedItems does for a full build.
+		 * The constraints are applied to a private copy of the nodegroup, so the template is only read.
+		 * @param runtimeConstraints - must constrain the same SparqlIDs the template was built for
+		 * @return the constrained nodegroup and its sparql, or null if a constraint rendered empty and the query must be built in full
+		 * @throws Exception if the constraints are invalid
+		 */
+		public FilledQuery fill(JSONArray runtimeConstraints) throws Exception {
+			NodeGroup ng = NodeGroup.deepCopy(this.nodegroup);
+			if (this.constrainedIds.isEmpty()) {
+				return new FilledQuery(ng, this.sparql);
+			}
+
+			RuntimeConstrainedItems rtci = new RuntimeConstrainedItems(ng);
+			rtci.applyConstraintJson(runtimeConstraints);
+
+			String ret = this.sparql;
+			for (int i=0; i < this.constrainedIds.size(); i++) {
+				String constraintStr = null;
+				Returnable item = getReturnable(ng, this.constrainedIds.get(i));
+				if (item instanceof Node) {
+					constraintStr = ((Node) item).getValueConstraintStr();
+				} else {
+					constraintStr = ((PropertyItem) item).getConstraints();
+				}
+				if (constraintStr == null || constraintStr.isEmpty()) {
+					return null;
+				}
+				ret = ret.replace(getPlaceholder(i), constraintStr);
+			}
+			return new FilledQuery(ng, ret);
+		}
+	}
+
+	/**
+	 * A template filled in for one request: the constrained nodegroup and the sparql it generates.
+	 */
+	public static class FilledQuery {
+		private NodeGroup nodegroup;
+		private String sparql;
+
+		private FilledQuery(NodeGroup nodegroup, String sparql) {
+			this.nodegroup = nodegroup;
+			this.sparql = sparql;
+		}
+
+		public NodeGroup getNodeGroup() {
+			return this.nodegroup;
+		}
+
+		public String getSparql() {
+			return this.sparql;
+		}
+	}
+}
@@ -21,6 +21,7 @@ package com.ge.research.semtk.belmont;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -112,6 +113,45 @@ public class Node extends Returnable {
 		this.sparqlID = BelmontUtil.generateSparqlID(name, this.nodeGroup.getSparqlNameHash());
 	}
 	
+	/**
+	 * Copy constructor.
+	 * NodeItems link to other nodes, so they are added afterwards with copyNodeItems()
+	 * @param other
+	 * @param ng - nodegroup of the copy
+	 * @param shareInstanceValues - share property instance values copy-on-write
+	 */
+	public Node(Node other, NodeGroup ng, boolean shareInstanceValues) {
+		this.nodeGroup = ng;
+		this.nodeType = other.nodeType;
+		this.nodeName = other.nodeName;
+		this.fullURIname = other.fullURIname;
+		this.instanceValue = other.instanceValue;
+		this.deletionMode = other.deletionMode;
+		this.subclassNames = new ArrayList<String>(other.subclassNames);
+		
+		this.sparqlID = other.sparqlID;
+		this.isReturned = other.isReturned;
+		this.isRuntimeConstrained = other.isRuntimeConstrained;
+		this.constraints = (other.constraints != null) ? new ValueConstraint(other.constraints) : null;
+		
+		for (PropertyItem p : other.props) {
+			this.props.add(new PropertyItem(p, shareInstanceValues));
+		}
+	}
+	
+	/**
+	 * Second half of the copy constructor: copy other's NodeItems
+	 * @param other
+	 * @param nodeMap - maps nodes in other's nodegroup to their copies
+	 * @throws Exception
+	 */
+	void copyNodeItems(Node other, Map<Node, Node> nodeMap) throws Exception {
+		this.nodes = new ArrayList<NodeItem>();
+		for (NodeItem n : other.nodes) {
+			this.nodes.add(new NodeItem(n, nodeMap));
+		}
+	}
+	
 	public Node(String jsonStr, NodeGroup ng) throws Exception{
 		// create the JSON Object we need and then call the other constructor. 
 		this((JSONObject)(new JSONParser()).parse(jsonStr), ng);
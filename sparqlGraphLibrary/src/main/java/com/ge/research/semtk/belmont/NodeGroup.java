@@ -21,6 +21,7 @@ package com.ge.research.semtk.belmont;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.UUID;
 
@@ -54,6 +55,7 @@ public class NodeGroup {
 
 	private ArrayList<Node> orphanOnCreate = new ArrayList<Node>();
 	private HashMap<String, String> prefixHash = new HashMap<String, String>();
+	private boolean prefixHashShared = false;		// prefixHash is also used by other nodegroups: copy before adding
 	private int prefixNumberStart = 0;
 	private SparqlConnection conn = null;
 	
@@ -246,23 +248,63 @@ public class NodeGroup {
 		this.orphanOnCreate.add(node);
 		// also, add to the list of known nodes
 		this.nodes.add(node);
+		this.addNodeToPrefixHash(node);
 	}
 	
 	/**
-	 * Use JSON fuctionality to implement deepCopy
+	 * Copy the object graph directly (no JSON round-trip)
+	 * nodegroup is only read, so threads may copy the same one at once.
 	 * @param nodegroup
 	 * @return a deep copy
 	 * @throws Exception 
 	 * @
 	 */
 	public static NodeGroup deepCopy(NodeGroup nodegroup) throws Exception  {
+		return NodeGroup.copy(nodegroup, false);
+	}
+	
+	/**
+	 * Cheap copy for filling in per-record instance values (e.g. while loading data).
+	 * Same as deepCopy() except PropertyItem instance values are shared with 
+	 * the original until either one adds a value (copy-on-write).
+	 * @param nodegroup
+	 * @return a copy
+	 * @throws Exception
+	 */
+	public static NodeGroup instanceOverlay(NodeGroup nodegroup) throws Exception {
+		return NodeGroup.copy(nodegroup, true);
+	}
+	
+	private static NodeGroup copy(NodeGroup nodegroup, boolean shareInstanceValues) throws Exception {
 		NodeGroup copy = new NodeGroup();
-		copy.addJsonEncodedNodeGroup(nodegroup.toJson());
+		copy.sparqlNameHash = new HashMap<String, String>(nodegroup.sparqlNameHash);
+		copy.limit = nodegroup.limit;
+		if (shareInstanceValues) {
+			copy.prefixHash = nodegroup.prefixHash;		// shared until either one needs a new prefix
+			copy.prefixHashShared = true;
+			nodegroup.prefixHashShared = true;
+		} else {
+			copy.prefixHash = new HashMap<String, String>(nodegroup.prefixHash);	// nodegroup is only read
+		}
+		copy.prefixNumberStart = nodegroup.prefixNumberStart;
+		
+		// copy nodes, remembering which copy goes with each original
+		IdentityHashMap<Node, Node> nodeMap = new IdentityHashMap<Node, Node>();
+		for (Node n : nodegroup.nodes) {
+			Node nCopy = new Node(n, copy, shareInstanceValues);
+			nodeMap.put(n, nCopy);
+			copy.nodes.add(nCopy);
+		}
+		
+		// now that every node exists, copy the links
+		for (Node n : nodegroup.nodes) {
+			nodeMap.get(n).copyNodeItems(n, nodeMap);
+		}
 		
 		// connection
-		SparqlConnection conn = new SparqlConnection();
-		conn.fromJson(nodegroup.conn.toJson());
-		copy.setSparqlConnection(conn);
+		if (nodegroup.conn != null) {
+			copy.setSparqlConnection(new SparqlConnection(nodegroup.conn));
+		}
 		
 		return copy;
 	}
@@ -287,6 +329,11 @@ public class NodeGroup {
 			// get the chunks and build the prefixed string.
 			String[] chunks = originalUri.split("#");
 			String pre = this.prefixHash.get(chunks[0]);
+			if (pre == null) {
+				// URI was set after the prefixes were built
+				this.addToPrefixHash(originalUri);
+				pre = this.prefixHash.get(chunks[0]);
+			}
 			
 			if(chunks.length > 1 ){
 				retval = pre + ":" + chunks[1];
@@ -338,6 +385,10 @@ public class NodeGroup {
 			//String newPrefixName = "pre_" + this.prefixNumberStart;
 			this.prefixNumberStart += 1;  // also obsolete I think
 			
+			if (this.prefixHashShared) {
+				this.prefixHash = new HashMap<String, String>(this.prefixHash);
+				this.prefixHashShared = false;
+			}
 			this.prefixHash.put(chunks[0], newPrefixName);
 			
 			//System.err.println("adding prefix: " + newPrefixName + " with key " + chunks[0] + " from input " + prefixedUri);
@@ -346,47 +397,67 @@ public class NodeGroup {
 	
 	public void rebuildPrefixHash(HashMap<String, String> startingMap){
 		
-		this.prefixHash = new HashMap<String, String>();		// x out the old map.
-		
-		this.prefixHash = startingMap;							// replace it.
+		this.setSharedPrefixHash(startingMap);					// replace the old map.  startingMap is not modified.
 		this.prefixNumberStart = startingMap.size();
 		addAllToPrefixHash();
 		
 	}
 	
+	/**
+	 * Use a prefix map built by another nodegroup (e.g. one loaded from the same template) without walking this one's URIs.
+	 * Prefixes this nodegroup needs that the map lacks are added when its sparql is generated, to a private copy.
+	 * @param sharedMap read-only
+	 */
+	public void setSharedPrefixHash(HashMap<String, String> sharedMap){
+		this.prefixHash = sharedMap;
+		this.prefixHashShared = true;
+	}
+	
 	private void addAllToPrefixHash(){
 
 		this.addToPrefixHash(UriResolver.DEFAULT_URI_PREFIX);   // make sure to force the inclusion of the old ones.
 		this.addToPrefixHash("http://www.w3.org/2001/XMLSchema#");
 		
 		for(Node n : this.nodes){
-
-			if(n.getInstanceValue() != null && n.getInstanceValue().contains("#")){
-				this.addToPrefixHash(n.getInstanceValue());
-			}			
-			// add the prefix for each node.
-			this.addToPrefixHash(n.getFullUriName());
-			// add the URIs for the properties as well:
-			for(PropertyItem pi : n.getPropertyItems()){
-				this.addToPrefixHash(pi.getUriRelationship());
-			}
-			// add the URIs for the node items
-			for(NodeItem ni : n.getNodeItemList()){
-				this.addToPrefixHash(ni.getUriConnectBy());
-			}
+			this.addNodeToPrefixHash(n);
 		}
 
 	}
 	
-	public HashMap<String, String> getPrefixHash(){
+	/**
+	 * Keep a built prefix hash up to date as a node is added
+	 */
+	private void addNodeToPrefixHash(Node n){
+		if(this.prefixHash.size() == 0){
+			return;		// not built yet.  buildPrefixHash() will get this node.
+		}
 		
-		if(this.prefixHash != null && this.prefixHash.size() != 0){
-			return this.prefixHash;
+		if(n.getInstanceValue() != null && n.getInstanceValue().contains("#")){
+			this.addToPrefixHash(n.getInstanceValue());
+		}			
+		// add the prefix for each node.
+		this.addToPrefixHash(n.getFullUriName());
+		// add the URIs for the properties as well:
+		for(PropertyItem pi : n.getPropertyItems()){
+			this.addToPrefixHash(pi.getUriRelationship());
 		}
-		else{
+		// add the URIs for the node items
+		for(NodeItem ni : n.getNodeItemList()){
+			this.addToPrefixHash(ni.getUriConnectBy());
+		}
+	}
+	
+	/**
+	 * Get the prefix hash, building it if needed.
+	 * The map may be shared with other nodegroups: treat it as read-only.
+	 */
+	public HashMap<String, String> getPrefixHash(){
+		
+		if(this.prefixHash == null || this.prefixHash.size() == 0){
 			this.buildPrefixHash();		// create something to send.
-			return this.prefixHash;
 		}
+		this.prefixHashShared = true;	// caller may hand it to other nodegroups
+		return this.prefixHash;
 		
 	}
 	
@@ -501,6 +572,7 @@ public class NodeGroup {
 		
 		// add the node to the nodegroup control structure..
 		this.nodes.add(curr);
+		this.addNodeToPrefixHash(curr);
 		// set up the connection info so this node participates in the graph
 		if(linkFromNewUri != null && linkFromNewUri != ""){
 			curr.setConnection(existingNode, linkFromNewUri);
@@ -676,6 +748,39 @@ public class NodeGroup {
 	}
 
 	public String generateSparql(AutoGeneratedQueryTypes qt, Boolean allPropertiesOptional, Integer limitOverride, Returnable targetObj, Boolean keepTargetConstraints) throws Exception{
+		return this.generateSparql(qt, allPropertiesOptional, limitOverride, null, false, targetObj, keepTargetConstraints);
+	}
+	
+	/**
+	 * Generate one page of a select query.
+	 * Results are ordered on every returned value so that consecutive pages are stable.
+	 * this.limit still applies to the query as a whole.
+	 * @param qt - QUERY_DISTINCT or QUERY_CONSTRAINT
+	 * @param targetObj - target of QUERY_CONSTRAINT, otherwise null
+	 * @param pageSize - maximum rows in the page
+	 * @param offset - number of rows to skip
+	 * @return sparql, or null if offset is already past this.limit
+	 * @throws Exception
+	 */
+	public String generateSparqlPage(AutoGeneratedQueryTypes qt, Returnable targetObj, int pageSize, int offset) throws Exception {
+		if (qt != AutoGeneratedQueryTypes.QUERY_DISTINCT && qt != AutoGeneratedQueryTypes.QUERY_CONSTRAINT) {
+			throw new Exception("NodeGroup.generateSparqlPage :: query type " + qt.name() + " can't be paged");
+		}
+		if (pageSize < 1) {
+			throw new Exception("NodeGroup.generateSparqlPage :: page size must be positive: " + pageSize);
+		}
+		
+		int pageLimit = pageSize;
+		if (this.limit > 0) {
+			if (offset >= this.limit) {
+				return null;
+			}
+			pageLimit = Math.min(pageSize, this.limit - offset);
+		}
+		return this.generateSparql(qt, false, pageLimit, offset, true, targetObj, false);
+	}
+
+	private String generateSparql(AutoGeneratedQueryTypes qt, Boolean allPropertiesOptional, Integer limitOverride, Integer offset, boolean orderByReturns, Returnable targetObj, Boolean keepTargetConstraints) throws Exception{
 		//
 		// queryType:
 		//     QUERY_DISTINCT - select distinct.   Use of targetObj is undefined.
@@ -704,7 +809,6 @@ public class NodeGroup {
 		
 		ArrayList<Node> orderedNodes = this.getOrderedNodeList();
 		StringBuilder sparql = new StringBuilder();
-		sparql.append(this.generateSparqlPrefix());
 		
 		if (qt.equals(AutoGeneratedQueryTypes.QUERY_COUNT)) {
 			sparql.append("SELECT (COUNT(*) as ?count) { \n");
@@ -712,11 +816,13 @@ public class NodeGroup {
 		
 		sparql.append("select distinct");
 		int lastLen = sparql.length();
+		StringBuilder orderBy = new StringBuilder();
 		
 		if (targetObj != null) {
 			// QUERY_CONSTRAINT or QUERY_COUNT or anything that set targetObj:  simple
 			// only the targetObj is returned
 			sparql.append(" ").append(targetObj.getSparqlID());
+			orderBy.append(" ").append(targetObj.getSparqlID());
 		}
 		else {
 			// loop through ordered nodes and add return names to the sparql
@@ -725,6 +831,7 @@ public class NodeGroup {
 				// check if node URI is returned
 				if (n.getIsReturned()) {
 					sparql.append(" ").append(n.getSparqlID());
+					orderBy.append(" ").append(n.getSparqlID());
 				}
 				
 				// add all the returned props
@@ -735,6 +842,7 @@ public class NodeGroup {
 						throw new Exception("Trying to return a property whose sparqlID is not set: " + pi.getKeyName());
 					}
 					sparql.append(" ").append(pi.getSparqlID());
+					orderBy.append(" ").append(pi.getSparqlID());
 
 				}
 			}
@@ -770,14 +878,19 @@ public class NodeGroup {
 			// sparql += "ORDER BY " + targetObj.SparqlID + " ";
 		}
 		
+		if (orderByReturns) {
+			sparql.append("ORDER BY").append(orderBy);
+		}
+		
 		sparql.append(this.generateLimitClause(limitOverride));
+		sparql.append(this.generateOffsetClause(offset));
 		
 		if (qt.equals(AutoGeneratedQueryTypes.QUERY_COUNT)) {
 			sparql.append("\n}");
 		}
 		
 		//retval = BelmontUtil.prefixQuery(sparql.toString());
-		retval = sparql.toString();
+		retval = this.generateSparqlPrefix() + sparql.toString();		// last: the body may have added prefixes
 		
 		return retval;
 	}
@@ -795,6 +908,15 @@ public class NodeGroup {
             return "";
     	}
     }
+	
+	private String generateOffsetClause(Integer offset) {
+		if (offset != null && offset > 0) {
+			return " OFFSET " + String.valueOf(offset);
+		}
+		else {
+			return "";
+		}
+	}
 
 	/**
 	 * Very simple FROM clause logic
@@ -834,7 +956,6 @@ public class NodeGroup {
 		
 		String tab = tabIndent("");
 		StringBuilder sparql = new StringBuilder();
-		sparql.append(this.generateSparqlPrefix());
 		sparql.append("construct {\n");
 		
 		AutoGeneratedQueryTypes queryType = AutoGeneratedQueryTypes.QUERY_CONSTRUCT;
@@ -876,7 +997,7 @@ public class NodeGroup {
 		
 		sparql.append("}\n");
 		
-		return sparql.toString();
+		return this.generateSparqlPrefix() + sparql.toString();		// last: the body may have added prefixes
 	}
 	
 	public String generateSparqlAsk() throws Exception {
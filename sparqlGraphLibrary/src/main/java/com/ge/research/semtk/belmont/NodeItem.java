@@ -20,6 +20,7 @@ package com.ge.research.semtk.belmont;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -57,6 +58,31 @@ public class NodeItem {
 		this.valueTypeURI = UriValueType;
 	}
 	
+	/**
+	 * Copy constructor
+	 * @param other
+	 * @param nodeMap - maps each of other's linked nodes to the node the copy should link to
+	 * @throws Exception if a linked node is missing from nodeMap
+	 */
+	public NodeItem(NodeItem other, Map<Node, Node> nodeMap) throws Exception {
+		this.keyName = other.keyName;
+		this.valueType = other.valueType;
+		this.valueTypeURI = other.valueTypeURI;
+		this.connectedBy = other.connectedBy;
+		this.uriConnectBy = other.uriConnectBy;
+		this.connected = other.connected;
+		
+		for (Node n : other.nodes) {
+			Node copy = nodeMap.get(n);
+			if (copy == null) {
+				throw new Exception("NodeItem can't copy link to node outside the nodegroup: " + n.getSparqlID());
+			}
+			this.nodes.add(copy);
+		}
+		this.snodeOptionals = new ArrayList<Integer>(other.snodeOptionals);
+		this.deletionFlags = new ArrayList<Boolean>(other.deletionFlags);
+	}
+	
 	public NodeItem(JSONObject next, NodeGroup ng) throws Exception{
 		// get basic values:
 		this.keyName = next.get("KeyName").toString();
@@ -37,6 +37,7 @@ public class PropertyItem extends Returnable {
 	private String fullURIName = null;
 	private Boolean isOptional = false;
 	private ArrayList<String> instanceValues = new ArrayList<String>();
+	private boolean instanceValuesShared = false;  // instanceValues belongs to another PropertyItem too: copy before writing
 	
 	private Boolean isMarkedForDeletion = false;
 
@@ -54,6 +55,35 @@ public class PropertyItem extends Returnable {
 		this.valueTypeURI = valueTypeURI;
 		this.uriRelationship = uriRelationship;
 	}
+	
+	/**
+	 * Copy constructor
+	 * @param other
+	 * @param shareInstanceValues - if true, instance values are shared with other until 
+	 *                              either PropertyItem adds one (copy-on-write)
+	 */
+	public PropertyItem(PropertyItem other, boolean shareInstanceValues) {
+		this.keyName = other.keyName;
+		this.valueType = other.valueType;
+		this.valueTypeURI = other.valueTypeURI;
+		this.uriRelationship = other.uriRelationship;
+		this.fullURIName = other.fullURIName;
+		this.isOptional = other.isOptional;
+		this.isMarkedForDeletion = other.isMarkedForDeletion;
+		
+		this.sparqlID = other.sparqlID;
+		this.isReturned = other.isReturned;
+		this.isRuntimeConstrained = other.isRuntimeConstrained;
+		this.constraints = (other.constraints != null) ? new ValueConstraint(other.constraints) : null;
+		
+		if (shareInstanceValues) {
+			this.instanceValues = other.instanceValues;
+			this.instanceValuesShared = true;
+			other.instanceValuesShared = true;
+		} else {
+			this.instanceValues = new ArrayList<String>(other.instanceValues);
+		}
+	}
 		
 	public PropertyItem(JSONObject next) {
 		// keeps track of the properties who are in the domain of a given node.
@@ -149,6 +179,11 @@ public class PropertyItem extends Returnable {
 		
 	}
 
+	/**
+	 * Instance values may be shared with a copy of this PropertyItem.  
+	 * Treat as read-only and use addInstanceValue() to change.
+	 * @return
+	 */
 	public ArrayList<String> getInstanceValues() {
 		return this.instanceValues;
 	}
@@ -162,6 +197,10 @@ public class PropertyItem extends Returnable {
 	}
 
 	public void addInstanceValue(String value) {
+		if (this.instanceValuesShared) {
+			this.instanceValues = new ArrayList<String>(this.instanceValues);
+			this.instanceValuesShared = false;
+		}
 		this.instanceValues.add(value);
 	}
 	
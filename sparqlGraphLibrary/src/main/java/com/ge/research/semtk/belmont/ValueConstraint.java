@@ -26,6 +26,13 @@ public class ValueConstraint {
 		this.constraint = vc;
 	}
 	
+	/**
+	 * Copy constructor
+	 */
+	public ValueConstraint(ValueConstraint other) {
+		this.constraint = other.constraint;
+	}
+	
 	public String getConstraint(){
 		return this.constraint;
 	}
@@ -0,0 +1,196 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.edc;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.ge.research.semtk.resultSet.Table;
+
+/**
+ * Reads the columnar format written by TableResultsColumnarWriter.
+ * Typed values are given back as strings: integers and doubles in canonical form as by Long and Double toString(),
+ * dates as yyyy-mm-dd, and decimals and dateTimes exactly as they were written.  Absent cells are "".
+ */
+public class TableResultsColumnarReader {
+
+	private DataInputStream in;
+	private String[] colNames;
+	private String[] colTypes;
+
+	public TableResultsColumnarReader(InputStream in) throws Exception {
+		this.in = new DataInputStream(in);
+
+		byte[] magic = new byte[TableResultsColumnarWriter.MAGIC.length];
+		this.in.readFully(magic);
+		if (!Arrays.equals(magic, TableResultsColumnarWriter.MAGIC)) {
+			throw new Exception("Not a columnar table results stream");
+		}
+		byte version = this.in.readByte();
+		if (version != TableResultsColumnarWriter.VERSION) {
+			throw new Exception("Unsupported columnar table results version: " + version);
+		}
+
+		int colCount = this.in.readInt();
+		this.colNames = new String[colCount];
+		this.colTypes = new String[colCount];
+		for (int i = 0; i < colCount; i++) {
+			this.colNames[i] = this.in.readUTF();
+			this.colTypes[i] = this.in.readUTF();
+		}
+	}
+
+	public String[] getColumnNames() {
+		return this.colNames;
+	}
+
+	public String[] getColumnTypes() {
+		return this.colTypes;
+	}
+
+	/**
+	 * Read the next row group
+	 * @return its rows, or null at the end
+	 */
+	public ArrayList<ArrayList<String>> readRowGroup() throws Exception {
+		int rowCount = this.in.readInt();
+		if (rowCount == 0) {
+			return null;
+		}
+
+		ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>(rowCount);
+		for (int r = 0; r < rowCount; r++) {
+			rows.add(new ArrayList<String>(this.colNames.length));
+		}
+
+		for (int c = 0; c < this.colNames.length; c++) {
+			byte encoding = this.in.readByte();
+			byte[] chunk = new byte[this.in.readInt()];
+			this.in.readFully(chunk);
+			String[] values = decodeChunk(chunk, encoding, rowCount);
+			for (int r = 0; r < rowCount; r++) {
+				rows.get(r).add(values[r]);
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Read all remaining rows into a table
+	 */
+	public Table readTable() throws Exception {
+		Table ret = new Table(this.colNames, this.colTypes, null);
+		ArrayList<ArrayList<String>> rows;
+		while ((rows = this.readRowGroup()) != null) {
+			for (ArrayList<String> row : rows) {
+				ret.addRow(row);
+			}
+		}
+		return ret;
+	}
+
+	private static String[] decodeChunk(byte[] chunk, byte encoding, int rowCount) throws Exception {
+		DataInputStream din = new DataInputStream(new ByteArrayInputStream(chunk));
+		byte[] present = new byte[(rowCount + 7) / 8];
+		din.readFully(present);
+
+		String[] dict = null;
+		if (encoding == TableResultsColumnarWriter.ENC_DICT) {
+			dict = new String[(int) readVarLong(din)];
+			for (int i = 0; i < dict.length; i++) {
+				dict[i] = readString(din);
+			}
+		}
+
+		String[] ret = new String[rowCount];
+		for (int r = 0; r < rowCount; r++) {
+			if ((present[r / 8] & (1 << (r % 8))) == 0) {
+				ret[r] = "";
+				continue;
+			}
+			switch (encoding) {
+			case TableResultsColumnarWriter.ENC_DICT:
+				ret[r] = dict[(int) readVarLong(din)];
+				break;
+			case TableResultsColumnarWriter.ENC_LONG:
+				ret[r] = Long.toString(unzigzag(readVarLong(din)));
+				break;
+			case TableResultsColumnarWriter.ENC_DOUBLE:
+				ret[r] = Double.toString(din.readDouble());
+				break;
+			case TableResultsColumnarWriter.ENC_DECIMAL:
+				int scale = (int) unzigzag(readVarLong(din));
+				byte[] unscaled = new byte[(int) readVarLong(din)];
+				din.readFully(unscaled);
+				ret[r] = new BigDecimal(new BigInteger(unscaled), scale).toPlainString();
+				break;
+			case TableResultsColumnarWriter.ENC_BOOLEAN:
+				ret[r] = (din.readByte() != 0) ? "true" : "false";
+				break;
+			case TableResultsColumnarWriter.ENC_DATE:
+				ret[r] = LocalDate.ofEpochDay(unzigzag(readVarLong(din))).toString();
+				break;
+			case TableResultsColumnarWriter.ENC_DATETIME:
+				long seconds = unzigzag(readVarLong(din));
+				int digits = (int) readVarLong(din);
+				int nanos = (digits > 0) ? (int) readVarLong(din) : 0;
+				long zone = readVarLong(din);
+				ret[r] = TableResultsColumnarWriter.formatDateTime(seconds, nanos, digits, (zone == 0) ? null : (int) unzigzag(zone - 1));
+				break;
+			case TableResultsColumnarWriter.ENC_STRING:
+				ret[r] = readString(din);
+				break;
+			default:
+				throw new Exception("Unknown columnar table results encoding: " + encoding);
+			}
+		}
+		return ret;
+	}
+
+	private static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static long readVarLong(DataInputStream din) throws IOException {
+		long ret = 0;
+		int shift = 0;
+		while (true) {
+			int b = din.readUnsignedByte();
+			ret |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return ret;
+			}
+			shift += 7;
+		}
+	}
+
+	private static String readString(DataInputStream din) throws IOException {
+		byte[] bytes = new byte[(int) readVarLong(din)];
+		din.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
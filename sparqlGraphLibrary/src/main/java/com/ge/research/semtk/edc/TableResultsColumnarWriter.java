@@ -0,0 +1,370 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.edc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.ge.research.semtk.belmont.XSDSupportedTypes;
+
+/**
+ * Writes a table in a compact, typed, columnar binary format, one row group at a time.
+ *
+ * Layout (big-endian):
+ *    "STRC", byte version
+ *    int column count, then for each column: UTF name, UTF type
+ *    row groups of: int rowCount, then for each column:
+ *        byte encoding, int length, presence bitmap ((rowCount + 7) / 8 bytes), values of the present cells
+ *    int 0
+ *
+ * Empty cells are absent.  Values are encoded by column type:
+ *    ENC_LONG      xsd integer types: zigzag varint
+ *    ENC_DOUBLE    xsd float, double: 8 byte IEEE
+ *    ENC_DECIMAL   xsd decimal: zigzag varint scale, varint byte length and two's complement unscaled value
+ *    ENC_BOOLEAN   xsd boolean: one byte
+ *    ENC_DATE      xsd date: zigzag varint days since 1970-01-01
+ *    ENC_DATETIME  xsd dateTime: zigzag varint seconds of the local date and time since 1970-01-01T00:00:00,
+ *                  varint fraction digits, varint nanoseconds if there are fraction digits,
+ *                  varint 0 if there is no timezone or else zigzag offset minutes + 1
+ *    ENC_DICT      uri: varint dictionary size, dictionary strings, varint index per value
+ *    ENC_STRING    anything else: varint byte length and UTF-8 per value
+ * A column chunk whose values don't all parse as its type is written as ENC_STRING.
+ * Decimals and dateTimes are only encoded if they read back exactly as written, e.g. "1.50" and "10:15:30.250-05:00";
+ * others such as "1E3" or "+00:00" fall back to ENC_STRING too.
+ * Integers, doubles and booleans keep their value but are read back in canonical form, e.g. "+7" as "7" and "1" as "true".
+ * Read with TableResultsColumnarReader.
+ */
+public class TableResultsColumnarWriter {
+
+	public static final byte[] MAGIC = { 'S', 'T', 'R', 'C' };
+	public static final byte VERSION = 2;
+	public static final int ROW_GROUP_SIZE = 65536;
+
+	public static final byte ENC_STRING = 0;
+	public static final byte ENC_DICT = 1;
+	public static final byte ENC_LONG = 2;
+	public static final byte ENC_DOUBLE = 3;
+	public static final byte ENC_BOOLEAN = 4;
+	public static final byte ENC_DATE = 5;
+	public static final byte ENC_DATETIME = 6;
+	public static final byte ENC_DECIMAL = 7;
+
+	private static final DateTimeFormatter DATETIME_SECONDS = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss");
+
+	private DataOutputStream out;
+	private byte[] encodings;
+	private ArrayList<ArrayList<String>> columns;	// the current row group, by column
+	private int rowsInGroup = 0;
+	private int rowsWritten = 0;
+
+	public TableResultsColumnarWriter(OutputStream out, String[] colNames, String[] colTypes) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.encodings = new byte[colNames.length];
+		this.columns = new ArrayList<ArrayList<String>>();
+
+		this.out.write(MAGIC);
+		this.out.writeByte(VERSION);
+		this.out.writeInt(colNames.length);
+		for (int i = 0; i < colNames.length; i++) {
+			String type = (colTypes == null || colTypes[i] == null) ? "" : colTypes[i];
+			this.out.writeUTF(colNames[i]);
+			this.out.writeUTF(type);
+			this.encodings[i] = getEncoding(type);
+			this.columns.add(new ArrayList<String>());
+		}
+	}
+
+	/**
+	 * Get the value encoding for a column type, e.g. "uri" or "http://www.w3.org/2001/XMLSchema#integer"
+	 */
+	public static byte getEncoding(String colType) {
+		String name = colType.substring(colType.lastIndexOf('#') + 1);
+		if (name.equalsIgnoreCase("uri")) {
+			return ENC_DICT;
+		}
+
+		XSDSupportedTypes xsd;
+		try {
+			xsd = XSDSupportedTypes.valueOf(name.toUpperCase());
+		} catch (Exception e) {
+			return ENC_STRING;
+		}
+		switch (xsd) {
+		case INT:
+		case INTEGER:
+		case LONG:
+		case NEGATIVEINTEGER:
+		case NONNEGATIVEINTEGER:
+		case POSITIVEINTEGER:
+		case NONPOSISITIVEINTEGER:
+		case UNSIGNEDBYTE:
+		case UNSIGNEDINT:
+			return ENC_LONG;
+		case DECIMAL:
+			return ENC_DECIMAL;
+		case FLOAT:
+		case DOUBLE:
+			return ENC_DOUBLE;
+		case BOOLEAN:
+			return ENC_BOOLEAN;
+		case DATE:
+			return ENC_DATE;
+		case DATETIME:
+			return ENC_DATETIME;
+		case NODE_URI:
+			return ENC_DICT;
+		default:
+			return ENC_STRING;
+		}
+	}
+
+	public void addRow(ArrayList<String> row) throws IOException {
+		for (int i = 0; i < this.columns.size(); i++) {
+			this.columns.get(i).add(row.get(i));
+		}
+		if (++this.rowsInGroup >= ROW_GROUP_SIZE) {
+			this.writeRowGroup();
+		}
+	}
+
+	/**
+	 * Write any remaining rows and the end marker, and flush.  Does not close the underlying stream.
+	 * @return number of rows written
+	 */
+	public int finish() throws IOException {
+		this.writeRowGroup();
+		this.out.writeInt(0);
+		this.out.flush();
+		return this.rowsWritten;
+	}
+
+	private void writeRowGroup() throws IOException {
+		if (this.rowsInGroup == 0) {
+			return;
+		}
+		this.out.writeInt(this.rowsInGroup);
+
+		ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+		for (int i = 0; i < this.columns.size(); i++) {
+			ArrayList<String> values = this.columns.get(i);
+			chunk.reset();
+			byte encoding = this.encodeChunk(values, this.encodings[i], chunk);
+			if (encoding < 0) {
+				chunk.reset();
+				encoding = this.encodeChunk(values, ENC_STRING, chunk);
+			}
+			this.out.writeByte(encoding);
+			this.out.writeInt(chunk.size());
+			chunk.writeTo(this.out);
+			values.clear();
+		}
+
+		this.rowsWritten += this.rowsInGroup;
+		this.rowsInGroup = 0;
+	}
+
+	/**
+	 * Encode a column chunk
+	 * @return the encoding, or -1 if a value doesn't parse as the type
+	 */
+	private byte encodeChunk(ArrayList<String> values, byte encoding, ByteArrayOutputStream chunk) throws IOException {
+		DataOutputStream dout = new DataOutputStream(chunk);
+
+		// presence bitmap
+		byte[] present = new byte[(values.size() + 7) / 8];
+		for (int r = 0; r < values.size(); r++) {
+			String v = values.get(r);
+			if (v != null && !v.isEmpty()) {
+				present[r / 8] |= (1 << (r % 8));
+			}
+		}
+		dout.write(present);
+
+		try {
+			if (encoding == ENC_DICT) {
+				HashMap<String, Integer> dict = new HashMap<String, Integer>();
+				ArrayList<String> entries = new ArrayList<String>();
+				for (String v : values) {
+					if (v != null && !v.isEmpty() && !dict.containsKey(v)) {
+						dict.put(v, entries.size());
+						entries.add(v);
+					}
+				}
+				writeVarLong(dout, entries.size());
+				for (String e : entries) {
+					writeString(dout, e);
+				}
+				for (String v : values) {
+					if (v != null && !v.isEmpty()) {
+						writeVarLong(dout, dict.get(v));
+					}
+				}
+
+			} else {
+				for (String v : values) {
+					if (v == null || v.isEmpty()) {
+						continue;
+					}
+					switch (encoding) {
+					case ENC_LONG:
+						writeVarLong(dout, zigzag(Long.parseLong(v.startsWith("+") ? v.substring(1) : v)));
+						break;
+					case ENC_DOUBLE:
+						dout.writeDouble(Double.parseDouble(v));
+						break;
+					case ENC_DECIMAL:
+						writeDecimal(dout, v);
+						break;
+					case ENC_BOOLEAN:
+						dout.writeByte(parseBoolean(v) ? 1 : 0);
+						break;
+					case ENC_DATE:
+						writeVarLong(dout, zigzag(LocalDate.parse(v).toEpochDay()));
+						break;
+					case ENC_DATETIME:
+						writeDateTime(dout, v);
+						break;
+					default:
+						writeString(dout, v);
+					}
+				}
+			}
+		} catch (IllegalArgumentException | DateTimeException e) {
+			return -1;		// includes NumberFormatException
+		}
+		dout.flush();
+		return encoding;
+	}
+
+	private static boolean parseBoolean(String v) {
+		if (v.equals("true") || v.equals("1")) {
+			return true;
+		} else if (v.equals("false") || v.equals("0")) {
+			return false;
+		} else {
+			throw new IllegalArgumentException("Not an xsd:boolean: " + v);
+		}
+	}
+
+	/**
+	 * Write an xsd:decimal as its scale and unscaled value
+	 * @throws NumberFormatException if it isn't one, or wouldn't read back as written
+	 */
+	private static void writeDecimal(DataOutputStream dout, String v) throws IOException {
+		BigDecimal d = new BigDecimal(v);
+		if (!d.toPlainString().equals(v)) {
+			throw new NumberFormatException("Decimal would not read back as written: " + v);
+		}
+		byte[] unscaled = d.unscaledValue().toByteArray();
+		writeVarLong(dout, zigzag(d.scale()));
+		writeVarLong(dout, unscaled.length);
+		dout.write(unscaled);
+	}
+
+	/**
+	 * Write an xsd:dateTime as its local date and time, fraction and timezone offset
+	 * @throws DateTimeException if it isn't one
+	 * @throws IllegalArgumentException if it wouldn't read back as written
+	 */
+	private static void writeDateTime(DataOutputStream dout, String v) throws IOException {
+		int t = v.indexOf('T');
+		int len = v.length();
+		boolean hasZone = v.endsWith("Z") || (len > t + 6 && (v.charAt(len - 6) == '+' || v.charAt(len - 6) == '-') && v.charAt(len - 3) == ':');
+
+		LocalDateTime local;
+		Integer offsetMinutes = null;
+		if (hasZone) {
+			OffsetDateTime odt = OffsetDateTime.parse(v);
+			local = odt.toLocalDateTime();
+			offsetMinutes = odt.getOffset().getTotalSeconds() / 60;
+		} else {
+			local = LocalDateTime.parse(v);
+		}
+		int dot = v.indexOf('.', t);
+		int digits = 0;
+		while (dot >= 0 && dot + digits + 1 < len && Character.isDigit(v.charAt(dot + digits + 1))) {
+			digits++;
+		}
+
+		long seconds = local.toEpochSecond(ZoneOffset.UTC);
+		int nanos = local.getNano();
+		if (!formatDateTime(seconds, nanos, digits, offsetMinutes).equals(v)) {
+			throw new IllegalArgumentException("DateTime would not read back as written: " + v);
+		}
+		writeVarLong(dout, zigzag(seconds));
+		writeVarLong(dout, digits);
+		if (digits > 0) {
+			writeVarLong(dout, nanos);
+		}
+		writeVarLong(dout, (offsetMinutes == null) ? 0 : zigzag(offsetMinutes) + 1);
+	}
+
+	/**
+	 * Format an xsd:dateTime as encoded by ENC_DATETIME
+	 * @param seconds local date and time as seconds since 1970-01-01T00:00:00
+	 * @param nanos fraction of a second
+	 * @param digits number of fraction digits to show
+	 * @param offsetMinutes timezone offset, or null for none
+	 */
+	public static String formatDateTime(long seconds, int nanos, int digits, Integer offsetMinutes) {
+		StringBuilder ret = new StringBuilder(DATETIME_SECONDS.format(LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC)));
+		if (digits > 0) {
+			ret.append('.').append(String.format("%09d", nanos).substring(0, digits));
+		}
+		if (offsetMinutes != null) {
+			int m = offsetMinutes;
+			if (m == 0) {
+				ret.append('Z');
+			} else {
+				ret.append(String.format("%c%02d:%02d", (m < 0) ? '-' : '+', Math.abs(m) / 60, Math.abs(m) % 60));
+			}
+		}
+		return ret.toString();
+	}
+
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static void writeVarLong(DataOutputStream dout, long v) throws IOException {
+		while ((v & ~0x7FL) != 0) {
+			dout.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		dout.writeByte((int) v);
+	}
+
+	private static void writeString(DataOutputStream dout, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(dout, bytes.length);
+		dout.write(bytes);
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.edc;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the rows of a results data file, one line per row.
+ *
+ * Handles both block-compressed files written by TableResultsDataWriter and
+ * the older plain text files.  For block-compressed files, skipRows() steps over
+ * whole blocks using their headers, so only the blocks holding the rows actually read
+ * are inflated.  A block that is incomplete (still being written) ends the input.
+ */
+public class TableResultsDataReader implements Closeable {
+
+	private FileChannel channel = null;		// block-compressed
+	private long nextBlockPos = 0;
+	private BufferedReader lines = null;	// rows of the current block, or of a plain file
+
+	public TableResultsDataReader(File dataFile) throws IOException {
+		if (isBlockFile(dataFile)) {
+			this.channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+			this.nextBlockPos = TableResultsDataWriter.MAGIC.length;
+		} else {
+			this.lines = new BufferedReader(new FileReader(dataFile));
+		}
+	}
+
+	/**
+	 * Is this data file block-compressed
+	 */
+	public static boolean isBlockFile(File dataFile) throws IOException {
+		byte[] magic = TableResultsDataWriter.MAGIC;
+		ByteBuffer buf = ByteBuffer.allocate(magic.length);
+		FileChannel ch = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+		try {
+			while (buf.hasRemaining() && ch.read(buf) >= 0) { }
+		} finally {
+			ch.close();
+		}
+		return !buf.hasRemaining() && Arrays.equals(buf.array(), magic);
+	}
+
+	/**
+	 * Count the rows in complete blocks without inflating any of them.
+	 * For plain files, counts the lines.
+	 */
+	public static long countRows(File dataFile) throws IOException {
+		TableResultsDataReader reader = new TableResultsDataReader(dataFile);
+		try {
+			return reader.skipRows(Long.MAX_VALUE);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Skip rows
+	 * @param n number of rows to skip
+	 * @return number of rows skipped, less than n only at end of input
+	 */
+	public long skipRows(long n) throws IOException {
+		long skipped = 0;
+
+		if (this.channel != null) {
+			// finish the current block's rows before jumping over blocks
+			while (this.lines != null && skipped < n) {
+				if (this.lines.readLine() == null) {
+					this.lines = null;
+				} else {
+					skipped += 1;
+				}
+			}
+			// step over whole blocks that are entirely skipped
+			int [] header = new int[3];
+			while (skipped < n && this.readBlockHeader(this.nextBlockPos, header)) {
+				if (skipped + header[0] > n) {
+					break;
+				}
+				skipped += header[0];
+				this.nextBlockPos += TableResultsDataWriter.BLOCK_HEADER_LENGTH + header[2];
+			}
+		}
+
+		// skip within a block, or through a plain file
+		while (skipped < n && this.readLine() != null) {
+			skipped += 1;
+		}
+		return skipped;
+	}
+
+	/**
+	 * Read the next row
+	 * @return the row's line, or null at end of input
+	 */
+	public String readLine() throws IOException {
+		while (true) {
+			if (this.lines != null) {
+				String line = this.lines.readLine();
+				if (line != null || this.channel == null) {
+					return line;
+				}
+				this.lines = null;
+			}
+			if (!this.loadNextBlock()) {
+				return null;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.lines != null) {
+			this.lines.close();
+			this.lines = null;
+		}
+		if (this.channel != null) {
+			this.channel.close();
+			this.channel = null;
+		}
+	}
+
+	/**
+	 * Inflate the block at nextBlockPos
+	 * @return false if there is no complete block there
+	 */
+	private boolean loadNextBlock() throws IOException {
+		int [] header = new int[3];
+		if (!this.readBlockHeader(this.nextBlockPos, header)) {
+			return false;
+		}
+		ByteBuffer compressed = ByteBuffer.allocate(header[2]);
+		readFully(this.channel, compressed, this.nextBlockPos + TableResultsDataWriter.BLOCK_HEADER_LENGTH);
+
+		byte[] raw = new byte[header[1]];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed.array());
+			int len = 0;
+			while (len < raw.length && !inflater.finished()) {
+				int n = inflater.inflate(raw, len, raw.length - len);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				len += n;
+			}
+			if (len != raw.length) {
+				throw new IOException("Corrupt results data block at offset " + this.nextBlockPos);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt results data block at offset " + this.nextBlockPos + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+
+		this.nextBlockPos += TableResultsDataWriter.BLOCK_HEADER_LENGTH + header[2];
+		this.lines = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(raw), StandardCharsets.UTF_8));
+		return true;
+	}
+
+	/**
+	 * Read a block header: row count, uncompressed length, compressed length
+	 * @return false if there is no complete block at pos
+	 */
+	private boolean readBlockHeader(long pos, int [] header) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(TableResultsDataWriter.BLOCK_HEADER_LENGTH);
+		if (!readFully(this.channel, buf, pos)) {
+			return false;
+		}
+		buf.flip();
+		header[0] = buf.getInt();
+		header[1] = buf.getInt();
+		header[2] = buf.getInt();
+		return pos + TableResultsDataWriter.BLOCK_HEADER_LENGTH + header[2] <= this.channel.size();
+	}
+
+	/**
+	 * Fill buf from the channel at pos
+	 * @return false if the channel ends first
+	 */
+	private static boolean readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = ch.read(buf, pos);
+			if (n < 0) {
+				return false;
+			}
+			pos += n;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.edc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+
+/**
+ * Appends rows to a block-compressed results data file.
+ *
+ * The file starts with MAGIC, followed by blocks of:
+ *    int rowCount, int uncompressedLength, int compressedLength, deflated rows
+ * where the rows are the data file lines, each ending in \n.
+ * The block headers serve as the file's index: a reader can skip whole blocks
+ * without inflating them (see TableResultsDataReader).
+ *
+ * Rows are buffered until a block is full, so the channel is kept open between
+ * calls to addRows() and the last partial block is written by flush() or close().
+ */
+public class TableResultsDataWriter {
+
+	public static final byte[] MAGIC = { 'S', 'T', 'R', 'B' };
+	public static final int BLOCK_HEADER_LENGTH = 12;
+	public static final int BLOCK_MAX_ROWS = 4096;
+	public static final int BLOCK_MAX_BYTES = 1024 * 1024;
+
+	private final Path path;
+	private FileChannel channel = null;
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private int pendingRows = 0;
+	private long rowsWritten = 0;
+	private long lastUse = System.currentTimeMillis();
+
+	/**
+	 * Open a writer on a data file created by create()
+	 */
+	public TableResultsDataWriter(Path path) throws IOException {
+		this.path = path;
+		this.rowsWritten = TableResultsDataReader.countRows(path.toFile());
+	}
+
+	/**
+	 * Create an empty block-compressed data file, replacing any existing file
+	 */
+	public static void create(Path path) throws IOException {
+		Files.write(path, MAGIC, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Add rows, one per line.  Blank lines are skipped.
+	 */
+	public synchronized void addRows(String contents) throws IOException {
+		this.lastUse = System.currentTimeMillis();
+		int start = 0;
+		while (start < contents.length()) {
+			int end = contents.indexOf('\n', start);
+			if (end < 0) {
+				end = contents.length();
+			}
+			String row = contents.substring(start, end);
+			if (!row.trim().isEmpty()) {
+				byte[] bytes = (row.endsWith("\r") ? row.substring(0, row.length() - 1) : row).getBytes(StandardCharsets.UTF_8);
+				this.pending.write(bytes, 0, bytes.length);
+				this.pending.write('\n');
+				this.pendingRows += 1;
+				if (this.pendingRows >= BLOCK_MAX_ROWS || this.pending.size() >= BLOCK_MAX_BYTES) {
+					this.flush();
+				}
+			}
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Compress and write any buffered rows as a block
+	 */
+	public synchronized void flush() throws IOException {
+		if (this.pendingRows == 0) {
+			return;
+		}
+		byte[] raw = this.pending.toByteArray();
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] compressed;
+		int compressedLength;
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			compressed = new byte[raw.length + raw.length / 1000 + 64];
+			compressedLength = 0;
+			while (!deflater.finished()) {
+				if (compressedLength == compressed.length) {
+					byte[] bigger = new byte[compressed.length * 2];
+					System.arraycopy(compressed, 0, bigger, 0, compressedLength);
+					compressed = bigger;
+				}
+				compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		ByteBuffer buf = ByteBuffer.allocate(BLOCK_HEADER_LENGTH + compressedLength);
+		buf.putInt(this.pendingRows);
+		buf.putInt(raw.length);
+		buf.putInt(compressedLength);
+		buf.put(compressed, 0, compressedLength);
+		buf.flip();
+
+		FileChannel ch = this.getChannel();
+		while (buf.hasRemaining()) {
+			ch.write(buf);
+		}
+
+		this.rowsWritten += this.pendingRows;
+		this.pending.reset();
+		this.pendingRows = 0;
+	}
+
+	/**
+	 * Flush and close the channel.  A later addRows() reopens it.
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			this.flush();
+		} finally {
+			if (this.channel != null) {
+				this.channel.close();
+				this.channel = null;
+			}
+		}
+	}
+
+	/**
+	 * Number of rows in the file, including any there when the writer was opened
+	 * but not rows still buffered
+	 */
+	public synchronized long getRowsWritten() {
+		return this.rowsWritten;
+	}
+
+	/**
+	 * Milliseconds since rows were last added
+	 */
+	public synchronized long getIdleMillis() {
+		return System.currentTimeMillis() - this.lastUse;
+	}
+
+	public Path getPath() {
+		return this.path;
+	}
+
+	private FileChannel getChannel() throws IOException {
+		if (this.channel == null) {
+			this.channel = FileChannel.open(this.path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+		return this.channel;
+	}
+}
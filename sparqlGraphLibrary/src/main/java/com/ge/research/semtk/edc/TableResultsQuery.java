@@ -0,0 +1,658 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.edc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import com.ge.research.semtk.resultSet.Table;
+
+/**
+ * Simple operators run directly against a stored table result, so a client can get
+ * a filtered, projected, sorted or counted view without downloading the whole table.
+ *
+ * Operators are applied in this order:
+ * 1) filters - all must match
+ * 2) group-by count, or else projection
+ * 3) distinct
+ * 4) sort
+ *
+ * Rows are streamed from the data file.  Sorting (and distinct, which is done by sorting)
+ * writes sorted runs to temporary files once more than sortRunRows rows are held, then merges them.
+ * Group-by counts hold one entry per group.
+ *
+ * Values are compared as numbers when both parse as numbers, otherwise as strings.
+ * Numbers sort before non-numbers.
+ */
+public class TableResultsQuery {
+
+	public static final String COUNT_COLUMN = "count";
+	public static final String COUNT_COLUMN_TYPE = "http://www.w3.org/2001/XMLSchema#integer";
+
+	public static final int DEFAULT_SORT_RUN_ROWS = 100000;
+
+	// json keys
+	private static final String JSON_KEY_SELECT = "select";
+	private static final String JSON_KEY_FILTERS = "filters";
+	private static final String JSON_KEY_COLUMN = "column";
+	private static final String JSON_KEY_EQUALS = "equals";
+	private static final String JSON_KEY_CONTAINS = "contains";
+	private static final String JSON_KEY_MIN = "min";
+	private static final String JSON_KEY_MAX = "max";
+	private static final String JSON_KEY_GROUP_BY = "groupBy";
+	private static final String JSON_KEY_DISTINCT = "distinct";
+	private static final String JSON_KEY_SORT_BY = "sortBy";
+	private static final String JSON_KEY_DESCENDING = "descending";
+
+	/**
+	 * Receives the output of a query
+	 */
+	public static interface RowHandler {
+		public void startTable(String[] cols, String[] colTypes) throws Exception;
+
+		/**
+		 * @return false if no more rows are wanted
+		 */
+		public boolean handleRow(ArrayList<String> row) throws Exception;
+	}
+
+	private static enum FilterType { EQUALS, CONTAINS, RANGE };
+
+	private ArrayList<Filter> filters = new ArrayList<Filter>();
+	private String[] selectCols = null;
+	private String[] groupByCols = null;
+	private boolean distinct = false;
+	private String sortCol = null;
+	private boolean descending = false;
+	private int sortRunRows = DEFAULT_SORT_RUN_ROWS;
+
+	public TableResultsQuery() {
+	}
+
+	/**
+	 * Keep rows whose value in col equals value exactly
+	 */
+	public void addEqualsFilter(String col, String value) {
+		this.filters.add(new Filter(col, FilterType.EQUALS, value, null));
+	}
+
+	/**
+	 * Keep rows whose value in col contains substring, ignoring case (as Table.getSubsetBySubstring)
+	 */
+	public void addContainsFilter(String col, String substring) {
+		this.filters.add(new Filter(col, FilterType.CONTAINS, substring.toLowerCase(), null));
+	}
+
+	/**
+	 * Keep rows whose value in col is between min and max, inclusive
+	 * @param min - lowest value, or null for no lower bound
+	 * @param max - highest value, or null for no upper bound
+	 */
+	public void addRangeFilter(String col, String min, String max) {
+		this.filters.add(new Filter(col, FilterType.RANGE, min, max));
+	}
+
+	/**
+	 * Return only these columns, in this order
+	 */
+	public void setSelect(String[] cols) {
+		this.selectCols = cols;
+	}
+
+	/**
+	 * Return one row per distinct combination of these columns, with a count column.
+	 * Replaces select.
+	 */
+	public void setGroupBy(String[] cols) {
+		this.groupByCols = cols;
+	}
+
+	public void setDistinct(boolean distinct) {
+		this.distinct = distinct;
+	}
+
+	/**
+	 * Sort by an output column
+	 */
+	public void setSortBy(String col, boolean descending) {
+		this.sortCol = col;
+		this.descending = descending;
+	}
+
+	/**
+	 * Most rows sorted in memory before a run is written to a temporary file
+	 */
+	public void setSortRunRows(int sortRunRows) {
+		this.sortRunRows = sortRunRows;
+	}
+
+	/**
+	 * Can rows be handed over as they are read
+	 */
+	public boolean isStreaming() {
+		return this.groupByCols == null && !this.distinct && this.sortCol == null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public JSONObject toJson() {
+		JSONObject ret = new JSONObject();
+
+		if (this.selectCols != null) {
+			ret.put(JSON_KEY_SELECT, toJsonArray(this.selectCols));
+		}
+		if (this.filters.size() > 0) {
+			JSONArray filtersJson = new JSONArray();
+			for (Filter f : this.filters) {
+				JSONObject fJson = new JSONObject();
+				fJson.put(JSON_KEY_COLUMN, f.col);
+				if (f.type == FilterType.EQUALS) {
+					fJson.put(JSON_KEY_EQUALS, f.value);
+				} else if (f.type == FilterType.CONTAINS) {
+					fJson.put(JSON_KEY_CONTAINS, f.value);
+				} else {
+					if (f.value != null) { fJson.put(JSON_KEY_MIN, f.value); }
+					if (f.max != null)   { fJson.put(JSON_KEY_MAX, f.max); }
+				}
+				filtersJson.add(fJson);
+			}
+			ret.put(JSON_KEY_FILTERS, filtersJson);
+		}
+		if (this.groupByCols != null) {
+			ret.put(JSON_KEY_GROUP_BY, toJsonArray(this.groupByCols));
+		}
+		if (this.distinct) {
+			ret.put(JSON_KEY_DISTINCT, true);
+		}
+		if (this.sortCol != null) {
+			ret.put(JSON_KEY_SORT_BY, this.sortCol);
+			ret.put(JSON_KEY_DESCENDING, this.descending);
+		}
+		return ret;
+	}
+
+	/**
+	 * Build a query from json.  Sample:
+	 * {
+	 *   "select":["colA","colB"],
+	 *   "filters":[{"column":"colA","equals":"x"}, {"column":"colB","contains":"y"}, {"column":"colC","min":"1","max":"5"}],
+	 *   "groupBy":["colA"],
+	 *   "distinct":true,
+	 *   "sortBy":"colA",
+	 *   "descending":false
+	 * }
+	 * All keys are optional.
+	 */
+	public static TableResultsQuery fromJson(JSONObject jsonObj) throws Exception {
+		TableResultsQuery ret = new TableResultsQuery();
+
+		if (jsonObj.containsKey(JSON_KEY_SELECT)) {
+			ret.setSelect(fromJsonArray((JSONArray) jsonObj.get(JSON_KEY_SELECT)));
+		}
+		if (jsonObj.containsKey(JSON_KEY_FILTERS)) {
+			for (Object o : (JSONArray) jsonObj.get(JSON_KEY_FILTERS)) {
+				JSONObject fJson = (JSONObject) o;
+				String col = (String) fJson.get(JSON_KEY_COLUMN);
+				if (col == null) {
+					throw new Exception("Filter is missing \"" + JSON_KEY_COLUMN + "\": " + fJson.toJSONString());
+				}
+
+				if (fJson.containsKey(JSON_KEY_EQUALS)) {
+					ret.addEqualsFilter(col, String.valueOf(fJson.get(JSON_KEY_EQUALS)));
+				} else if (fJson.containsKey(JSON_KEY_CONTAINS)) {
+					ret.addContainsFilter(col, String.valueOf(fJson.get(JSON_KEY_CONTAINS)));
+				} else if (fJson.containsKey(JSON_KEY_MIN) || fJson.containsKey(JSON_KEY_MAX)) {
+					Object min = fJson.get(JSON_KEY_MIN);
+					Object max = fJson.get(JSON_KEY_MAX);
+					ret.addRangeFilter(col, min == null ? null : String.valueOf(min), max == null ? null : String.valueOf(max));
+				} else {
+					throw new Exception("Filter needs one of equals, contains, min or max: " + fJson.toJSONString());
+				}
+			}
+		}
+		if (jsonObj.containsKey(JSON_KEY_GROUP_BY)) {
+			ret.setGroupBy(fromJsonArray((JSONArray) jsonObj.get(JSON_KEY_GROUP_BY)));
+		}
+		if (jsonObj.containsKey(JSON_KEY_DISTINCT)) {
+			ret.setDistinct((Boolean) jsonObj.get(JSON_KEY_DISTINCT));
+		}
+		if (jsonObj.containsKey(JSON_KEY_SORT_BY)) {
+			Boolean desc = (Boolean) jsonObj.get(JSON_KEY_DESCENDING);
+			ret.setSortBy((String) jsonObj.get(JSON_KEY_SORT_BY), desc != null && desc);
+		}
+		return ret;
+	}
+
+	/**
+	 * Run the query over a stored table
+	 * @param headerInfo - the stored table's metadata
+	 * @param dataFile - the stored table's rows
+	 * @param handler - receives the output
+	 * @return number of rows given to the handler
+	 */
+	public int execute(JSONObject headerInfo, File dataFile, RowHandler handler) throws Exception {
+		String[] cols = fromJsonArray((JSONArray) headerInfo.get(Table.JSON_KEY_COL_NAMES));
+		String[] colTypes = fromJsonArray((JSONArray) headerInfo.get(Table.JSON_KEY_COL_TYPES));
+		HashMap<String, Integer> colIndex = new HashMap<String, Integer>();
+		for (int i = 0; i < cols.length; i++) {
+			colIndex.put(cols[i], i);
+		}
+
+		// resolve filter columns
+		int[] filterIndex = new int[this.filters.size()];
+		for (int i = 0; i < filterIndex.length; i++) {
+			filterIndex[i] = getIndex(colIndex, this.filters.get(i).col);
+		}
+
+		// output columns
+		String[] outCols;
+		String[] outTypes;
+		int[] outIndex;
+		if (this.groupByCols != null) {
+			outIndex = getIndexes(colIndex, this.groupByCols);
+			outCols = new String[outIndex.length + 1];
+			outTypes = new String[outIndex.length + 1];
+			for (int i = 0; i < outIndex.length; i++) {
+				outCols[i] = cols[outIndex[i]];
+				outTypes[i] = colTypes[outIndex[i]];
+			}
+			outCols[outIndex.length] = COUNT_COLUMN;
+			outTypes[outIndex.length] = COUNT_COLUMN_TYPE;
+		} else if (this.selectCols != null) {
+			outIndex = getIndexes(colIndex, this.selectCols);
+			outCols = new String[outIndex.length];
+			outTypes = new String[outIndex.length];
+			for (int i = 0; i < outIndex.length; i++) {
+				outCols[i] = cols[outIndex[i]];
+				outTypes[i] = colTypes[outIndex[i]];
+			}
+		} else {
+			outIndex = null;
+			outCols = cols;
+			outTypes = colTypes;
+		}
+
+		int sortIndex = -1;
+		if (this.sortCol != null) {
+			for (int i = 0; i < outCols.length; i++) {
+				if (outCols[i].equals(this.sortCol)) {
+					sortIndex = i;
+				}
+			}
+			if (sortIndex == -1) {
+				throw new Exception("Sort column is not in the query output: " + this.sortCol);
+			}
+		}
+
+		handler.startTable(outCols, outTypes);
+
+		ExternalSorter sorter = (this.distinct || this.sortCol != null) ? new ExternalSorter(sortIndex) : null;
+		LinkedHashMap<ArrayList<String>, int[]> groups = (this.groupByCols != null) ? new LinkedHashMap<ArrayList<String>, int[]>() : null;
+		int handled = 0;
+
+		try {
+			TableResultsDataReader reader = new TableResultsDataReader(dataFile);
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.trim().isEmpty()) {
+						continue;
+					}
+					ArrayList<String> row = TableResultsStorage.parseDataRow(line);
+					if (!this.matches(row, filterIndex)) {
+						continue;
+					}
+
+					ArrayList<String> outRow = (outIndex == null) ? row : project(row, outIndex);
+					if (groups != null) {
+						int[] count = groups.get(outRow);
+						if (count == null) {
+							groups.put(outRow, new int[] {1});
+						} else {
+							count[0]++;
+						}
+					} else if (sorter != null) {
+						sorter.add(outRow);
+					} else {
+						handled++;
+						if (!handler.handleRow(outRow)) {
+							return handled;
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+
+			// group counts are complete once all rows are read
+			if (groups != null) {
+				for (Map.Entry<ArrayList<String>, int[]> entry : groups.entrySet()) {
+					ArrayList<String> outRow = new ArrayList<String>(entry.getKey());
+					outRow.add(String.valueOf(entry.getValue()[0]));
+					if (sorter != null) {
+						sorter.add(outRow);
+					} else {
+						handled++;
+						if (!handler.handleRow(outRow)) {
+							return handled;
+						}
+					}
+				}
+			}
+
+			if (sorter != null) {
+				handled = sorter.finish(handler);
+			}
+			return handled;
+
+		} finally {
+			if (sorter != null) {
+				sorter.close();
+			}
+		}
+	}
+
+	private boolean matches(ArrayList<String> row, int[] filterIndex) {
+		for (int i = 0; i < filterIndex.length; i++) {
+			Filter f = this.filters.get(i);
+			String val = row.get(filterIndex[i]);
+
+			if (f.type == FilterType.EQUALS) {
+				if (!val.equals(f.value)) { return false; }
+			} else if (f.type == FilterType.CONTAINS) {
+				if (!val.toLowerCase().contains(f.value)) { return false; }
+			} else {
+				if (f.value != null && compareValues(val, f.value) < 0) { return false; }
+				if (f.max != null && compareValues(val, f.max) > 0) { return false; }
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compare two cell values: numerically if both are numbers, else as strings.
+	 * Numbers come before non-numbers so the order is consistent on mixed columns.
+	 */
+	public static int compareValues(String a, String b) {
+		Double aNum = parseNumber(a);
+		Double bNum = parseNumber(b);
+
+		if (aNum != null && bNum != null) {
+			int ret = Double.compare(aNum, bNum);
+			return ret != 0 ? ret : a.compareTo(b);
+		} else if (aNum != null) {
+			return -1;
+		} else if (bNum != null) {
+			return 1;
+		} else {
+			return a.compareTo(b);
+		}
+	}
+
+	private static Double parseNumber(String s) {
+		if (s.isEmpty()) {
+			return null;
+		}
+		char c = s.charAt(0);
+		if (!(Character.isDigit(c) || c == '-' || c == '+' || c == '.')) {
+			return null;   // skip the exception for obvious non-numbers
+		}
+		try {
+			return Double.valueOf(s);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static ArrayList<String> project(ArrayList<String> row, int[] outIndex) {
+		ArrayList<String> ret = new ArrayList<String>(outIndex.length + 1);
+		for (int i : outIndex) {
+			ret.add(row.get(i));
+		}
+		return ret;
+	}
+
+	private static int getIndex(HashMap<String, Integer> colIndex, String col) throws Exception {
+		Integer ret = colIndex.get(col);
+		if (ret == null) {
+			throw new Exception("Column does not exist in the stored results: " + col);
+		}
+		return ret;
+	}
+
+	private static int[] getIndexes(HashMap<String, Integer> colIndex, String[] cols) throws Exception {
+		int[] ret = new int[cols.length];
+		for (int i = 0; i < cols.length; i++) {
+			ret[i] = getIndex(colIndex, cols[i]);
+		}
+		return ret;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONArray toJsonArray(String[] vals) {
+		JSONArray ret = new JSONArray();
+		for (String v : vals) {
+			ret.add(v);
+		}
+		return ret;
+	}
+
+	static String[] fromJsonArray(JSONArray arr) {
+		String[] ret = new String[arr.size()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = (String) arr.get(i);
+		}
+		return ret;
+	}
+
+	private static class Filter {
+		final String col;
+		final FilterType type;
+		final String value;   // equals value, contains substring, or range min
+		final String max;
+
+		Filter(String col, FilterType type, String value, String max) {
+			this.col = col;
+			this.type = type;
+			this.value = value;
+			this.max = max;
+		}
+	}
+
+	/**
+	 * Sorts rows, writing sorted runs to temporary files when there are too many to hold,
+	 * and merging the runs at the end.  Drops duplicate rows if the query is distinct.
+	 */
+	private class ExternalSorter {
+		private Comparator<ArrayList<String>> comparator;
+		private ArrayList<ArrayList<String>> buffer = new ArrayList<ArrayList<String>>();
+		private ArrayList<File> runFiles = new ArrayList<File>();
+
+		/**
+		 * @param sortIndex - column to sort by, or -1 to sort by whole rows
+		 */
+		ExternalSorter(final int sortIndex) {
+			final int sign = TableResultsQuery.this.descending ? -1 : 1;
+			final boolean wholeRow = TableResultsQuery.this.distinct || sortIndex == -1;
+
+			this.comparator = new Comparator<ArrayList<String>>() {
+				@Override
+				public int compare(ArrayList<String> a, ArrayList<String> b) {
+					if (sortIndex != -1) {
+						int ret = compareValues(a.get(sortIndex), b.get(sortIndex));
+						if (ret != 0) {
+							return sign * ret;
+						}
+					}
+					// distinct needs duplicates next to each other, so break ties on the whole row
+					if (wholeRow) {
+						for (int i = 0; i < a.size(); i++) {
+							int ret = a.get(i).compareTo(b.get(i));
+							if (ret != 0) {
+								return ret;
+							}
+						}
+					}
+					return 0;
+				}
+			};
+		}
+
+		void add(ArrayList<String> row) throws Exception {
+			this.buffer.add(row);
+			if (this.buffer.size() >= TableResultsQuery.this.sortRunRows) {
+				this.writeRun();
+			}
+		}
+
+		private void writeRun() throws Exception {
+			Collections.sort(this.buffer, this.comparator);
+
+			File runFile = File.createTempFile("semtk_sort_", ".dat");
+			this.runFiles.add(runFile);
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(runFile), StandardCharsets.UTF_8));
+			try {
+				for (ArrayList<String> row : this.buffer) {
+					writer.write(TableResultsStorage.formatDataRow(row));
+					writer.newLine();
+				}
+			} finally {
+				writer.close();
+			}
+			this.buffer = new ArrayList<ArrayList<String>>();
+		}
+
+		/**
+		 * Hand all rows to the handler in order
+		 * @return number of rows handed over
+		 */
+		int finish(RowHandler handler) throws Exception {
+			Collections.sort(this.buffer, this.comparator);
+			if (this.runFiles.size() == 0) {
+				return this.emit(this.buffer.iterator(), handler);
+			}
+
+			// merge runs and the in-memory remainder. Ties go to the earlier run to keep the sort stable.
+			final ArrayList<BufferedReader> readers = new ArrayList<BufferedReader>();
+			try {
+				for (File f : this.runFiles) {
+					readers.add(new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)));
+				}
+				PriorityQueue<RunHead> heads = new PriorityQueue<RunHead>(this.runFiles.size() + 1, new Comparator<RunHead>() {
+					@Override
+					public int compare(RunHead a, RunHead b) {
+						int ret = ExternalSorter.this.comparator.compare(a.row, b.row);
+						return ret != 0 ? ret : Integer.compare(a.run, b.run);
+					}
+				});
+				for (int i = 0; i < readers.size(); i++) {
+					String line = readers.get(i).readLine();
+					if (line != null) {
+						heads.add(new RunHead(TableResultsStorage.parseDataRow(line), i));
+					}
+				}
+				final Iterator<ArrayList<String>> memory = this.buffer.iterator();
+				final int memoryRun = readers.size();
+				if (memory.hasNext()) {
+					heads.add(new RunHead(memory.next(), memoryRun));
+				}
+
+				ArrayList<String> prev = null;
+				int count = 0;
+				while (!heads.isEmpty()) {
+					RunHead head = heads.poll();
+					if (!(TableResultsQuery.this.distinct && head.row.equals(prev))) {
+						count++;
+						if (!handler.handleRow(head.row)) {
+							return count;
+						}
+					}
+					prev = head.row;
+
+					// refill from the same run
+					if (head.run == memoryRun) {
+						if (memory.hasNext()) {
+							heads.add(new RunHead(memory.next(), memoryRun));
+						}
+					} else {
+						String line = readers.get(head.run).readLine();
+						if (line != null) {
+							heads.add(new RunHead(TableResultsStorage.parseDataRow(line), head.run));
+						}
+					}
+				}
+				return count;
+			} finally {
+				for (BufferedReader r : readers) {
+					r.close();
+				}
+			}
+		}
+
+		private int emit(Iterator<ArrayList<String>> rows, RowHandler handler) throws Exception {
+			ArrayList<String> prev = null;
+			int count = 0;
+			while (rows.hasNext()) {
+				ArrayList<String> row = rows.next();
+				if (!(TableResultsQuery.this.distinct && row.equals(prev))) {
+					count++;
+					if (!handler.handleRow(row)) {
+						break;
+					}
+				}
+				prev = row;
+			}
+			return count;
+		}
+
+		void close() {
+			for (File f : this.runFiles) {
+				f.delete();
+			}
+			this.runFiles.clear();
+			this.buffer = null;
+		}
+	}
+
+	private static class RunHead {
+		final ArrayList<String> row;
+		final int run;
+
+		RunHead(ArrayList<String> row, int run) {
+			this.row = row;
+			this.run = run;
+		}
+	}
+}
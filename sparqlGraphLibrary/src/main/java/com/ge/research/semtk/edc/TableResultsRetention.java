@@ -0,0 +1,464 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.edc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import com.ge.research.semtk.utility.Utility;
+
+/**
+ * Keeps the table results stored by TableResultsStorage within an age limit and a disk quota.
+ *
+ * An index of each stored result (size, last access, archived or not) is kept in memory
+ * in least-recently-used order and written to the storage directory after each sweep.
+ * The directory is listed only at startup, to pick up anything the index missed.
+ * Callers report results as they are written and read, and sweep() then:
+ * 1) deletes results not used within the maximum age
+ * 2) gzips the data files of results not used recently into the archive directory
+ * 3) deletes least recently used results until the total size is within the quota
+ * Archived results are restored to the storage directory the next time they are used.
+ * Files are compressed and decompressed without holding the lock, so other results stay usable meanwhile.
+ */
+public class TableResultsRetention {
+
+	public static final String INDEX_FILE_NAME = "results_retention_index.json";
+	public static final String ARCHIVE_DIR_NAME = "archive";
+
+	private static final int MAX_ARCHIVES_PER_SWEEP = 100;		// bound the work done by one sweep
+	private static final String METADATA_SUFFIX = "_metadata.json";
+	private static final String DATA_SUFFIX = "_data.dat";
+	private static final String ARCHIVE_SUFFIX = ".gz";
+
+	private File storageDir;
+	private File archiveDir;
+	private File indexFile;
+	private long quotaBytes;
+	private long maxAgeMillis;
+	private long archiveAfterMillis;
+
+	// keyed by the job id in the file names, least recently used first
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long totalBytes = 0;
+
+	/**
+	 * @param fileLocation - the TableResultsStorage directory
+	 * @param quotaBytes - most bytes to keep, or <= 0 for no quota
+	 * @param maxAgeMillis - delete results not used for this long, or <= 0 to keep them
+	 * @param archiveAfterMillis - archive results not used for this long, or <= 0 to never archive
+	 */
+	public TableResultsRetention(String fileLocation, long quotaBytes, long maxAgeMillis, long archiveAfterMillis) throws Exception {
+		this.storageDir = new File(fileLocation);
+		this.archiveDir = new File(this.storageDir, ARCHIVE_DIR_NAME);
+		this.indexFile = new File(this.storageDir, INDEX_FILE_NAME);
+		this.quotaBytes = quotaBytes;
+		this.maxAgeMillis = maxAgeMillis;
+		this.archiveAfterMillis = archiveAfterMillis;
+
+		if (!this.archiveDir.exists() && !this.archiveDir.mkdirs()) {
+			throw new Exception("Could not create results archive directory " + this.archiveDir.getPath());
+		}
+		if (this.indexFile.exists()) {
+			this.readIndex();
+		}
+		this.addUnindexedFiles();
+	}
+
+	/**
+	 * Note that a job's results have been written or are about to be read.
+	 * Restores them first if they are archived.
+	 */
+	public void use(String jobId) throws Exception {
+		Entry entry;
+		synchronized (this) {
+			entry = this.entries.get(jobId);
+			if (entry == null) {
+				entry = new Entry(jobId);
+				this.entries.put(jobId, entry);
+			}
+			entry.lastAccess = System.currentTimeMillis();
+
+			// another thread may already be restoring it
+			while (entry.restoring) {
+				this.wait();
+			}
+			if (entry.removed) {
+				return;
+			}
+			if (!entry.archived) {
+				this.resize(entry);
+				return;
+			}
+			entry.restoring = true;
+		}
+		this.restore(entry);
+	}
+
+	/**
+	 * Note that the results at url (from TableResultsStorage) are about to be read
+	 */
+	public void use(URL url) throws Exception {
+		String jobId = getJobId(url);
+		if (jobId != null) {
+			this.use(jobId);
+		}
+	}
+
+	/**
+	 * Forget the results at url and delete their data file.
+	 * Call when the metadata is deleted.
+	 */
+	public synchronized void remove(URL url) {
+		String jobId = getJobId(url);
+		Entry entry = (jobId == null) ? null : this.entries.remove(jobId);
+		if (entry != null) {
+			this.totalBytes -= entry.bytes;
+			this.deleteFiles(entry);
+		}
+	}
+
+	public synchronized long getTotalBytes() {
+		return this.totalBytes;
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	public synchronized boolean isArchived(String jobId) {
+		// a get() would count as a use
+		for (Entry entry : this.entries.values()) {
+			if (entry.jobId.equals(jobId)) {
+				return entry.archived;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Apply the age limit, archiving and quota, then save the index.
+	 * @return a one-line summary
+	 */
+	public String sweep() throws Exception {
+		return this.sweep(new ArrayList<String>());
+	}
+
+	/**
+	 * Apply the age limit, archiving and quota, then save the index.
+	 * @param deletedJobIds - job ids whose results were deleted are added to this
+	 * @return a one-line summary
+	 */
+	public String sweep(ArrayList<String> deletedJobIds) throws Exception {
+		int deleted = 0;
+		int archived = 0;
+		long now = System.currentTimeMillis();
+
+		// delete results past the age limit
+		synchronized (this) {
+			if (this.maxAgeMillis > 0) {
+				Iterator<Entry> it = this.entries.values().iterator();
+				while (it.hasNext()) {
+					Entry entry = it.next();
+					if (entry.lastAccess < now - this.maxAgeMillis) {
+						it.remove();
+						this.totalBytes -= entry.bytes;
+						this.deleteFiles(entry);
+						deletedJobIds.add(entry.jobId);
+						deleted++;
+					}
+				}
+			}
+		}
+
+		// archive results not used recently.  Compression is done without holding the lock.
+		if (this.archiveAfterMillis > 0) {
+			ArrayList<Entry> candidates = new ArrayList<Entry>();
+			synchronized (this) {
+				for (Entry entry : this.entries.values()) {
+					if (candidates.size() >= MAX_ARCHIVES_PER_SWEEP || entry.lastAccess >= now - this.archiveAfterMillis) {
+						break;		// the rest were used more recently
+					}
+					if (!entry.archived) {
+						candidates.add(entry);
+					}
+				}
+			}
+			for (Entry entry : candidates) {
+				if (this.archive(entry)) {
+					archived++;
+				}
+			}
+		}
+
+		// enforce the quota
+		synchronized (this) {
+			if (this.quotaBytes > 0) {
+				Iterator<Entry> it = this.entries.values().iterator();
+				while (this.totalBytes > this.quotaBytes && it.hasNext()) {
+					Entry entry = it.next();
+					it.remove();
+					this.totalBytes -= entry.bytes;
+					this.deleteFiles(entry);
+					deletedJobIds.add(entry.jobId);
+					deleted++;
+				}
+			}
+			this.writeIndex();
+			return "results retention: deleted " + deleted + ", archived " + archived + ", kept " + this.entries.size() + " totaling " + this.totalBytes + " bytes";
+		}
+	}
+
+	/**
+	 * Gzip an entry's data file into the archive directory, unless it is used meanwhile.
+	 * @return true if archived
+	 */
+	private boolean archive(Entry entry) throws Exception {
+		long lastAccess;
+		synchronized (this) {
+			lastAccess = entry.lastAccess;
+		}
+		File dataFile = this.getDataFile(entry);
+		if (!dataFile.exists()) {
+			return false;	// results still being initialized, or already gone
+		}
+
+		File tmp = new File(this.archiveDir, dataFile.getName() + ARCHIVE_SUFFIX + ".tmp");
+		try {
+			copy(new FileInputStream(dataFile), new GZIPOutputStream(new FileOutputStream(tmp)));
+		} catch (Exception e) {
+			tmp.delete();
+			throw e;
+		}
+
+		synchronized (this) {
+			if (entry.removed || entry.archived || entry.lastAccess != lastAccess) {
+				tmp.delete();		// used or removed while compressing
+				return false;
+			}
+			Files.move(tmp.toPath(), this.getArchiveFile(entry).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			dataFile.delete();
+			entry.archived = true;
+			this.resize(entry);
+			return true;
+		}
+	}
+
+	/**
+	 * Unzip an entry's data file back to the storage directory.
+	 * Caller has set entry.restoring, which keeps other users waiting and sweep() from archiving it again.
+	 */
+	private void restore(Entry entry) throws Exception {
+		File archiveFile = this.getArchiveFile(entry);
+		File dataFile = this.getDataFile(entry);
+		File tmp = new File(this.storageDir, dataFile.getName() + ".tmp");
+
+		try {
+			copy(new GZIPInputStream(new FileInputStream(archiveFile)), new FileOutputStream(tmp));
+
+			synchronized (this) {
+				if (entry.removed) {
+					tmp.delete();		// deleted while decompressing
+					return;
+				}
+				Files.move(tmp.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				archiveFile.delete();
+				entry.archived = false;
+				this.resize(entry);
+			}
+		} catch (Exception e) {
+			tmp.delete();
+			throw e;
+		} finally {
+			synchronized (this) {
+				entry.restoring = false;
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Recompute an entry's size from its files
+	 */
+	private void resize(Entry entry) {
+		long bytes = this.getMetadataFile(entry).length() + (entry.archived ? this.getArchiveFile(entry).length() : this.getDataFile(entry).length());
+		this.totalBytes += bytes - entry.bytes;
+		entry.bytes = bytes;
+	}
+
+	private void deleteFiles(Entry entry) {
+		entry.removed = true;
+		this.getMetadataFile(entry).delete();
+		this.getDataFile(entry).delete();
+		this.getArchiveFile(entry).delete();
+	}
+
+	private File getMetadataFile(Entry entry) {
+		return new File(this.storageDir, "results_" + entry.jobId + METADATA_SUFFIX);
+	}
+
+	private File getDataFile(Entry entry) {
+		return new File(this.storageDir, "results_" + entry.jobId + DATA_SUFFIX);
+	}
+
+	private File getArchiveFile(Entry entry) {
+		return new File(this.archiveDir, "results_" + entry.jobId + DATA_SUFFIX + ARCHIVE_SUFFIX);
+	}
+
+	/**
+	 * Get the job id in the name of a results file, or null if it isn't one
+	 */
+	private static String getJobId(String fileName) {
+		if (!fileName.startsWith("results_")) {
+			return null;
+		}
+		for (String suffix : new String[] {METADATA_SUFFIX, DATA_SUFFIX, DATA_SUFFIX + ARCHIVE_SUFFIX}) {
+			if (fileName.endsWith(suffix)) {
+				return fileName.substring("results_".length(), fileName.length() - suffix.length());
+			}
+		}
+		return null;
+	}
+
+	private static String getJobId(URL url) {
+		return getJobId(new File(url.getPath()).getName());
+	}
+
+	/**
+	 * Add any results files not in the index, e.g. those written before the index existed
+	 */
+	private synchronized void addUnindexedFiles() {
+		for (File dir : new File[] {this.storageDir, this.archiveDir}) {
+			File[] files = dir.listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File f : files) {
+				String jobId = getJobId(f.getName());
+				if (jobId != null && !this.entries.containsKey(jobId)) {
+					Entry entry = new Entry(jobId);
+					entry.archived = (dir == this.archiveDir);
+					entry.lastAccess = f.lastModified();
+					this.entries.put(jobId, entry);
+					this.resize(entry);
+				}
+			}
+		}
+		this.sortByLastAccess();
+	}
+
+	/**
+	 * Re-insert entries oldest first, after adding some out of order
+	 */
+	private void sortByLastAccess() {
+		ArrayList<Entry> sorted = new ArrayList<Entry>(this.entries.values());
+		Collections.sort(sorted, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				return Long.compare(a.lastAccess, b.lastAccess);
+			}
+		});
+		this.entries.clear();
+		for (Entry entry : sorted) {
+			this.entries.put(entry.jobId, entry);
+		}
+	}
+
+	private synchronized void readIndex() throws Exception {
+		JSONObject json = Utility.getJSONObjectFromFilePath(this.indexFile.getPath());
+		for (Object o : (JSONArray) json.get("entries")) {
+			JSONObject e = (JSONObject) o;
+			Entry entry = new Entry((String) e.get("jobId"));
+			entry.lastAccess = (Long) e.get("lastAccess");
+			entry.archived = (Boolean) e.get("archived");
+
+			if (this.getMetadataFile(entry).exists() || this.getDataFile(entry).exists() || this.getArchiveFile(entry).exists()) {
+				this.entries.put(entry.jobId, entry);
+				this.resize(entry);
+			}
+		}
+	}
+
+	/**
+	 * Save the index, least recently used first
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized void writeIndex() throws Exception {
+		JSONArray arr = new JSONArray();
+		for (Entry entry : this.entries.values()) {
+			JSONObject e = new JSONObject();
+			e.put("jobId", entry.jobId);
+			e.put("bytes", entry.bytes);
+			e.put("lastAccess", entry.lastAccess);
+			e.put("archived", entry.archived);
+			arr.add(e);
+		}
+		JSONObject json = new JSONObject();
+		json.put("entries", arr);
+
+		File tmp = new File(this.storageDir, INDEX_FILE_NAME + ".tmp");
+		Files.write(tmp.toPath(), json.toJSONString().getBytes());
+		Files.move(tmp.toPath(), this.indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws Exception {
+		InputStream bin = new BufferedInputStream(in);
+		OutputStream bout = new BufferedOutputStream(out);
+		try {
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = bin.read(buf)) > 0) {
+				bout.write(buf, 0, n);
+			}
+		} finally {
+			bin.close();
+			bout.close();
+		}
+	}
+
+	private static class Entry {
+		final String jobId;
+		long bytes = 0;
+		long lastAccess = System.currentTimeMillis();
+		boolean archived = false;
+		boolean removed = false;
+		boolean restoring = false;		// being decompressed by a use()
+
+		Entry(String jobId) {
+			this.jobId = jobId;
+		}
+	}
+}
@@ -17,9 +17,7 @@
 
 package com.ge.research.semtk.edc;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -74,6 +72,7 @@ public class TableResultsSerializer {
 		else if(this.cutoffValue == null){ this.cutoffValue = totalRowsExpected - this.startingRowNumber; }
 		else if(this.cutoffValue >  totalRowsExpected - this.startingRowNumber)
 		{ this.cutoffValue = totalRowsExpected - this.startingRowNumber; }
+		if(this.cutoffValue < 0){ this.cutoffValue = 0; }	// starting past the last row
 		
 		System.err.println("requested file record size = " + cutoffValue);
 		
@@ -121,8 +120,7 @@ public class TableResultsSerializer {
 		int processedRows = 0;
 		boolean endOfInput = false;
 		
-		FileReader fr = new FileReader(dataFile);
-		BufferedReader bfr = new BufferedReader(fr);
+		TableResultsDataReader bfr = new TableResultsDataReader(dataFile);
 		
 		// fast foward
 		bfr = this.fastForwardResultsFile(bfr);
@@ -132,6 +130,7 @@ public class TableResultsSerializer {
 			// read the next row from the data set and write to the stream. 
 
 			String currRow = bfr.readLine();
+			if(currRow == null){ endOfInput = true; break; }
 			// conversion should not be required in this case as it was read as written.
 			aOutputStream.write(currRow.substring(1, currRow.length() - 1));
 			
@@ -146,6 +145,8 @@ public class TableResultsSerializer {
 			}
 		}
 		
+		bfr.close();
+		
 		// done with rows. flush.
 		aOutputStream.flush();
 		System.err.println("flushing after completion: " +  processedRows);
@@ -199,8 +200,7 @@ public class TableResultsSerializer {
 		// process the data file rows until the cutoff is reached.
 		int processedRows = 0;
 		
-		FileReader fr = new FileReader(dataFile);
-		BufferedReader bfr = new BufferedReader(fr);
+		TableResultsDataReader bfr = new TableResultsDataReader(dataFile);
 		
 		// fast foward
 		bfr = this.fastForwardResultsFile(bfr);
@@ -223,6 +223,8 @@ public class TableResultsSerializer {
 			}
 		}
 		
+		bfr.close();
+		
 		aOutputStream.write("]}");
 		// done with rows. flush.
 		aOutputStream.flush();
@@ -230,11 +232,10 @@ public class TableResultsSerializer {
 		
 	}
 	
-	private BufferedReader fastForwardResultsFile(BufferedReader bfr) throws IOException{
+	private TableResultsDataReader fastForwardResultsFile(TableResultsDataReader bfr) throws IOException{
 		
-		for(int i = 0; i < this.startingRowNumber; i += 1){
-			bfr.readLine();
-		}
+		// skips whole compressed blocks without reading them
+		bfr.skipRows(this.startingRowNumber);
 		return bfr;
 	}
 }
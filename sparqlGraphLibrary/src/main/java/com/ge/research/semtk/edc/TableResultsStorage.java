@@ -18,19 +18,30 @@
 package com.ge.research.semtk.edc;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.crypto.dsig.keyinfo.RetrievalMethod;
 
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 
 import com.ge.research.semtk.resultSet.Table;
 import com.ge.research.semtk.utility.Utility;
@@ -39,6 +50,13 @@ import com.ge.research.semtk.utility.Utility;
  * Utilities to:
  * 1) store a table result set as a JSON file 
  * 2) retrieve results as CSV or JSON (possibly truncated)
+ * 
+ * Rows are stored in block-compressed data files (see TableResultsDataWriter).
+ * Each job being written keeps its data file open between incremental calls.
+ * The rows of each incremental call are committed when it returns, and may be read
+ * before the job is finalized.
+ * 
+ * Parsed metadata (header and row count) is cached, so a service should share one instance.
  */
 public class TableResultsStorage {
 
@@ -47,9 +65,39 @@ public class TableResultsStorage {
 	private String fileLocation = null;
 	
 	private static final String DATARESULTSFILELOCATION = "ResultsDataLocation";
+	private static final String RESULTSINPROGRESS = "ResultsInProgress";		// in metadata until finalized
+	
+	// longest wait between checks for newly committed rows
+	private static final long COMMIT_POLL_MILLIS = 1000;
+	private static final Object commitMonitor = new Object();
+	
+	// open data files of jobs being written, by path
+	private static ConcurrentHashMap<String, TableResultsDataWriter> dataWriters = new ConcurrentHashMap<String, TableResultsDataWriter>();
+	
+	public static final int DEFAULT_METADATA_CACHE_SIZE = 1000;
+	
+	// parsed metadata files by path, least recently used dropped first
+	private LinkedHashMap<String, CachedMetadata> metadataCache;
 	
 	public TableResultsStorage(String file_location) {
+		this(file_location, DEFAULT_METADATA_CACHE_SIZE);
+	}
+	
+	/**
+	 * @param file_location directory holding the results files
+	 * @param metadataCacheSize most metadata files kept parsed in memory
+	 */
+	public TableResultsStorage(String file_location, final int metadataCacheSize) {
 		this.fileLocation = file_location;
+		
+		// access-ordered so the eldest entry is the least recently used
+		this.metadataCache = new LinkedHashMap<String, CachedMetadata>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedMetadata> eldest) {
+				return this.size() > metadataCacheSize;
+			}
+		};
 	}
 
 	/**
@@ -72,9 +120,11 @@ public class TableResultsStorage {
 		
 		// write it to file
 		resultsTableMetaData.put(DATARESULTSFILELOCATION, dataFileName);
+		resultsTableMetaData.put(RESULTSINPROGRESS, true);
 		
 		// create and write the results metadata file
-		writeToFile(jobID, resultsTableMetaData.toJSONString(), false);
+		String fileName = writeToFile(jobID, resultsTableMetaData.toJSONString(), false);
+		invalidateMetadata(Paths.get(fileLocation, fileName));
 	}
 	
 	/**
@@ -92,6 +142,7 @@ public class TableResultsStorage {
 	 */
 	public void storeTableResultsJsonAddIncremental(String jobID, String contents) throws Exception {				
 		writeToFile(jobID, contents, true);
+		notifyCommitted();
 	}
 	
 	/**
@@ -105,10 +156,106 @@ public class TableResultsStorage {
 	 * @param rowCount the number of rows written
 	 */
 	public URL storeTableResultsJsonFinalize(String jobID) throws Exception {				
+		return storeTableResultsJsonFinalize(jobID, null);
+	}
+	
+	/**
+	 * Call 3 of 3 to store table result as JSON, for tables whose row count wasn't known at call 1.
+	 * @param jobID the job id
+	 * @param rowCount the number of rows written, or null to keep the count from call 1
+	 */
+	@SuppressWarnings("unchecked")
+	public URL storeTableResultsJsonFinalize(String jobID, Integer rowCount) throws Exception {				
+		closeDataWriter(Paths.get(fileLocation, getDataFileName(jobID)));
 		String fileName = writeToFile(jobID, null, false);
+		
+		Path path = Paths.get(fileLocation, fileName);
+		JSONObject metaData = Utility.getJSONObjectFromFilePath(path.toString());
+		if(rowCount != null || metaData.containsKey(RESULTSINPROGRESS)){
+			if(rowCount != null){
+				metaData.put(Table.JSON_KEY_ROW_COUNT, rowCount);
+			}
+			metaData.remove(RESULTSINPROGRESS);
+			writeMetadata(path, metaData);
+		}
+		invalidateMetadata(path);
+		notifyCommitted();
 		return getURL(fileName);
 	}
 	
+	/**
+	 * Get the URL of a job's results if they are initialized but not yet finalized
+	 * @return the url, or null
+	 */
+	public URL getInProgressURL(String jobID) throws Exception {
+		String fileName = "results_" + jobID + "_metadata.json";
+		if(!Paths.get(fileLocation, fileName).toFile().exists()){
+			return null;
+		}
+		URL url = getURL(fileName);
+		return isInProgress(getMetadata(url)) ? url : null;
+	}
+	
+	/**
+	 * Are these results still being stored
+	 */
+	public boolean isInProgress(URL url) throws Exception {
+		return isInProgress(getMetadata(url));
+	}
+	
+	/**
+	 * Get the number of rows that may be read: 
+	 * the rows committed so far if results are in progress, otherwise the row count.
+	 */
+	public long getCommittedRowCount(URL url) throws Exception {
+		return getCommittedRowCount(getMetadata(url));
+	}
+	
+	/**
+	 * Wait until results in progress have at least rowCount committed rows, are finalized, or time runs out.
+	 * @param url the url of the results
+	 * @param rowCount rows wanted
+	 * @param timeoutMillis longest wait
+	 * @return the committed row count
+	 */
+	public long waitForCommittedRows(URL url, long rowCount, long timeoutMillis) throws Exception {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while(true){
+			JSONObject metadata = getMetadata(url);
+			long committed = getCommittedRowCount(metadata);
+			long remaining = deadline - System.currentTimeMillis();
+			if(committed >= rowCount || !isInProgress(metadata) || remaining <= 0){
+				return committed;
+			}
+			synchronized(commitMonitor){
+				commitMonitor.wait(Math.min(remaining, COMMIT_POLL_MILLIS));	// rows may also be written by another process
+			}
+		}
+	}
+	
+	private static boolean isInProgress(JSONObject metadata) {
+		return Boolean.TRUE.equals(metadata.get(RESULTSINPROGRESS));
+	}
+	
+	private long getCommittedRowCount(JSONObject metadata) throws Exception {
+		if(!isInProgress(metadata)){
+			return Long.parseLong(metadata.get(Table.JSON_KEY_ROW_COUNT).toString());
+		}
+		String dataFileLocation = (String) metadata.get(DATARESULTSFILELOCATION);
+		TableResultsDataWriter writer = dataWriters.get(dataFileLocation);
+		if(writer != null){
+			return writer.getRowsWritten();
+		}
+		File dataFile = new File(dataFileLocation);
+		return dataFile.exists() ? TableResultsDataReader.countRows(dataFile) : 0;
+	}
+	
+	private static void notifyCommitted() {
+		synchronized(commitMonitor){
+			commitMonitor.notifyAll();
+		}
+	}
+	
 	
 	/**
 	 * Get the full result set as json.
@@ -148,6 +295,40 @@ public class TableResultsStorage {
 		return getTable(url, maxRows, startRow, TableResultsStorageTypes.CSV);
 	}
 	
+	/**
+	 * Write the result, or a subset, in the typed columnar format of TableResultsColumnarWriter.
+	 * Reads the stored rows one row group at a time.
+	 * @param url the url of the full json result
+	 * @param maxRows limit to this number of rows, or null for all
+	 * @param startRow first row to write
+	 * @param out receives the columnar table.  Not closed.
+	 * @return number of rows written
+	 */
+	public int writeColumnarTable(URL url, Integer maxRows, Integer startRow, OutputStream out) throws Exception{
+		JSONObject jsonObj = getMetadata(url);
+		File dataFile = new File((String) jsonObj.get(DATARESULTSFILELOCATION));
+		
+		int start = (startRow == null || startRow < 0) ? 0 : startRow;
+		long available = getCommittedRowCount(jsonObj) - start;
+		long rowsToWrite = (maxRows == null) ? available : Math.min(available, maxRows);
+		
+		TableResultsColumnarWriter writer = new TableResultsColumnarWriter(out, 
+				TableResultsQuery.fromJsonArray((JSONArray) jsonObj.get(Table.JSON_KEY_COL_NAMES)), 
+				TableResultsQuery.fromJsonArray((JSONArray) jsonObj.get(Table.JSON_KEY_COL_TYPES)));
+		
+		TableResultsDataReader reader = new TableResultsDataReader(dataFile);
+		try {
+			reader.skipRows(start);
+			String line;
+			for(long i = 0; i < rowsToWrite && (line = reader.readLine()) != null; i++){
+				writer.addRow(parseDataRow(line));
+			}
+		} finally {
+			reader.close();
+		}
+		return writer.finish();
+	}
+	
 
 	// TODO PERFORMANCE CONCERNS - what if the result set is huge
 	/**
@@ -156,13 +337,20 @@ public class TableResultsStorage {
 	 * @param maxRows limit to this number of rows
 	 * @return storageType indicates CSV or JSON
 	 */
+	@SuppressWarnings("unchecked")
 	private TableResultsSerializer getTable(URL url, Integer maxRows, Integer startRow, TableResultsStorageTypes storageType) throws Exception{
 		
 		try{
-			JSONObject jsonObj = Utility.getJSONObjectFromFilePath(urlToPath(url).toString());	// read json from url
+			JSONObject jsonObj = getMetadata(url);	// read json from url
 			
 			String dataFileLocation = (String) jsonObj.get(DATARESULTSFILELOCATION);
 			
+			if(isInProgress(jsonObj)){
+				// serve only committed rows
+				jsonObj = new JSONObject(jsonObj);
+				jsonObj.put(Table.JSON_KEY_ROW_COUNT, getCommittedRowCount(url));
+			}
+			
 			if(storageType == TableResultsStorageTypes.CSV){
 				return new TableResultsSerializer(jsonObj, dataFileLocation, TableResultsStorageTypes.CSV, maxRows, startRow);
 				
@@ -179,9 +367,180 @@ public class TableResultsStorage {
 		
 	}
 	
+	/**
+	 * Run a query over stored results and store its output as the results of another job.
+	 * @param url the url of the full json result
+	 * @param query the operators to apply
+	 * @param newJobId job to store the output for
+	 * @return url of the new results
+	 */
+	public URL storeQueryResults(URL url, TableResultsQuery query, final String newJobId) throws Exception {
+		JSONObject jsonObj = getMetadata(url);
+		File dataFile = new File((String) jsonObj.get(DATARESULTSFILELOCATION));
+		
+		final int batchSize = 5000;
+		final StringBuilder batch = new StringBuilder();
+		final int [] batchRows = {0};
+		
+		int rowCount = query.execute(jsonObj, dataFile, new TableResultsQuery.RowHandler() {
+			@Override
+			public void startTable(String[] cols, String[] colTypes) throws Exception {
+				storeTableResultsJsonInitialize(newJobId, new Table(cols, colTypes, null).getHeaderJson());
+			}
+			@Override
+			public boolean handleRow(ArrayList<String> row) throws Exception {
+				if (batchRows[0] > 0) {
+					batch.append("\n");
+				}
+				batch.append(formatDataRow(row));
+				if (++batchRows[0] >= batchSize) {
+					storeTableResultsJsonAddIncremental(newJobId, batch.toString());
+					batch.setLength(0);
+					batchRows[0] = 0;
+				}
+				return true;
+			}
+		});
+		
+		if (batchRows[0] > 0) {
+			storeTableResultsJsonAddIncremental(newJobId, batch.toString());
+		}
+		return storeTableResultsJsonFinalize(newJobId, rowCount);
+	}
+	
+	/**
+	 * Give another job its own copy of finalized results, e.g. to reuse them for a repeated query.
+	 * The data file is hard linked where the file system allows, and copied otherwise,
+	 * so deleting or archiving either job's results leaves the other's intact.
+	 * @param url the url of the full json result
+	 * @param newJobId job to store the copy for
+	 * @return url of the new results
+	 */
+	@SuppressWarnings("unchecked")
+	public URL linkTableResults(URL url, String newJobId) throws Exception {
+		JSONObject metadata = getMetadata(url);
+		if(isInProgress(metadata)){
+			throw new Exception("Results are still being stored: " + url);
+		}
+		Path source = Paths.get((String) metadata.get(DATARESULTSFILELOCATION));
+		Path target = Paths.get(fileLocation, getDataFileName(newJobId));
+		closeDataWriter(target);
+		Files.deleteIfExists(target);
+		try {
+			Files.createLink(target, source);
+		} catch(UnsupportedOperationException | IOException e){
+			Files.copy(source, target);
+		}
+		
+		JSONObject newMetadata = new JSONObject();
+		newMetadata.putAll(metadata);
+		newMetadata.put(DATARESULTSFILELOCATION, target.toString());
+		String fileName = "results_" + newJobId + "_metadata.json";
+		Path path = Paths.get(fileLocation, fileName);
+		writeMetadata(path, newMetadata);
+		invalidateMetadata(path);
+		return getURL(fileName);
+	}
+	
+	/**
+	 * Replace a metadata file in one step, so readers never see it truncated or half written.
+	 * The temp file's name doesn't end in _metadata.json, so retention ignores it if left behind.
+	 */
+	private static void writeMetadata(Path path, JSONObject metadata) throws IOException {
+		Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			Files.write(tmp, (metadata.toJSONString() + "\n").getBytes());
+			try {
+				Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e){
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+	
+	/**
+	 * Run a query over stored results and return one page of its output.
+	 * Stops reading as soon as the page is full, unless the query sorts or aggregates.
+	 * @param url the url of the full json result
+	 * @param query the operators to apply
+	 * @param startRow first output row to return
+	 * @param maxRows limit to this number of rows, or null for all
+	 */
+	public Table getQueryResultsTable(URL url, TableResultsQuery query, final int startRow, final Integer maxRows) throws Exception {
+		JSONObject jsonObj = getMetadata(url);
+		File dataFile = new File((String) jsonObj.get(DATARESULTSFILELOCATION));
+		
+		final Table [] ret = {null};
+		final int [] seen = {0};
+		
+		query.execute(jsonObj, dataFile, new TableResultsQuery.RowHandler() {
+			@Override
+			public void startTable(String[] cols, String[] colTypes) throws Exception {
+				ret[0] = new Table(cols, colTypes, null);
+			}
+			@Override
+			public boolean handleRow(ArrayList<String> row) throws Exception {
+				if (seen[0]++ >= startRow) {
+					ret[0].addRow(row);
+				}
+				return maxRows == null || ret[0].getNumRows() < maxRows;
+			}
+		});
+		return ret[0];
+	}
+	
+	/**
+	 * Parse one row of a results data file, e.g. ["a1","b1","c1"],
+	 * The trailing comma is optional.
+	 */
+	public static ArrayList<String> parseDataRow(String line) throws Exception {
+		String trimmed = line.trim();
+		if (trimmed.endsWith(",")) {
+			trimmed = trimmed.substring(0, trimmed.length() - 1);
+		}
+		JSONArray arr = (JSONArray) (new JSONParser()).parse(trimmed);
+		ArrayList<String> ret = new ArrayList<String>(arr.size());
+		for (Object o : arr) {
+			ret.add(o == null ? "" : o.toString());
+		}
+		return ret;
+	}
+	
+	/**
+	 * Format one row for a results data file: quoted elements, no spaces, enclosing brackets, no trailing comma.
+	 */
+	public static String formatDataRow(ArrayList<String> row) {
+		StringBuilder ret = new StringBuilder();
+		ret.append("[");
+		for (int i = 0; i < row.size(); i++) {
+			if (i > 0) {
+				ret.append(",");
+			}
+			ret.append("\"");
+			String val = row.get(i);
+			for (int j = 0; j < val.length(); j++) {
+				char c = val.charAt(j);
+				switch (c) {
+				case '"':  ret.append("\\\""); break;
+				case '\\': ret.append("\\\\"); break;
+				case '\n': ret.append("\\n"); break;
+				case '\r': ret.append("\\r"); break;
+				case '\t': ret.append("\\t"); break;
+				default:   ret.append(c);
+				}
+			}
+			ret.append("\"");
+		}
+		ret.append("]");
+		return ret.toString();
+	}
+	
 		
 	/**
 	 * Write line(s) of data to the results file for a given job id.
+	 * Data goes through the job's open TableResultsDataWriter; null contents creates an empty data file.
 	 * @param jobID the job id
 	 * @param contents the data to write
 	 * @param writeToResultsFile "true" if writing to the results data, "false" for writing to the metadata file
@@ -189,14 +548,37 @@ public class TableResultsStorage {
 	 */
 	private String writeToFile(String jobID, String contents, Boolean writeToResultsFile) throws Exception {
 		
+		if(writeToResultsFile){
+			Path path = Paths.get(fileLocation, getDataFileName(jobID));
+			if(contents == null){
+				closeDataWriter(path);
+				TableResultsDataWriter.create(path);
+			}
+			else if(path.toFile().exists() && !dataWriters.containsKey(path.toString()) && !TableResultsDataReader.isBlockFile(path.toFile())){
+				// plain data file from before block compression
+				Files.write(path, (contents + "\n").getBytes(), StandardOpenOption.APPEND);
+			}
+			else{
+				while(true){
+					TableResultsDataWriter writer = getDataWriter(path);
+					synchronized(writer){
+						// closeIdleDataWriters() may have closed it since it was fetched: use a new one
+						if(dataWriters.get(path.toString()) != writer){
+							continue;
+						}
+						writer.addRows(contents);
+						writer.flush();		// commit
+					}
+					break;
+				}
+			}
+			return path.toString();
+		}
+		
 		if(contents == null){ contents = ""; }
 		else{ contents += "\n"; }
 		
-		String filename = "results_" + jobID;
-		
-		if(writeToResultsFile){ filename = filename + "_data.dat";}
-		else{ filename = filename + "_metadata.json"; }
-		
+		String filename = "results_" + jobID + "_metadata.json";
 		Path path = Paths.get(fileLocation, filename);
 		
 		try {
@@ -215,8 +597,66 @@ public class TableResultsStorage {
 			
 			
 		}
-		if(!writeToResultsFile){ return filename; }
-		else{ return path.toString(); }
+		return filename;
+	}
+	
+	private static String getDataFileName(String jobID) {
+		return "results_" + jobID + "_data.dat";
+	}
+	
+	/**
+	 * Get the open writer for a data file, creating the file if needed
+	 */
+	private static synchronized TableResultsDataWriter getDataWriter(Path path) throws Exception {
+		TableResultsDataWriter writer = dataWriters.get(path.toString());
+		if(writer == null){
+			if(!path.toFile().exists()){
+				TableResultsDataWriter.create(path);
+			}
+			writer = new TableResultsDataWriter(path);
+			dataWriters.put(path.toString(), writer);
+		}
+		return writer;
+	}
+	
+	/**
+	 * Write out a data file's buffered rows and close it
+	 */
+	private static void closeDataWriter(Path path) throws Exception {
+		TableResultsDataWriter writer = dataWriters.get(path.toString());
+		if(writer != null){
+			synchronized(writer){
+				dataWriters.remove(path.toString(), writer);
+				writer.close();
+			}
+		}
+	}
+	
+	/**
+	 * Close the data files of jobs that have not added rows recently, e.g. abandoned jobs.
+	 * Their buffered rows are written and the writers forgotten; a later incremental call opens a new one.
+	 * Each writer is checked and removed holding its lock, which writeToFile() also holds while adding rows.
+	 * @param idleMillis close files idle at least this long
+	 * @return number closed
+	 */
+	public static synchronized int closeIdleDataWriters(long idleMillis) {
+		int closed = 0;
+		Iterator<TableResultsDataWriter> it = dataWriters.values().iterator();
+		while(it.hasNext()){
+			TableResultsDataWriter writer = it.next();
+			synchronized(writer){
+				if(writer.getIdleMillis() >= idleMillis){
+					it.remove();
+					try {
+						writer.close();
+					} catch(Exception e){
+						System.err.println("Error closing results data file " + writer.getPath() + ": " + e.getMessage());
+					}
+					closed += 1;
+				}
+			}
+		}
+		return closed;
 	}
 	
 	/**
@@ -231,6 +671,44 @@ public class TableResultsStorage {
 	 */
 	public void deleteStoredFile(URL url) throws Exception {
 	    Files.deleteIfExists(urlToPath(url));
+	    invalidateMetadata(urlToPath(url));
+	}
+	
+	/**
+	 * Get the parsed metadata file for a URL, from the cache if the file hasn't changed.
+	 * The returned object is shared and must not be modified.
+	 */
+	private JSONObject getMetadata(URL url) throws Exception {
+		Path path = urlToPath(url);
+		long lastModified = path.toFile().lastModified();		// 0 if the file is gone
+		
+		synchronized(this.metadataCache){
+			CachedMetadata cached = this.metadataCache.get(path.toString());
+			if(cached != null && lastModified != 0 && cached.lastModified == lastModified){
+				return cached.metadata;
+			}
+		}
+		
+		JSONObject metadata = Utility.getJSONObjectFromFilePath(path.toString());
+		synchronized(this.metadataCache){
+			this.metadataCache.put(path.toString(), new CachedMetadata(metadata, lastModified));
+		}
+		return metadata;
+	}
+	
+	private void invalidateMetadata(Path path) {
+		synchronized(this.metadataCache){
+			this.metadataCache.remove(path.toString());
+		}
+	}
+	
+	/**
+	 * Number of metadata files currently cached
+	 */
+	public int getMetadataCacheSize() {
+		synchronized(this.metadataCache){
+			return this.metadataCache.size();
+		}
 	}
 		
 	/**
@@ -258,7 +736,7 @@ public class TableResultsStorage {
 	public int getResultsRowCount(URL url) throws Exception{
 		
 		try{
-			JSONObject jsonObj = Utility.getJSONObjectFromFilePath(urlToPath(url).toString());	// read json from url
+			JSONObject jsonObj = getMetadata(url);	// read json from url
 			Long val = (Long) jsonObj.get(Table.JSON_KEY_ROW_COUNT);
 			int retval = val.intValue();
 			return retval;
@@ -269,4 +747,14 @@ public class TableResultsStorage {
 		}
 	}
 	
-}   
+	
+	private static class CachedMetadata {
+		final JSONObject metadata;
+		final long lastModified;
+		
+		CachedMetadata(JSONObject metadata, long lastModified) {
+			this.metadata = metadata;
+			this.lastModified = lastModified;
+		}
+	}
+}
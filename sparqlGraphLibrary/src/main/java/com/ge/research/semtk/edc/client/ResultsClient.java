@@ -18,13 +18,22 @@
 
 package com.ge.research.semtk.edc.client;
 
+import java.io.Writer;
 import java.net.ConnectException;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.StringUtils;
 import org.json.simple.JSONObject;
 
+import com.ge.research.semtk.edc.TableResultsQuery;
 import com.ge.research.semtk.load.dataset.CSVDataset;
 import com.ge.research.semtk.resultSet.SimpleResultSet;
 import com.ge.research.semtk.resultSet.Table;
@@ -37,6 +46,7 @@ public class ResultsClient extends RestClient implements Runnable {
 	// batch sizes for sending and retrieving results.  These can be tuned.
 	private int BATCH_SIZE_SEND = 5000;
 	private int BATCH_SIZE_RETRIEVE = 50000;
+	private int RETRIEVE_THREADS = 4;		// batches retrieved at once
 	
 	public ResultsClient (ResultsClientConfig config) {
 		this.conf = config;
@@ -170,80 +180,345 @@ public class ResultsClient extends RestClient implements Runnable {
 		return;
 	}
 		
+	/**
+	 * Start storing a table whose rows will arrive in pieces.
+	 * Follow with execStoreTableResultsJsonAddIncremental() for each piece and execStoreTableResultsJsonFinalize().
+	 * @param jobId
+	 * @param header - table with the final column names and types.  Rows are ignored.
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public void execStoreTableResultsJsonInitialize(String jobId, Table header) throws ConnectException, EndpointNotFoundException, Exception {
+		conf.setServiceEndpoint("results/storeTableResultsJsonInitialize"); 
+		this.parametersJSON.put("jobId", jobId);
+		this.parametersJSON.put("jsonRenderedHeader", createNewHeaderMap(header).toJSONString());
+		this.runAndCheck();
+	}
+	
+	/**
+	 * Store rows of a table started with execStoreTableResultsJsonInitialize().
+	 * Columns must match the header.  Rows are sent in batches.
+	 * @param jobId
+	 * @param table - rows to add.  Its contents are escaped in place.
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public void execStoreTableResultsJsonAddIncremental(String jobId, Table table) throws ConnectException, EndpointNotFoundException, Exception {
+		
+		formatTableElements(table);		// escapes double quotes
+		
+		int tableRowsDone = 0;
+		while(tableRowsDone < table.getNumRows()){
+			StringBuilder resultsSoFar = new StringBuilder();
+			int batchEnd = Math.min(tableRowsDone + this.BATCH_SIZE_SEND, table.getNumRows());
+			
+			for(; tableRowsDone < batchEnd; tableRowsDone++){
+				ArrayList<String> row = table.getRow(tableRowsDone);
+				resultsSoFar.append("[");
+				for(int j = 0; j < row.size(); j++){
+					resultsSoFar.append("\"").append(row.get(j)).append("\"");
+					if(j < row.size() - 1){
+						resultsSoFar.append(",");
+					}
+				}
+				resultsSoFar.append("]");
+				
+				// no newline after the last row: the service adds one per call
+				if(tableRowsDone < batchEnd - 1){
+					resultsSoFar.append("\n");
+				}
+			}
+			
+			conf.setServiceEndpoint("results/storeTableResultsJsonAddIncremental"); 
+			this.parametersJSON.put("contents", Utility.compress(resultsSoFar.toString())); 
+			this.parametersJSON.put("jobId", jobId);
+			this.runAndCheck();
+		}
+	}
+	
+	/**
+	 * Finish storing a table started with execStoreTableResultsJsonInitialize().
+	 * @param jobId
+	 * @param rowCount - total rows added
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public void execStoreTableResultsJsonFinalize(String jobId, int rowCount) throws ConnectException, EndpointNotFoundException, Exception {
+		conf.setServiceEndpoint("results/storeTableResultsJsonFinalize"); 
+		this.parametersJSON.put("jobId", jobId);
+		this.parametersJSON.put("rowCount", rowCount);
+		this.runAndCheck();
+	}
+	
+	/**
+	 * Give jobId the table results already stored for sourceJobId, hard linking rather than re-uploading them.
+	 * Fails if the source job has no stored results.
+	 * @param jobId
+	 * @param sourceJobId
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public void execLinkTableResults(String jobId, String sourceJobId) throws ConnectException, EndpointNotFoundException, Exception {
+		conf.setServiceEndpoint("results/linkTableResults");
+		this.parametersJSON.put("jobId", jobId);
+		this.parametersJSON.put("sourceJobId", sourceJobId);
+		this.runAndCheck();
+	}
+	
+	/**
+	 * Run a query over a job's stored results on the results service and get one page of its output.
+	 * @param jobId
+	 * @param query - filter, select, group-by count, distinct and sort operators
+	 * @param startRow - first output row to return
+	 * @param maxRows - limit to this number of rows, or null for all
+	 * @return the page as a table
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public Table execQueryTableResults(String jobId, TableResultsQuery query, int startRow, Integer maxRows) throws ConnectException, EndpointNotFoundException, Exception {
+		conf.setServiceEndpoint("results/queryTableResults");
+		this.parametersJSON.put("jobId", jobId);
+		this.parametersJSON.put("query", query.toJson().toJSONString());
+		this.parametersJSON.put("startRow", startRow);
+		if(maxRows != null){
+			this.parametersJSON.put("maxRows", maxRows.intValue());
+		}
+
+		try {
+			TableResultSet res = this.executeWithTableResultReturn();
+			res.throwExceptionIfUnsuccessful();
+			return res.getTable();
+		} finally {
+			// reset conf and parametersJSON
+			conf.setServiceEndpoint(null);
+			this.parametersJSON.clear();
+		}
+	}
+	
+	/**
+	 * Run a query over a job's stored results on the results service, storing the output as newJobId's results.
+	 * @param jobId
+	 * @param query - filter, select, group-by count, distinct and sort operators
+	 * @param newJobId - job to store the output for
+	 * @return number of rows stored
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public int execStoreQueryTableResults(String jobId, TableResultsQuery query, String newJobId) throws ConnectException, EndpointNotFoundException, Exception {
+		conf.setServiceEndpoint("results/queryTableResults");
+		this.parametersJSON.put("jobId", jobId);
+		this.parametersJSON.put("query", query.toJson().toJSONString());
+		this.parametersJSON.put("newJobId", newJobId);
+
+		try {
+			SimpleResultSet res = this.executeWithSimpleResultReturn();
+			res.throwExceptionIfUnsuccessful();
+			return res.getResultInt("rowCount");
+		} finally {
+			// reset conf and parametersJSON
+			conf.setServiceEndpoint(null);
+			this.parametersJSON.clear();
+		}
+	}
+	
 	private JSONObject createNewHeaderMap(Table table) throws Exception {
 		return table.getHeaderJson();
 	}
 	
 	
+	/**
+	 * Receives retrieved results one batch at a time, in row order
+	 */
+	public static interface BatchHandler {
+		/**
+		 * @param batch - the next rows.  There is always at least one batch, so an empty result still gives its columns.
+		 * @return false if no more batches are wanted
+		 */
+		public boolean handleBatch(Table batch) throws Exception;
+	}
+	
 	/**
 	 * Get results (possibly truncated) in JSON format for a job
 	 * @return a TableResultSet object
 	 */
-	@SuppressWarnings("unchecked")
 	public TableResultSet execTableResultsJson(String jobId, Integer maxRows) throws ConnectException, EndpointNotFoundException, Exception {
 
-		ArrayList<Thread> threads = new ArrayList<Thread>();	
-		ArrayList<ResultsClient> clients = new ArrayList<ResultsClient>();
+		// the batches are merged as a view on their rows, so no rows are copied
+		final ArrayList<Table> batches = new ArrayList<Table>();
+		
+		this.execTableResultsJson(jobId, maxRows, new BatchHandler() {
+			@Override
+			public boolean handleBatch(Table batch) throws Exception {
+				batches.add(batch);
+				return true;
+			}
+		});
+		
+		TableResultSet ret = new TableResultSet(true);
+		ret.addResults(Table.merge(batches));
+		return ret;
+	}
+	
+	/**
+	 * Get results (possibly truncated) for a job, handing them over in batches as they arrive.
+	 * Up to RETRIEVE_THREADS batches are requested at once.  While the handler works on a batch,
+	 * up to RETRIEVE_THREADS more may arrive and wait, so memory use is at most RETRIEVE_THREADS + 1
+	 * batches plus whatever the handler keeps.
+	 * @param jobId
+	 * @param maxRows - limit to this number of rows, or null for all
+	 * @param handler - receives the batches in row order
+	 * @return number of rows handed over
+	 */
+	public int execTableResultsJson(String jobId, Integer maxRows, BatchHandler handler) throws ConnectException, EndpointNotFoundException, Exception {
+
+		ExecutorService pool = null;
 		try {
 			int numRowsToRetrieve = getNumRows(jobId);
 			if(maxRows != null && maxRows < numRowsToRetrieve){
 				numRowsToRetrieve = maxRows.intValue();
 			}
-			int numBatches = (int)Math.ceil((double)numRowsToRetrieve / (double)BATCH_SIZE_RETRIEVE);  
-			ArrayList<TableResultSet> resultSets = new ArrayList<TableResultSet>();
+			int numBatches = Math.max(1, (int)Math.ceil((double)numRowsToRetrieve / (double)BATCH_SIZE_RETRIEVE));
 			
-			// kick off all threads
-			for(int i = 0; i < numBatches; i++){
-				
-				// set request parameters
-				conf.setServiceEndpoint("results/getTableResultsJson");
-				this.parametersJSON.put("jobId", jobId);
-				this.parametersJSON.put("startRow", i * BATCH_SIZE_RETRIEVE);
-				if(i < numBatches - 1){
-					this.parametersJSON.put("maxRows", BATCH_SIZE_RETRIEVE); 
-				}else{
-					this.parametersJSON.put("maxRows", numRowsToRetrieve - (i * BATCH_SIZE_RETRIEVE)); // last batch
-				}		
-				
-				// kick off a thread using a "copy" of the client (necessary to avoid overwrites)  TODO find a cleaner way
-				ResultsClient client = new ResultsClient((ResultsClientConfig) conf); 
-				client.parametersJSON = (JSONObject) this.parametersJSON.clone(); 
-				Thread thread = new Thread(client);
-				clients.add(client);
-				threads.add(thread);
-				thread.start();						// execute
-				this.parametersJSON.clear();  		// clear parameters for next time	
-			}
+			pool = Executors.newFixedThreadPool(Math.min(RETRIEVE_THREADS, numBatches));
+			ArrayDeque<Future<Table>> pending = new ArrayDeque<Future<Table>>();
+			int nextBatch = 0;
+			int rowsHandled = 0;
 			
-			// wait for threads to finish
-			for(int i = 0; i < threads.size(); i++){
-				threads.get(i).join();
-				TableResultSet resultSet = clients.get(i).getRunResAsTableResultSet();
-				resultSet.throwExceptionIfUnsuccessful();
-				resultSets.add(resultSet);
+			while (true) {
+				// queue one batch beyond the threads: after the next poll all RETRIEVE_THREADS stay busy while the handler runs
+				while (nextBatch < numBatches && pending.size() < RETRIEVE_THREADS + 1) {
+					int startRow = nextBatch * BATCH_SIZE_RETRIEVE;
+					int batchRows = Math.min(BATCH_SIZE_RETRIEVE, numRowsToRetrieve - startRow);
+					pending.add(pool.submit(this.getBatchRetriever(jobId, startRow, batchRows)));
+					nextBatch++;
+				}
+				if (pending.isEmpty()) {
+					break;
+				}
+				
+				Table batch;
+				try {
+					batch = pending.poll().get();
+				} catch (ExecutionException e) {
+					throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+				}
+				rowsHandled += batch.getNumRows();
+				if (!handler.handleBatch(batch)) {
+					break;
+				}
 			}
+			return rowsHandled;
 			
-			// merge batch results into a single TableResultSets
-			TableResultSet ret = TableResultSet.merge(resultSets);		
-			
-			// clean up
-			for(TableResultSet trs : resultSets){
-				trs = null;
-			}
-			for(ResultsClient client : clients){
-				client = null;
+		} finally {
+			if (pool != null) {
+				pool.shutdownNow();
 			}
-			for(Thread thread : threads){
-				thread = null;
+			// reset conf and parametersJSON
+			conf.setServiceEndpoint(null);
+			this.parametersJSON.clear();
+		}
+	}
+	
+	/**
+	 * Get results (possibly truncated) for a job and write them as CSV, one batch at a time.
+	 * @param jobId
+	 * @param maxRows - limit to this number of rows, or null for all
+	 * @param writer - receives a header line and one line per row
+	 * @return number of rows written
+	 */
+	public int execTableResultsCsv(String jobId, Integer maxRows, final Writer writer) throws ConnectException, EndpointNotFoundException, Exception {
+		final boolean [] headerWritten = {false};
+		
+		int ret = this.execTableResultsJson(jobId, maxRows, new BatchHandler() {
+			@Override
+			public boolean handleBatch(Table batch) throws Exception {
+				if (!headerWritten[0]) {
+					writer.write(Utility.getCSVString(new ArrayList<String>(Arrays.asList(batch.getColumnNames()))));
+					writer.write("\n");
+					headerWritten[0] = true;
+				}
+				for (ArrayList<String> row : batch.getRows()) {
+					writer.write(Utility.getCSVString(row));
+					writer.write("\n");
+				}
+				return true;
 			}
-			
-			return ret;			
+		});
+		writer.flush();
+		return ret;
+	}
+	
+	/**
+	 * Iterate over results (possibly truncated) for a job, fetching a page at a time.
+	 * The iterator uses its own client, so this one remains free for other calls.
+	 * @param jobId
+	 * @param pageSize - rows per fetch
+	 * @param maxRows - limit to this number of rows, or null for all
+	 * @return an iterator that must be closed
+	 */
+	public TableResultsIterator openTableResults(String jobId, int pageSize, Integer maxRows) throws ConnectException, EndpointNotFoundException, Exception {
+		return new TableResultsIterator(this.copy(), jobId, pageSize, maxRows);
+	}
+	
+	public TableResultsIterator openTableResults(String jobId) throws ConnectException, EndpointNotFoundException, Exception {
+		return this.openTableResults(jobId, BATCH_SIZE_RETRIEVE, null);
+	}
+	
+	/**
+	 * Get one page of results for a job
+	 * @param jobId
+	 * @param startRow - first row to get
+	 * @param maxRows - most rows to get
+	 * @return a table, which has the columns even if there are no rows
+	 */
+	@SuppressWarnings("unchecked")
+	public Table execTableResultsJsonPage(String jobId, int startRow, int maxRows) throws ConnectException, EndpointNotFoundException, Exception {
+		conf.setServiceEndpoint("results/getTableResultsJson");
+		this.parametersJSON.put("jobId", jobId);
+		this.parametersJSON.put("startRow", startRow);
+		this.parametersJSON.put("maxRows", maxRows);
+		
+		try {
+			TableResultSet res = this.executeWithTableResultReturn();
+			res.throwExceptionIfUnsuccessful();
+			return res.getTable();
 		} finally {
 			// reset conf and parametersJSON
 			conf.setServiceEndpoint(null);
 			this.parametersJSON.clear();
 		}
-	}		
+	}
+	
+	/**
+	 * Get the number of rows stored for a job
+	 */
+	public int execTableResultsRowCount(String jobId) throws ConnectException, EndpointNotFoundException, Exception {
+		try {
+			return this.getNumRows(jobId);
+		} finally {
+			conf.setServiceEndpoint(null);
+		}
+	}
+	
+	/**
+	 * Build a task that retrieves one batch of results.
+	 * Each task uses its own client so batches can run at once.
+	 */
+	private Callable<Table> getBatchRetriever(final String jobId, final int startRow, final int batchRows) {
+		return new Callable<Table>() {
+			@Override
+			public Table call() throws Exception {
+				return ResultsClient.this.copy().execTableResultsJsonPage(jobId, startRow, batchRows);
+			}
+		};
+	}
+	
+	/**
+	 * Get a new client for the same results service
+	 */
+	protected ResultsClient copy() throws Exception {
+		return new ResultsClient(new ResultsClientConfig(this.conf.getServiceProtocol(), this.conf.getServiceServer(), this.conf.getServicePort()));
+	}
 
 	/**
 	 * Get results (possibly truncated) in CSV format for a job
@@ -309,7 +584,7 @@ public class ResultsClient extends RestClient implements Runnable {
 	}
 	
 	/**
-	 * Iterate through each table element, and format: 1) escape internal quotes
+	 * Iterate through each table element, and format: 1) escape backslashes, internal quotes, newlines and tabs
 	 */
 	private void formatTableElements(Table table) throws InterruptedException{
 		
@@ -347,6 +622,22 @@ public class ResultsClient extends RestClient implements Runnable {
 		this.parametersJSON.clear();  // clear parameters for next time
 	}
 	
+	/**
+	 * Run the current request on this thread, and throw an exception if not successful
+	 */
+	private void runAndCheck() throws Exception {
+		try {
+			this.run();
+			if (this.getRunException() != null) {
+				throw this.getRunException();
+			}
+			(this.getRunResAsSimpleResultSet()).throwExceptionIfUnsuccessful();
+		} finally {
+			conf.setServiceEndpoint(null);
+			this.parametersJSON.clear();  // clear parameters for next time
+		}
+	}
+	
 	/**
 	 * Execute a service call to get number of result rows for a given job.
 	 * @throws Exception 
@@ -387,6 +678,10 @@ class TableFormatter extends Thread{
 				String curr = rows.get(i).get(j);
 				Boolean altered = false;
 				
+				if(rows.get(i).get(j).indexOf('\\') > -1){ 	// first, so the escapes added below are not escaped again
+					curr = StringUtils.replace(curr, "\\", "\\\\");
+					altered = true;
+				} 
 				if(rows.get(i).get(j).indexOf('\"') > -1){ 
 					curr = StringUtils.replace(curr, "\"", "\\\"");
 					altered = true;
@@ -0,0 +1,227 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.edc.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.json.simple.JSONArray;
+
+import com.ge.research.semtk.resultSet.Table;
+import com.ge.research.semtk.resultSet.TableResultSet;
+
+/**
+ * Iterates over the rows of a job's stored results, fetching them from the results service
+ * a page at a time.  The next page is fetched on a background thread while the caller
+ * works on the current one, so only about two pages are held at once.
+ * 
+ * Get from ResultsClient.openTableResults().  Close when done to stop any fetch in progress.
+ */
+public class TableResultsIterator implements Iterator<ArrayList<String>>, Closeable {
+
+	private ResultsClient client;
+	private String jobId;
+	private int pageSize;
+	private int numRows;
+	
+	private String[] columnNames;
+	private String[] columnTypes;
+	
+	private ArrayList<ArrayList<String>> page;
+	private int pageIndex = 0;
+	private int nextStartRow;					// first row of the page after this one
+	private int rowsReturned = 0;
+	
+	private ExecutorService prefetcher = null;
+	private Future<Table> pending = null;		// next page, being fetched
+	
+	/**
+	 * @param client - used only by this iterator
+	 * @param jobId
+	 * @param pageSize - rows per fetch
+	 * @param maxRows - limit to this number of rows, or null for all
+	 */
+	TableResultsIterator(ResultsClient client, String jobId, int pageSize, Integer maxRows) throws Exception {
+		this.client = client;
+		this.jobId = jobId;
+		this.pageSize = pageSize;
+		
+		this.numRows = client.execTableResultsRowCount(jobId);
+		if (maxRows != null && maxRows < this.numRows) {
+			this.numRows = maxRows;
+		}
+		
+		// first page gives the columns, even if there are no rows
+		Table first = client.execTableResultsJsonPage(jobId, 0, Math.min(pageSize, this.numRows));
+		this.columnNames = first.getColumnNames();
+		this.columnTypes = first.getColumnTypes();
+		this.page = first.getRows();
+		this.nextStartRow = this.page.size();
+		
+		if (this.nextStartRow < this.numRows) {
+			this.prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "table-results-prefetch");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			this.fetchNextPage();
+		}
+	}
+	
+	public String[] getColumnNames() {
+		return this.columnNames;
+	}
+	
+	public String[] getColumnTypes() {
+		return this.columnTypes;
+	}
+	
+	/**
+	 * Total rows the iterator will return
+	 */
+	public int getNumRows() {
+		return this.numRows;
+	}
+	
+	/**
+	 * @throws IllegalStateException if a page could not be fetched
+	 */
+	@Override
+	public boolean hasNext() {
+		if (this.pageIndex < this.page.size()) {
+			return true;
+		}
+		if (this.rowsReturned >= this.numRows || this.pending == null) {
+			return false;
+		}
+		
+		// move to the page fetched in the background
+		try {
+			Table next = this.pending.get();
+			this.pending = null;
+			this.page = next.getRows();
+			this.pageIndex = 0;
+			this.nextStartRow += this.page.size();
+		} catch (ExecutionException e) {
+			this.close();
+			throw new IllegalStateException("Failed to fetch results for job " + this.jobId + ": " + e.getCause().getMessage(), e.getCause());
+		} catch (InterruptedException e) {
+			this.close();
+			throw new IllegalStateException("Interrupted fetching results for job " + this.jobId, e);
+		}
+		
+		if (this.page.size() == 0) {
+			// results were shorter than their row count
+			this.close();
+			return false;
+		}
+		if (this.nextStartRow < this.numRows) {
+			this.fetchNextPage();
+		}
+		return true;
+	}
+	
+	@Override
+	public ArrayList<String> next() {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+		ArrayList<String> ret = this.page.get(this.pageIndex);
+		this.page.set(this.pageIndex, null);		// let rows be collected as they are used
+		this.pageIndex++;
+		this.rowsReturned++;
+		return ret;
+	}
+	
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Stored results are read-only");
+	}
+	
+	/**
+	 * Write the remaining rows as the JSON of a successful TableResultSet, one row at a time,
+	 * so results larger than memory can be sent.  Same format as TableResultSet.toJson().
+	 * @return number of rows written
+	 * @throws IllegalStateException if a page could not be fetched.  The JSON is then incomplete.
+	 */
+	public int writeTableResultSetJson(Writer out) throws IOException {
+		// status and message as the result set writes them, then the table
+		String head = new TableResultSet(true).toJson().toJSONString();
+		out.write(head.substring(0, head.length() - 1) + ",");
+		out.write("\"" + TableResultSet.RESULTS_BLOCK_NAME + "\":{\"" + TableResultSet.TABLE_JSONKEY + "\":{");
+		out.write("\"" + Table.JSON_KEY_COL_NAMES + "\":" + JSONArray.toJSONString(Arrays.asList(this.columnNames)) + ",");
+		out.write("\"" + Table.JSON_KEY_COL_TYPES + "\":" + JSONArray.toJSONString(Arrays.asList(this.columnTypes)) + ",");
+		out.write("\"" + Table.JSON_KEY_COL_COUNT + "\":" + this.columnNames.length + ",");
+		out.write("\"" + Table.JSON_KEY_ROWS + "\":[");
+		
+		int rowCount = 0;
+		while (this.hasNext()) {
+			if (rowCount > 0) {
+				out.write(",");
+			}
+			out.write(JSONArray.toJSONString(this.next()));
+			rowCount++;
+			if (rowCount % 1000 == 0) {
+				out.flush();
+			}
+		}
+		
+		out.write("],\"" + Table.JSON_KEY_ROW_COUNT + "\":" + rowCount + "}}}");
+		out.flush();
+		return rowCount;
+	}
+	
+	/**
+	 * Stop fetching.  Safe to call more than once.
+	 */
+	@Override
+	public void close() {
+		if (this.pending != null) {
+			this.pending.cancel(true);
+			this.pending = null;
+		}
+		if (this.prefetcher != null) {
+			this.prefetcher.shutdownNow();
+			this.prefetcher = null;
+		}
+	}
+	
+	private void fetchNextPage() {
+		final int startRow = this.nextStartRow;
+		final int rows = Math.min(this.pageSize, this.numRows - startRow);
+		
+		this.pending = this.prefetcher.submit(new Callable<Table>() {
+			public Table call() throws Exception {
+				return client.execTableResultsJsonPage(jobId, startRow, rows);
+			}
+		});
+	}
+}
@@ -216,14 +216,14 @@ public class DataLoader {
 		NodeGroup lastNg = null;
 		for(NodeGroup ng : this.subGraphsToLoad){
 			
-			// we are going to use one prefix hash and add to is as needed. 
+			// we are going to use one prefix hash, shared read-only.
+			// a nodegroup only copies it if it needs a prefix the others didn't.
 			
 			if(seqNum == 0){
 				prefixHash = ng.getPrefixHash();
 			}
 			else{
-				ng.rebuildPrefixHash(prefixHash);	// add new elements, as needed.
-				prefixHash = ng.getPrefixHash(); 	// get back a copy. 
+				ng.setSharedPrefixHash(prefixHash);
 			}
 			
 			String seq = "__" + seqNum;
@@ -231,6 +231,8 @@ public class DataLoader {
 			totalInsertHead  += ng.getInsertLeader(seq, this.oInfo);
 			totalInsertWhere += ng.getInsertWhereBody(seq, this.oInfo);
 			
+			prefixHash = ng.getPrefixHash();	// same map unless this nodegroup added to it
+			
 			seqNum += 1;
 			lastNg = ng;
 		}
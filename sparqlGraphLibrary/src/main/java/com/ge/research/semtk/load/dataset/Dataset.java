@@ -69,6 +69,16 @@ public abstract class Dataset {
 	 */
 	public abstract ArrayList<String> getColumnNamesinOrder() throws Exception;
 	
+	/**
+	 * Identify a record for error reports.
+	 * Datasets read in pieces (e.g. partitioned queries) override this to number records within their piece.
+	 * @param index the record's position in the records last returned by getNextRecords()
+	 * @param recordNumber the record's number across the whole dataset, as counted by the caller
+	 */
+	public String getRecordNumber(int index, int recordNumber){
+		return String.valueOf(recordNumber);
+	}
+	
 	/**
 	 * Reset a dataset to the first record.
 	 */
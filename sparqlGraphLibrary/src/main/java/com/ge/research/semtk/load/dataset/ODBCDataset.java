@@ -18,16 +18,23 @@
 
 package com.ge.research.semtk.load.dataset;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.Statement;
+import java.sql.Types;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.json.simple.JSONObject;
 
 import com.ge.research.semtk.load.dataset.Dataset;
+import com.ge.research.semtk.query.rdb.ConnectionPool;
 
 
 /*
@@ -36,10 +43,23 @@ import com.ge.research.semtk.load.dataset.Dataset;
  */
 public class ODBCDataset extends Dataset{
 
-	private Connection conn;	// the database connection
+	public static final int DEFAULT_FETCH_SIZE = 10000;	// rows per round trip to the database
+	
+	private ConnectionPool.PooledConnection conn;	// the database connection, borrowed from a pool
+	private String query;		// the query, re-run by reset()
 	private Statement stmt;		// the database statement
 	private ResultSet rs;		// the result set
 	private ArrayList<String> columnNamesInOrder; // column names returned by query, in order
+	private int[] columnTypes;	// java.sql.Types of each column, read once from the metadata
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+	
+	private boolean exhausted = false;	// has the result set been read to the end
+	
+	// read-ahead of the next batch on a background thread
+	private boolean prefetch = false;
+	private ExecutorService prefetcher = null;
+	private Future<ArrayList<ArrayList<String>>> pending = null;	// next batch, being read
+	private ArrayList<ArrayList<String>> carry = null;			// records read ahead but not yet returned
 
 
 	/**
@@ -52,12 +72,40 @@ public class ODBCDataset extends Dataset{
 	 * @throws Exception
 	 */
 	public ODBCDataset(String driver, String url, String username, String password, String query) throws Exception{
+		this(driver, url, username, password, query, DEFAULT_FETCH_SIZE, false);
+	}
+	
+	/**
+	 * Instantiate a dataset from a database.
+	 * @param driver the driver class
+	 * @param url the database URL
+	 * @param username the username
+	 * @param password the password
+	 * @param query the query
+	 * @param fetchSize the number of rows to fetch per round trip to the database
+	 * @param prefetch if true, read the next batch on a background thread while the caller works on the current one
+	 * @throws Exception
+	 */
+	public ODBCDataset(String driver, String url, String username, String password, String query, int fetchSize, boolean prefetch) throws Exception{
 		System.out.println("Database: " + url);
 		System.out.println("Query: " + query);
+		this.fetchSize = fetchSize;
+		this.prefetch = prefetch;
 		initialize(driver, url, username, password, query);
 	}
 
 
+	/**
+	 * Instantiate a dataset from a query built by this package around an already validated query
+	 * (e.g. one partition of a PartitionedODBCDataset), so the SELECT checks are skipped.
+	 */
+	ODBCDataset(String driver, String url, String username, String password, String query, int fetchSize) throws Exception{
+		this.fetchSize = fetchSize;
+		validateConnection(driver, url, username, password);
+		open(driver, url, username, password, query);
+	}
+
+
 	/**
 	 * Called when instantiating the object using JSON.
 	 */
@@ -78,6 +126,15 @@ public class ODBCDataset extends Dataset{
 	 */
 	private void initialize(String driver, String url, String username, String password, String query) throws Exception{
 		// validate inputs
+		validateConnection(driver, url, username, password);
+		query = validateQuery(query);
+		open(driver, url, username, password, query);
+	}
+	
+	/**
+	 * Check the connection inputs
+	 */
+	static void validateConnection(String driver, String url, String username, String password) throws Exception{
 		if(driver == null || driver.trim().isEmpty()){
 			throw new Exception("Must specify a driver");
 		}
@@ -90,31 +147,52 @@ public class ODBCDataset extends Dataset{
 		if(password == null || password.trim().isEmpty()){
 			throw new Exception("Must specify a password");
 		}
-		query = query.trim();
+	}
+	
+	/**
+	 * Check that the query is one we will run
+	 * @return the trimmed query
+	 */
+	static String validateQuery(String query) throws Exception{
 		if(query == null || query.trim().isEmpty()){
 			throw new Exception("Must specify a query");
 		}
+		query = query.trim();
 		if(!query.toLowerCase().startsWith("select ")){
 			throw new Exception("Must use a SELECT query");
 		}
 		if(query.toLowerCase().startsWith("select *")){
 			throw new Exception("Queries with * are not supported"); // for now require user to explicitly name columns, to prevent huge returns
 		}
-
-		// get the result set to iterate through when records are requested
+		return query;
+	}
+	
+	/**
+	 * Borrow a connection and run the query
+	 */
+	private void open(String driver, String url, String username, String password, String query) throws Exception{
+		this.query = query;
 		try{			
 			// get a database connection and execute the query
-			Class.forName(driver);
-			conn = DriverManager.getConnection(url, username, password);							
-			stmt = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);  // enable beforeFirst()
-			// execute the query
-			rs = stmt.executeQuery(query);
+			conn = ConnectionPool.getPool(driver, url, username, password, null).borrow();
+			executeQuery();
+			
+			// get the column names and types returned by the query
+			readMetadata();
 		}catch(Exception e){
+			if(conn != null){ conn.discard(); conn.close(); conn = null; }
 			throw e;
 		}
-
-		// get the column names returned by the query (by retrieving one row of data)
-		setColumnNamesInOrder(query);
+		
+		if(prefetch){
+			prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "odbc-dataset-prefetch");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
 	}
 
 
@@ -126,24 +204,29 @@ public class ODBCDataset extends Dataset{
 	public ArrayList<ArrayList<String>> getNextRecords(int numRecords) throws Exception {
 
 		// if the connection has been closed, return null
-		if(conn.isClosed()){
+		if(conn == null || conn.getConnection().isClosed()){
 			return null;
 		}
 
-		ArrayList<ArrayList<String>> recs = new ArrayList<ArrayList<String>>();
-		ArrayList<String> tmp;
-
-		for(int i = 0; i < numRecords; i++){
-			if(rs.next()){
-				//System.out.println(rs.getString(1) + "..." + rs.getString(2)+ "..." + rs.getString(3)+ "..." + rs.getString(4));
-				tmp = new ArrayList<String>();
-				for(int j = 1; j <= rs.getMetaData().getColumnCount(); j++){ 
-					tmp.add(rs.getString(j));
+		// start with anything already read ahead
+		ArrayList<ArrayList<String>> recs = takeReadAhead();
+		
+		if(recs.size() > numRecords){
+			// read ahead more than asked for: hold on to the rest
+			carry = new ArrayList<ArrayList<String>>(recs.subList(numRecords, recs.size()));
+			recs = new ArrayList<ArrayList<String>>(recs.subList(0, numRecords));
+		} else if(recs.size() < numRecords){
+			recs.addAll(readRecords(numRecords - recs.size()));
+		}
+		
+		// start reading the next batch while the caller works on this one
+		if(prefetcher != null && !exhausted){
+			final int n = numRecords;
+			pending = prefetcher.submit(new Callable<ArrayList<ArrayList<String>>>() {
+				public ArrayList<ArrayList<String>> call() throws Exception {
+					return readRecords(n);
 				}
-				recs.add(tmp);
-			}else{ 	  	    	  
-				break;
-			}
+			});
 		}
 
 		return recs;
@@ -161,11 +244,22 @@ public class ODBCDataset extends Dataset{
 	}
 
 	/**
-	 * Reset the dataset
+	 * Reset the dataset by re-running the query
 	 */
 	@Override
 	public void reset() throws Exception {
-		rs.beforeFirst();
+		if(conn == null){
+			throw new Exception("Cannot reset a closed dataset");
+		}
+		cancelReadAhead();
+		try{
+			executeQuery();
+		}catch(Exception e){
+			conn.discard();
+			close();
+			throw e;
+		}
+		exhausted = false;
 	}		
 	
 	
@@ -175,45 +269,146 @@ public class ODBCDataset extends Dataset{
 	 */
 	@Override
 	public void close() throws Exception {
+		cancelReadAhead();
+		if(prefetcher != null){ prefetcher.shutdownNow(); prefetcher = null; }
 		if(rs != null){ rs.close(); }
 		if(stmt != null){ stmt.close(); }
-		if(conn != null){ conn.close(); System.out.println("CLOSING ODBC CONNECTION"); }	 
+		if(conn != null){ conn.close(); conn = null; System.out.println("RETURNING ODBC CONNECTION TO POOL"); }	 
 	}
 
 	/**
-	 * Retrieve the column names by executing the query to retrieve one row.
+	 * Get the result set to iterate through when records are requested, closing any previous one.
+	 * Forward-only, so the driver can stream it rather than hold every row.
+	 */
+	private void executeQuery() throws Exception{
+		if(rs != null){ rs.close(); rs = null; }
+		if(stmt != null){ stmt.close(); stmt = null; }
+		try{
+			stmt = conn.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			if(fetchSize > 0){
+				stmt.setFetchSize(fetchSize);
+			}
+			rs = stmt.executeQuery(query);
+		}catch(Exception e){
+			if(stmt != null){ stmt.close(); stmt = null; }
+			throw e;
+		}
+	}
+	
+	/**
+	 * Read the column names and types from the result set metadata.
 	 * @throws Exception
 	 */
-	private void setColumnNamesInOrder(String query) throws Exception{
+	private void readMetadata() throws Exception{
 
 		columnNamesInOrder = new ArrayList<String>();
-		Statement stmt2 = null;
-		ResultSet rs2 = null;
-		ResultSetMetaData rsMetadata = null;
 		try{
-			stmt2 = conn.createStatement();
-			String queryModified = query.toLowerCase();
-			if(queryModified.indexOf("order by") > -1){
-				// strip off "order by" before appending "where rownum = 1"
-				queryModified = queryModified.substring(0,queryModified.indexOf("order by")); 
-			}
-			queryModified += " where rownum = 1";  // only need one result to get the column names
-			rs2 = stmt2.executeQuery(query);
-			// use metadata to get column names
-			rsMetadata = rs2.getMetaData();
+			ResultSetMetaData rsMetadata = rs.getMetaData();
 			int numCols = rsMetadata.getColumnCount();
+			columnTypes = new int[numCols];
 			for(int i = 1; i <= numCols; i++){
 				columnNamesInOrder.add(rsMetadata.getColumnName(i).toLowerCase());
+				columnTypes[i - 1] = rsMetadata.getColumnType(i);
 			}
 		}catch(Exception e){
 			e.printStackTrace();
-			if(rs2 != null){ rs2.close(); }
-			if(stmt2 != null){ stmt2.close(); }		
-			if(conn != null){ conn.close(); System.out.println("CLOSING ODBC CONNECTION"); }		
 			throw new Exception("Cannot retrieve column names: " + e.getMessage());
-		}finally{
-			if(rs2 != null){ rs2.close(); }
-			if(stmt2 != null){ stmt2.close(); }
+		}
+	}
+	
+	/**
+	 * Read up to numRecords rows from the result set.
+	 * Only one thread reads at a time: the prefetcher, or the caller once the prefetch is collected.
+	 */
+	private ArrayList<ArrayList<String>> readRecords(int numRecords) throws Exception {
+		ArrayList<ArrayList<String>> recs = new ArrayList<ArrayList<String>>(Math.min(numRecords, 10000));
+		ArrayList<String> tmp;
+		int numCols = columnTypes.length;
+		
+		for(int i = 0; i < numRecords && !exhausted; i++){
+			if(rs.next()){
+				tmp = new ArrayList<String>(numCols);
+				for(int j = 0; j < numCols; j++){ 
+					tmp.add(getValue(j + 1, columnTypes[j]));
+				}
+				recs.add(tmp);
+			}else{
+				exhausted = true;
+			}
+		}
+		return recs;
+	}
+	
+	/**
+	 * Get a value from the current row, as a string in the format the loader expects for its XSD type.
+	 * e.g. timestamps as 2011-12-03T10:15:30, dates as 2011-12-03, decimals without exponents.
+	 * Floating point values are the shortest string that reads back as the same float or double,
+	 * rather than the binary value's full decimal expansion.
+	 * Returns null for SQL NULL.
+	 */
+	private String getValue(int col, int sqlType) throws Exception {
+		switch(sqlType){
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+			long l = rs.getLong(col);
+			return rs.wasNull() ? null : Long.toString(l);
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			BigDecimal bd = rs.getBigDecimal(col);
+			return (bd == null) ? null : bd.toPlainString();
+		case Types.REAL:
+			float f = rs.getFloat(col);
+			return rs.wasNull() ? null : Float.toString(f);
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			double d = rs.getDouble(col);
+			return rs.wasNull() ? null : Double.toString(d);
+		case Types.BIT:
+		case Types.BOOLEAN:
+			boolean b = rs.getBoolean(col);
+			return rs.wasNull() ? null : Boolean.toString(b);
+		case Types.DATE:
+			java.sql.Date date = rs.getDate(col);
+			return (date == null) ? null : date.toLocalDate().toString();
+		case Types.TIME:
+			java.sql.Time time = rs.getTime(col);
+			return (time == null) ? null : time.toLocalTime().format(DateTimeFormatter.ISO_LOCAL_TIME);
+		case Types.TIMESTAMP:
+			java.sql.Timestamp ts = rs.getTimestamp(col);
+			return (ts == null) ? null : ts.toLocalDateTime().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+		default:
+			return rs.getString(col);
+		}
+	}
+	
+	/**
+	 * Collect any records already read ahead (waiting for a prefetch in progress)
+	 */
+	private ArrayList<ArrayList<String>> takeReadAhead() throws Exception {
+		ArrayList<ArrayList<String>> recs = (carry != null) ? carry : new ArrayList<ArrayList<String>>();
+		carry = null;
+		if(pending != null){
+			Future<ArrayList<ArrayList<String>>> f = pending;
+			pending = null;
+			recs.addAll(f.get());
+		}
+		return recs;
+	}
+	
+	/**
+	 * Drop anything read ahead, waiting for a prefetch in progress so the result set is free
+	 */
+	private void cancelReadAhead() {
+		carry = null;
+		if(pending != null){
+			try{
+				pending.get();
+			}catch(Exception e){
+				// records are being thrown away
+			}
+			pending = null;
 		}
 	}
 
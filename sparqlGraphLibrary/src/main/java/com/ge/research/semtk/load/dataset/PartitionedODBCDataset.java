@@ -0,0 +1,463 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.load.dataset;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+
+import com.ge.research.semtk.query.rdb.ConnectionPool;
+import com.ge.research.semtk.query.rdb.PreparedQuery;
+
+
+/*
+ * Read data via ODBC connections, splitting the query into ranges of a numeric or date
+ * column and reading the ranges concurrently.
+ * Records come back in no particular order.  Error reports number records within their partition.
+ * Must call close() when done.
+ */
+public class PartitionedODBCDataset extends Dataset{
+
+	private static final int READ_BATCH_SIZE = 1000;		// records per hand-off from a partition reader
+	private static final int BATCHES_PER_PARTITION = 4;		// read-ahead allowed per partition
+	private static final int MAX_READERS = 8;				// partitions read at once, and never more than half the connection pool
+	private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+	
+	private final String driver;
+	private final String url;
+	private final String username;
+	private final String password;
+	private final int fetchSize;
+	
+	private ArrayList<String> partitionQueries;
+	private ArrayList<String> columnNamesInOrder;
+	
+	private ExecutorService readers = null;
+	private LinkedBlockingQueue<Batch> queue = null;
+	private Run run = null;				// the current pass of the readers over the partitions
+	private int partitionsDone = 0;
+	private Batch current = null;		// batch being handed out
+	private int currentPos = 0;
+	private ArrayList<String> lastRecordNumbers = new ArrayList<String>();	// partition record numbers of the last records returned
+	
+	/**
+	 * Instantiate a partitioned dataset from a database.
+	 * @param driver the driver class
+	 * @param url the database URL
+	 * @param username the username
+	 * @param password the password
+	 * @param query the query
+	 * @param partitionColumn a numeric or date column returned by the query
+	 * @param numPartitions number of ranges to read concurrently, each on its own connection
+	 *        (at most 8 at once, and at most half the connection pool's size, leaving the rest for other users)
+	 * @param fetchSize the number of rows to fetch per round trip to the database
+	 * @throws Exception
+	 */
+	public PartitionedODBCDataset(String driver, String url, String username, String password, String query, String partitionColumn, int numPartitions, int fetchSize) throws Exception{
+		System.out.println("Database: " + url);
+		System.out.println("Query: " + query);
+		System.out.println("Partitioned on " + partitionColumn + " into " + numPartitions);
+		
+		ODBCDataset.validateConnection(driver, url, username, password);
+		query = ODBCDataset.validateQuery(query);
+		if(partitionColumn == null || partitionColumn.trim().isEmpty()){
+			throw new Exception("Must specify a partition column");
+		}
+		partitionColumn = PreparedQuery.validateIdentifier(partitionColumn.trim());	// it is spliced into the SQL
+		if(numPartitions < 1){
+			throw new Exception("Number of partitions must be at least 1: " + numPartitions);
+		}
+		
+		this.driver = driver;
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.fetchSize = fetchSize;
+		
+		while(query.endsWith(";")){
+			query = query.substring(0, query.length() - 1).trim();
+		}
+		this.partitionQueries = buildPartitionQueries(query, partitionColumn, numPartitions);
+		
+		int poolShare = Math.max(1, ConnectionPool.getPool(driver, url, username, password, null).getMaxSize() / 2);
+		this.readers = Executors.newFixedThreadPool(Math.min(this.partitionQueries.size(), Math.min(MAX_READERS, poolShare)), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "odbc-dataset-partition");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.queue = new LinkedBlockingQueue<Batch>(BATCHES_PER_PARTITION * this.partitionQueries.size());
+		this.startReaders();
+	}
+
+	/**
+	 * Called when instantiating the object using JSON.
+	 */
+	protected void fromJSON(JSONObject config) throws Exception{
+		throw new Exception("Method not implemented yet");
+	}
+	
+	/**
+	 * Get the query for each partition
+	 */
+	public ArrayList<String> getPartitionQueries() {
+		return this.partitionQueries;
+	}
+
+	/**
+	 * Read the next set of records from whichever partitions have them ready.
+	 * Returns null if the dataset has been closed.
+	 */
+	@Override
+	public ArrayList<ArrayList<String>> getNextRecords(int numRecords) throws Exception {
+		if(this.run == null){
+			return null;
+		}
+		
+		ArrayList<ArrayList<String>> recs = new ArrayList<ArrayList<String>>();
+		this.lastRecordNumbers = new ArrayList<String>();
+		
+		while(recs.size() < numRecords){
+			if(this.current == null || this.currentPos >= this.current.rows.size()){
+				if(this.partitionsDone == this.partitionQueries.size()){
+					break;
+				}
+				Batch b = this.queue.take();
+				if(b.error != null){
+					this.stopReaders();
+					throw new Exception("Failed reading partition " + (b.partition + 1) + ": " + b.error.getMessage(), b.error);
+				} else if(b.rows == null){
+					this.partitionsDone++;
+					continue;
+				}
+				this.current = b;
+				this.currentPos = 0;
+			}
+			recs.add(this.current.rows.get(this.currentPos));
+			this.lastRecordNumbers.add((this.current.firstRecord + this.currentPos) + " (partition " + (this.current.partition + 1) + ")");
+			this.currentPos++;
+		}
+		return recs;
+	}
+	
+	/**
+	 * Number records within their partition, since records from different partitions are interleaved.
+	 */
+	@Override
+	public String getRecordNumber(int index, int recordNumber){
+		return (index < this.lastRecordNumbers.size()) ? this.lastRecordNumbers.get(index) : super.getRecordNumber(index, recordNumber);
+	}
+
+	@Override
+	public ArrayList<String> getColumnNamesinOrder() throws Exception {
+		return new ArrayList<String>(this.columnNamesInOrder);
+	}
+
+	/**
+	 * Reset the dataset by re-running each partition's query
+	 */
+	@Override
+	public void reset() throws Exception {
+		this.stopReaders();
+		this.startReaders();
+	}
+
+	/**
+	 * Close the dataset, returning all connections to the pool
+	 */
+	@Override
+	public void close() throws Exception {
+		this.stopReaders();
+		if(this.readers != null){
+			this.readers.shutdownNow();
+			this.readers = null;
+		}
+	}
+	
+	/**
+	 * Find the range of the partition column and split the query into one query per sub-range.
+	 * Rows where the partition column is null go in the first partition.
+	 * Also reads the column names.
+	 */
+	private ArrayList<String> buildPartitionQueries(String query, String partitionColumn, int numPartitions) throws Exception {
+		ArrayList<String> predicates = new ArrayList<String>();
+		
+		ConnectionPool.PooledConnection conn = ConnectionPool.getPool(this.driver, this.url, this.username, this.password, null).borrow();
+		Statement stmt = null;
+		ResultSet rs = null;
+		try{
+			stmt = conn.getConnection().createStatement();
+			
+			// column names
+			rs = stmt.executeQuery("SELECT * FROM (" + query + ") q WHERE 1=0");
+			ResultSetMetaData meta = rs.getMetaData();
+			this.columnNamesInOrder = new ArrayList<String>();
+			for(int i = 1; i <= meta.getColumnCount(); i++){
+				this.columnNamesInOrder.add(meta.getColumnName(i).toLowerCase());
+			}
+			rs.close();
+			
+			// range of the partition column
+			rs = stmt.executeQuery("SELECT MIN(" + partitionColumn + "), MAX(" + partitionColumn + ") FROM (" + query + ") q");
+			meta = rs.getMetaData();
+			rs.next();
+			switch(meta.getColumnType(1)){
+			case Types.DATE:
+			case Types.TIMESTAMP:
+				Timestamp minTime = rs.getTimestamp(1);
+				Timestamp maxTime = rs.getTimestamp(2);
+				if(minTime != null){
+					predicates = getTimestampPredicates(partitionColumn, minTime.getTime(), maxTime.getTime(), numPartitions);
+				}
+				break;
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				BigDecimal min = rs.getBigDecimal(1);
+				BigDecimal max = rs.getBigDecimal(2);
+				if(min != null){
+					predicates = getNumericPredicates(partitionColumn, min, max, numPartitions);
+				}
+				break;
+			default:
+				throw new Exception("Partition column must be numeric or a date: " + partitionColumn);
+			}
+		}catch(Exception e){
+			conn.discard();
+			throw e;
+		}finally{
+			if(rs != null){ rs.close(); }
+			if(stmt != null){ stmt.close(); }
+			conn.close();
+		}
+		
+		ArrayList<String> ret = new ArrayList<String>();
+		if(predicates.size() < 2){
+			// empty, or a single value: no point splitting
+			ret.add("SELECT * FROM (" + query + ") q");
+		} else {
+			for(String predicate : predicates){
+				ret.add("SELECT * FROM (" + query + ") q WHERE " + predicate);
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Split [min, max] of a numeric column into numPartitions equal ranges.
+	 * Ranges are rounded to whole numbers when both ends are whole.
+	 * @return one predicate per range, fewer than numPartitions if the range is too narrow
+	 */
+	public static ArrayList<String> getNumericPredicates(String column, BigDecimal min, BigDecimal max, int numPartitions){
+		boolean whole = min.stripTrailingZeros().scale() <= 0 && max.stripTrailingZeros().scale() <= 0;
+		BigDecimal width = max.subtract(min).divide(BigDecimal.valueOf(numPartitions), 10, RoundingMode.HALF_UP);
+		
+		TreeSet<BigDecimal> bounds = new TreeSet<BigDecimal>();
+		for(int i = 1; i < numPartitions; i++){
+			BigDecimal b = min.add(width.multiply(BigDecimal.valueOf(i)));
+			b = whole ? b.setScale(0, RoundingMode.CEILING) : b.stripTrailingZeros();
+			if(b.compareTo(min) > 0 && b.compareTo(max) <= 0){
+				bounds.add(b);
+			}
+		}
+		
+		ArrayList<String> literals = new ArrayList<String>();
+		for(BigDecimal b : bounds){
+			literals.add(b.toPlainString());
+		}
+		return getRangePredicates(column, literals);
+	}
+	
+	/**
+	 * Split [min, max] of a date column into numPartitions equal ranges, to the millisecond.
+	 * @return one predicate per range, fewer than numPartitions if the range is too narrow
+	 */
+	public static ArrayList<String> getTimestampPredicates(String column, long minMillis, long maxMillis, int numPartitions){
+		SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT);
+		
+		TreeSet<Long> bounds = new TreeSet<Long>();
+		for(int i = 1; i < numPartitions; i++){
+			long b = minMillis + (long) Math.ceil((double) (maxMillis - minMillis) * i / numPartitions);
+			if(b > minMillis && b <= maxMillis){
+				bounds.add(b);
+			}
+		}
+		
+		ArrayList<String> literals = new ArrayList<String>();
+		for(Long b : bounds){
+			literals.add("TIMESTAMP '" + format.format(new Date(b)) + "'");	// ANSI literal, understood by Oracle and Postgres
+		}
+		return getRangePredicates(column, literals);
+	}
+	
+	/**
+	 * Build predicates for the ranges below, between and above the sorted boundaries
+	 */
+	private static ArrayList<String> getRangePredicates(String column, ArrayList<String> bounds){
+		ArrayList<String> ret = new ArrayList<String>();
+		if(bounds.isEmpty()){
+			ret.add("1=1");
+			return ret;
+		}
+		ret.add("(" + column + " < " + bounds.get(0) + " OR " + column + " IS NULL)");
+		for(int i = 1; i < bounds.size(); i++){
+			ret.add(column + " >= " + bounds.get(i - 1) + " AND " + column + " < " + bounds.get(i));
+		}
+		ret.add(column + " >= " + bounds.get(bounds.size() - 1));
+		return ret;
+	}
+	
+	/**
+	 * Start a reader for each partition
+	 */
+	private void startReaders() {
+		this.queue.clear();
+		this.partitionsDone = 0;
+		this.current = null;
+		this.currentPos = 0;
+		this.run = new Run();
+		for(int i = 0; i < this.partitionQueries.size(); i++){
+			this.readers.submit(new PartitionReader(this.run, i));
+		}
+	}
+	
+	/**
+	 * Stop the readers and wait for them to return their connections
+	 */
+	private void stopReaders() throws Exception {
+		if(this.run == null){
+			return;
+		}
+		this.run.stopped = true;
+		int ended = this.partitionsDone;
+		while(ended < this.partitionQueries.size()){
+			Batch b = this.queue.poll(60, TimeUnit.SECONDS);
+			if(b == null){
+				throw new Exception("Timed out waiting for partition readers to stop");
+			} else if(b.rows == null){
+				ended++;	// end marker, sent after the reader's connection is returned
+			}
+		}
+		this.queue.clear();
+		this.run = null;
+	}
+	
+	/**
+	 * One pass over the partitions.  Readers check it so reset() and close() can stop them.
+	 */
+	private static class Run {
+		volatile boolean stopped = false;
+	}
+	
+	/**
+	 * Records handed from a partition reader to getNextRecords().
+	 * Each partition ends with a batch with no rows, after any error batch.
+	 */
+	private static class Batch {
+		final int partition;
+		final int firstRecord;		// partition record number of rows[0], from 1
+		final ArrayList<ArrayList<String>> rows;
+		final Exception error;
+		
+		Batch(int partition, int firstRecord, ArrayList<ArrayList<String>> rows, Exception error) {
+			this.partition = partition;
+			this.firstRecord = firstRecord;
+			this.rows = rows;
+			this.error = error;
+		}
+	}
+	
+	/**
+	 * Reads one partition on its own pooled connection
+	 */
+	private class PartitionReader implements Runnable {
+		private final Run run;
+		private final int partition;
+		
+		PartitionReader(Run run, int partition) {
+			this.run = run;
+			this.partition = partition;
+		}
+		
+		public void run() {
+			ODBCDataset ds = null;
+			try {
+				ds = new ODBCDataset(driver, url, username, password, partitionQueries.get(this.partition), fetchSize);
+				int recordNumber = 1;
+				while (!this.run.stopped) {
+					ArrayList<ArrayList<String>> rows = ds.getNextRecords(READ_BATCH_SIZE);
+					if (rows == null || rows.isEmpty()) {
+						break;
+					}
+					this.put(new Batch(this.partition, recordNumber, rows, null));
+					recordNumber += rows.size();
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				this.put(new Batch(this.partition, 0, new ArrayList<ArrayList<String>>(), e));
+			} finally {
+				try {
+					if (ds != null) { ds.close(); }
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				// always delivered, so the consumer can count partitions as they end
+				try {
+					queue.put(new Batch(this.partition, 0, null, null));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		
+		/**
+		 * Wait for room in the queue, giving up if the run is stopped
+		 */
+		private void put(Batch b) {
+			try {
+				while (!this.run.stopped && !queue.offer(b, 100, TimeUnit.MILLISECONDS)) {
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
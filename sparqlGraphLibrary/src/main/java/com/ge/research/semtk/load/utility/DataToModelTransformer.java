@@ -37,6 +37,7 @@ public class DataToModelTransformer {
 	Dataset ds = null;
 	int batchSize = 1;
 	JSONObject basisNodegroupJson;
+	NodeGroup basisNodegroup = null;    // built once from basisNodegroupJson and copied for each record
 	ImportSpecHandler transformSpec = null;
 	OntologyInfo oInfo = null;
 	Table failuresEncountered = null;
@@ -51,6 +52,7 @@ public class DataToModelTransformer {
 			// none of this is valid. panic and throw exception.
 			throw new Exception("either the basis nodegroup or the data transformation spec were null.");
 		}
+		this.basisNodegroup = NodeGroup.getInstanceFromJson(this.basisNodegroupJson);
 	}
 
 	public DataToModelTransformer(SparqlGraphJson sgJson, int batchSize) throws Exception{
@@ -137,11 +139,12 @@ public class DataToModelTransformer {
 			return retval;
 		}
 		
-		for(ArrayList<String> curr : resp){
+		for(int i = 0; i < resp.size(); i++){
+			ArrayList<String> curr = resp.get(i);
 			this.totalRecordsProcessed += 1;
 			
 			// get our new node group
-			NodeGroup cng = NodeGroup.getInstanceFromJson(basisNodegroupJson);
+			NodeGroup cng = NodeGroup.instanceOverlay(this.basisNodegroup);
 			
 			// add the values from the results to it.
 			try{
@@ -159,7 +162,7 @@ public class DataToModelTransformer {
 				}
 				// add error report columns
 				newErrorReport.add(e.getMessage());
-				newErrorReport.add(this.totalRecordsProcessed + "");
+				newErrorReport.add(this.ds.getRecordNumber(i, this.totalRecordsProcessed));
 				this.failuresEncountered.addRow(newErrorReport);
 			}
 		}
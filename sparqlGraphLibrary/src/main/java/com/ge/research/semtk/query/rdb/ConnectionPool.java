@@ -0,0 +1,441 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.query.rdb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of open JDBC connections to one database url as one user,
+ * so each query does not pay for a new login.
+ *
+ * Idle connections are re-validated before reuse if they have sat longer than validateIdleMillis,
+ * and closed once idle longer than maxIdleMillis.
+ * Each connection keeps a small cache of prepared statements.
+ * Session statements (e.g. Hive "set" commands) run once on each new connection,
+ * and pools are kept separately per validation query and list of session statements so settings never leak between callers.
+ * A pool whose password changes is retired: its idle connections are closed at once and borrowed ones as they are returned.
+ * A pool with nothing open that has not been borrowed from for maxIdleMillis is forgotten.
+ *
+ * Usage:
+ *    ConnectionPool.PooledConnection conn = ConnectionPool.getPool(...).borrow();
+ *    try { ... } finally { conn.close(); }   // returns it to the pool
+ */
+public class ConnectionPool {
+
+	private static int defaultMaxSize = 8;							// connections per pool, idle or in use
+	private static long defaultMaxIdleMillis = 5 * 60 * 1000;
+	private static long defaultValidateIdleMillis = 30 * 1000;
+	private static int defaultStatementCacheSize = 20;				// prepared statements per connection
+	private static long borrowTimeoutMillis = 60 * 1000;			// wait for a free connection when all are in use
+
+	private static final long EVICTION_PERIOD_MILLIS = 60 * 1000;
+
+	private static HashMap<String, ConnectionPool> pools = new HashMap<String, ConnectionPool>();
+	private static Timer evictionTimer = null;
+
+	private final String url;
+	private final String username;
+	private final String password;
+	private final String validationQuery;
+	private final List<String> sessionStatements;
+	private final long maxIdleMillis;
+	private final long validateIdleMillis;
+	private final int statementCacheSize;
+	private final int maxSize;
+	private final Semaphore permits;
+
+	private LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();	// most recently used first
+	private boolean retired = false;
+	private volatile long lastBorrowed = System.currentTimeMillis();
+
+	/**
+	 * Get the pool for url and username, creating it if needed.
+	 * @param driver - JDBC driver class
+	 * @param validationQuery - cheap query to check a connection still works.  If null, Connection.isValid() is used.
+	 */
+	public static ConnectionPool getPool(String driver, String url, String username, String password, String validationQuery) throws Exception {
+		return getPool(driver, url, username, password, validationQuery, null);
+	}
+
+	/**
+	 * Get the pool for url, username, validation query and session statements, creating it if needed.
+	 * @param driver - JDBC driver class
+	 * @param validationQuery - cheap query to check a connection still works.  If null, Connection.isValid() is used.
+	 * @param sessionStatements - statements run on each new connection, or null
+	 */
+	public static synchronized ConnectionPool getPool(String driver, String url, String username, String password, String validationQuery, List<String> sessionStatements) throws Exception {
+		String key = url + "|" + username + "|" + validationQuery + "|" + (sessionStatements == null ? "" : String.join(";", sessionStatements));
+		ConnectionPool pool = pools.get(key);
+
+		if (pool != null && !pool.matches(password)) {
+			// credentials changed: retire the old pool.  Connections on loan stay open until returned.
+			pool.retire();
+			pool = null;
+		}
+
+		if (pool == null) {
+			Class.forName(driver);
+			pool = new ConnectionPool(url, username, password, validationQuery, sessionStatements);
+			pools.put(key, pool);
+			startEvictionTimer();
+		}
+		return pool;
+	}
+
+	/**
+	 * Settings for pools created after this call
+	 */
+	public static synchronized void setDefaults(int maxSize, long maxIdleMillis, long validateIdleMillis, int statementCacheSize) {
+		defaultMaxSize = maxSize;
+		defaultMaxIdleMillis = maxIdleMillis;
+		defaultValidateIdleMillis = validateIdleMillis;
+		defaultStatementCacheSize = statementCacheSize;
+	}
+
+	/**
+	 * Close every pool's idle connections and forget the pools
+	 */
+	public static synchronized void closeAll() {
+		for (ConnectionPool pool : pools.values()) {
+			pool.retire();
+		}
+		pools.clear();
+	}
+
+	/**
+	 * Close connections idle past maxIdleMillis, and forget pools left with nothing open
+	 * that have not been borrowed from for as long.  Runs periodically on a timer.
+	 */
+	public static void pruneIdle() {
+		ConnectionPool [] all;
+		synchronized (ConnectionPool.class) {
+			all = pools.values().toArray(new ConnectionPool[0]);
+		}
+		for (ConnectionPool pool : all) {
+			pool.evictIdle();
+		}
+		synchronized (ConnectionPool.class) {
+			Iterator<ConnectionPool> it = pools.values().iterator();
+			while (it.hasNext()) {
+				ConnectionPool pool = it.next();
+				if (pool.isUnused()) {
+					it.remove();
+					pool.retire();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Number of pools, one per database, user and list of session statements
+	 */
+	public static synchronized int getPoolCount() {
+		return pools.size();
+	}
+
+	private ConnectionPool(String url, String username, String password, String validationQuery, List<String> sessionStatements) {
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.validationQuery = validationQuery;
+		this.sessionStatements = sessionStatements;
+		this.maxIdleMillis = defaultMaxIdleMillis;
+		this.validateIdleMillis = defaultValidateIdleMillis;
+		this.statementCacheSize = defaultStatementCacheSize;
+		this.maxSize = defaultMaxSize;
+		this.permits = new Semaphore(defaultMaxSize, true);
+	}
+
+	/**
+	 * Get a working connection, reusing an idle one if possible.
+	 * Blocks while the pool is at its maximum size.
+	 * @throws Exception if no connection can be opened
+	 */
+	public PooledConnection borrow() throws Exception {
+		this.lastBorrowed = System.currentTimeMillis();
+		if (!this.permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+			throw new Exception("Timed out waiting for a free connection to " + this.url);
+		}
+
+		try {
+			while (true) {
+				PooledConnection pc;
+				synchronized (this) {
+					pc = this.idle.pollFirst();
+				}
+				if (pc == null) {
+					break;
+				}
+
+				long now = System.currentTimeMillis();
+				if (now - pc.lastUsed > this.maxIdleMillis) {
+					pc.closeConnection();
+				} else if (now - pc.lastValidated > this.validateIdleMillis && !this.validate(pc)) {
+					pc.closeConnection();
+				} else {
+					pc.borrowed = true;
+					return pc;
+				}
+			}
+
+			PooledConnection pc = new PooledConnection(DriverManager.getConnection(this.url, this.username, this.password));
+			if (this.sessionStatements != null) {
+				try {
+					Statement stmt = pc.conn.createStatement();
+					try {
+						for (String sessionStatement : this.sessionStatements) {
+							stmt.execute(sessionStatement);
+						}
+					} finally {
+						stmt.close();
+					}
+				} catch (Exception e) {
+					pc.closeConnection();
+					throw e;
+				}
+			}
+			pc.borrowed = true;
+			return pc;
+
+		} catch (Exception e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Most connections open at once, idle or in use
+	 */
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	/**
+	 * Number of idle connections
+	 */
+	public synchronized int getIdleCount() {
+		return this.idle.size();
+	}
+
+	private void release(PooledConnection pc) {
+		boolean keep;
+		synchronized (this) {
+			keep = pc.reusable && !this.retired;
+			if (keep) {
+				pc.lastUsed = System.currentTimeMillis();
+				this.idle.addFirst(pc);
+			}
+		}
+		if (!keep) {
+			pc.closeConnection();
+		}
+		this.permits.release();
+	}
+
+	private boolean validate(PooledConnection pc) {
+		try {
+			if (this.validationQuery == null) {
+				if (!pc.conn.isValid(5)) {
+					return false;
+				}
+			} else {
+				Statement stmt = pc.conn.createStatement();
+				try {
+					ResultSet rs = stmt.executeQuery(this.validationQuery);
+					rs.close();
+				} finally {
+					stmt.close();
+				}
+			}
+			pc.markValidated();
+			return true;
+		} catch (Exception e) {
+			System.err.println("Discarding pooled connection to " + this.url + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	private boolean matches(String password) {
+		return String.valueOf(this.password).equals(String.valueOf(password));
+	}
+
+	/**
+	 * Close connections idle past maxIdleMillis
+	 */
+	private void evictIdle() {
+		LinkedList<PooledConnection> expired = new LinkedList<PooledConnection>();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			Iterator<PooledConnection> it = this.idle.iterator();
+			while (it.hasNext()) {
+				PooledConnection pc = it.next();
+				if (now - pc.lastUsed > this.maxIdleMillis) {
+					it.remove();
+					expired.add(pc);
+				}
+			}
+		}
+		for (PooledConnection pc : expired) {
+			pc.closeConnection();
+		}
+	}
+
+	/**
+	 * Is nothing open, idle or borrowed, and nothing borrowed for maxIdleMillis
+	 */
+	private synchronized boolean isUnused() {
+		return this.idle.isEmpty() && this.permits.availablePermits() == this.maxSize
+				&& System.currentTimeMillis() - this.lastBorrowed > this.maxIdleMillis;
+	}
+
+	/**
+	 * Stop pooling: close idle connections now, and borrowed ones as they are returned
+	 */
+	private void retire() {
+		LinkedList<PooledConnection> toClose;
+		synchronized (this) {
+			this.retired = true;
+			toClose = this.idle;
+			this.idle = new LinkedList<PooledConnection>();
+		}
+		for (PooledConnection pc : toClose) {
+			pc.closeConnection();
+		}
+	}
+
+	private static void startEvictionTimer() {
+		if (evictionTimer == null) {
+			evictionTimer = new Timer("jdbc-pool-eviction", true);
+			evictionTimer.schedule(new TimerTask() {
+				public void run() {
+					pruneIdle();
+				}
+			}, EVICTION_PERIOD_MILLIS, EVICTION_PERIOD_MILLIS);
+		}
+	}
+
+	/**
+	 * A connection on loan from the pool.  close() gives it back.
+	 */
+	public class PooledConnection implements AutoCloseable {
+		private final Connection conn;
+		private LinkedHashMap<String, PreparedStatement> statements;
+		private long lastUsed;
+		private long lastValidated;
+		private boolean reusable = true;
+		private boolean borrowed = false;
+
+		private PooledConnection(Connection conn) {
+			this.conn = conn;
+			this.lastUsed = System.currentTimeMillis();
+			this.lastValidated = this.lastUsed;
+
+			// least recently used statements are closed past the cache size
+			this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+					if (this.size() > statementCacheSize) {
+						closeQuietly(eldest.getValue());
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		public Connection getConnection() {
+			return this.conn;
+		}
+
+		/**
+		 * Get a prepared statement for sql, reusing one prepared earlier on this connection.
+		 * Do not close it.  Close its result sets.
+		 */
+		public PreparedStatement prepareStatement(String sql) throws Exception {
+			PreparedStatement ps = this.statements.get(sql);
+			if (ps == null || ps.isClosed()) {
+				ps = this.conn.prepareStatement(sql);
+				this.statements.put(sql, ps);
+			} else {
+				ps.clearParameters();
+			}
+			return ps;
+		}
+
+		/**
+		 * Record that the connection was just checked
+		 */
+		public void markValidated() {
+			this.lastValidated = System.currentTimeMillis();
+		}
+
+		/**
+		 * Close the connection instead of returning it to the pool, e.g. after an error
+		 */
+		public void discard() {
+			this.reusable = false;
+		}
+
+		/**
+		 * Return the connection to the pool
+		 */
+		@Override
+		public void close() {
+			if (this.borrowed) {
+				this.borrowed = false;
+				release(this);
+			}
+		}
+
+		private void closeConnection() {
+			for (PreparedStatement ps : this.statements.values()) {
+				closeQuietly(ps);
+			}
+			this.statements.clear();
+			try {
+				this.conn.close();
+			} catch (Exception e) {
+				// already broken
+			}
+		}
+
+		private void closeQuietly(Statement stmt) {
+			try {
+				stmt.close();
+			} catch (Exception e) {
+				// nothing to do
+			}
+		}
+	}
+}
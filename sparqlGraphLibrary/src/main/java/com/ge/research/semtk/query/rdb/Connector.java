@@ -18,12 +18,12 @@
 
 package com.ge.research.semtk.query.rdb;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.List;
 
 import com.ge.research.semtk.resultSet.Table;
 
@@ -37,6 +37,40 @@ public abstract class Connector {
 	protected String username;
 	protected String password;
 	protected String connectionTestQuery; // a query to test the connection
+	protected int fetchSize = 0;		// rows per JDBC fetch, or 0 for the driver default
+	
+	
+	/**
+	 * Receives query results as they are fetched
+	 */
+	public interface ResultHandler {
+		public void startTable(String[] cols, String[] colTypes) throws Exception;
+		public void handleRow(ArrayList<String> row) throws Exception;
+	}
+	
+	
+	/**
+	 * Set the number of rows the driver fetches per round trip.  0 for the driver default.
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+	
+	
+	/**
+	 * Get the pool of connections for this database and user.
+	 * Connections are reused across connectors, checked with the connection test query.
+	 */
+	protected ConnectionPool getConnectionPool() throws Exception {
+		return getConnectionPool(null);
+	}
+	
+	/**
+	 * Get the pool of connections for this database and user that have run sessionStatements
+	 */
+	protected ConnectionPool getConnectionPool(List<String> sessionStatements) throws Exception {
+		return ConnectionPool.getPool(driver, dbUrl, username, password, connectionTestQuery, sessionStatements);
+	}
 	
 	
 	/**
@@ -62,13 +96,12 @@ public abstract class Connector {
 			throw new Exception("Cannot test connection - no connection test query");
 		}
 		
-		Connection conn = null;
+		ConnectionPool.PooledConnection conn = null;
 		Statement stmt = null;
 		try{
-			// open connection and execute the test query
-			Class.forName(driver);
-			conn = DriverManager.getConnection(dbUrl, username, password); 
-			stmt = conn.createStatement();
+			// get a pooled connection and execute the test query
+			conn = getConnectionPool().borrow();
+			stmt = conn.getConnection().createStatement();
 			ResultSet rs = stmt.executeQuery(connectionTestQuery);
 			rs.getMetaData();
 
@@ -76,9 +109,9 @@ public abstract class Connector {
 			rs.close();
 			stmt.close();
 			stmt = null;
-			conn.close();
-			conn = null;
+			conn.markValidated();
 		}catch(Exception e){
+			if(conn!=null){ conn.discard(); }
 			throw e;
 		}finally{
 			if(stmt!=null){	stmt.close(); }
@@ -88,16 +121,70 @@ public abstract class Connector {
 	
 	
 	/**
-	 * Runs a query and retrieves results 
+	 * Runs a query and retrieves results.
+	 * The SQL is run as written, so a "?" in it is never taken for a parameter.
 	 * @throws Exception 
 	 */
 	public Table query(String query) throws Exception {
+		return collect(query, null);
+	}
+	
+	/**
+	 * Runs a query with bound parameters and retrieves results 
+	 * @throws Exception 
+	 */
+	public Table query(PreparedQuery query) throws Exception {
+		return collect(query.getSql(), query);
+	}
+	
+	private Table collect(String query, PreparedQuery preparedQuery) throws Exception {
+		
+		final ArrayList<ArrayList<String>> recs = new ArrayList<ArrayList<String>>();
+		final Table [] table = new Table[1];
+		
+		run(query, preparedQuery, new ResultHandler() {
+			public void startTable(String[] cols, String[] colTypes) throws Exception {
+				table[0] = new Table(cols, colTypes, recs);
+			}
+			public void handleRow(ArrayList<String> row) {
+				recs.add(row);
+			}
+		});
+		
+		return table[0];
+	}
+	
+	
+	/**
+	 * Runs a query and sends each row to handler as it is fetched, without holding the results.
+	 * The SQL is run as written, so a "?" in it is never taken for a parameter.
+	 * @return number of rows
+	 * @throws Exception 
+	 */
+	public int query(String query, ResultHandler handler) throws Exception {
+		return run(query, null, handler);
+	}
+	
+	/**
+	 * Runs a query with bound parameters and sends each row to handler as it is fetched.
+	 * Leading "set" statements are allowed; the parameters belong to the final statement.
+	 * @return number of rows
+	 * @throws Exception 
+	 */
+	public int query(PreparedQuery preparedQuery, ResultHandler handler) throws Exception {
+		return run(preparedQuery.getSql(), preparedQuery, handler);
+	}
+	
+	/**
+	 * Run query as cached prepared statements if preparedQuery is given, else as plain statements
+	 */
+	private int run(String query, PreparedQuery preparedQuery, ResultHandler handler) throws Exception {
 
 		// validate query
-		query = query.trim();
 		if(query == null || query.trim().isEmpty()){
 			throw new Exception("Must specify a query");
 		}
+		query = query.trim();
 		
 		// limit to SELECT queries for now
 		if((!query.toLowerCase().startsWith("select"))
@@ -105,60 +192,73 @@ public abstract class Connector {
 			throw new Exception("Only SELECT or SET queries are currently supported");
 		}
 
-		ArrayList<ArrayList<String>> recs = new ArrayList<ArrayList<String>>();
 		ArrayList<String> tmp;
+		int numRows = 0;
 
-		Connection conn = null;
+		ConnectionPool.PooledConnection conn = null;
 		Statement stmt = null;
+		ResultSet rs = null;
 		try{
-			// register JDBC driver, open connection
-			Class.forName(driver);
-			conn = DriverManager.getConnection(dbUrl, username, password); 
-			stmt = conn.createStatement();
-			String[] queries = query.split(";");
-			ResultSet rs = null;
+			// "set" statements go to every connection of the pool, others are run here
+			ArrayList<String> sessionStatements = new ArrayList<String>();
+			ArrayList<String> queries = new ArrayList<String>();
+			for (String q : query.split(";")) {
+				if (q.trim().toLowerCase().startsWith("set")) {
+					sessionStatements.add(q.trim());
+				} else if (!q.trim().isEmpty()) {
+					queries.add(q.trim());
+				}
+			}
+
+			// get a pooled connection
+			conn = getConnectionPool(sessionStatements.isEmpty() ? null : sessionStatements).borrow();
 			ResultSetMetaData rsmeta = null;
-			for (int i = 0; i < queries.length; i++) {
-				if (queries[i].trim().toLowerCase().startsWith("set")) {
-					stmt.execute(queries[i].trim());
-				} else {
-					rs = stmt.executeQuery(queries[i].trim());
-					rsmeta = rs.getMetaData();
+			for (int i = 0; i < queries.size(); i++) {
+				if(rs != null){ rs.close(); }
+				if(preparedQuery != null){
+					PreparedStatement ps = conn.prepareStatement(queries.get(i));
+					ps.setFetchSize(Math.max(fetchSize, 0));	// always set: the statement is cached with the last caller's fetch size
+					if(i == queries.size() - 1){ preparedQuery.setParameters(ps); }
+					rs = ps.executeQuery();
+				}else{
+					if(stmt == null){
+						stmt = conn.getConnection().createStatement();
+						stmt.setFetchSize(Math.max(fetchSize, 0));
+					}
+					rs = stmt.executeQuery(queries.get(i));
 				}
+				rsmeta = rs.getMetaData();
 			}
 
 			// extract column list
-			String[] cols = new String[rsmeta.getColumnCount()];
-			String[] colTypes = new String[rsmeta.getColumnCount()];
-			for(int i = 0; i < rsmeta.getColumnCount(); i++){ 
+			int numCols = rsmeta.getColumnCount();
+			String[] cols = new String[numCols];
+			String[] colTypes = new String[numCols];
+			for(int i = 0; i < numCols; i++){ 
 				cols[i] = rsmeta.getColumnLabel(i+1).toLowerCase();  // use lower case for column headers
 				colTypes[i] = rsmeta.getColumnTypeName(i+1);
 			}			
+			handler.startTable(cols, colTypes);
 			
 			// extract data from result set
 			while(rs.next()){
-				tmp = new ArrayList<String>();
-				for(int i = 0; i < rsmeta.getColumnCount(); i++){ 
-					tmp.add(rs.getString(i+1));   // use lower case for column headers
-					//System.out.println("put " + rsmeta.getColumnLabel(i+1).toLowerCase() + ", " + rs.getString(i+1));
+				tmp = new ArrayList<String>(numCols);
+				for(int i = 0; i < numCols; i++){ 
+					tmp.add(rs.getString(i+1));
 				}
-				recs.add(tmp);				
+				handler.handleRow(tmp);
+				numRows++;
 			}
 
-			// clean up
-			rs.close();
-			stmt.close();
-			stmt = null;
-			conn.close();
-			conn = null;
-			
-			return new Table(cols, colTypes, recs);
+			return numRows;
 
 		}catch(Exception e){
 			//e.printStackTrace();
+			if(conn!=null){ conn.discard(); }
 			throw e;
 		}finally{
-			if(stmt!=null){	stmt.close(); }
+			if(rs!=null){ rs.close(); }
+			if(stmt!=null){ stmt.close(); }
 			if(conn!=null){ conn.close(); }
 		}
 
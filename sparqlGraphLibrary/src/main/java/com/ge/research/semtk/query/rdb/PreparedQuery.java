@@ -0,0 +1,147 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.query.rdb;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Builds SQL for a PreparedStatement from trusted text, validated identifiers and bound parameters,
+ * so user input never becomes SQL.  Queries of the same shape have the same text,
+ * letting pooled connections reuse the compiled statement.
+ *
+ * Usage:
+ *    PreparedQuery q = new PreparedQuery("select * from ").appendIdentifier(table)
+ *                          .append(" where ").appendIdentifier(col).append(" = ").appendParameter(value);
+ *    Table t = connector.query(q);
+ */
+public class PreparedQuery {
+
+	// column or table name, optionally qualified, e.g. db.table
+	private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+	// primitive types a value or column may be cast to
+	private static final Pattern TYPE_PATTERN = Pattern.compile(
+			"(?i)(tinyint|smallint|int|integer|bigint|float|double|string|boolean|date|timestamp|" +
+			"decimal(\\(\\d+(,\\s*\\d+)?\\))?|varchar\\(\\d+\\)|char\\(\\d+\\))");
+
+	private StringBuilder sql;
+	private ArrayList<Object> parameters;
+
+	public PreparedQuery() {
+		this("");
+	}
+
+	public PreparedQuery(String sql) {
+		this(sql, new ArrayList<Object>());
+	}
+
+	public PreparedQuery(String sql, List<Object> parameters) {
+		this.sql = new StringBuilder(sql);
+		this.parameters = new ArrayList<Object>(parameters);
+	}
+
+	/**
+	 * Append SQL text.  Must not contain user input.
+	 */
+	public PreparedQuery append(String text) {
+		this.sql.append(text);
+		return this;
+	}
+
+	/**
+	 * Append a column or table name
+	 * @throws Exception if it is not a plain identifier
+	 */
+	public PreparedQuery appendIdentifier(String identifier) throws Exception {
+		this.sql.append(validateIdentifier(identifier));
+		return this;
+	}
+
+	/**
+	 * Append a placeholder for value
+	 */
+	public PreparedQuery appendParameter(Object value) {
+		this.sql.append("?");
+		this.parameters.add(value);
+		return this;
+	}
+
+	public String getSql() {
+		return this.sql.toString();
+	}
+
+	public List<Object> getParameters() {
+		return this.parameters;
+	}
+
+	/**
+	 * Bind the parameters to a statement prepared from getSql()
+	 */
+	public void setParameters(PreparedStatement ps) throws Exception {
+		for (int i = 0; i < this.parameters.size(); i++) {
+			Object p = this.parameters.get(i);
+			if (p instanceof String) {
+				ps.setString(i + 1, (String) p);
+			} else if (p instanceof Integer) {
+				ps.setInt(i + 1, (Integer) p);
+			} else if (p instanceof Long) {
+				ps.setLong(i + 1, (Long) p);
+			} else if (p instanceof Double) {
+				ps.setDouble(i + 1, (Double) p);
+			} else {
+				ps.setObject(i + 1, p);
+			}
+		}
+	}
+
+	/**
+	 * The SQL with its parameters, for logging and cache keys
+	 */
+	@Override
+	public String toString() {
+		return this.parameters.isEmpty() ? this.getSql() : this.getSql() + " " + this.parameters.toString();
+	}
+
+	/**
+	 * Check a column or table name
+	 * @return the identifier
+	 * @throws Exception if it is not a plain, optionally qualified, identifier
+	 */
+	public static String validateIdentifier(String identifier) throws Exception {
+		if (identifier == null || !IDENTIFIER_PATTERN.matcher(identifier).matches()) {
+			throw new Exception("Invalid identifier: " + identifier);
+		}
+		return identifier;
+	}
+
+	/**
+	 * Check a type name for a cast
+	 * @return the type
+	 * @throws Exception if it is not a known primitive type
+	 */
+	public static String validateType(String type) throws Exception {
+		if (type == null || !TYPE_PATTERN.matcher(type.trim()).matches()) {
+			throw new Exception("Invalid type: " + type);
+		}
+		return type.trim();
+	}
+}
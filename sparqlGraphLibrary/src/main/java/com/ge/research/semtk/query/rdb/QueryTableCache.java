@@ -0,0 +1,157 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.query.rdb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.ge.research.semtk.resultSet.Table;
+
+/**
+ * Caches the tables returned by expensive queries (e.g. Hive aggregates over whole tables),
+ * keyed by the query text plus the database it ran on.
+ *
+ * Concurrent requests for the same key share one execution: the first caller runs the query
+ * and the rest wait for its table.  Failures are not cached.
+ * Entries are dropped least-recently-used past maxEntries, or when older than the time-to-live.
+ *
+ * Cached tables are shared between callers and must not be modified.
+ */
+public class QueryTableCache {
+
+	private final int maxEntries;
+	private final long ttlMillis;
+
+	private LinkedHashMap<String, CachedTable> entries;
+
+	private long hits = 0;		// served from a completed entry
+	private long misses = 0;	// ran the query
+	private long joins = 0;		// waited for another caller's run of the same query
+
+	/**
+	 * @param maxEntries - most tables remembered
+	 * @param ttlMillis  - age at which a table is no longer used.  <= 0 means no expiration.
+	 */
+	public QueryTableCache(int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+
+		// access-ordered so the eldest entry is the least recently used
+		this.entries = new LinkedHashMap<String, CachedTable>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedTable> eldest) {
+				return this.size() > QueryTableCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Build a key from a database url and the query run against it
+	 */
+	public static String buildKey(String databaseUrl, String query) {
+		return databaseUrl + "\n" + query;
+	}
+
+	/**
+	 * Get the table for key, running the query only if no caller has a fresh or in-flight result.
+	 * @param key - from buildKey()
+	 * @param query - runs the query.  Called at most once per key at a time.
+	 * @throws Exception the query's exception, to the caller that ran it and any that waited on it
+	 */
+	public Table get(String key, Callable<Table> query) throws Exception {
+		CachedTable cached;
+		boolean owner = false;
+
+		synchronized (this) {
+			cached = this.entries.get(key);
+			if (cached != null && this.isExpired(cached)) {
+				this.entries.remove(key);
+				cached = null;
+			}
+
+			if (cached == null) {
+				cached = new CachedTable(new FutureTask<Table>(query));
+				this.entries.put(key, cached);
+				this.misses ++;
+				owner = true;
+			} else if (cached.future.isDone()) {
+				this.hits ++;
+			} else {
+				this.joins ++;
+			}
+		}
+
+		if (owner) {
+			cached.future.run();
+			cached.storedMillis = System.currentTimeMillis();
+		}
+
+		try {
+			return cached.future.get();
+		} catch (ExecutionException e) {
+			if (owner) {
+				synchronized (this) {
+					// don't remember the failure, unless the entry was already replaced
+					if (this.entries.get(key) == cached) {
+						this.entries.remove(key);
+					}
+				}
+			}
+			Throwable cause = e.getCause();
+			throw (cause instanceof Exception) ? (Exception) cause : new Exception(cause);
+		}
+	}
+
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	public synchronized long getJoins() {
+		return this.joins;
+	}
+
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	private boolean isExpired(CachedTable cached) {
+		return this.ttlMillis > 0 && cached.future.isDone() && System.currentTimeMillis() - cached.storedMillis > this.ttlMillis;
+	}
+
+	private static class CachedTable {
+		final FutureTask<Table> future;
+		volatile long storedMillis = Long.MAX_VALUE;	// set once the query finishes
+
+		CachedTable(FutureTask<Table> future) {
+			this.future = future;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.query.rdb;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+/**
+ * Writes query results to a stream as they are fetched, as CSV or as JSON lines.
+ * 
+ * JSON lines: a header object {"columns":[...],"columnTypes":[...]}, then one JSON array per row,
+ * and on failure a final {"error":"..."} line.
+ * CSV: a header row, then one record per row.
+ */
+public class ResultStreamWriter implements Connector.ResultHandler {
+
+	public static final String FORMAT_CSV = "csv";
+	public static final String FORMAT_JSONL = "jsonl";
+	
+	private static final int FLUSH_ROWS = 1000;
+	
+	private Writer out;
+	private boolean csv;
+	private CSVPrinter csvPrinter = null;
+	private int numRows = 0;
+	
+	/**
+	 * @param out
+	 * @param format - FORMAT_CSV or FORMAT_JSONL.  Null means JSON lines.
+	 */
+	public ResultStreamWriter(Writer out, String format) throws Exception {
+		this.out = out;
+		this.csv = getContentType(format).equals("text/csv");
+	}
+	
+	/**
+	 * Content type to send with a stream in format
+	 * @throws Exception if the format is unknown
+	 */
+	public static String getContentType(String format) throws Exception {
+		if (format == null || format.equalsIgnoreCase(FORMAT_JSONL)) {
+			return "application/x-ndjson";
+		} else if (format.equalsIgnoreCase(FORMAT_CSV)) {
+			return "text/csv";
+		} else {
+			throw new Exception("Unknown format: " + format + ".  Valid options are: " + FORMAT_JSONL + " or " + FORMAT_CSV);
+		}
+	}
+	
+	public int getNumRows() {
+		return this.numRows;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public void startTable(String[] cols, String[] colTypes) throws Exception {
+		if (this.csv) {
+			this.csvPrinter = new CSVPrinter(this.out, CSVFormat.DEFAULT);
+			this.csvPrinter.printRecord((Object[]) cols);
+		} else {
+			JSONObject header = new JSONObject();
+			header.put("columns", Arrays.asList(cols));
+			header.put("columnTypes", Arrays.asList(colTypes));
+			this.out.write(header.toJSONString());
+			this.out.write("\n");
+		}
+		this.out.flush();
+	}
+
+	@Override
+	public void handleRow(ArrayList<String> row) throws Exception {
+		if (this.csv) {
+			this.csvPrinter.printRecord(row);
+		} else {
+			this.out.write(JSONValue.toJSONString(row));
+			this.out.write("\n");
+		}
+		
+		this.numRows++;
+		if (this.numRows % FLUSH_ROWS == 0) {
+			this.out.flush();
+		}
+	}
+	
+	/**
+	 * Flush anything not yet written
+	 */
+	public void finish() throws Exception {
+		this.out.flush();
+	}
+	
+	/**
+	 * Report a failure after the stream has started.  CSV has no way to mark it, so it is only flushed.
+	 */
+	@SuppressWarnings("unchecked")
+	public void writeError(String message) throws Exception {
+		if (!this.csv) {
+			JSONObject error = new JSONObject();
+			error.put("error", message);
+			this.out.write(error.toJSONString());
+			this.out.write("\n");
+		}
+		this.out.flush();
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.query.rdb;
+
+import java.util.ArrayList;
+
+import com.ge.research.semtk.edc.client.ResultsClient;
+import com.ge.research.semtk.resultSet.Table;
+
+/**
+ * Stores query results with the results service as they are fetched,
+ * sending them in batches so the whole table is never held in memory.
+ * Call finish() after the query.
+ */
+public class ResultsStorageHandler implements Connector.ResultHandler {
+
+	private ResultsClient client;
+	private String jobId;
+	private int batchSize;
+	
+	private String[] cols = null;
+	private String[] colTypes = null;
+	private ArrayList<ArrayList<String>> batch;
+	private int numRows = 0;
+	
+	/**
+	 * @param client
+	 * @param jobId - job to store results for
+	 * @param batchSize - rows sent per call to the results service
+	 */
+	public ResultsStorageHandler(ResultsClient client, String jobId, int batchSize) {
+		this.client = client;
+		this.jobId = jobId;
+		this.batchSize = batchSize;
+		this.batch = new ArrayList<ArrayList<String>>(batchSize);
+	}
+	
+	public int getNumRows() {
+		return this.numRows;
+	}
+	
+	@Override
+	public void startTable(String[] cols, String[] colTypes) throws Exception {
+		this.cols = cols;
+		this.colTypes = colTypes;
+		this.client.execStoreTableResultsJsonInitialize(this.jobId, new Table(cols, colTypes, null));
+	}
+
+	@Override
+	public void handleRow(ArrayList<String> row) throws Exception {
+		this.batch.add(row);
+		this.numRows++;
+		if (this.batch.size() >= this.batchSize) {
+			this.sendBatch();
+		}
+	}
+	
+	/**
+	 * Send the remaining rows and finish the stored table
+	 */
+	public void finish() throws Exception {
+		if (this.cols == null) {
+			throw new Exception("No results were received for job " + this.jobId);
+		}
+		this.sendBatch();
+		this.client.execStoreTableResultsJsonFinalize(this.jobId, this.numRows);
+	}
+	
+	private void sendBatch() throws Exception {
+		if (this.batch.size() > 0) {
+			this.client.execStoreTableResultsJsonAddIncremental(this.jobId, new Table(this.cols, this.colTypes, this.batch));
+			this.batch = new ArrayList<ArrayList<String>>(this.batchSize);
+		}
+	}
+}
@@ -22,7 +22,12 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
@@ -42,10 +47,14 @@ public class Table {
 	public final static String JSON_KEY_ROWS = "rows";
 	public final static String JSON_KEY_ROW_COUNT = "row_count";
 	public final static String JSON_KEY_COL_COUNT = "col_count";
+	
+	// fewest rows worth a thread of their own when materializing a merge
+	private final static int MIN_ROWS_PER_MERGE_THREAD = 10000;
 
 	private String[] columnNames;
 	private String[] columnTypes;
 	private ArrayList<ArrayList<String>> rows;   
+	private TableSegments segments = null;		// if not null, the rows are a merged view of these, and rows is unused
 	private HashMap<String, Integer> columnPositionInfo = new HashMap<String, Integer>();
 	
 	public Table(String[] cols, String[] colTypes, ArrayList<ArrayList<String>> rows) throws Exception{
@@ -100,6 +109,9 @@ public class Table {
 	}
 	
 	public int getNumRows(){
+		if(this.segments != null){
+			return this.segments.size();
+		}
 		return rows.size();
 	}
 	
@@ -141,7 +153,7 @@ public class Table {
 	 */
 	public String[] getColumn(int index){
 		ArrayList<String> column = new ArrayList<String>();
-		for(ArrayList<String> row : rows){
+		for(ArrayList<String> row : this.rowIterable()){
 			column.add(row.get(index));
 		}
 		return column.toArray(new String[column.size()]);
@@ -159,7 +171,7 @@ public class Table {
 	 */
 	public String[] getColumnUniqueValues(int index){
 		ArrayList<String> column = new ArrayList<String>();
-		for(ArrayList<String> row : rows){
+		for(ArrayList<String> row : this.rowIterable()){
 			if(!column.contains(row.get(index))){  // enforce uniqueness
 				column.add(row.get(index));
 			}
@@ -172,6 +184,7 @@ public class Table {
 			// panic
 			throw new Exception("Incoming row has " + newRow.size() + " columns but " + this.columnNames.length + " were expected.");
 		}
+		this.materializeRows();
 		this.rows.add(newRow);
 	}
 	
@@ -187,9 +200,11 @@ public class Table {
 	}
 	
 	/**
-	 * Get the table rows
+	 * Get the table rows.
+	 * If this is a merged view, the rows are first copied into a list of their own.
 	 */
 	public ArrayList<ArrayList<String>> getRows(){
+		this.materializeRows();
 		return this.rows;
 	}
 	
@@ -197,9 +212,19 @@ public class Table {
 	 * Get a single table row by index
 	 */
 	public ArrayList<String> getRow(int rowNum){
+		if(this.segments != null){
+			return this.segments.getRow(rowNum);
+		}
 		return this.rows.get(rowNum);
 	}
 	
+	/**
+	 * Is this a merged view of other tables' rows (see merge())
+	 */
+	public boolean isMergedView(){
+		return this.segments != null;
+	}
+	
 	/**
 	 * Get a single table row by index, and convert it to a CSV string.
 	 */
@@ -209,6 +234,9 @@ public class Table {
 	}
 	
 	public String getCell(int row, int col) {
+		if(this.segments != null){
+			return this.segments.getCell(row, col);
+		}
 		return this.rows.get(row).get(col);
 	}
 	
@@ -217,6 +245,7 @@ public class Table {
 	 * @param length
 	 */
 	public void truncate (int length) {
+		this.materializeRows();
 		int size = this.rows.size();
 		if (size > length) {
 			this.rows.subList(length, size).clear();
@@ -324,7 +353,7 @@ public class Table {
 				counter++;
 			}
 			if(includeDataRows){
-				for (ArrayList<String> row : this.getRows()) {
+				for (ArrayList<String> row : this.rowIterable()) {
 					if(row != null){   // do not include null rows...
 						JSONArray currRow = new JSONArray();
 						for (Integer k : columnNumbersInOrderIwanted) {
@@ -336,7 +365,7 @@ public class Table {
 				}
 			}
 			else{
-				rowCount = this.getRows().size();
+				rowCount = this.getNumRows();
 			}
 		} catch(Exception e){
 			throw new Exception("Unable to collect row data for JSON table result set: " + e.getMessage());
@@ -374,12 +403,19 @@ public class Table {
 	}
 
 	public void clearRows() {
+		if(this.segments != null){
+			this.segments = null;
+			this.rows = new ArrayList<ArrayList<String>>();
+		}
 		this.rows.clear();
 	}
 
 	
 	/**
-	 * Merge multiple tables into a single table
+	 * Merge multiple tables into a single table.
+	 * The result is a view on the tables' rows in order, so nothing is copied (see isMergedView()).
+	 * The tables should not be changed while it is in use.
+	 * Its rows are copied into a list of their own if it is changed, or by getRows().
 	 */
 	public static Table merge(ArrayList<Table> tables) throws Exception {
 
@@ -390,45 +426,105 @@ public class Table {
 			return tables.get(0);  	// if only one table given, then pass it back
 		}
 		
-		String[] mergedTableCols = null;
-		String[] mergedTableColTypes = null;
-		ArrayList<ArrayList<String>> mergedTableRows = new ArrayList<ArrayList<String>>();
-		ArrayList<String> rowReordered;
-		
+		String[] mergedTableCols = tables.get(0).getColumnNames();
+		String[] mergedTableColTypes = tables.get(0).getColumnTypes();
 		for(Table t : tables){
+			if(!Utility.arraysSameMinusOrder(mergedTableCols, t.getColumnNames())){
+				throw new Exception("Cannot merge tables: column set is not the same");
+			}
+			if(!Utility.arraysSameMinusOrder(mergedTableColTypes, t.getColumnTypes())){
+				throw new Exception("Cannot merge tables: column type set is not the same");
+			}
+			// TODO should also check that the column-type PAIRS are the same
+		}
 		
-			if(mergedTableCols == null){  	// for the first table...				
-				mergedTableCols = t.getColumnNames();
-				mergedTableColTypes = t.getColumnTypes();
-				mergedTableRows = t.getRows();
-			}else{							// for subsequent tables...											
-				if(!Utility.arraysSameMinusOrder(mergedTableCols, t.getColumnNames())){
-					throw new Exception("Cannot merge tables: column set is not the same");
-				}
-				if(!Utility.arraysSameMinusOrder(mergedTableColTypes, t.getColumnTypes())){
-					throw new Exception("Cannot merge tables: column type set is not the same");
-				}
-				// TODO should also check that the column-type PAIRS are the same
-				
-				// reorder and collect the table's rows
-				for(ArrayList<String> row : t.getRows()){
-					rowReordered = new ArrayList<String>();
-					if(Arrays.equals(mergedTableCols, t.getColumnNames())){						
-						rowReordered = row; // columns are in the same order, faster to just add the row as is
-					}else{
-						// columns are not in the same order - reorder the row 
-						for(String col : mergedTableCols){
-							int i = Arrays.asList(t.getColumnNames()).indexOf(col);
-							rowReordered.add(row.get(i));
-						}						
-					}
-					mergedTableRows.add(rowReordered);  // collect the (reordered) row
-				}			
-			}			
+		// return the merged view, with rows reordered to the first table's columns as they are read
+		Table ret = new Table(mergedTableCols, mergedTableColTypes, null);
+		ret.segments = new TableSegments(tables, mergedTableCols);
+		return ret;
+	}
+	
+	/**
+	 * Merge multiple tables into a single table with a row list of its own, for when it is to be changed.
+	 * Rows are shared with the given tables unless their columns are in a different order.
+	 * @param numThreads copy this many ranges of rows at once
+	 */
+	public static Table mergeCopy(ArrayList<Table> tables, int numThreads) throws Exception {
+		Table ret = merge(tables);
+		if(ret == tables.get(0)){
+			ret = new Table(ret.getColumnNames(), ret.getColumnTypes(), null);
+			ret.segments = new TableSegments(tables, ret.getColumnNames());
+		}
+		ret.materializeRows(numThreads);
+		return ret;
+	}
+	
+	/**
+	 * Iterate the rows without copying a merged view
+	 */
+	private Iterable<ArrayList<String>> rowIterable(){
+		if(this.segments != null){
+			return this.segments;
+		}
+		return this.rows;
+	}
+	
+	/**
+	 * If this is a merged view, copy its rows into a list of its own
+	 */
+	private void materializeRows(){
+		if(this.segments == null){
+			return;
+		}
+		int size = this.segments.size();
+		ArrayList<ArrayList<String>> merged = new ArrayList<ArrayList<String>>(Collections.<ArrayList<String>>nCopies(size, null));
+		this.segments.copyRows(merged, 0, size);
+		this.rows = merged;
+		this.segments = null;
+	}
+	
+	/**
+	 * If this is a merged view, copy its rows into a list of its own, using several threads
+	 */
+	private void materializeRows(int numThreads) throws Exception {
+		if(this.segments == null){
+			return;
+		}
+		final TableSegments segs = this.segments;
+		final int size = segs.size();
+		int numChunks = Math.min(numThreads, size / MIN_ROWS_PER_MERGE_THREAD);
+		if(numChunks < 2){
+			this.materializeRows();
+			return;
 		}
 		
-		// return the merged table
-		return new Table(mergedTableCols, mergedTableColTypes, mergedTableRows);
+		// each thread fills its own range of a presized list
+		final ArrayList<ArrayList<String>> merged = new ArrayList<ArrayList<String>>(Collections.<ArrayList<String>>nCopies(size, null));
+		ExecutorService pool = Executors.newFixedThreadPool(numChunks);
+		try{
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			for(int i = 0; i < numChunks; i++){
+				final int start = (int) ((long) size * i / numChunks);
+				final int end = (int) ((long) size * (i + 1) / numChunks);
+				futures.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						segs.copyRows(merged, start, end);
+					}
+				}));
+			}
+			for(Future<?> f : futures){
+				try{
+					f.get();
+				}catch(ExecutionException e){
+					throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+				}
+			}
+		}finally{
+			pool.shutdownNow();
+		}
+		this.rows = merged;
+		this.segments = null;
 	}
 
 	/**
@@ -459,7 +555,7 @@ public class Table {
 		
 		// add rows to the table
 		int matchColIndex = getColumnIndex(matchColName);  // get the index of the column we need to match
-		for(ArrayList<String> row : getRows()){
+		for(ArrayList<String> row : this.rowIterable()){
 			if(row.get(matchColIndex).equals(matchColValue)){  // met the match condition
 				ArrayList<String> newRow = new ArrayList<String>();  // assemble only the columns requested
 				for(String retCol : returnColNames){
@@ -491,7 +587,7 @@ public class Table {
 		boolean failed;
 		
 		// for each row
-		for(ArrayList<String> row : getRows()){
+		for(ArrayList<String> row : this.rowIterable()){
 			failed = false;
 			for(String filterKey : filterMap.keySet()){
 				index = getColumnIndex(filterKey);
@@ -0,0 +1,187 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.resultSet;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Reads a CSV table, e.g. results from the results service, one row at a time.
+ *
+ * The first record is the column names.  Quoted values may hold commas, quotes and line breaks.
+ * Quotes may be doubled, or backslash-escaped as the results service writes them: its CSV rows are the stored
+ * data rows, with \", \\, \n and \t inside quoted values.
+ * Columns are typed "string" unless types are given, e.g. from the results metadata.
+ * Reading may be limited to a number of rows, and cancelled from another thread.
+ */
+public class TableCsvReader implements Closeable {
+
+	public static final String DEFAULT_COLUMN_TYPE = "string";
+
+	private static final CSVFormat FORMAT = CSVFormat.EXCEL.withQuote('"').withEscape('\\').withIgnoreEmptyLines(true);
+
+	private CSVParser parser;
+	private Iterator<CSVRecord> records;
+	private String[] colNames;
+	private String[] colTypes;
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param reader the CSV.  Closed by close().
+	 */
+	public TableCsvReader(Reader reader) throws Exception {
+		this.parser = FORMAT.parse(reader);
+		this.records = this.parser.iterator();
+
+		CSVRecord header = this.nextRecord();
+		int colCount = (header == null) ? 0 : header.size();
+		this.colNames = new String[colCount];
+		this.colTypes = new String[colCount];
+		for (int i = 0; i < colCount; i++) {
+			this.colNames[i] = header.get(i);
+			this.colTypes[i] = DEFAULT_COLUMN_TYPE;
+		}
+	}
+
+	/**
+	 * @param in UTF-8 CSV.  Closed by close().
+	 */
+	public TableCsvReader(InputStream in) throws Exception {
+		this(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Open a reader on the contents of a URL
+	 */
+	public static TableCsvReader open(URL url) throws Exception {
+		InputStream in = url.openConnection().getInputStream();
+		try {
+			return new TableCsvReader(in);
+		} catch (Exception e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the column names.  Empty if the CSV was empty.
+	 */
+	public String[] getColumnNames() {
+		return this.colNames;
+	}
+
+	public String[] getColumnTypes() {
+		return this.colTypes;
+	}
+
+	/**
+	 * Set the column types, e.g. the col_type of the results metadata
+	 */
+	public void setColumnTypes(String[] colTypes) throws Exception {
+		if (colTypes.length != this.colNames.length) {
+			throw new Exception("Got " + colTypes.length + " column types for " + this.colNames.length + " CSV columns");
+		}
+		this.colTypes = colTypes.clone();
+	}
+
+	/**
+	 * Read the next row.  Short rows are padded with "".
+	 * @return the row, or null at the end
+	 * @throws CancellationException if cancel() was called
+	 * @throws Exception if a row has more values than there are columns, or the CSV is malformed
+	 */
+	public ArrayList<String> readRow() throws Exception {
+		CSVRecord record = this.nextRecord();
+		if (record == null) {
+			return null;
+		}
+		if (record.size() > this.colNames.length) {
+			throw new Exception("CSV record " + record.getRecordNumber() + " has " + record.size() + " values, expected " + this.colNames.length);
+		}
+		ArrayList<String> row = new ArrayList<String>(this.colNames.length);
+		for (int i = 0; i < this.colNames.length; i++) {
+			row.add(i < record.size() ? record.get(i) : "");
+		}
+		return row;
+	}
+
+	/**
+	 * Read rows into a table
+	 * @param maxRows stop after this many rows. -1 for all.
+	 */
+	public Table readTable(int maxRows) throws Exception {
+		Table ret = new Table(this.colNames, this.colTypes, null);
+		ArrayList<String> row;
+		while ((maxRows < 0 || ret.getNumRows() < maxRows) && (row = this.readRow()) != null) {
+			ret.addRow(row);
+		}
+		return ret;
+	}
+
+	/**
+	 * Stop reading.  May be called from another thread: a readRow() in progress or
+	 * any later one throws CancellationException.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+		try {
+			this.parser.close();	// unblocks a read waiting on the stream
+		} catch (IOException e) {
+			System.err.println("Error closing cancelled CSV reader: " + e.getMessage());
+		}
+	}
+
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.parser.close();
+	}
+
+	private CSVRecord nextRecord() throws Exception {
+		if (this.cancelled) {
+			throw new CancellationException("CSV read was cancelled");
+		}
+		try {
+			return this.records.hasNext() ? this.records.next() : null;
+
+		} catch (IllegalStateException e) {
+			// parse errors are wrapped by the iterator
+			if (this.cancelled) {
+				throw new CancellationException("CSV read was cancelled");
+			}
+			throw new Exception("Error reading CSV: " + e.getMessage(), e.getCause() != null ? e.getCause() : e);
+		}
+	}
+}
@@ -91,6 +91,7 @@ public class TableResultSet extends GeneralResultSet{
 	 * Merge a set of TableResultSets into a single TableResultSet
 	 * 
 	 * (wanted to override an abstract method in GeneralResultSet, but cannot have static abstract method)
+	 * The tables are merged as a view (see Table.merge()), so their rows are not copied before being added.
 	 * TODO check for result set failures?
 	 */
 	public static TableResultSet merge(ArrayList<TableResultSet> tableResultSets) throws Exception {	
@@ -0,0 +1,153 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.resultSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The rows of several tables, read in order as if they were one table, without copying them.
+ *
+ * Row n is found by binary search on the segments' starting offsets.
+ * A segment whose columns are in a different order has its rows reordered as they are read.
+ * The segment tables should not be changed while this is in use.
+ */
+class TableSegments implements Iterable<ArrayList<String>> {
+
+	private Table[] tables;
+	private int[][] columnMaps;		// per segment: merged column -> segment column, or null if in the same order
+	private int[] offsets;			// per segment: its first merged row.  Last entry is the total.
+
+	/**
+	 * @param columnNames the merged column order.  Every table must have these columns.
+	 */
+	TableSegments(List<Table> tables, String[] columnNames) {
+		this.tables = tables.toArray(new Table[tables.size()]);
+		this.columnMaps = new int[this.tables.length][];
+		this.offsets = new int[this.tables.length + 1];
+
+		for (int s = 0; s < this.tables.length; s++) {
+			Table t = this.tables[s];
+			if (!Arrays.equals(columnNames, t.getColumnNames())) {
+				int[] map = new int[columnNames.length];
+				for (int c = 0; c < columnNames.length; c++) {
+					map[c] = t.getColumnIndex(columnNames[c]);
+				}
+				this.columnMaps[s] = map;
+			}
+			this.offsets[s + 1] = this.offsets[s] + t.getNumRows();
+		}
+	}
+
+	public int size() {
+		return this.offsets[this.tables.length];
+	}
+
+	public ArrayList<String> getRow(int row) {
+		int s = this.getSegment(row);
+		return this.getSegmentRow(s, row - this.offsets[s]);
+	}
+
+	public String getCell(int row, int col) {
+		int s = this.getSegment(row);
+		int[] map = this.columnMaps[s];
+		return this.tables[s].getCell(row - this.offsets[s], (map == null) ? col : map[col]);
+	}
+
+	/**
+	 * Set dest[start] to dest[end - 1] to the rows at the same positions
+	 */
+	public void copyRows(ArrayList<ArrayList<String>> dest, int start, int end) {
+		if (start >= end) {
+			return;
+		}
+		int s = this.getSegment(start);
+		for (int row = start; row < end; row++) {
+			while (row >= this.offsets[s + 1]) {
+				s++;
+			}
+			dest.set(row, this.getSegmentRow(s, row - this.offsets[s]));
+		}
+	}
+
+	@Override
+	public Iterator<ArrayList<String>> iterator() {
+		return new Iterator<ArrayList<String>>() {
+			private int row = 0;
+			private int segment = 0;
+
+			@Override
+			public boolean hasNext() {
+				return this.row < size();
+			}
+
+			@Override
+			public ArrayList<String> next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				while (this.row >= offsets[this.segment + 1]) {
+					this.segment++;
+				}
+				ArrayList<String> ret = getSegmentRow(this.segment, this.row - offsets[this.segment]);
+				this.row++;
+				return ret;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Find the segment holding a row
+	 */
+	private int getSegment(int row) {
+		if (row < 0 || row >= this.size()) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + this.size());
+		}
+		// segments may be empty, so take the last one starting at or before the row
+		int s = Arrays.binarySearch(this.offsets, row);
+		if (s < 0) {
+			return -s - 2;
+		}
+		while (this.offsets[s + 1] == row) {
+			s++;
+		}
+		return s;
+	}
+
+	private ArrayList<String> getSegmentRow(int s, int localRow) {
+		ArrayList<String> row = this.tables[s].getRow(localRow);
+		int[] map = this.columnMaps[s];
+		if (map == null) {
+			return row;
+		}
+		ArrayList<String> ret = new ArrayList<String>(map.length);
+		for (int c : map) {
+			ret.add(row.get(c));
+		}
+		return ret;
+	}
+}
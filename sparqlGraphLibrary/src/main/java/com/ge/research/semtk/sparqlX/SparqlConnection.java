@@ -67,6 +67,21 @@ public class SparqlConnection {
 				dataset);
 	}
 
+	/**
+	 * Copy constructor.  Like a JSON round-trip, does not copy endpoint credentials.
+	 */
+	public SparqlConnection(SparqlConnection other) throws Exception {
+		this();
+		this.name = other.name;
+		this.domain = other.domain;
+		for (SparqlEndpointInterface mi : other.modelInterfaces) {
+			this.addModelInterface(mi.getServerType(), mi.getServerAndPort(), mi.getDataset());
+		}
+		for (SparqlEndpointInterface di : other.dataInterfaces) {
+			this.addDataInterface(di.getServerType(), di.getServerAndPort(), di.getDataset());
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	public JSONObject toJson() {
 		JSONObject jObj = new JSONObject();
@@ -145,7 +160,7 @@ public class SparqlConnection {
 	}
 
 	public static SparqlConnection deepCopy(SparqlConnection other) throws Exception {
-		return new SparqlConnection(other.toJson().toString());
+		return new SparqlConnection(other);
 	}
 	
 	public void fromString(String jsonText) throws Exception {
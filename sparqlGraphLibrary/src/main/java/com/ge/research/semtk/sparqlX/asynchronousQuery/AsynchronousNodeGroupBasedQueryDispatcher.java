@@ -52,11 +52,17 @@ public abstract class AsynchronousNodeGroupBasedQueryDispatcher {
 	protected StatusClient statusClient;
 	
 	protected SparqlEndpointInterface sei;
+	protected SparqlConnection conn;	// every model and data interface the nodegroup's queries read
 
 	protected String jobID;
 	protected OntologyInfo oInfo;
 	protected String domain;
 	
+	protected int pageSize = 0;		// if > 0, selects are run and stored in pages of this many rows
+	protected String prebuiltSparql = null;	// sparql the caller generated from queryNodeGroup, used instead of generating it again
+	
+	private static QueryResultsCache resultsCache = null;	// shared by all jobs. null when result caching is off.
+	
 	public AsynchronousNodeGroupBasedQueryDispatcher(String jobId, SparqlGraphJson sgJson, ResultsClient rClient, StatusClient sClient, SparqlQueryClient queryClient) throws Exception{
 		this.jobID = jobId;
 		
@@ -73,6 +79,7 @@ public abstract class AsynchronousNodeGroupBasedQueryDispatcher {
 		this.sei = sgJson.getSparqlConn().getDefaultQueryInterface();
 		
 		SparqlConnection nodegroupConn = sgJson.getSparqlConn();
+		this.conn = nodegroupConn;
 		this.domain = nodegroupConn.getDomain();
 		
 		if(queryClient.getConfig() instanceof SparqlQueryAuthClientConfig){
@@ -144,44 +151,206 @@ public abstract class AsynchronousNodeGroupBasedQueryDispatcher {
 	 * @throws ConnectException 
 	 */
 	protected void sendResultsToService(TableResultSet currResults) throws ConnectException, EndpointNotFoundException, Exception{
-				
+			
+		try{
+			Table resTable = currResults.getTable();
+			resTable.replaceColumnNames(this.getUniqueColumnNames(resTable.getColumnNames()));
+			
+			this.resultsClient.execStoreTableResults(this.jobID, resTable);
+		}
+		catch(Exception eee){
+			this.statusClient.execSetFailure("Failed to write results: " + eee.getMessage());
+			eee.printStackTrace();
+			throw new Exception("Unable to write results");
+		}
+	}
+	
+	/**
+	 * repair column headers in the event that a duplicate header is encountered. by convention (established and existing only here), the first instance of a column name 
+	 * will remain unchanged, all future instances will be postfixed with "[X]" where X is the count encountered so far. this count will start at 1. 
+	 * @param unModColnames pre-modification column names
+	 * @return
+	 */
+	protected String[] getUniqueColumnNames(String[] unModColnames){
 		HashMap<String, Integer> colInstCounter = new HashMap<String, Integer>();
+		String[] modColnames = new String[unModColnames.length];
+		
+		int posCount = 0;
+		for(String uCol : unModColnames){
+			if(colInstCounter.containsKey( uCol.toLowerCase() )){
+				// seen this one already. update the counter and add it to the new header list.
+				int update = colInstCounter.get( uCol.toLowerCase() ) + 1;
+				colInstCounter.put( uCol.toLowerCase() , update);
+				
+				modColnames[posCount] = uCol + "[" + update + "]";
+			}
+			else{
+				// never seen this column.
+				modColnames[posCount] = uCol;
+				// add to the hash
+				colInstCounter.put( uCol.toLowerCase(), 0 );
+			}
 			
+			posCount+=1;
+		}
+		return modColnames;
+	}
+	
+	/**
+	 * Page size for selects.  If > 0, SELECT_DISTINCT and FILTERCONSTRAINT queries are run 
+	 * in ordered LIMIT/OFFSET windows and each window is stored as soon as it arrives.
+	 * @param pageSize rows per page, or 0 to run each query whole
+	 */
+	public void setPageSize(int pageSize){
+		this.pageSize = pageSize;
+	}
+	
+	public int getPageSize(){
+		return this.pageSize;
+	}
+	
+	/**
+	 * Sparql the caller already generated from this dispatcher's nodegroup for the query type it will execute.
+	 * It replaces getSparqlQuery()'s result; paged queries still generate each page from the nodegroup.
+	 * @param prebuiltSparql the sparql, or null to generate it here
+	 */
+	public void setPrebuiltSparql(String prebuiltSparql){
+		this.prebuiltSparql = prebuiltSparql;
+	}
+	
+	/**
+	 * Results cache shared by every dispatcher in this service.
+	 * When set, a SELECT already run with the same connection reuses the stored results of the earlier job,
+	 * and updates forget everything cached that reads their dataset.
+	 * @param cache the cache, or null to turn caching off
+	 */
+	public static void setResultsCache(QueryResultsCache cache){
+		resultsCache = cache;
+	}
+	
+	public static QueryResultsCache getResultsCache(){
+		return resultsCache;
+	}
+	
+	/**
+	 * Point this job at results already stored for the same query, if the cache has any.
+	 * @return true if this job now has its results
+	 */
+	private boolean linkCachedResults(QueryResultsCache cache, String sparqlQuery) throws Exception{
+		String sourceJobId = cache.get(sparqlQuery, this.conn);
+		if(sourceJobId == null){
+			return false;
+		}
+		
 		try{
+			this.resultsClient.execLinkTableResults(this.jobID, sourceJobId);
+			System.err.println("Job " + this.jobID + ": reusing stored results of job " + sourceJobId);
+			return true;
+		}
+		catch(Exception e){
+			// results of the earlier job were cleaned up.  run the query instead.
+			System.err.println("Job " + this.jobID + ": stored results of job " + sourceJobId + " are unavailable: " + e.getMessage());
+			cache.remove(sparqlQuery, this.conn);
+			return false;
+		}
+	}
+	
+	/**
+	 * Run a select in pages of this.pageSize rows, storing each page with the results service as it arrives.
+	 * Only one page is held in memory at a time.
+	 * @param qt SELECT_DISTINCT or FILTERCONSTRAINT
+	 * @param targetSparqlID target of a FILTERCONSTRAINT
+	 * @return successful result set with no rows: rows are only in the results service
+	 * @throws Exception
+	 */
+	protected TableResultSet executePagedQuery(DispatcherSupportedQueryTypes qt, String targetSparqlID) throws Exception{
+		AutoGeneratedQueryTypes pagedType = null;
+		Returnable rt = null;
+		
+		if(qt.equals(DispatcherSupportedQueryTypes.SELECT_DISTINCT)){
+			pagedType = AutoGeneratedQueryTypes.QUERY_DISTINCT;
+		}
+		else if(qt.equals(DispatcherSupportedQueryTypes.FILTERCONSTRAINT)){
+			pagedType = AutoGeneratedQueryTypes.QUERY_CONSTRAINT;
+			rt = this.queryNodeGroup.getNodeBySparqlID(targetSparqlID);
+			if(rt == null){
+				rt = this.queryNodeGroup.getPropertyItemBySparqlID(targetSparqlID);
+			}
+		}
+		else{
+			throw new Exception("Dispatcher can't page a " + qt.name() + " query");
+		}
+		
+		Calendar cal = Calendar.getInstance();
+		System.err.println("Job " + this.jobID + ": AsynchronousNodeGroupExecutor paged start @ " + DATE_FORMAT.format(cal.getTime()));
+		
+		int offset = 0;
+		int rowCount = 0;
+		int percent = 0;
+		String[] colNames = null;
+		
+		while(true){
+			String sparqlQuery = this.queryNodeGroup.generateSparqlPage(pagedType, rt, this.pageSize, offset);
+			if(sparqlQuery == null){
+				break;	// offset passed the nodegroup limit.  never happens on the first page.
+			}
 			
-			// repair column headers in the event that a duplicate header is encountered. by convention (established and existing only here), the first instance of a column name 
-			// will remain unchanged, all future instances will be postfixed with "[X]" where X is the count encountered so far. this count will start at 1. 
-			Table resTable = currResults.getTable();
-			String[] unModColnames = resTable.getColumnNames(); 	// pre-modification column names
-			String[] modColnames = new String[unModColnames.length];
+			TableResultSet page = (TableResultSet) this.retrievalClient.execute(sparqlQuery, SparqlResultTypes.TABLE);
+			if(!page.getSuccess()){
+				this.updateStatusToFailed("Query client returned error to dispatch client: \n" + page.getRationaleAsString("\n"));
+				return page;
+			}
 			
-			int posCount = 0;
-			for(String uCol : unModColnames){
-				if(colInstCounter.containsKey( uCol.toLowerCase() )){
-					// seen this one already. update the counter and add it to the new header list.
-					int update = colInstCounter.get( uCol.toLowerCase() ) + 1;
-					colInstCounter.put( uCol.toLowerCase() , update);
-					
-					modColnames[posCount] = uCol + "[" + update + "]";
+			Table pageTable = page.getTable();
+			int pageRows = pageTable.getNumRows();
+			
+			try{
+				if(colNames == null){
+					colNames = this.getUniqueColumnNames(pageTable.getColumnNames());
+					pageTable.replaceColumnNames(colNames);
+					this.resultsClient.execStoreTableResultsJsonInitialize(this.jobID, pageTable);
 				}
 				else{
-					// never seen this column.
-					modColnames[posCount] = uCol;
-					// add to the hash
-					colInstCounter.put( uCol.toLowerCase(), 0 );
+					pageTable.replaceColumnNames(colNames);
 				}
-				
-				posCount+=1;
+				this.resultsClient.execStoreTableResultsJsonAddIncremental(this.jobID, pageTable);
+			}
+			catch(Exception eee){
+				this.statusClient.execSetFailure("Failed to write results: " + eee.getMessage());
+				eee.printStackTrace();
+				throw new Exception("Unable to write results");
 			}
-			resTable.replaceColumnNames(modColnames);
 			
-			this.resultsClient.execStoreTableResults(this.jobID, resTable);
+			rowCount += pageRows;
+			offset += this.pageSize;
+			System.err.println("Job " + this.jobID + ": stored page of " + pageRows + " rows. total " + rowCount);
+			
+			if(pageRows < this.pageSize){
+				break;	// short page is the last
+			}
+			
+			// percent is exact when the nodegroup has a limit.  Otherwise each page covers half the remaining distance.
+			int next = (this.queryNodeGroup.getLimit() > 0) ? (int)(90.0 * offset / this.queryNodeGroup.getLimit()) : percent + (90 - percent) / 2;
+			if(next > percent && next < 100){
+				percent = next;
+				this.updateStatus(percent);
+			}
+		}
+		
+		try{
+			this.resultsClient.execStoreTableResultsJsonFinalize(this.jobID, rowCount);
 		}
 		catch(Exception eee){
 			this.statusClient.execSetFailure("Failed to write results: " + eee.getMessage());
 			eee.printStackTrace();
 			throw new Exception("Unable to write results");
 		}
+		this.updateStatus(100);		// work's done
+		
+		cal = Calendar.getInstance();
+		System.err.println("Job " + this.jobID + ": AsynchronousNodeGroupExecutor paged end   @ " + DATE_FORMAT.format(cal.getTime()));
+		
+		return new TableResultSet(true);
 	}
 	/**
 	 * send updates to the status service. 
@@ -249,15 +418,32 @@ public abstract class AsynchronousNodeGroupBasedQueryDispatcher {
 			System.err.println("Sparql Query to execute: ");
 			System.err.println(sparqlQuery);
 			
+			QueryResultsCache cache = resultsCache;
+			boolean cacheable = cache != null && QueryResultsCache.isCacheable(sparqlQuery);
+			
+			if (cacheable && this.linkCachedResults(cache, sparqlQuery)) {
+				this.updateStatus(100);		// work's done
+				return new TableResultSet(true);
+			}
+			
 			// run the actual query and get a result. 
 			retval = (TableResultSet) nodegroupQueryClient.execute(sparqlQuery, SparqlResultTypes.TABLE);	
 			
+			if (cache != null && QueryResultsCache.isUpdate(sparqlQuery)) {
+				// even a failed update may have changed some triples
+				cache.invalidateDataset(this.sei.getServerAndPort(), this.sei.getDataset());
+			}
+			
 			if (retval.getSuccess()) {
 				System.err.println("Query returned " + retval.getTable().getNumRows() + " results.");
 				
 				System.err.println("about to write results for " + this.jobID);
 				this.sendResultsToService(retval);
 				
+				if (cacheable) {
+					cache.put(sparqlQuery, this.conn, this.jobID);
+				}
+				
 				this.updateStatus(100);		// work's done
 			}
 			else {
@@ -281,6 +467,10 @@ public abstract class AsynchronousNodeGroupBasedQueryDispatcher {
 	protected String getSparqlQuery(DispatcherSupportedQueryTypes qt, String targetSparqlID) throws Exception{
 		String retval = null;
 		
+		if(this.prebuiltSparql != null){
+			return this.prebuiltSparql;
+		}
+		
 		// select 
 		if(qt.equals(DispatcherSupportedQueryTypes.SELECT_DISTINCT)){
 			retval = this.queryNodeGroup.generateSparql(AutoGeneratedQueryTypes.QUERY_DISTINCT, false, null, null);
@@ -85,8 +85,13 @@ public class AsynchronousNodeGroupDispatcher extends AsynchronousNodeGroupBasedQ
 	TableResultSet retval = null; // expect this to get instantiated with the appropriate subclass.		
 		
 		try{
-			String sparqlQuery = this.getSparqlQuery(qt, targetSparqlID);
-			retval = this.executePlainSparqlQuery(sparqlQuery);
+			if(this.pageSize > 0 && (qt.equals(DispatcherSupportedQueryTypes.SELECT_DISTINCT) || qt.equals(DispatcherSupportedQueryTypes.FILTERCONSTRAINT))){
+				retval = this.executePagedQuery(qt, targetSparqlID);
+			}
+			else{
+				String sparqlQuery = this.getSparqlQuery(qt, targetSparqlID);
+				retval = this.executePlainSparqlQuery(sparqlQuery);
+			}
 		}
 		catch(Exception e){
 			// something went awry. set the job to failure. 
@@ -0,0 +1,270 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.sparqlX.asynchronousQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.ge.research.semtk.sparqlX.SparqlConnection;
+import com.ge.research.semtk.sparqlX.SparqlEndpointInterface;
+
+/**
+ * Remembers which job already holds the stored results of a SELECT (or COUNT) query
+ * so a repeat of the same query against the same datasets can reuse that results file.
+ *
+ * Keys are the query text with insignificant whitespace removed, plus every
+ * endpoint server and dataset the query reads: for a nodegroup query, all the model and data
+ * interfaces of its connection.  Entries are dropped least-recently-used past maxEntries,
+ * when older than the time-to-live, or when any of their datasets is written.
+ */
+public class QueryResultsCache {
+
+	// leading PREFIX / BASE declarations
+	private static final String PROLOGUE = "^\\s*(?:(?:PREFIX\\s+[^\\s:]*:\\s*|BASE\\s*)<[^>]*>\\s*)*";
+
+	// a SELECT
+	private static final Pattern SELECT_PATTERN = Pattern.compile(
+			PROLOGUE + "SELECT\\b.*",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	// a SPARQL update operation
+	private static final Pattern UPDATE_PATTERN = Pattern.compile(
+			PROLOGUE + "(?:INSERT|DELETE|LOAD|CLEAR|CREATE|DROP|COPY|MOVE|ADD|WITH)\\b.*",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	private final int maxEntries;
+	private final long ttlMillis;
+
+	private LinkedHashMap<String, CachedResults> entries;
+
+	/**
+	 * @param maxEntries - most queries remembered
+	 * @param ttlMillis  - age at which an entry is no longer used.  <= 0 means no expiration.
+	 */
+	public QueryResultsCache(int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+
+		// access-ordered so the eldest entry is the least recently used
+		this.entries = new LinkedHashMap<String, CachedResults>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResults> eldest) {
+				return this.size() > QueryResultsCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Is this query one whose results may be cached (a SELECT)
+	 */
+	public static boolean isCacheable(String sparql) {
+		return sparql != null && SELECT_PATTERN.matcher(sparql).matches();
+	}
+
+	/**
+	 * Does this query change the dataset it runs against
+	 */
+	public static boolean isUpdate(String sparql) {
+		return sparql != null && UPDATE_PATTERN.matcher(sparql).matches();
+	}
+
+	/**
+	 * Get the job id holding results for a query against one dataset, or null
+	 */
+	public String get(String sparql, String serverAndPort, String dataset) {
+		return this.get(sparql, Arrays.asList(buildDatasetKey(serverAndPort, dataset)));
+	}
+
+	/**
+	 * Get the job id holding results for a nodegroup query run with this connection, or null
+	 */
+	public String get(String sparql, SparqlConnection conn) throws Exception {
+		return this.get(sparql, getDatasetKeys(conn));
+	}
+
+	private synchronized String get(String sparql, List<String> datasetKeys) {
+		String key = buildKey(sparql, datasetKeys);
+		CachedResults cached = this.entries.get(key);
+
+		if (cached == null) {
+			return null;
+		} else if (this.isExpired(cached)) {
+			this.entries.remove(key);
+			return null;
+		} else {
+			return cached.jobId;
+		}
+	}
+
+	/**
+	 * Remember that jobId holds the complete results of a query against one dataset
+	 */
+	public void put(String sparql, String serverAndPort, String dataset, String jobId) {
+		this.put(sparql, Arrays.asList(buildDatasetKey(serverAndPort, dataset)), jobId);
+	}
+
+	/**
+	 * Remember that jobId holds the complete results of a nodegroup query run with this connection
+	 */
+	public void put(String sparql, SparqlConnection conn, String jobId) throws Exception {
+		this.put(sparql, getDatasetKeys(conn), jobId);
+	}
+
+	private synchronized void put(String sparql, List<String> datasetKeys, String jobId) {
+		this.entries.put(buildKey(sparql, datasetKeys), new CachedResults(jobId, datasetKeys));
+	}
+
+	/**
+	 * Forget one query's results, e.g. when the job they point to is gone
+	 */
+	public synchronized void remove(String sparql, String serverAndPort, String dataset) {
+		this.entries.remove(buildKey(sparql, Arrays.asList(buildDatasetKey(serverAndPort, dataset))));
+	}
+
+	/**
+	 * Forget one nodegroup query's results
+	 */
+	public void remove(String sparql, SparqlConnection conn) throws Exception {
+		List<String> datasetKeys = getDatasetKeys(conn);
+		synchronized (this) {
+			this.entries.remove(buildKey(sparql, datasetKeys));
+		}
+	}
+
+	/**
+	 * Forget every query that reads a dataset.
+	 * @param serverAndPort
+	 * @param dataset - if null, every dataset on serverAndPort
+	 * @return number of entries removed
+	 */
+	public synchronized int invalidateDataset(String serverAndPort, String dataset) {
+		String datasetKey = buildDatasetKey(serverAndPort, dataset);
+		String serverPrefix = buildDatasetKey(serverAndPort, "");
+		int removed = 0;
+
+		Iterator<CachedResults> it = this.entries.values().iterator();
+		while (it.hasNext()) {
+			CachedResults cached = it.next();
+			for (String key : cached.datasetKeys) {
+				if (dataset == null ? key.startsWith(serverPrefix) : key.equals(datasetKey)) {
+					it.remove();
+					removed ++;
+					break;
+				}
+			}
+		}
+		return removed;
+	}
+
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	private boolean isExpired(CachedResults cached) {
+		return this.ttlMillis > 0 && System.currentTimeMillis() - cached.storedMillis > this.ttlMillis;
+	}
+
+	private static String buildKey(String sparql, List<String> datasetKeys) {
+		StringBuilder ret = new StringBuilder();
+		for (String key : datasetKeys) {
+			ret.append(key).append("\n");
+		}
+		return ret.append(normalize(sparql)).toString();
+	}
+
+	/**
+	 * Every dataset a connection's queries may read, the default query interface first
+	 */
+	private static List<String> getDatasetKeys(SparqlConnection conn) throws Exception {
+		LinkedHashSet<String> ret = new LinkedHashSet<String>();
+		ret.add(buildDatasetKey(conn.getDefaultQueryInterface()));
+		for (SparqlEndpointInterface sei : conn.getDataInterfaces()) {
+			ret.add(buildDatasetKey(sei));
+		}
+		for (SparqlEndpointInterface sei : conn.getModelInterfaces()) {
+			ret.add(buildDatasetKey(sei));
+		}
+		return new ArrayList<String>(ret);
+	}
+
+	private static String buildDatasetKey(SparqlEndpointInterface sei) {
+		return buildDatasetKey(sei.getServerAndPort(), sei.getDataset());
+	}
+
+	private static String buildDatasetKey(String serverAndPort, String dataset) {
+		return String.valueOf(serverAndPort) + "|" + (dataset == null ? "" : dataset);
+	}
+
+	/**
+	 * Collapse each run of whitespace outside of quoted literals to a single space, and trim.
+	 * Literal contents and case are left alone since either may change the results.
+	 */
+	public static String normalize(String sparql) {
+		StringBuilder ret = new StringBuilder(sparql.length());
+		char quote = 0;
+		boolean pendingSpace = false;
+
+		for (int i = 0; i < sparql.length(); i++) {
+			char c = sparql.charAt(i);
+
+			if (quote != 0) {
+				ret.append(c);
+				if (c == '\\' && i + 1 < sparql.length()) {
+					ret.append(sparql.charAt(++i));
+				} else if (c == quote) {
+					quote = 0;
+				}
+			} else if (Character.isWhitespace(c)) {
+				pendingSpace = ret.length() > 0;
+			} else {
+				if (pendingSpace) {
+					ret.append(' ');
+					pendingSpace = false;
+				}
+				if (c == '"' || c == '\'') {
+					quote = c;
+				}
+				ret.append(c);
+			}
+		}
+		return ret.toString();
+	}
+
+	private static class CachedResults {
+		final String jobId;
+		final List<String> datasetKeys;
+		final long storedMillis;
+
+		CachedResults(String jobId, List<String> datasetKeys) {
+			this.jobId = jobId;
+			this.datasetKeys = datasetKeys;
+			this.storedMillis = System.currentTimeMillis();
+		}
+	}
+}
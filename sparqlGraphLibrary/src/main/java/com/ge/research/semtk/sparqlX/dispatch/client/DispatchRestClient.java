@@ -48,6 +48,13 @@ public class DispatchRestClient extends RestClient{
 	
 	
 	public SimpleResultSet executeSelectQueryFromNodeGroup(JSONObject nodeGroupWithConnection, JSONObject constraints) throws Exception{
+		return this.executeSelectQueryFromNodeGroup(nodeGroupWithConnection, constraints, null);
+	}
+	
+	/**
+	 * @param prebuiltSparql - sparql already generated from the nodegroup, or null for the dispatcher to generate it
+	 */
+	public SimpleResultSet executeSelectQueryFromNodeGroup(JSONObject nodeGroupWithConnection, JSONObject constraints, String prebuiltSparql) throws Exception{
 		SimpleResultSet retval = null;
 		
 		// in the event a null set of constraints was passed, create the minimally valid set.
@@ -63,6 +70,9 @@ public class DispatchRestClient extends RestClient{
 		conf.setServiceEndpoint("dispatcher/querySelectFromNodeGroup");
 		this.parametersJSON.put("jsonRenderedNodeGroup", nodeGroupWithConnection.toJSONString());
 		this.parametersJSON.put("constraintSet", constraints.toJSONString());
+		if(prebuiltSparql != null){
+			this.parametersJSON.put("prebuiltSparql", prebuiltSparql);
+		}
 		
 		try{
 			retval = SimpleResultSet.fromJson((JSONObject) this.execute());
@@ -73,12 +83,20 @@ public class DispatchRestClient extends RestClient{
 			conf.setServiceEndpoint(null);
 			this.parametersJSON.remove("jsonRenderedNodeGroup");
 			this.parametersJSON.remove("constraintSet");
+			this.parametersJSON.remove("prebuiltSparql");
 		}
 		
 		return retval;
 	}
 	
 	public SimpleResultSet executeCountQueryFromNodeGroup(JSONObject nodeGroupWithConnection, JSONObject constraints) throws Exception{
+		return this.executeCountQueryFromNodeGroup(nodeGroupWithConnection, constraints, null);
+	}
+	
+	/**
+	 * @param prebuiltSparql - sparql already generated from the nodegroup, or null for the dispatcher to generate it
+	 */
+	public SimpleResultSet executeCountQueryFromNodeGroup(JSONObject nodeGroupWithConnection, JSONObject constraints, String prebuiltSparql) throws Exception{
 		SimpleResultSet retval = null;
 		
 		// in the event a null set of constraints was passed, create the minimally valid set.
@@ -94,6 +112,9 @@ public class DispatchRestClient extends RestClient{
 		conf.setServiceEndpoint("dispatcher/queryCountFromNodeGroup");
 		this.parametersJSON.put("jsonRenderedNodeGroup", nodeGroupWithConnection.toJSONString());
 		this.parametersJSON.put("constraintSet", constraints.toJSONString());
+		if(prebuiltSparql != null){
+			this.parametersJSON.put("prebuiltSparql", prebuiltSparql);
+		}
 		
 		try{
 			retval = SimpleResultSet.fromJson((JSONObject) this.execute());
@@ -104,6 +125,7 @@ public class DispatchRestClient extends RestClient{
 			conf.setServiceEndpoint(null);
 			this.parametersJSON.remove("jsonRenderedNodeGroup");
 			this.parametersJSON.remove("constraintSet");
+			this.parametersJSON.remove("prebuiltSparql");
 		}
 		
 		return retval;
@@ -142,6 +164,13 @@ public class DispatchRestClient extends RestClient{
 	}
 	
 	public SimpleResultSet executeFilterQueryFromNodeGroup(JSONObject nodeGroupWithConnection, String targetObjectSparqlId, JSONObject constraints) throws Exception{
+		return this.executeFilterQueryFromNodeGroup(nodeGroupWithConnection, targetObjectSparqlId, constraints, null);
+	}
+	
+	/**
+	 * @param prebuiltSparql - sparql already generated from the nodegroup, or null for the dispatcher to generate it
+	 */
+	public SimpleResultSet executeFilterQueryFromNodeGroup(JSONObject nodeGroupWithConnection, String targetObjectSparqlId, JSONObject constraints, String prebuiltSparql) throws Exception{
 		SimpleResultSet retval = null;
 		
 		// in the event a null set of constraints was passed, create the minimally valid set.
@@ -157,6 +186,9 @@ public class DispatchRestClient extends RestClient{
 		conf.setServiceEndpoint("dispatcher/queryFilterFromNodeGroup");
 		this.parametersJSON.put("jsonRenderedNodeGroup", nodeGroupWithConnection.toJSONString());
 		this.parametersJSON.put("constraintSet", constraints.toJSONString());
+		if(prebuiltSparql != null){
+			this.parametersJSON.put("prebuiltSparql", prebuiltSparql);
+		}
 		this.parametersJSON.put("targetObjectSparqlID", targetObjectSparqlId);
 		
 		
@@ -169,6 +201,7 @@ public class DispatchRestClient extends RestClient{
 			conf.setServiceEndpoint(null);
 			this.parametersJSON.remove("jsonRenderedNodeGroup");
 			this.parametersJSON.remove("constraintSet");
+			this.parametersJSON.remove("prebuiltSparql");
 			this.parametersJSON.remove("targetObjectSparqlID");
 		}
 		
@@ -202,6 +235,32 @@ public class DispatchRestClient extends RestClient{
 		return retval;
 	}
 
+	/**
+	 * Tell the dispatcher to forget cached select results for a dataset.
+	 * @param serverAndPort - if null, all cached results are forgotten
+	 * @param dataset - if null, every dataset on serverAndPort
+	 */
+	public SimpleResultSet executeInvalidateResultsCache(String serverAndPort, String dataset) throws Exception{
+		SimpleResultSet retval = null;
+		
+		conf.setServiceEndpoint("dispatcher/invalidateResultsCache");
+		this.parametersJSON.put("serverAndPort", serverAndPort);
+		this.parametersJSON.put("dataset", dataset);
+		
+		try{
+			retval = SimpleResultSet.fromJson((JSONObject) this.execute());
+			retval.throwExceptionIfUnsuccessful();
+		} 
+		finally {
+			// reset conf and parametersJSON
+			conf.setServiceEndpoint(null);
+			this.parametersJSON.remove("serverAndPort");
+			this.parametersJSON.remove("dataset");
+		}
+		
+		return retval;
+	}
+	
 	public TableResultSet executeGetConstraintInfo(JSONObject nodeGroup) throws Exception{
 		TableResultSet retval = new TableResultSet();
 		
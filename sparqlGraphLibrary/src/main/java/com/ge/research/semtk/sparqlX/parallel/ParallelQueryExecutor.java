@@ -0,0 +1,281 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.sparqlX.parallel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the subqueries of parallel queries on a dedicated pool of threads,
+ * so their blocking http calls stay out of the JVM's common fork-join pool.
+ *
+ * At most maxPerEndpoint subqueries run against one sparql server url at a time.
+ * The rest wait in a queue per url, not in the pool, so a slow server doesn't hold threads
+ * that subqueries to other servers could use.
+ * A subquery running longer than the timeout is cancelled and fails.
+ */
+public class ParallelQueryExecutor {
+
+	/**
+	 * Notified on the calling thread as each subquery succeeds
+	 */
+	public interface SubqueryListener {
+		public void subqueryDone(int index, SparqlSubquery subquery) throws Exception;
+	}
+
+	private static final long POLL_MILLIS = 1000;
+
+	private final ThreadPoolExecutor pool;
+	private final int maxPerEndpoint;
+	private final long subqueryTimeoutMillis;
+	private final ConcurrentHashMap<String, EndpointGate> endpointGates = new ConcurrentHashMap<String, EndpointGate>();
+
+	/**
+	 * @param poolSize - threads running subqueries, shared by all parallel queries
+	 * @param maxPerEndpoint - subqueries running at once against one server url.  <= 0 means no limit beyond poolSize.
+	 * @param subqueryTimeoutMillis - time a subquery may run once started.  <= 0 means no limit.
+	 */
+	public ParallelQueryExecutor(int poolSize, int maxPerEndpoint, long subqueryTimeoutMillis) {
+		this.maxPerEndpoint = maxPerEndpoint;
+		this.subqueryTimeoutMillis = subqueryTimeoutMillis;
+
+		final AtomicInteger threadNum = new AtomicInteger(0);
+		ThreadFactory factory = new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "parallel-subquery-" + threadNum.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		this.pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), factory);
+		this.pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Run subqueries and wait for them.
+	 * Failures are left on each subquery (see SparqlSubquery.getException()).
+	 * @param subqueries
+	 * @param cancelOnFailure - if true, stop the remaining subqueries as soon as one fails or times out
+	 */
+	public void runQueries(List<SparqlSubquery> subqueries, boolean cancelOnFailure) throws Exception {
+		this.runQueries(subqueries, cancelOnFailure, null);
+	}
+
+	/**
+	 * Run subqueries and wait for them, handing each to listener as soon as it succeeds.
+	 * An exception from listener stops the remaining subqueries and is thrown.
+	 * @param subqueries
+	 * @param cancelOnFailure - if true, stop the remaining subqueries as soon as one fails or times out
+	 * @param listener - may be null
+	 */
+	public void runQueries(List<SparqlSubquery> subqueries, boolean cancelOnFailure, SubqueryListener listener) throws Exception {
+		final LinkedBlockingQueue<SubqueryTask> completion = new LinkedBlockingQueue<SubqueryTask>();
+		ArrayList<SubqueryTask> tasks = new ArrayList<SubqueryTask>();
+
+		for (SparqlSubquery subquery : subqueries) {
+			subquery.setException(null);
+			final SubqueryTask task = new SubqueryTask(tasks.size(), subquery);
+			task.future = new FutureTask<SubqueryTask>(task, task) {
+				@Override
+				protected void done() {
+					completion.add(task);		// finished, failed or cancelled
+				}
+			};
+			tasks.add(task);
+		}
+		for (SubqueryTask task : tasks) {
+			if (this.maxPerEndpoint > 0) {
+				this.getGate(task.subquery.getSparqlServerUrl()).submit(task.future);
+			} else {
+				this.execute(task.future, null);
+			}
+		}
+
+		try {
+			int remaining = tasks.size();
+			while (remaining > 0) {
+				SubqueryTask task;
+				if (this.subqueryTimeoutMillis > 0) {
+					task = completion.poll(Math.min(this.subqueryTimeoutMillis, POLL_MILLIS), TimeUnit.MILLISECONDS);
+				} else {
+					task = completion.take();
+				}
+
+				if (task != null) {
+					remaining--;
+					if (!task.future.isCancelled()) {
+						if (task.subquery.getException() == null) {
+							if (listener != null) {
+								listener.subqueryDone(task.index, task.subquery);
+							}
+						} else if (cancelOnFailure) {
+							return;
+						}
+					}
+				}
+
+				if (this.subqueryTimeoutMillis > 0 && this.cancelTimedOut(tasks) && cancelOnFailure) {
+					return;
+				}
+			}
+		} finally {
+			// anything still running was abandoned: failure, timeout, or interrupt
+			for (SubqueryTask task : tasks) {
+				task.cancel();
+			}
+		}
+	}
+
+	public void shutdown() {
+		this.pool.shutdownNow();
+	}
+
+	/**
+	 * Cancel started subqueries that have run too long
+	 * @return true if any were cancelled
+	 */
+	private boolean cancelTimedOut(List<SubqueryTask> tasks) {
+		boolean ret = false;
+		long now = System.currentTimeMillis();
+		for (SubqueryTask task : tasks) {
+			long start = task.startMillis;
+			if (start > 0 && now - start > this.subqueryTimeoutMillis && task.cancel()) {
+				task.subquery.setException(new Exception("Subquery " + task.subquery.getResultsColumnNameSuffix() + " timed out after " + this.subqueryTimeoutMillis + " ms"));
+				ret = true;
+			}
+		}
+		return ret;
+	}
+
+	private EndpointGate getGate(String serverUrl) {
+		EndpointGate gate = this.endpointGates.get(serverUrl);
+		if (gate == null) {
+			this.endpointGates.putIfAbsent(serverUrl, new EndpointGate());
+			gate = this.endpointGates.get(serverUrl);
+		}
+		return gate;
+	}
+
+	/**
+	 * Run a subquery on the pool, telling gate when it is done
+	 */
+	private void execute(final FutureTask<SubqueryTask> future, final EndpointGate gate) {
+		try {
+			this.pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.run();
+					} finally {
+						if (gate != null) {
+							gate.finished();
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// shut down
+			future.cancel(false);
+			if (gate != null) {
+				gate.finished();
+			}
+		}
+	}
+
+	/**
+	 * Passes subqueries for one server url to the pool, at most maxPerEndpoint at a time, in order
+	 */
+	private class EndpointGate {
+		private int running = 0;
+		private final ArrayDeque<FutureTask<SubqueryTask>> waiting = new ArrayDeque<FutureTask<SubqueryTask>>();
+
+		void submit(FutureTask<SubqueryTask> future) {
+			synchronized (this) {
+				if (this.running >= maxPerEndpoint) {
+					this.waiting.add(future);
+					return;
+				}
+				this.running++;
+			}
+			execute(future, this);
+		}
+
+		/**
+		 * A subquery finished: start the next one still wanted
+		 */
+		void finished() {
+			FutureTask<SubqueryTask> next;
+			synchronized (this) {
+				do {
+					next = this.waiting.poll();
+				} while (next != null && next.isDone());		// cancelled while waiting
+				if (next == null) {
+					this.running--;
+					return;
+				}
+			}
+			execute(next, this);
+		}
+	}
+
+	private class SubqueryTask implements Runnable {
+		final int index;
+		final SparqlSubquery subquery;
+		FutureTask<SubqueryTask> future;
+		volatile long startMillis = 0;
+		volatile boolean cancelled = false;
+
+		SubqueryTask(int index, SparqlSubquery subquery) {
+			this.index = index;
+			this.subquery = subquery;
+		}
+
+		@Override
+		public void run() {
+			try {
+				this.startMillis = System.currentTimeMillis();
+				this.subquery.runSparqlQuery();
+			} catch (Throwable e) {
+				if (!this.cancelled) {
+					this.subquery.setException(e);
+				}
+			}
+		}
+
+		/**
+		 * Stop the subquery if it hasn't finished
+		 * @return true if it was stopped
+		 */
+		boolean cancel() {
+			if (this.future.isDone()) {
+				return false;
+			}
+			this.cancelled = true;
+			return this.future.cancel(true);
+		}
+	}
+}
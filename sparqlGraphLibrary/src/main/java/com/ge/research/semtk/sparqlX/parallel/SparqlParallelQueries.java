@@ -18,31 +18,27 @@
 
 package com.ge.research.semtk.sparqlX.parallel;
 
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveTask;
 
-import org.apache.commons.math3.util.Pair;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
 import org.json.simple.parser.JSONParser;
 
 import com.ge.research.semtk.resultSet.Table;
 import com.ge.research.semtk.resultSet.TableResultSet;
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Sets;
 
 /**
  * Stores all parameters passed to SparqlParallelQueryServlet and its eventual response.
  */
-public class SparqlParallelQueries extends RecursiveTask<Void> {
-	private static final long serialVersionUID = 1L;
+public class SparqlParallelQueries {
+
+	private static ParallelQueryExecutor executor = null;
 
 	private List<SparqlSubquery> subqueries;
 	private String subqueryType;
@@ -118,29 +114,98 @@ public class SparqlParallelQueries extends RecursiveTask<Void> {
 		this.columnsToReturn.addAll(Arrays.asList(columnsToReturn));
 	}
 
-	public void runQueries() {
-		// Use fork-join technique
-		// https://docs.oracle.com/javase/tutorial/essential/concurrency/forkjoin.html
-		ForkJoinPool.commonPool().invoke(this);
+	/**
+	 * Use executor for all parallel queries, replacing (and shutting down) the previous one
+	 */
+	public static synchronized void setExecutor(ParallelQueryExecutor newExecutor) {
+		if (executor != null && executor != newExecutor) {
+			executor.shutdown();
+		}
+		executor = newExecutor;
 	}
 
-	// Invoked internally by runQueries() method
-	@Override
-	protected Void compute() {
-		invokeAll(subqueries);
-		return null;
+	/**
+	 * Executor for all parallel queries.  Defaults to 8 threads, at most 4 per endpoint, no timeout.
+	 */
+	public static synchronized ParallelQueryExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ParallelQueryExecutor(8, 4, 0);
+		}
+		return executor;
 	}
 
-	public TableResultSet returnFusedResultsTable () throws Throwable, Exception {
-		JSONObject tmp = null;
-		if (gResultTable == null)
-			tmp = returnFusedResults ();
+	/**
+	 * Run all subqueries.
+	 * Unless subqueries are optional, the first failure stops the rest.
+	 */
+	public void runQueries() throws Exception {
+		getExecutor().runQueries(subqueries, !isSubqueryOptional);
+	}
 
-		return gResultTable;
+	/**
+	 * Run all subqueries, fusing each one's results as it finishes instead of after all are done,
+	 * and write the fused table result set json to out a row at a time.
+	 * Nothing is written if a subquery fails, so the caller can still send a failure instead.
+	 * @return number of rows
+	 */
+	public int writeFusedResultsJson(final Writer out) throws Throwable, Exception {
+		final FusingListener listener = new FusingListener(null);
+		final int [] count = {0};
+		listener.handler = new SubqueryHashJoin.RowHandler() {
+			public void handleRow(ArrayList<String> row) throws Exception {
+				if (count[0] == 0) {
+					writeJsonHeader(out, listener.join);
+				} else {
+					out.write(",");
+				}
+				out.write(JSONValue.toJSONString(row));
+				count[0]++;
+			}
+		};
+		this.runAndFuse(listener);
+
+		if (count[0] == 0) {
+			writeJsonHeader(out, listener.join);
+		}
+		out.write("], \"" + Table.JSON_KEY_ROW_COUNT + "\" : " + count[0] + "}}}");
+		out.flush();
+
+		System.out.println("Fused response has " + count[0] + " results");
+		return count[0];
 	}
 
-	public JSONObject returnFusedResults() throws Throwable, Exception {
-		// Make sure that all the queries returned successfully, else rethrow whatever exception occurred
+	/**
+	 * Write a successful table result set json up to the opening of its rows array
+	 */
+	private static void writeJsonHeader(Writer out, SubqueryHashJoin join) throws Exception {
+		String status = new TableResultSet(true).toJson().toJSONString();
+		String [] names = join.getColumnNames();
+		out.write(status.substring(0, status.length() - 1));	// leave it open for the table
+		out.write(", \"" + TableResultSet.RESULTS_BLOCK_NAME + "\" : {\"" + TableResultSet.TABLE_JSONKEY + "\" : {");
+		out.write("\"" + Table.JSON_KEY_COL_NAMES + "\" : " + JSONValue.toJSONString(Arrays.asList(names)) + ", ");
+		out.write("\"" + Table.JSON_KEY_COL_TYPES + "\" : " + JSONValue.toJSONString(Arrays.asList(join.getColumnTypes())) + ", ");
+		out.write("\"" + Table.JSON_KEY_COL_COUNT + "\" : " + names.length + ", ");
+		out.write("\"" + Table.JSON_KEY_ROWS + "\" : [");
+	}
+
+	/**
+	 * Run all subqueries, sending fused rows to handler.
+	 * Each subquery's rows go into the join once it and every subquery before it have finished, and its response table is released.
+	 * Unless subqueries are optional, rows of the last subquery are matched as they are read
+	 * and are never stored, so fused rows start arriving before the join is complete.
+	 * Since subqueries join in subquery order, row order doesn't depend on which finishes first:
+	 * inner join rows follow the last subquery's rows, optional join rows follow the order keys first appear, subquery by subquery.
+	 * @return the join, for its column names and types
+	 */
+	public SubqueryHashJoin runAndFuse(SubqueryHashJoin.RowHandler handler) throws Throwable, Exception {
+		FusingListener listener = new FusingListener(handler);
+		this.runAndFuse(listener);
+		return listener.join;
+	}
+
+	private void runAndFuse(FusingListener listener) throws Throwable, Exception {
+		getExecutor().runQueries(subqueries, !isSubqueryOptional, listener);
+
 		for (SparqlSubquery subquery : subqueries) {
 			Throwable t = subquery.getException();
 			if (t != null) {
@@ -148,150 +213,95 @@ public class SparqlParallelQueries extends RecursiveTask<Void> {
 			}
 		}
 
-		// Collect all the vars from the subqueries into a multiset so we will know which vars are unique and won't need to be renamed
-		HashMultiset<String> multiSet = HashMultiset.create();
-		for (SparqlSubquery subquery : subqueries) {
-			ArrayList<String> columnsInResponse = subquery.getColumnNamesInResponse();
-			multiSet.addAll(columnsInResponse);
+		if (!listener.probed) {
+			listener.join.emitRows(listener.handler);
 		}
+	}
 
-		// Build unique var names from the columns to return and the subqueries' suffixes
-		JSONArray vars = new JSONArray();
-		Set<String> distinctVars = new LinkedHashSet<>();
-		for (SparqlSubquery subquery : subqueries) {
-			String suffix = subquery.getResultsColumnNameSuffix();
-			ArrayList<String> columnsInResponse = subquery.getColumnNamesInResponse();
-			for (String column : columnsToReturn) {
-				if (columnsInResponse.contains(column)) {
-					if (multiSet.count(column) == 1) {
-						distinctVars.add(column);
-					} else if (columnsToFuseOn.contains(column)) {
-						distinctVars.add(column);
-					} else {
-						distinctVars.add(column + suffix);
-					}
-				}
-			}
-		}
-		for (String var : distinctVars) {
-			vars.add(var);
+	/**
+	 * Adds subqueries to the join in subquery order as they finish, holding any that finish before those ahead of them
+	 */
+	private class FusingListener implements ParallelQueryExecutor.SubqueryListener {
+		SubqueryHashJoin join;
+		SubqueryHashJoin.RowHandler handler;
+		boolean [] finished;
+		int nextInput = 0;		// subqueries before this one are in the join
+		boolean probed = false;
+
+		FusingListener(SubqueryHashJoin.RowHandler handler) {
+			this.join = new SubqueryHashJoin(SubqueryHashJoin.getSuffixes(subqueries), columnsToFuseOn, columnsToReturn, isSubqueryOptional);
+			this.handler = handler;
+			this.finished = new boolean[subqueries.size()];
 		}
 
-		// Collect the distinct bindings from the subqueries into sets by the columns to fuse on.
-		Map<String/*fusedCols*/, Map<String/*suffix*/, Set<Pair<SparqlSubquery/*subquery*/, ArrayList<String>/*binding*/>>>> fusedColsToBindings = new LinkedHashMap<>();
-		StringBuilder sb = new StringBuilder();
-		for (SparqlSubquery subquery : subqueries) {
-			// Get the subquery's bindings
-			String suffix = subquery.getResultsColumnNameSuffix();
-			Table resultsTable = subquery.getResponseTable();
-			if ((resultsTable != null) && (resultsTable.getNumRows() != 0)) {
-				System.out.println("Query " + suffix + " has " + resultsTable.getNumRows() + " rows");
-				ArrayList<String> columnsInResponse = subquery.getColumnNamesInResponse();
-				for (ArrayList<String> row : resultsTable.getRows()) {
-					// Compose the lookup key from the columns to fuse on
-					sb.setLength(0);
-					for (String column : columnsToFuseOn) {
-						if (columnsInResponse.contains(column)) {
-							String value = (String) row.get(resultsTable.getColumnIndex(column));
-							if (sb.length() > 0) sb.append("\t");
-							sb.append(value);
-						}
-					}
-					String fusedCols = sb.toString();
-
-					// Add the binding to the set of distinct bindings for the same fusedCols and same suffix
-					Map<String/*suffix*/, Set<Pair<SparqlSubquery/*subquery*/, ArrayList<String>/*binding*/>>> suffixToBindings = fusedColsToBindings.get(fusedCols);
-					if (suffixToBindings == null) {
-						suffixToBindings = new LinkedHashMap<>();
-						fusedColsToBindings.put(fusedCols, suffixToBindings);
-					}
-					Set<Pair<SparqlSubquery/*subquery*/, ArrayList<String>/*binding*/>> distinctBindings = suffixToBindings.get(suffix);
-					if (distinctBindings == null) {
-						distinctBindings = new LinkedHashSet<>();
-						suffixToBindings.put(suffix, distinctBindings);
-					}
-					distinctBindings.add(new Pair<>(subquery, row));
+		@Override
+		public void subqueryDone(int index, SparqlSubquery subquery) throws Exception {
+			Table table = subquery.getResponseTable();
+			System.out.println("Query " + subquery.getResultsColumnNameSuffix() + " has " + (table == null ? 0 : table.getNumRows()) + " rows");
+
+			this.finished[index] = true;
+			while (this.nextInput < this.finished.length && this.finished[this.nextInput]) {
+				SparqlSubquery next = subqueries.get(this.nextInput);
+				Table nextTable = next.getResponseTable();
+				if (this.nextInput == this.finished.length - 1 && !isSubqueryOptional && nextTable != null) {
+					this.join.probeRows(this.nextInput, nextTable.getColumnNames(), nextTable.getColumnTypes(), nextTable.getRows(), this.handler);
+					this.probed = true;
+				} else {
+					this.join.addTable(this.nextInput, nextTable);
 				}
-			} else {
-				System.out.println("Query " + suffix + " has 0 rows");
+				next.releaseResponseTable();
+				this.nextInput++;
 			}
 		}
-//System.out.println ("XXXXXXXXXXXXXXXXXXXXXXXXXXX  GOT HERE  XXXXXXXXXXXXXXXXXXXXX");
-
-		// Build the array of output bindings with unique var names
-		int numOutputBindings = 0;
-		//JsonArrayBuilder outputBindings = Json.createArrayBuilder();
-		JSONArray outputBindings = new JSONArray();
-		ArrayList<ArrayList<String>> outputRows = new ArrayList<ArrayList<String>> ();
-		ArrayList<String> outputColumnNames = new ArrayList<String> ();
-		for (Map<String/*suffix*/, Set<Pair<SparqlSubquery/*subquery*/, ArrayList<String>/*binding*/>>> suffixToBindings : fusedColsToBindings.values()) {
-			// Collect each subquery's set of distinct bindings for the same fusedCols
-			List<Set<Pair<SparqlSubquery/*subquery*/, ArrayList<String>/*binding*/>>> fusedColsBindings = new ArrayList<>();
-			for (SparqlSubquery subquery : subqueries) {
-				String suffix = subquery.getResultsColumnNameSuffix();
-				Set<Pair<SparqlSubquery/*subquery*/, ArrayList<String>/*binding*/>> distinctBindings = suffixToBindings.get(suffix);
-				if (fusedColsBindings != null && distinctBindings != null) {
-					fusedColsBindings.add(distinctBindings);
-				} else if (!isSubqueryOptional) {
-					// Don't output any bindings for this particular fusedCols
-					fusedColsBindings = null;
-				}
-			}
+	}
 
-			if (fusedColsBindings != null) {
-				// Iterate over every possible list that can be formed by choosing one element from each of the above sets in order
-				Set<List<Pair<SparqlSubquery/*subquery*/, ArrayList<String>/*binding*/>>> allFusedColsBindings = Sets.cartesianProduct(fusedColsBindings);
-				for (List<Pair<SparqlSubquery/*subquery*/, ArrayList<String>/*binding*/>> fusedColsBinding : allFusedColsBindings) {
-					// Create the new output binding
-					//JsonObjectBuilder outputBinding = Json.createObjectBuilder();
-					ArrayList<String> outputRow = new ArrayList<String> ();
-					String addedCols = ",";
-					for (Pair<SparqlSubquery/*subquery*/, ArrayList<String>> rowPair : fusedColsBinding) {
-						// Add each var to the output binding, uniquified by the subquery's suffix when needed
-						String suffix = rowPair.getFirst().getResultsColumnNameSuffix();
-						ArrayList<String> columnsInResponse = rowPair.getFirst().getColumnNamesInResponse();
-						for (String column : columnsToReturn) {
-							if (columnsInResponse.contains(column)) {
-								if (addedCols.indexOf("," + column + ",") >= 0)
-									continue;
-								String var = rowPair.getSecond().get(rowPair.getFirst().getResponseTable().getColumnIndex(column));
-								if (multiSet.count(column) == 1) {
-									outputRow.add (var);
-									addedCols += column + ",";
-									if (numOutputBindings == 0)
-										outputColumnNames.add (column);
-								} else if (columnsToFuseOn.contains(column)) {
-									outputRow.add (var);
-									addedCols += column + ",";
-									if (numOutputBindings == 0)
-										outputColumnNames.add (column);
-								} else {
-									outputRow.add (var);
-									addedCols += column + suffix + ",";
-									if (numOutputBindings == 0)
-										outputColumnNames.add (column + suffix);
-								}
-							}
-						}
-					}
-					outputRows.add (outputRow);
-					numOutputBindings++;
-				}
-			}
-		}
-		String[] outputColumnNamesArray = (String[]) outputColumnNames.toArray(new String[0]);
-		String[] outputColumnTypes = new String[outputColumnNamesArray.length];
-		for (int i = 0; i < outputColumnTypes.length; i++)
-			outputColumnTypes[i] = "String";
+	public TableResultSet returnFusedResultsTable () throws Throwable, Exception {
+		JSONObject tmp = null;
+		if (gResultTable == null)
+			tmp = returnFusedResults ();
 
-		Table outputTable = new Table (outputColumnNamesArray, outputColumnTypes, outputRows);
+		return gResultTable;
+	}
 
-		System.out.println("Fused response has " + numOutputBindings + " results");
+	public JSONObject returnFusedResults() throws Throwable, Exception {
+		Table outputTable = this.buildFusion().getTable();
+
+		System.out.println("Fused response has " + outputTable.getNumRows() + " results");
 
 		gResultTable = new TableResultSet(true);
-//		System.out.println(outputTable.toCSVString());
 		gResultTable.addResults(outputTable);
 		return gResultTable.toJson();
 	}
 
+	/**
+	 * Send fused rows to handler one at a time instead of building a result table
+	 * @return number of rows
+	 */
+	public int streamFusedResults(SubqueryHashJoin.RowHandler handler) throws Throwable, Exception {
+		int count = this.buildFusion().emitRows(handler);
+		System.out.println("Fused response has " + count + " results");
+		return count;
+	}
+
+	/**
+	 * Hash join the subquery results.
+	 * If isSubqueryOptional, subqueries missing a key are blank in its output rows.
+	 */
+	public SubqueryHashJoin buildFusion() throws Throwable, Exception {
+		// Make sure that all the queries returned successfully, else rethrow whatever exception occurred
+		for (SparqlSubquery subquery : subqueries) {
+			Throwable t = subquery.getException();
+			if (t != null) {
+				throw t;
+			}
+		}
+
+		for (SparqlSubquery subquery : subqueries) {
+			Table resultsTable = subquery.getResponseTable();
+			System.out.println("Query " + subquery.getResultsColumnNameSuffix() + " has " + (resultsTable == null ? 0 : resultsTable.getNumRows()) + " rows");
+		}
+
+		return SubqueryHashJoin.fromSubqueries(subqueries, columnsToFuseOn, columnsToReturn, isSubqueryOptional);
+	}
+
 } /* end of file */
@@ -19,7 +19,6 @@
 package com.ge.research.semtk.sparqlX.parallel;
 
 import java.util.ArrayList;
-import java.util.concurrent.RecursiveTask;
 
 import org.json.simple.JSONObject;
 
@@ -31,8 +30,7 @@ import com.ge.research.semtk.sparqlX.SparqlResultTypes;
 /**
  * Stores all parameters passed to an individual sparql subquery and its eventual response.
  */
-public class SparqlSubquery extends RecursiveTask<Void> {
-    private static final long serialVersionUID = 1L;
+public class SparqlSubquery {
 
     private String sparqlServerUrl;
     private String sparqlServerType;
@@ -42,6 +40,7 @@ public class SparqlSubquery extends RecursiveTask<Void> {
 //    private JSONObject response;
     private Table responseTable;
     private ArrayList<String> columnNamesInResponse;
+    private volatile Throwable exception;
 
     public SparqlSubquery(JSONObject sq) throws Exception {
     	// let's build the subquery object we need from the serialized JSON representing it.
@@ -139,16 +138,24 @@ public class SparqlSubquery extends RecursiveTask<Void> {
         return columnNamesInResponse;
     }
 
-    // Invoked internally by parent SparqlParallelQueries instance
-    @Override
-    protected Void compute(){
-        try {
-//System.out.println ("About to runSparqlQuery");
-            runSparqlQuery();
-        } catch (Exception e) {
-            throw new RuntimeException(e.toString(), e);
-        }
-        return null;
+    /**
+     * Drop the response table once its rows are no longer needed here.
+     * Column names stay available.
+     */
+    public void releaseResponseTable() {
+        getColumnNamesInResponse();
+        responseTable = null;
+    }
+
+    /**
+     * Failure of the last run, or null
+     */
+    public Throwable getException() {
+        return exception;
+    }
+
+    public void setException(Throwable exception) {
+        this.exception = exception;
     }
 
     // Run the semantic query and save the response
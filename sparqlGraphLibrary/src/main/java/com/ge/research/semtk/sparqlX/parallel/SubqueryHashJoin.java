@@ -0,0 +1,425 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.sparqlX.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.ge.research.semtk.resultSet.Table;
+
+/**
+ * Multi-way hash join of subquery results on their shared ("fuse") columns.
+ *
+ * Each input's rows are indexed by the values of the fuse columns that input has.
+ * For each distinct key, one output row is produced for every combination of one distinct row per input.
+ * If optional is false, a key missing from any input produces no rows.
+ * If optional is true, every key found in any input is returned, and inputs without it contribute blanks.
+ *
+ * Output columns are the columnsToReturn found in each input, input by input.
+ * A column found in more than one input gets that input's suffix, except fuse columns, which appear once.
+ * Column types are those of the input each column comes from.
+ *
+ * Inputs may be added one at a time as they become available.  For an inner join the last
+ * input can instead be probed, streaming out fused rows without being stored.
+ */
+public class SubqueryHashJoin {
+
+	/**
+	 * Receives fused rows one at a time, so they need not all be held at once
+	 */
+	public interface RowHandler {
+		public void handleRow(ArrayList<String> row) throws Exception;
+	}
+
+	private final int numInputs;
+	private final boolean optional;
+	private final List<String> suffixes;
+	private final Collection<String> columnsToFuseOn;
+	private final Collection<String> columnsToReturn;
+
+	private String [][] inNames;		// per input, set as each input's columns become known
+	private String [][] inTypes;
+	private int [][] keyIndex;			// per input: index of each fuse column it has
+
+	private String [] outNames = null;	// output layout, built once every input's columns are known
+	private String [] outTypes;
+	private int [][] outSource;			// per output column: pairs of (input, column index). first input present supplies the value.
+
+	private LinkedHashMap<Object, ArrayList<ArrayList<String>>[]> buckets = new LinkedHashMap<Object, ArrayList<ArrayList<String>>[]>();
+	private ArrayList<HashSet<ArrayList<String>>> distinctRows;		// per input, to drop duplicate rows
+
+	/**
+	 * Join whose inputs' columns are given later, with setInputColumns()
+	 * @param suffixes - per input, added to returned column names that more than one input has
+	 * @param columnsToFuseOn
+	 * @param columnsToReturn
+	 * @param optional - false for an inner join
+	 */
+	public SubqueryHashJoin(List<String> suffixes, Collection<String> columnsToFuseOn, Collection<String> columnsToReturn, boolean optional) {
+		this.numInputs = suffixes.size();
+		this.optional = optional;
+		this.suffixes = suffixes;
+		this.columnsToFuseOn = columnsToFuseOn;
+		this.columnsToReturn = columnsToReturn;
+
+		this.inNames = new String[this.numInputs][];
+		this.inTypes = new String[this.numInputs][];
+		this.keyIndex = new int[this.numInputs][];
+		this.distinctRows = new ArrayList<HashSet<ArrayList<String>>>();
+		for (int i = 0; i < this.numInputs; i++) {
+			this.distinctRows.add(new HashSet<ArrayList<String>>());
+		}
+	}
+
+	/**
+	 * @param inputColumnNames - column names of each input.  Empty for an input that returned nothing.
+	 * @param inputColumnTypes - column types of each input
+	 * @param suffixes - per input, added to returned column names that more than one input has
+	 * @param columnsToFuseOn
+	 * @param columnsToReturn
+	 * @param optional - false for an inner join
+	 */
+	public SubqueryHashJoin(List<String[]> inputColumnNames, List<String[]> inputColumnTypes, List<String> suffixes,
+			Collection<String> columnsToFuseOn, Collection<String> columnsToReturn, boolean optional) {
+		this(suffixes, columnsToFuseOn, columnsToReturn, optional);
+		for (int i = 0; i < this.numInputs; i++) {
+			this.setInputColumns(i, inputColumnNames.get(i), inputColumnTypes.get(i));
+		}
+	}
+
+	/**
+	 * Join the response tables of subqueries that have all finished
+	 */
+	public static SubqueryHashJoin fromSubqueries(List<SparqlSubquery> subqueries, Collection<String> columnsToFuseOn, Collection<String> columnsToReturn, boolean optional) throws Exception {
+		SubqueryHashJoin join = new SubqueryHashJoin(getSuffixes(subqueries), columnsToFuseOn, columnsToReturn, optional);
+		for (int i = 0; i < subqueries.size(); i++) {
+			join.addTable(i, subqueries.get(i).getResponseTable());
+		}
+		return join;
+	}
+
+	public static ArrayList<String> getSuffixes(List<SparqlSubquery> subqueries) {
+		ArrayList<String> suffixes = new ArrayList<String>();
+		for (SparqlSubquery subquery : subqueries) {
+			suffixes.add(subquery.getResultsColumnNameSuffix());
+		}
+		return suffixes;
+	}
+
+	/**
+	 * Set an input's columns, before adding its rows
+	 */
+	public void setInputColumns(int input, String [] names, String [] types) {
+		this.inNames[input] = names;
+		this.inTypes[input] = types;
+
+		// key columns, in columnsToFuseOn order
+		List<String> nameList = Arrays.asList(names);
+		ArrayList<Integer> keyCols = new ArrayList<Integer>();
+		for (String column : this.columnsToFuseOn) {
+			int index = nameList.indexOf(column);
+			if (index > -1) {
+				keyCols.add(index);
+			}
+		}
+		this.keyIndex[input] = toIntArray(keyCols);
+	}
+
+	/**
+	 * Set an input's columns and add its rows
+	 * @param table - null for an input that returned nothing
+	 */
+	public void addTable(int input, Table table) {
+		if (table == null) {
+			this.setInputColumns(input, new String[0], new String[0]);
+		} else {
+			this.setInputColumns(input, table.getColumnNames(), table.getColumnTypes());
+			this.addRows(input, table.getRows());
+		}
+	}
+
+	public String[] getColumnNames() {
+		this.buildLayout();
+		return this.outNames;
+	}
+
+	public String[] getColumnTypes() {
+		this.buildLayout();
+		return this.outTypes;
+	}
+
+	/**
+	 * Index rows of one input
+	 */
+	public void addRows(int input, List<ArrayList<String>> rows) {
+		for (ArrayList<String> row : rows) {
+			this.addRow(input, row);
+		}
+	}
+
+	/**
+	 * Index one row of an input.  Duplicate rows of the same input are ignored.
+	 */
+	@SuppressWarnings("unchecked")
+	public void addRow(int input, ArrayList<String> row) {
+		if (!this.distinctRows.get(input).add(row)) {
+			return;
+		}
+
+		Object key = this.buildKey(input, row);
+		ArrayList<ArrayList<String>>[] bucket = this.buckets.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList[this.numInputs];
+			this.buckets.put(key, bucket);
+		}
+		if (bucket[input] == null) {
+			bucket[input] = new ArrayList<ArrayList<String>>(1);
+		}
+		bucket[input].add(row);
+	}
+
+	/**
+	 * Send every fused row to handler
+	 * @return number of rows
+	 */
+	public int emitRows(RowHandler handler) throws Exception {
+		this.buildLayout();
+		int count = 0;
+		for (ArrayList<ArrayList<String>>[] bucket : this.buckets.values()) {
+			if (this.optional || isComplete(bucket, -1)) {
+				count += this.emitBucket(bucket, -1, null, handler);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Inner join the rows of the last input against every other input, already added,
+	 * sending fused rows to handler as they are found.  The probe rows are not kept in the join.
+	 * @param input - the one input whose rows have not been added
+	 * @return number of rows
+	 */
+	public int probeRows(int input, String [] names, String [] types, List<ArrayList<String>> rows, RowHandler handler) throws Exception {
+		if (this.optional) {
+			throw new Exception("Can't probe an optional join: every input must be added before rows are known");
+		}
+		this.setInputColumns(input, names, types);
+		this.buildLayout();
+
+		int count = 0;
+		HashSet<ArrayList<String>> distinct = this.distinctRows.get(input);
+		for (ArrayList<String> row : rows) {
+			if (distinct.add(row)) {
+				ArrayList<ArrayList<String>>[] bucket = this.buckets.get(this.buildKey(input, row));
+				if (bucket != null && isComplete(bucket, input)) {
+					count += this.emitBucket(bucket, input, row, handler);
+				}
+			}
+		}
+		distinct.clear();
+		return count;
+	}
+
+	/**
+	 * Send every combination of a key's rows to handler, last input varying fastest
+	 * @param fixedInput - input whose row is fixedRow instead of its bucket, or -1
+	 */
+	private int emitBucket(ArrayList<ArrayList<String>>[] bucket, int fixedInput, ArrayList<String> fixedRow, RowHandler handler) throws Exception {
+		@SuppressWarnings("unchecked")
+		ArrayList<String>[] combination = new ArrayList[this.numInputs];
+		int [] position = new int[this.numInputs];
+		int count = 0;
+
+		while (true) {
+			for (int i = 0; i < this.numInputs; i++) {
+				if (i == fixedInput) {
+					combination[i] = fixedRow;
+				} else {
+					combination[i] = (bucket[i] == null) ? null : bucket[i].get(position[i]);
+				}
+			}
+			handler.handleRow(this.buildOutputRow(combination));
+			count++;
+
+			int i = this.numInputs - 1;
+			while (i >= 0 && (i == fixedInput || bucket[i] == null || position[i] == bucket[i].size() - 1)) {
+				position[i] = 0;
+				i--;
+			}
+			if (i < 0) {
+				return count;
+			}
+			position[i]++;
+		}
+	}
+
+	/**
+	 * Collect all fused rows into a table
+	 */
+	public Table getTable() throws Exception {
+		final ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+		this.emitRows(new RowHandler() {
+			public void handleRow(ArrayList<String> row) {
+				rows.add(row);
+			}
+		});
+		return new Table(this.getColumnNames(), this.getColumnTypes(), rows);
+	}
+
+	private Object buildKey(int input, ArrayList<String> row) {
+		int [] cols = this.keyIndex[input];
+		if (cols.length == 1) {
+			return row.get(cols[0]);
+		}
+		String [] values = new String[cols.length];
+		for (int k = 0; k < cols.length; k++) {
+			values[k] = row.get(cols[k]);
+		}
+		return new CompositeKey(values);
+	}
+
+	/**
+	 * Does every input but skipInput have rows in the bucket
+	 */
+	private static boolean isComplete(ArrayList<ArrayList<String>>[] bucket, int skipInput) {
+		for (int i = 0; i < bucket.length; i++) {
+			if (i != skipInput && bucket[i] == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Lay out output columns once every input's columns are known
+	 */
+	private void buildLayout() {
+		if (this.outNames != null) {
+			return;
+		}
+		for (int i = 0; i < this.numInputs; i++) {
+			if (this.inNames[i] == null) {
+				throw new IllegalStateException("Columns of input " + i + " are not known yet");
+			}
+		}
+
+		// how many inputs have each column
+		HashMap<String, Integer> columnCount = new HashMap<String, Integer>();
+		for (String [] names : this.inNames) {
+			for (String name : names) {
+				Integer c = columnCount.get(name);
+				columnCount.put(name, (c == null) ? 1 : c + 1);
+			}
+		}
+
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<String> types = new ArrayList<String>();
+		ArrayList<ArrayList<Integer>> sources = new ArrayList<ArrayList<Integer>>();
+		HashMap<String, Integer> fuseColumnOutput = new HashMap<String, Integer>();		// fuse column name -> output position
+
+		for (int i = 0; i < this.numInputs; i++) {
+			List<String> inNameList = Arrays.asList(this.inNames[i]);
+			String suffix = this.suffixes.get(i) == null ? "" : this.suffixes.get(i);
+
+			for (String column : this.columnsToReturn) {
+				int index = inNameList.indexOf(column);
+				if (index < 0) {
+					continue;
+				}
+
+				boolean fuse = this.columnsToFuseOn.contains(column);
+				if (fuse && fuseColumnOutput.containsKey(column)) {
+					// already returned from an earlier input.  this input is an alternate source.
+					ArrayList<Integer> src = sources.get(fuseColumnOutput.get(column));
+					src.add(i);
+					src.add(index);
+					continue;
+				}
+
+				names.add((fuse || columnCount.get(column) == 1) ? column : column + suffix);
+				types.add(this.inTypes[i][index]);
+				ArrayList<Integer> src = new ArrayList<Integer>();
+				src.add(i);
+				src.add(index);
+				sources.add(src);
+				if (fuse) {
+					fuseColumnOutput.put(column, sources.size() - 1);
+				}
+			}
+		}
+
+		this.outTypes = types.toArray(new String[types.size()]);
+		this.outSource = new int[sources.size()][];
+		for (int j = 0; j < sources.size(); j++) {
+			this.outSource[j] = toIntArray(sources.get(j));
+		}
+		this.outNames = names.toArray(new String[names.size()]);
+	}
+
+	private ArrayList<String> buildOutputRow(ArrayList<String>[] combination) {
+		ArrayList<String> out = new ArrayList<String>(this.outSource.length);
+		for (int [] src : this.outSource) {
+			String value = "";
+			for (int s = 0; s < src.length; s += 2) {
+				ArrayList<String> row = combination[src[s]];
+				if (row != null) {
+					value = row.get(src[s + 1]);
+					break;
+				}
+			}
+			out.add(value);
+		}
+		return out;
+	}
+
+	private static int [] toIntArray(ArrayList<Integer> list) {
+		int [] ret = new int[list.size()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = list.get(i);
+		}
+		return ret;
+	}
+
+	/**
+	 * Key of two or more fuse column values
+	 */
+	private static class CompositeKey {
+		private final String [] values;
+		private final int hash;
+
+		CompositeKey(String [] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof CompositeKey) && Arrays.equals(this.values, ((CompositeKey) o).values);
+		}
+	}
+}
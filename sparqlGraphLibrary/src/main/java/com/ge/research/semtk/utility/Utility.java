@@ -50,6 +50,7 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
 import com.ge.research.semtk.resultSet.Table;
+import com.ge.research.semtk.resultSet.TableCsvReader;
 
 
 /*
@@ -158,47 +159,34 @@ public abstract class Utility {
 		return ret.toString();
 	}
 	
+	/**
+	 * Get CSV results from a URL as a table, with every column typed "string"
+	 * @return the table.  No content gives one unnamed column and no rows.
+	 */
 	public static Table getURLResultsContentAsTable(URL url) throws Exception{
-		Table retval = null;
-		
-		// first, get the content
-		String contents = getURLContentsAsString(url);
-		
-		// split it into lines.
-		String[] lines = contents.split("\n");
-		
-		if(lines.length > 0){
-			// get our columns
-			String[] colName = lines[0].split(",");
-			String[] colType = new String[colName.length];
-			
-			// add col type info
-			for(int i = 0; i < colName.length; i++){
-				colType[i] = "string";
+		return getURLResultsContentAsTable(url, null, -1);
+	}
+	
+	/**
+	 * Get CSV results from a URL as a table, reading the stream a row at a time
+	 * @param url the CSV, e.g. from the results service
+	 * @param colTypes the column types, e.g. the col_type of the results metadata.  If null, every column is "string".
+	 * @param maxRows stop after this many rows.  -1 for all.
+	 * @return the table.  No content gives one unnamed column and no rows.
+	 */
+	public static Table getURLResultsContentAsTable(URL url, String[] colTypes, int maxRows) throws Exception{
+		TableCsvReader reader = TableCsvReader.open(url);
+		try{
+			if(reader.getColumnNames().length == 0){
+				return new Table(new String[] { "" }, new String[] { TableCsvReader.DEFAULT_COLUMN_TYPE }, new ArrayList<ArrayList<String>>());
 			}
-			
-			// make arraylist of the remaining values
-			ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
-			if(lines.length >=2 ){
-				for(int k = 1; k < lines.length; k++){
-					ArrayList<String> curr = new ArrayList<String>();
-					// add each element
-					for(String t : lines[k].split(",")){
-						curr.add(t);
-					}
-					// add to the rows collection
-					rows.add(curr);
-				}
+			if(colTypes != null){
+				reader.setColumnTypes(colTypes);
 			}
-			
-			retval = new Table(colName, colType, rows);
-			
-		}
-		else{
-			// do nothing. 
+			return reader.readTable(maxRows);
+		}finally{
+			reader.close();
 		}
-		
-		return retval;
 	}
 	
 	
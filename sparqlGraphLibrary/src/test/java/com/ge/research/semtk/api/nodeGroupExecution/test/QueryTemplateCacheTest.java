@@ -0,0 +1,179 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.api.nodeGroupExecution.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import com.ge.research.semtk.api.nodeGroupExecution.QueryTemplateCache;
+import com.ge.research.semtk.belmont.AutoGeneratedQueryTypes;
+import com.ge.research.semtk.belmont.NodeGroup;
+import com.ge.research.semtk.belmont.runtimeConstraints.RuntimeConstrainedItems;
+import com.ge.research.semtk.belmont.runtimeConstraints.test.RuntimeConstraintsTest;
+import com.ge.research.semtk.load.utility.SparqlGraphJson;
+import com.ge.research.semtk.sparqlX.SparqlConnection;
+import com.ge.research.semtk.sparqlX.asynchronousQuery.DispatcherSupportedQueryTypes;
+
+public class QueryTemplateCacheTest {
+
+	private static final String NG_ID = "templateTestNodeGroup";
+	
+	/**
+	 * Full build of the query, the way the dispatcher does it
+	 */
+	private String buildSparql(String json, JSONArray runtimeConstraints, AutoGeneratedQueryTypes qt) throws Exception {
+		SparqlGraphJson sgJson = new SparqlGraphJson(json);
+		NodeGroup ng = sgJson.getNodeGroup();
+		if (runtimeConstraints != null) {
+			RuntimeConstrainedItems rtci = new RuntimeConstrainedItems(ng);
+			rtci.applyConstraintJson(runtimeConstraints);
+		}
+		return ng.generateSparql(qt, false, null, null);
+	}
+	
+	private JSONArray getConstraints(String json) throws Exception {
+		return new SparqlGraphJson(json).getRuntimeConstraintsJson();
+	}
+	
+	private SparqlConnection getConn(String json) throws Exception {
+		return new SparqlGraphJson(json).getSparqlConn();
+	}
+	
+	@Test
+	public void testFillMatchesFullBuild() throws Exception {
+		String json = RuntimeConstraintsTest.testJsonString;
+		JSONArray constraints = getConstraints(json);
+		QueryTemplateCache cache = new QueryTemplateCache();
+		
+		QueryTemplateCache.QueryTemplate select = cache.getTemplate(NG_ID, json, DispatcherSupportedQueryTypes.SELECT_DISTINCT, getConn(json), constraints, null);
+		assertEquals(buildSparql(json, constraints, AutoGeneratedQueryTypes.QUERY_DISTINCT), select.fill(constraints).getSparql());
+		
+		QueryTemplateCache.QueryTemplate count = cache.getTemplate(NG_ID, json, DispatcherSupportedQueryTypes.COUNT, getConn(json), constraints, null);
+		assertEquals(buildSparql(json, constraints, AutoGeneratedQueryTypes.QUERY_COUNT), count.fill(constraints).getSparql());
+		
+		// new values for the same items are just a substitution
+		JSONArray constraints2 = (JSONArray) new JSONParser().parse(
+				"[ { \"SparqlID\" : \"?durationInSeconds\", \"Operator\" : \"LESSTHAN\", \"Operands\" : [ 120 ] }, " + 
+				"  { \"SparqlID\" : \"?name\", \"Operator\" : \"MATCHES\", \"Operands\" : [ \"Cream\", \"Blind Faith\" ] } ]");
+		assertSame(select, cache.getTemplate(NG_ID, json, DispatcherSupportedQueryTypes.SELECT_DISTINCT, getConn(json), constraints2, null));
+		assertEquals(buildSparql(json, constraints2, AutoGeneratedQueryTypes.QUERY_DISTINCT), select.fill(constraints2).getSparql());
+		
+		// no runtime constraints is a different query shape
+		QueryTemplateCache.QueryTemplate plain = cache.getTemplate(NG_ID, json, DispatcherSupportedQueryTypes.SELECT_DISTINCT, getConn(json), null, null);
+		assertNotSame(select, plain);
+		assertEquals(buildSparql(json, null, AutoGeneratedQueryTypes.QUERY_DISTINCT), plain.fill(null).getSparql());
+		assertEquals(3, cache.size());
+	}
+	
+	@Test
+	public void testFillLeavesTemplate() throws Exception {
+		String json = RuntimeConstraintsTest.testJsonString;
+		final JSONArray constraints = getConstraints(json);
+		final JSONArray constraints2 = (JSONArray) new JSONParser().parse(
+				"[ { \"SparqlID\" : \"?durationInSeconds\", \"Operator\" : \"LESSTHAN\", \"Operands\" : [ 120 ] }, " + 
+				"  { \"SparqlID\" : \"?name\", \"Operator\" : \"MATCHES\", \"Operands\" : [ \"Cream\", \"Blind Faith\" ] } ]");
+		final String expected = buildSparql(json, constraints, AutoGeneratedQueryTypes.QUERY_DISTINCT);
+		final String expected2 = buildSparql(json, constraints2, AutoGeneratedQueryTypes.QUERY_DISTINCT);
+		final QueryTemplateCache.QueryTemplate select = new QueryTemplateCache().getTemplate(NG_ID, json, DispatcherSupportedQueryTypes.SELECT_DISTINCT, getConn(json), constraints, null);
+		
+		// the filled nodegroup carries the constraints, so the dispatcher can page from it
+		QueryTemplateCache.FilledQuery filled = select.fill(constraints);
+		assertEquals(expected, filled.getNodeGroup().generateSparql(AutoGeneratedQueryTypes.QUERY_DISTINCT, false, null, null));
+		
+		// many threads filling at once each get their own values
+		final AtomicInteger failures = new AtomicInteger(0);
+		Thread [] threads = new Thread[8];
+		for (int t=0; t < threads.length; t++) {
+			final boolean first = (t % 2 == 0);
+			threads[t] = new Thread(() -> {
+				try {
+					for (int i=0; i < 50; i++) {
+						String sparql = select.fill(first ? constraints : constraints2).getSparql();
+						if (!sparql.equals(first ? expected : expected2)) {
+							failures.incrementAndGet();
+						}
+					}
+				} catch (Exception e) {
+					failures.incrementAndGet();
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, failures.get());
+		assertEquals(expected, select.fill(constraints).getSparql());
+	}
+	
+	@Test
+	public void testInvalidation() throws Exception {
+		String json = RuntimeConstraintsTest.testJsonString;
+		JSONArray constraints = getConstraints(json);
+		QueryTemplateCache cache = new QueryTemplateCache();
+		
+		QueryTemplateCache.QueryTemplate t1 = cache.getTemplate(NG_ID, json, DispatcherSupportedQueryTypes.SELECT_DISTINCT, getConn(json), constraints, null);
+		cache.getTemplate(NG_ID, json, DispatcherSupportedQueryTypes.COUNT, getConn(json), constraints, null);
+		assertEquals(2, cache.size());
+		
+		// store changed the nodegroup: old templates are dropped
+		JSONObject changed = (JSONObject) new JSONParser().parse(json);
+		changed.put("comment", "changed");
+		String json2 = changed.toJSONString();
+		QueryTemplateCache.QueryTemplate t2 = cache.getTemplate(NG_ID, json2, DispatcherSupportedQueryTypes.SELECT_DISTINCT, getConn(json2), constraints, null);
+		assertNotSame(t1, t2);
+		assertEquals(1, cache.size());
+		
+		// store deleted the nodegroup
+		cache.invalidate(NG_ID);
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testNotTemplated() throws Exception {
+		String json = RuntimeConstraintsTest.testJsonString;
+		QueryTemplateCache cache = new QueryTemplateCache();
+		
+		// deletes are not templated
+		assertNull(cache.getTemplate(NG_ID, json, DispatcherSupportedQueryTypes.DELETE, getConn(json), null, null));
+		
+		// constraint on an item that isn't runtime constrained
+		JSONArray bad = (JSONArray) new JSONParser().parse("[ { \"SparqlID\" : \"?songTitle\", \"Operator\" : \"MATCHES\", \"Operands\" : [ \"x\" ] } ]");
+		assertNull(cache.getTemplate(NG_ID, json, DispatcherSupportedQueryTypes.SELECT_DISTINCT, getConn(json), bad, null));
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testLruEviction() throws Exception {
+		String json = RuntimeConstraintsTest.testJsonString;
+		QueryTemplateCache cache = new QueryTemplateCache(1);
+		
+		cache.getTemplate(NG_ID, json, DispatcherSupportedQueryTypes.SELECT_DISTINCT, getConn(json), null, null);
+		cache.getTemplate(NG_ID, json, DispatcherSupportedQueryTypes.COUNT, getConn(json), null, null);
+		assertEquals(1, cache.size());
+	}
+}
@@ -18,9 +18,13 @@
 package com.ge.research.semtk.belmont.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.HashMap;
+
 import org.json.simple.JSONObject;
 import org.junit.Test;
 
@@ -28,7 +32,9 @@ import com.ge.research.semtk.belmont.AutoGeneratedQueryTypes;
 import com.ge.research.semtk.belmont.Node;
 import com.ge.research.semtk.belmont.NodeGroup;
 import com.ge.research.semtk.belmont.NodeItem;
+import com.ge.research.semtk.belmont.PropertyItem;
 import com.ge.research.semtk.load.utility.SparqlGraphJson;
+import com.ge.research.semtk.ontologyTools.OntologyInfo;
 import com.ge.research.semtk.test.TestGraph;
 import com.ge.research.semtk.utility.Utility;
 
@@ -183,4 +189,85 @@ public class NodeGroupTest {
 		assertEquals(NodeItem.OPTIONAL_TRUE,   battery_0.getNodeItemList().get(0).getSNodeOptional(cell_0));
 		assertEquals(NodeItem.OPTIONAL_FALSE,   cell_0.getNodeItemList().get(0)   .getSNodeOptional(color_0));
 	}
+	
+	@Test
+	public void testDeepCopy() throws Exception {
+		NodeGroup nodegroup = TestGraph.getNodeGroup("src/test/resources/sampleBattery Optional Props.json");
+		NodeGroup copy = NodeGroup.deepCopy(nodegroup);
+		
+		// same nodegroup and same query
+		assertEquals(nodegroup.toJson().toJSONString(), copy.toJson().toJSONString());
+		assertEquals(nodegroup.generateSparql(AutoGeneratedQueryTypes.QUERY_DISTINCT, false, 100, null), 
+				     copy.generateSparql(AutoGeneratedQueryTypes.QUERY_DISTINCT, false, 100, null));
+		
+		// links point at the copied nodes, not the originals
+		Node battery = copy.getNodeBySparqlID("?Battery");
+		Node cell = copy.getNodeBySparqlID("?Cell");
+		assertTrue(battery != nodegroup.getNodeBySparqlID("?Battery"));
+		assertTrue(battery.getNodeItemList().get(0).getNodeList().contains(cell));
+		
+		// changing the copy leaves the original alone
+		copy.deleteNode(cell, false);
+		assertTrue(copy.getNodeBySparqlID("?Cell") == null);
+		assertTrue(nodegroup.getNodeBySparqlID("?Cell") != null);
+		assertEquals(2, nodegroup.getNodeBySparqlID("?Battery").getNodeItemList().get(0).getNodeList().size());
+	}
+	
+	@Test
+	public void testInstanceOverlay() throws Exception {
+		NodeGroup nodegroup = TestGraph.getNodeGroup("src/test/resources/sampleBattery.json");
+		PropertyItem origProp = nodegroup.getPropertyItemBySparqlID("?CellId");
+		origProp.addInstanceValue("cell0");
+		
+		NodeGroup overlay1 = NodeGroup.instanceOverlay(nodegroup);
+		NodeGroup overlay2 = NodeGroup.instanceOverlay(nodegroup);
+		overlay1.getPropertyItemBySparqlID("?CellId").addInstanceValue("cell1");
+		overlay2.getPropertyItemBySparqlID("?CellId").addInstanceValue("cell2");
+		
+		// each copy sees its own values on top of the original's
+		assertEquals(1, origProp.getInstanceValues().size());
+		assertEquals("cell1", overlay1.getPropertyItemBySparqlID("?CellId").getInstanceValues().get(1));
+		assertEquals("cell2", overlay2.getPropertyItemBySparqlID("?CellId").getInstanceValues().get(1));
+		assertEquals(2, overlay2.getPropertyItemBySparqlID("?CellId").getInstanceValues().size());
+	}
+
+	@Test
+	public void testGenerateSparqlPage() throws Exception {
+		NodeGroup nodegroup = TestGraph.getNodeGroup("src/test/resources/sampleBattery.json");
+		
+		String page = nodegroup.generateSparqlPage(AutoGeneratedQueryTypes.QUERY_DISTINCT, null, 10, 20);
+		assertTrue(page.contains("ORDER BY ?"));
+		assertTrue(page.endsWith(" LIMIT 10 OFFSET 20"));
+		
+		// nodegroup limit still applies to the whole query
+		nodegroup.setLimit(25);
+		assertTrue(nodegroup.generateSparqlPage(AutoGeneratedQueryTypes.QUERY_DISTINCT, null, 10, 0).endsWith(" LIMIT 10"));
+		assertTrue(nodegroup.generateSparqlPage(AutoGeneratedQueryTypes.QUERY_DISTINCT, null, 10, 20).endsWith(" LIMIT 5 OFFSET 20"));
+		assertNull(nodegroup.generateSparqlPage(AutoGeneratedQueryTypes.QUERY_DISTINCT, null, 10, 30));
+	}
+	
+	@Test
+	public void testSharedPrefixHash() throws Exception {
+		NodeGroup nodegroup = TestGraph.getNodeGroup("src/test/resources/sampleBattery.json");
+		HashMap<String, String> shared = nodegroup.getPrefixHash();
+		int sharedSize = shared.size();
+		
+		// copies use the original's prefixes without copying them
+		NodeGroup copy1 = NodeGroup.instanceOverlay(nodegroup);
+		NodeGroup copy2 = NodeGroup.instanceOverlay(nodegroup);
+		assertTrue(copy1.getPrefixHash() == shared);
+		
+		// an instance value in a new namespace gets its prefix privately
+		copy1.getNodeBySparqlID("?Battery").setInstanceValue("http://new/namespace#battery1");
+		String where = copy1.getInsertWhereBody("__0", new OntologyInfo());
+		assertTrue(where.contains("BIND (namespace:battery1 AS ?Battery__0)"));
+		assertTrue(copy1.generateSparqlPrefix().contains("prefix namespace:<http://new/namespace#>"));
+		assertEquals(sharedSize, shared.size());
+		assertTrue(copy2.getPrefixHash() == shared);
+		assertFalse(copy2.generateSparqlPrefix().contains("namespace"));
+		
+		// another nodegroup can pick up the larger map, read-only
+		copy2.setSharedPrefixHash(copy1.getPrefixHash());
+		assertTrue(copy2.generateSparqlPrefix().contains("prefix namespace:<http://new/namespace#>"));
+	}
 }
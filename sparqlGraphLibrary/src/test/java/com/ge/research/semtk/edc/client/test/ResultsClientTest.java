@@ -0,0 +1,168 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.edc.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ge.research.semtk.edc.client.ResultsClient;
+import com.ge.research.semtk.edc.client.ResultsClientConfig;
+import com.ge.research.semtk.resultSet.SimpleResultSet;
+import com.ge.research.semtk.resultSet.Table;
+
+/**
+ * Retrieval of stored results in concurrent batches, without a results service
+ */
+public class ResultsClientTest {
+
+	private static final int BATCH = 50000;		// rows per batch retrieved by ResultsClient
+
+	/**
+	 * Client serving a job of numRows rows, one column holding the row number.
+	 * Later batches are quicker, so they finish out of order.
+	 */
+	private static class PagingResultsClient extends ResultsClient {
+		final int numRows;
+		final int failStartRow;
+		final long sleepMillis;
+		List<Integer> started = Collections.synchronizedList(new ArrayList<Integer>());
+		AtomicInteger interrupted = new AtomicInteger(0);
+
+		PagingResultsClient(int numRows, int failStartRow, long sleepMillis) throws Exception {
+			super(new ResultsClientConfig("http", "localhost", 12052));
+			this.numRows = numRows;
+			this.failStartRow = failStartRow;
+			this.sleepMillis = sleepMillis;
+		}
+
+		@Override
+		protected ResultsClient copy() {
+			return this;
+		}
+
+		@Override
+		public Object execute(boolean returnRawResponse) throws Exception {
+			// the only other call made: the row count
+			SimpleResultSet res = new SimpleResultSet(true);
+			res.addResult("rowCount", this.numRows);
+			return res.toJson();
+		}
+
+		@Override
+		public Table execTableResultsJsonPage(String jobId, int startRow, int maxRows) throws Exception {
+			this.started.add(startRow);
+			if (startRow == this.failStartRow) {
+				throw new Exception("batch failed at " + startRow);
+			}
+			try {
+				Thread.sleep(this.getSleepMillis(startRow));
+			} catch (InterruptedException e) {
+				this.interrupted.incrementAndGet();
+				throw e;
+			}
+			ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>(maxRows);
+			for (int i = startRow; i < startRow + maxRows; i++) {
+				ArrayList<String> row = new ArrayList<String>(1);
+				row.add(Integer.toString(i));
+				rows.add(row);
+			}
+			return new Table(new String[]{"n"}, new String[]{"int"}, rows);
+		}
+
+		long getSleepMillis(int startRow) {
+			return this.sleepMillis * (this.numRows - startRow) / BATCH;
+		}
+	}
+
+	@Test
+	public void testBatchesInOrder() throws Exception {
+		final int numRows = 6 * BATCH + 123;	// a partial last batch
+		PagingResultsClient client = new PagingResultsClient(numRows, -1, 20);
+		final int[] next = {0};
+
+		int handled = client.execTableResultsJson("job1", null, new ResultsClient.BatchHandler() {
+			public boolean handleBatch(Table batch) throws Exception {
+				assertEquals(Integer.toString(next[0]), batch.getCell(0, 0));
+				next[0] += batch.getNumRows();
+				return true;
+			}
+		});
+
+		assertEquals(numRows, handled);
+		assertEquals(numRows, next[0]);
+		assertEquals(7, client.started.size());
+	}
+
+	@Test
+	public void testMaxRows() throws Exception {
+		PagingResultsClient client = new PagingResultsClient(3 * BATCH, -1, 0);
+		final int[] rows = {0};
+
+		int handled = client.execTableResultsJson("job1", BATCH + 10, new ResultsClient.BatchHandler() {
+			public boolean handleBatch(Table batch) throws Exception {
+				rows[0] += batch.getNumRows();
+				return true;
+			}
+		});
+
+		assertEquals(BATCH + 10, handled);
+		assertEquals(BATCH + 10, rows[0]);
+		assertEquals(2, client.started.size());
+	}
+
+	@Test
+	public void testFailedBatchCancelsRest() throws Exception {
+		// first batch is quick, the rest slow
+		PagingResultsClient client = new PagingResultsClient(20 * BATCH, BATCH, 5000) {
+			@Override
+			long getSleepMillis(int startRow) {
+				return (startRow == 0) ? 100 : this.sleepMillis;
+			}
+		};
+		final int[] handled = {0};
+
+		try {
+			client.execTableResultsJson("job1", null, new ResultsClient.BatchHandler() {
+				public boolean handleBatch(Table batch) throws Exception {
+					handled[0]++;
+					return true;
+				}
+			});
+			fail("a failed batch was not reported");
+		} catch (Exception e) {
+			assertEquals("batch failed at " + BATCH, e.getMessage());
+		}
+
+		// batches before the failure were handed over; those running were stopped and no more started
+		assertEquals(1, handled[0]);
+		Thread.sleep(100);
+		assertTrue(client.interrupted.get() > 0);
+		int started = client.started.size();
+		assertTrue(started < 20);
+		Thread.sleep(300);
+		assertEquals(started, client.started.size());
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.edc.client.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import com.ge.research.semtk.edc.client.ResultsClient;
+import com.ge.research.semtk.edc.client.ResultsClientConfig;
+import com.ge.research.semtk.edc.client.TableResultsIterator;
+import com.ge.research.semtk.resultSet.SimpleResultSet;
+import com.ge.research.semtk.resultSet.Table;
+import com.ge.research.semtk.resultSet.TableResultSet;
+
+/**
+ * Paging through stored results, without a results service
+ */
+public class TableResultsIteratorTest {
+
+	private static final String[] COLS = {"n", "name"};
+	private static final String[] TYPES = {"int", "string"};
+
+	/**
+	 * Client serving a job of storedRows rows, while reporting rowCount rows.  Records the pages asked for.
+	 */
+	private static class PageResultsClient extends ResultsClient {
+		final int rowCount;
+		final int storedRows;
+		int failStartRow = -1;
+		List<String> pages = Collections.synchronizedList(new ArrayList<String>());
+
+		PageResultsClient(int rowCount, int storedRows) throws Exception {
+			super(new ResultsClientConfig("http", "localhost", 12052));
+			this.rowCount = rowCount;
+			this.storedRows = storedRows;
+		}
+
+		@Override
+		protected ResultsClient copy() {
+			return this;
+		}
+
+		@Override
+		public Object execute(boolean returnRawResponse) throws Exception {
+			// the only other call made: the row count
+			SimpleResultSet res = new SimpleResultSet(true);
+			res.addResult("rowCount", this.rowCount);
+			return res.toJson();
+		}
+
+		@Override
+		public Table execTableResultsJsonPage(String jobId, int startRow, int maxRows) throws Exception {
+			this.pages.add(startRow + "+" + maxRows);
+			if (startRow == this.failStartRow) {
+				throw new Exception("page failed at " + startRow);
+			}
+			ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+			for (int i = startRow; i < Math.min(startRow + maxRows, this.storedRows); i++) {
+				rows.add(new ArrayList<String>(Arrays.asList(Integer.toString(i), "name " + i)));
+			}
+			return new Table(COLS, TYPES, rows);
+		}
+	}
+
+	private static int readAll(TableResultsIterator it) {
+		int n = 0;
+		while (it.hasNext()) {
+			assertEquals(Integer.toString(n), it.next().get(0));
+			n++;
+		}
+		return n;
+	}
+
+	@Test
+	public void testPartialLastPage() throws Exception {
+		PageResultsClient client = new PageResultsClient(25, 25);
+		TableResultsIterator it = client.openTableResults("job1", 10, null);
+		assertArrayEquals(COLS, it.getColumnNames());
+		assertArrayEquals(TYPES, it.getColumnTypes());
+		assertEquals(25, it.getNumRows());
+
+		assertEquals(25, readAll(it));
+		assertFalse(it.hasNext());
+		assertEquals(Arrays.asList("0+10", "10+10", "20+5"), client.pages);
+		try {
+			it.next();
+			fail("next() past the end");
+		} catch (NoSuchElementException e) {
+		}
+		it.close();
+	}
+
+	@Test
+	public void testMaxRows() throws Exception {
+		PageResultsClient client = new PageResultsClient(25, 25);
+		TableResultsIterator it = client.openTableResults("job1", 10, 12);
+		assertEquals(12, it.getNumRows());
+		assertEquals(12, readAll(it));
+		assertEquals(Arrays.asList("0+10", "10+2"), client.pages);
+		it.close();
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		PageResultsClient client = new PageResultsClient(0, 0);
+		TableResultsIterator it = client.openTableResults("job1", 10, null);
+
+		// columns still known
+		assertArrayEquals(COLS, it.getColumnNames());
+		assertFalse(it.hasNext());
+		assertEquals(Arrays.asList("0+0"), client.pages);
+
+		StringWriter out = new StringWriter();
+		assertEquals(0, it.writeTableResultSetJson(out));
+		Table table = new TableResultSet((JSONObject) new JSONParser().parse(out.toString())).getTable();
+		assertArrayEquals(COLS, table.getColumnNames());
+		assertEquals(0, table.getNumRows());
+		it.close();
+	}
+
+	@Test
+	public void testShorterThanRowCount() throws Exception {
+		// stops at the first empty page
+		PageResultsClient client = new PageResultsClient(25, 15);
+		TableResultsIterator it = client.openTableResults("job1", 10, null);
+		assertEquals(15, readAll(it));
+		it.close();
+	}
+
+	@Test
+	public void testPageFailure() throws Exception {
+		PageResultsClient client = new PageResultsClient(25, 25);
+		client.failStartRow = 10;
+		TableResultsIterator it = client.openTableResults("job1", 10, null);
+		try {
+			readAll(it);
+			fail("read past a failed page");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("page failed at 10"));
+		}
+		it.close();
+	}
+
+	@Test
+	public void testWriteTableResultSetJson() throws Exception {
+		PageResultsClient client = new PageResultsClient(25, 25);
+		TableResultsIterator it = client.openTableResults("job1", 10, null);
+		assertEquals("0", it.next().get(0));	// one row already read: the rest is written
+
+		StringWriter out = new StringWriter();
+		assertEquals(24, it.writeTableResultSetJson(out));
+		it.close();
+
+		// same as a TableResultSet built in memory
+		JSONObject json = (JSONObject) new JSONParser().parse(out.toString());
+		TableResultSet res = new TableResultSet(json);
+		res.throwExceptionIfUnsuccessful();
+		assertEquals(new TableResultSet(true).toJson().get("message"), json.get("message"));
+		Table table = res.getTable();
+		assertArrayEquals(COLS, table.getColumnNames());
+		assertArrayEquals(TYPES, table.getColumnTypes());
+		assertEquals(24, table.getNumRows());
+		assertEquals("1", table.getCell(0, 0));
+		assertEquals("name 24", table.getCell(23, 1));
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.edc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.ge.research.semtk.edc.TableResultsColumnarReader;
+import com.ge.research.semtk.edc.TableResultsColumnarWriter;
+import com.ge.research.semtk.edc.TableResultsStorage;
+import com.ge.research.semtk.resultSet.Table;
+
+public class TableResultsColumnarTest {
+
+	private static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+	private static final String[] COLS = { "item", "count", "weight", "ok", "day", "when", "name" };
+	private static final String[] TYPES = { "uri", XSD + "integer", XSD + "double", XSD + "boolean", XSD + "date", XSD + "dateTime", XSD + "string" };
+
+	private static ArrayList<String> row(String... vals) {
+		return new ArrayList<String>(Arrays.asList(vals));
+	}
+
+	private static Table write(ArrayList<ArrayList<String>> rows) throws Exception {
+		return write(rows, COLS, TYPES);
+	}
+
+	private static Table write(ArrayList<ArrayList<String>> rows, String[] cols, String[] types) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		TableResultsColumnarWriter writer = new TableResultsColumnarWriter(baos, cols, types);
+		for (ArrayList<String> r : rows) {
+			writer.addRow(r);
+		}
+		assertEquals(rows.size(), writer.finish());
+		return new TableResultsColumnarReader(new ByteArrayInputStream(baos.toByteArray())).readTable();
+	}
+
+	@Test
+	public void testTypedRoundTrip() throws Exception {
+		ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+		rows.add(row("http://research.ge.com/test#a", "-42", "1.5", "true", "2017-03-01", "2017-03-01T10:15:30Z", "hello, \"world\""));
+		rows.add(row("http://research.ge.com/test#b", "9000000000", "-0.25", "false", "1969-12-31", "2017-03-01T10:15:30.250-05:00", ""));
+		rows.add(row("http://research.ge.com/test#a", "", "", "", "", "", "caf\u00e9"));
+
+		Table table = write(rows);
+		assertEquals(3, table.getNumRows());
+		assertEquals(Arrays.asList(COLS), Arrays.asList(table.getColumnNames()));
+		assertEquals(Arrays.asList(TYPES), Arrays.asList(table.getColumnTypes()));
+
+		assertEquals(rows, table.getRows());
+	}
+
+	@Test
+	public void testCanonicalForms() throws Exception {
+		ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+		rows.add(row("http://research.ge.com/test#a", "+7", "1", "1", "2017-03-01", "2017-03-01T10:15:30Z", "x"));
+
+		Table table = write(rows);
+		assertEquals("7", table.getCell(0, 1));
+		assertEquals("1.0", table.getCell(0, 2));
+		assertEquals("true", table.getCell(0, 3));
+	}
+
+	@Test
+	public void testDecimalsAndDateTimesExact() throws Exception {
+		String[] cols = { "amount", "when" };
+		String[] types = { XSD + "decimal", XSD + "dateTime" };
+		ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+		rows.add(row("12345678901234567890.123456789", "2017-03-01T10:15:30.250-05:00"));
+		rows.add(row("0.10", "2017-03-01T10:15:30.123456789+05:30"));
+		rows.add(row("-3", "2017-03-01T10:15:30"));
+		rows.add(row("0.000000000000000000001", "1969-12-31T23:59:59.5Z"));
+		assertEquals(rows, write(rows, cols, types).getRows());
+
+		// forms that would not read back the same are kept as strings
+		rows.add(row("1E+3", "2017-03-01T10:15:30+00:00"));
+		rows.add(row("+2.5", "2017-03-01T10:15Z"));
+		assertEquals(rows, write(rows, cols, types).getRows());
+	}
+
+	@Test
+	public void testUnparseableValuesKeptAsStrings() throws Exception {
+		ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+		rows.add(row("http://research.ge.com/test#a", "123456789012345678901234567890", "1.0", "yes", "2017-03-01Z", "not a date", "x"));
+		rows.add(row("http://research.ge.com/test#b", "7", "2.0", "true", "2017-03-02", "2017-03-01T10:15:30Z", "y"));
+
+		Table table = write(rows);
+		assertEquals(rows.get(0), table.getRows().get(0));
+		assertEquals("7", table.getCell(1, 1));
+		assertEquals("2017-03-02", table.getCell(1, 4));
+	}
+
+	@Test
+	public void testStoredResults() throws Exception {
+		String fileLoc = new File(".").getCanonicalPath();
+		TableResultsStorage rs = new TableResultsStorage(fileLoc);
+		String jobId = "columnar_test";
+		URL url = null;
+		try {
+			int count = TableResultsColumnarWriter.ROW_GROUP_SIZE + 1000;
+			rs.storeTableResultsJsonInitialize(jobId, new Table(new String[] {"item", "count"}, new String[] {"uri", XSD + "int"}, null).getHeaderJson());
+			StringBuilder batch = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+				ArrayList<String> r = row("http://research.ge.com/test#item" + (i % 10), String.valueOf(i));
+				batch.append(TableResultsStorage.formatDataRow(r)).append("\n");
+			}
+			rs.storeTableResultsJsonAddIncremental(jobId, batch.toString());
+			url = rs.storeTableResultsJsonFinalize(jobId, count);
+
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			assertEquals(count, rs.writeColumnarTable(url, null, 0, baos));
+			assertTrue(baos.size() * 5 < batch.length());
+
+			Table table = new TableResultsColumnarReader(new ByteArrayInputStream(baos.toByteArray())).readTable();
+			assertEquals(count, table.getNumRows());
+			assertEquals("http://research.ge.com/test#item" + ((count - 7) % 10), table.getCell(count - 7, 0));
+			assertEquals(String.valueOf(count - 7), table.getCell(count - 7, 1));
+
+			// a page
+			baos = new ByteArrayOutputStream();
+			assertEquals(5, rs.writeColumnarTable(url, 5, 100, baos));
+			table = new TableResultsColumnarReader(new ByteArrayInputStream(baos.toByteArray())).readTable();
+			assertEquals(5, table.getNumRows());
+			assertEquals("100", table.getCell(0, 1));
+		} finally {
+			if (url != null) {
+				rs.deleteStoredFile(url);
+			}
+			new File(fileLoc, "results_" + jobId + "_data.dat").delete();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.edc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ge.research.semtk.edc.TableResultsDataReader;
+import com.ge.research.semtk.edc.TableResultsDataWriter;
+
+public class TableResultsDataReaderTest {
+
+	private File dataFile;
+
+	@Before
+	public void setup() throws Exception {
+		this.dataFile = File.createTempFile("results_test_", "_data.dat");
+	}
+
+	@After
+	public void cleanup() {
+		this.dataFile.delete();
+	}
+
+	private static String row(int i) {
+		return "[\"http://research.ge.com/test#item" + i + "\",\"" + i + "\"]";
+	}
+
+	/**
+	 * Write rows in batches that don't line up with the blocks
+	 */
+	private void writeRows(int count, int batchSize) throws Exception {
+		TableResultsDataWriter.create(this.dataFile.toPath());
+		TableResultsDataWriter writer = new TableResultsDataWriter(this.dataFile.toPath());
+		StringBuilder batch = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			batch.append(row(i)).append("\n");
+			if ((i + 1) % batchSize == 0) {
+				writer.addRows(batch.toString());
+				batch.setLength(0);
+			}
+		}
+		writer.addRows(batch.toString());
+		writer.close();
+	}
+
+	@Test
+	public void testReadAll() throws Exception {
+		int count = TableResultsDataWriter.BLOCK_MAX_ROWS * 3 + 17;
+		this.writeRows(count, 5000);
+
+		assertTrue(TableResultsDataReader.isBlockFile(this.dataFile));
+		assertEquals(count, TableResultsDataReader.countRows(this.dataFile));
+
+		TableResultsDataReader reader = new TableResultsDataReader(this.dataFile);
+		for (int i = 0; i < count; i++) {
+			assertEquals(row(i), reader.readLine());
+		}
+		assertNull(reader.readLine());
+		reader.close();
+
+		// repeated URIs compress well
+		assertTrue(this.dataFile.length() * 4 < count * row(count).length());
+	}
+
+	@Test
+	public void testSkipRows() throws Exception {
+		int count = TableResultsDataWriter.BLOCK_MAX_ROWS * 4;
+		this.writeRows(count, 1000);
+
+		int [] starts = { 0, 1, TableResultsDataWriter.BLOCK_MAX_ROWS - 1, TableResultsDataWriter.BLOCK_MAX_ROWS, TableResultsDataWriter.BLOCK_MAX_ROWS * 2 + 5, count - 1 };
+		for (int start : starts) {
+			TableResultsDataReader reader = new TableResultsDataReader(this.dataFile);
+			assertEquals(start, reader.skipRows(start));
+			assertEquals(row(start), reader.readLine());
+
+			// skip again from the middle of a block
+			long skipped = reader.skipRows(TableResultsDataWriter.BLOCK_MAX_ROWS);
+			if (start + 1 + TableResultsDataWriter.BLOCK_MAX_ROWS < count) {
+				assertEquals(TableResultsDataWriter.BLOCK_MAX_ROWS, skipped);
+				assertEquals(row(start + 1 + TableResultsDataWriter.BLOCK_MAX_ROWS), reader.readLine());
+			} else {
+				assertEquals(count - start - 1, skipped);
+				assertNull(reader.readLine());
+			}
+			reader.close();
+		}
+
+		TableResultsDataReader reader = new TableResultsDataReader(this.dataFile);
+		assertEquals(count, reader.skipRows(count + 100));
+		assertNull(reader.readLine());
+		reader.close();
+	}
+
+	@Test
+	public void testPartialBlockIgnored() throws Exception {
+		int count = TableResultsDataWriter.BLOCK_MAX_ROWS + 10;
+		this.writeRows(count, count);
+
+		// chop the last block, as if it were still being written
+		RandomAccessFile raf = new RandomAccessFile(this.dataFile, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+
+		assertEquals(TableResultsDataWriter.BLOCK_MAX_ROWS, TableResultsDataReader.countRows(this.dataFile));
+		TableResultsDataReader reader = new TableResultsDataReader(this.dataFile);
+		assertEquals(TableResultsDataWriter.BLOCK_MAX_ROWS - 1, reader.skipRows(TableResultsDataWriter.BLOCK_MAX_ROWS - 1));
+		assertEquals(row(TableResultsDataWriter.BLOCK_MAX_ROWS - 1), reader.readLine());
+		assertNull(reader.readLine());
+		reader.close();
+	}
+
+	@Test
+	public void testEmptyAndPlainFiles() throws Exception {
+		// empty block file
+		TableResultsDataWriter.create(this.dataFile.toPath());
+		assertEquals(0, TableResultsDataReader.countRows(this.dataFile));
+
+		// data file from before block compression
+		Files.write(this.dataFile.toPath(), (row(0) + "\n" + row(1) + "\n" + row(2) + "\n").getBytes());
+		assertFalse(TableResultsDataReader.isBlockFile(this.dataFile));
+		TableResultsDataReader reader = new TableResultsDataReader(this.dataFile);
+		assertEquals(2, reader.skipRows(2));
+		assertEquals(row(2), reader.readLine());
+		assertNull(reader.readLine());
+		reader.close();
+	}
+}
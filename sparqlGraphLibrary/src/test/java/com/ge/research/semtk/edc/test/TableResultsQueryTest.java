@@ -0,0 +1,160 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.edc.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ge.research.semtk.edc.TableResultsQuery;
+import com.ge.research.semtk.edc.TableResultsStorage;
+import com.ge.research.semtk.resultSet.Table;
+
+public class TableResultsQueryTest {
+
+	private static final String JOB_ID = "tableResultsQueryTest";
+	private static final String NEW_JOB_ID = "tableResultsQueryTestOut";
+
+	private static String FILE_LOC;
+	private static TableResultsStorage rs;
+	private static URL url;
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		FILE_LOC = (new File( "." ).getCanonicalPath());  // write test files to current directory (they will be deleted)
+		rs = new TableResultsStorage(FILE_LOC);
+
+		String[] colNames = {"fruit","color","weight"};
+		String[] colTypes = {"String","String","http://www.w3.org/2001/XMLSchema#integer"};
+		rs.storeTableResultsJsonInitialize(JOB_ID, new Table(colNames, colTypes, new ArrayList<ArrayList<String>>()).getHeaderJson());
+		rs.storeTableResultsJsonAddIncremental(JOB_ID,
+				"[\"apple\",\"red\",\"150\"]\n" +
+				"[\"banana\",\"yellow\",\"120\"]\n" +
+				"[\"cherry\",\"red\",\"8\"]\n" +
+				"[\"apple\",\"green\",\"140\"]");
+		rs.storeTableResultsJsonAddIncremental(JOB_ID,
+				"[\"grape\",\"green\",\"5\"]\n" +
+				"[\"lemon \\\"meyer\\\"\",\"yellow\",\"90\"]\n" +
+				"[\"apple\",\"red\",\"150\"]");
+		url = rs.storeTableResultsJsonFinalize(JOB_ID, 7);
+	}
+
+	@AfterClass
+	public static void cleanup() throws IOException {
+		for (String job : new String[] {JOB_ID, NEW_JOB_ID}) {
+			new File(FILE_LOC, "results_" + job + "_metadata.json").delete();
+			new File(FILE_LOC, "results_" + job + "_data.dat").delete();
+		}
+	}
+
+	@Test
+	public void testFilterAndSelect() throws Exception {
+		TableResultsQuery query = new TableResultsQuery();
+		query.addEqualsFilter("color", "red");
+		query.addRangeFilter("weight", "10", null);    // numeric, not string, comparison
+		query.setSelect(new String[] {"weight", "fruit"});
+
+		Table table = rs.getQueryResultsTable(url, query, 0, null);
+		assertEquals(2, table.getNumColumns());
+		assertEquals("weight", table.getColumnNames()[0]);
+		assertEquals("http://www.w3.org/2001/XMLSchema#integer", table.getColumnTypes()[0]);
+		assertEquals(2, table.getNumRows());
+		assertEquals("apple", table.getCell(0, 1));
+		assertEquals("150", table.getCell(1, 0));
+	}
+
+	@Test
+	public void testContainsAndPage() throws Exception {
+		TableResultsQuery query = new TableResultsQuery();
+		query.addContainsFilter("color", "E");   // case-insensitive
+
+		Table table = rs.getQueryResultsTable(url, query, 2, 3);
+		assertEquals(3, table.getNumRows());
+		assertEquals("cherry", table.getCell(0, 0));
+		assertEquals("grape", table.getCell(2, 0));
+
+		query = new TableResultsQuery();
+		query.addContainsFilter("color", "low");
+		table = rs.getQueryResultsTable(url, query, 1, 3);
+		assertEquals(1, table.getNumRows());
+		assertEquals("lemon \"meyer\"", table.getCell(0, 0));
+	}
+
+	@Test
+	public void testSortSpillsToDisk() throws Exception {
+		TableResultsQuery query = new TableResultsQuery();
+		query.setSortBy("weight", true);
+		query.setSortRunRows(2);
+
+		Table table = rs.getQueryResultsTable(url, query, 0, null);
+		assertEquals(7, table.getNumRows());
+		String[] expected = {"150", "150", "140", "120", "90", "8", "5"};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], table.getCell(i, 2));
+		}
+	}
+
+	@Test
+	public void testDistinct() throws Exception {
+		TableResultsQuery query = new TableResultsQuery();
+		query.setSelect(new String[] {"fruit"});
+		query.setDistinct(true);
+		query.setSortRunRows(3);
+
+		Table table = rs.getQueryResultsTable(url, query, 0, null);
+		assertEquals(5, table.getNumRows());
+		assertEquals("apple", table.getCell(0, 0));
+		assertEquals("banana", table.getCell(1, 0));
+	}
+
+	@Test
+	public void testGroupByStoredAsNewJob() throws Exception {
+		JSONObject queryJson = (JSONObject) (new JSONParser()).parse(
+				"{\"groupBy\":[\"color\"],\"sortBy\":\"count\",\"descending\":true}");
+		TableResultsQuery query = TableResultsQuery.fromJson(queryJson);
+		assertEquals(queryJson, query.toJson());
+
+		URL newUrl = rs.storeQueryResults(url, query, NEW_JOB_ID);
+		assertEquals(3, rs.getResultsRowCount(newUrl));
+
+		// output is stored in the usual format, so it can itself be queried
+		Table table = rs.getQueryResultsTable(newUrl, new TableResultsQuery(), 0, null);
+		assertEquals("count", table.getColumnNames()[1]);
+		assertEquals("red", table.getCell(0, 0));
+		assertEquals("3", table.getCell(0, 1));
+		assertEquals("yellow", table.getCell(1, 0));    // ties keep the order groups were first seen
+		assertEquals("green", table.getCell(2, 0));
+		assertEquals("2", table.getCell(2, 1));
+	}
+
+	@Test(expected=Exception.class)
+	public void testMissingColumn() throws Exception {
+		TableResultsQuery query = new TableResultsQuery();
+		query.addEqualsFilter("nonexistent", "x");
+		rs.getQueryResultsTable(url, query, 0, null);
+	}
+}
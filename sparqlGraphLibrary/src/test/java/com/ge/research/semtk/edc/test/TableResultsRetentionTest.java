@@ -0,0 +1,180 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.edc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ge.research.semtk.edc.TableResultsQuery;
+import com.ge.research.semtk.edc.TableResultsRetention;
+import com.ge.research.semtk.edc.TableResultsStorage;
+import com.ge.research.semtk.resultSet.Table;
+
+public class TableResultsRetentionTest {
+
+	private File dir;
+	private TableResultsStorage rs;
+	
+	@Before
+	public void setup() throws Exception {
+		dir = Files.createTempDirectory("retention").toFile();
+		rs = new TableResultsStorage(dir.getPath());
+	}
+	
+	@After
+	public void cleanup() {
+		for (File sub : new File[] {new File(dir, TableResultsRetention.ARCHIVE_DIR_NAME), dir}) {
+			File[] files = sub.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					f.delete();
+				}
+			}
+			sub.delete();
+		}
+	}
+	
+	@Test
+	public void testArchiveAndRestore() throws Exception {
+		TableResultsRetention retention = new TableResultsRetention(dir.getPath(), 0, 0, 1);
+		URL url = store(retention, "job1", 1000);
+		long plainBytes = retention.getTotalBytes();
+		
+		Thread.sleep(5);
+		retention.sweep();
+		assertTrue(retention.isArchived("job1"));
+		assertFalse(new File(dir, "results_job1_data.dat").exists());
+		assertTrue(retention.getTotalBytes() < plainBytes);		// repeated rows compress well
+		
+		retention.use(url);
+		assertFalse(retention.isArchived("job1"));
+		assertEquals(plainBytes, retention.getTotalBytes());
+		assertEquals(1000, rs.getQueryResultsTable(url, new TableResultsQuery(), 0, null).getNumRows());
+	}
+	
+	@Test
+	public void testConcurrentRestore() throws Exception {
+		final TableResultsRetention retention = new TableResultsRetention(dir.getPath(), 0, 0, 1);
+		final URL url = store(retention, "job1", 1000);
+		Thread.sleep(5);
+		retention.sweep();
+		assertTrue(retention.isArchived("job1"));
+		
+		// one thread decompresses; the others wait for it
+		final AtomicInteger failures = new AtomicInteger(0);
+		Thread [] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				try {
+					retention.use(url);
+					if (rs.getQueryResultsTable(url, new TableResultsQuery(), 0, null).getNumRows() != 1000) {
+						failures.incrementAndGet();
+					}
+				} catch (Exception e) {
+					failures.incrementAndGet();
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(0, failures.get());
+		assertFalse(retention.isArchived("job1"));
+		assertFalse(new File(new File(dir, TableResultsRetention.ARCHIVE_DIR_NAME), "results_job1_data.dat.gz").exists());
+	}
+	
+	@Test
+	public void testQuotaEvictsLeastRecentlyUsed() throws Exception {
+		TableResultsRetention retention = new TableResultsRetention(dir.getPath(), 0, 0, 0);
+		URL url1 = store(retention, "job1", 100);
+		store(retention, "job2", 100);
+		store(retention, "job3", 100);
+		retention.use(url1);		// job2 is now the least recently used
+		long oneJob = retention.getTotalBytes() / 3;
+		
+		retention = new TableResultsRetention(dir.getPath(), oneJob * 2 + 1, 0, 0);
+		retention.use(url1);
+		retention.sweep();
+		assertEquals(2, retention.size());
+		assertFalse(new File(dir, "results_job2_metadata.json").exists());
+		assertFalse(new File(dir, "results_job2_data.dat").exists());
+		assertTrue(new File(dir, "results_job1_metadata.json").exists());
+		assertTrue(new File(dir, "results_job3_metadata.json").exists());
+	}
+	
+	@Test
+	public void testAgeLimitAndIndex() throws Exception {
+		TableResultsRetention retention = new TableResultsRetention(dir.getPath(), 0, 60 * 1000, 0);
+		URL url1 = store(retention, "job1", 10);
+		store(retention, "job2", 10);
+		retention.sweep();
+		assertEquals(2, retention.size());
+		assertTrue(new File(dir, TableResultsRetention.INDEX_FILE_NAME).exists());
+		
+		// a new instance picks up the saved index
+		retention = new TableResultsRetention(dir.getPath(), 0, 60 * 1000, 0);
+		assertEquals(2, retention.size());
+		
+		retention.remove(url1);
+		assertEquals(1, retention.size());
+		assertFalse(new File(dir, "results_job1_data.dat").exists());
+		
+		Thread.sleep(5);
+		retention = new TableResultsRetention(dir.getPath(), 0, 1, 0);
+		ArrayList<String> deletedJobIds = new ArrayList<String>();
+		retention.sweep(deletedJobIds);
+		assertEquals(0, retention.size());
+		assertEquals(1, deletedJobIds.size());
+		assertEquals("job2", deletedJobIds.get(0));
+		assertFalse(new File(dir, "results_job2_metadata.json").exists());
+	}
+	
+	/**
+	 * Store a table of identical rows, as the results service does
+	 */
+	private URL store(TableResultsRetention retention, String jobId, int numRows) throws Exception {
+		String[] colNames = {"uri","label"};
+		String[] colTypes = {"uri","String"};
+		rs.storeTableResultsJsonInitialize(jobId, new Table(colNames, colTypes, new ArrayList<ArrayList<String>>()).getHeaderJson());
+		retention.use(jobId);
+		
+		StringBuilder rows = new StringBuilder();
+		for (int i = 0; i < numRows; i++) {
+			if (i > 0) {
+				rows.append("\n");
+			}
+			rows.append("[\"http://research.ge.com/semtk/test#item\",\"an item\"]");
+		}
+		rs.storeTableResultsJsonAddIncremental(jobId, rows.toString());
+		URL url = rs.storeTableResultsJsonFinalize(jobId, numRows);
+		retention.use(jobId);
+		return url;
+	}
+}
@@ -19,6 +19,9 @@
 package com.ge.research.semtk.edc.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
@@ -197,6 +200,229 @@ public class TableResultsStorageTest {
 		}
 	}
 	
+	@Test
+	public void testRowCountAtFinalize() throws Exception {
+		// rows stored a page at a time, before the row count is known
+		TableResultsStorage rs = new TableResultsStorage(FILE_LOC);
+		URL fullJsonUrl = null;
+		try {
+			String jobId = "12451346";
+			String[] colNames = {"colA","colB"};
+			String[] colTypes = {"String","String"};
+			Table tblForHeader = new Table(colNames, colTypes, new ArrayList<ArrayList<String>>());
+			
+			rs.storeTableResultsJsonInitialize(jobId, tblForHeader.getHeaderJson());
+			rs.storeTableResultsJsonAddIncremental(jobId, "[\"apple\",\"banana\"]");
+			rs.storeTableResultsJsonAddIncremental(jobId, "[\"avocado\",\"bread\"]");
+			fullJsonUrl = rs.storeTableResultsJsonFinalize(jobId, 2);
+			
+			assertEquals(2, rs.getResultsRowCount(fullJsonUrl));
+			
+			TableResultsSerializer tss = rs.getJsonTable(fullJsonUrl);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			PrintWriter pw = new PrintWriter(baos);
+			tss.writeToStream(pw);
+			Table table = Table.fromJson((JSONObject) (new JSONParser().parse(baos.toString())));
+			assertEquals(2, table.getNumRows());
+			assertEquals("bread", table.getCell(1, 1));
+		} finally {
+			cleanup(rs, fullJsonUrl);
+		}
+	}
+	
+	@Test
+	public void testMetadataCache() throws Exception {
+		TableResultsStorage rs = new TableResultsStorage(FILE_LOC, 1);
+		URL url1 = null;
+		URL url2 = null;
+		try {
+			Table tblForHeader = new Table(new String[] {"colA"}, new String[] {"String"}, new ArrayList<ArrayList<String>>());
+			
+			rs.storeTableResultsJsonInitialize("12451347", tblForHeader.getHeaderJson());
+			rs.storeTableResultsJsonAddIncremental("12451347", "[\"apple\"]");
+			url1 = rs.storeTableResultsJsonFinalize("12451347", 1);
+			assertEquals(1, rs.getResultsRowCount(url1));
+			assertEquals(1, rs.getResultsRowCount(url1));
+			assertEquals(1, rs.getMetadataCacheSize());
+			
+			// re-finalizing replaces the cached row count
+			rs.storeTableResultsJsonAddIncremental("12451347", "[\"avocado\"]");
+			rs.storeTableResultsJsonFinalize("12451347", 2);
+			assertEquals(2, rs.getResultsRowCount(url1));
+			
+			// size bound
+			rs.storeTableResultsJsonInitialize("12451348", tblForHeader.getHeaderJson());
+			url2 = rs.storeTableResultsJsonFinalize("12451348", 0);
+			assertEquals(0, rs.getResultsRowCount(url2));
+			assertEquals(2, rs.getResultsRowCount(url1));
+			assertEquals(1, rs.getMetadataCacheSize());
+			
+			// deleted results are not served from the cache
+			rs.deleteStoredFile(url1);
+			try {
+				rs.getResultsRowCount(url1);
+				fail("Row count of deleted results");
+			} catch (Exception e) {
+			}
+		} finally {
+			cleanup(rs, url1);
+			cleanup(rs, url2);
+			new java.io.File(FILE_LOC, "results_12451347_data.dat").delete();
+			new java.io.File(FILE_LOC, "results_12451348_data.dat").delete();
+		}
+	}
+	
+	@Test
+	public void testReadWhileInProgress() throws Exception {
+		final TableResultsStorage rs = new TableResultsStorage(FILE_LOC);
+		final String jobId = "12451349";
+		URL url = null;
+		try {
+			Table tblForHeader = new Table(new String[] {"colA"}, new String[] {"String"}, new ArrayList<ArrayList<String>>());
+			rs.storeTableResultsJsonInitialize(jobId, tblForHeader.getHeaderJson());
+			rs.storeTableResultsJsonAddIncremental(jobId, "[\"apple\"]\n[\"avocado\"]\n[\"apricot\"]");
+			
+			url = rs.getInProgressURL(jobId);
+			assertTrue(rs.isInProgress(url));
+			assertEquals(3, rs.getCommittedRowCount(url));
+			
+			// a page of the committed rows, truncated
+			TableResultsSerializer tss = rs.getJsonTable(url, 10, 1);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			PrintWriter pw = new PrintWriter(baos);
+			tss.writeToStream(pw);
+			Table table = Table.fromJson((JSONObject) (new JSONParser().parse(baos.toString())));
+			assertEquals(2, table.getNumRows());
+			assertEquals("apricot", table.getCell(1, 0));
+			
+			// rows not yet written
+			assertEquals(3, rs.waitForCommittedRows(url, 5, 50));
+			Thread writer = new Thread() {
+				public void run() {
+					try {
+						Thread.sleep(100);
+						rs.storeTableResultsJsonAddIncremental(jobId, "[\"asparagus\"]\n[\"arugula\"]");
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			writer.start();
+			assertEquals(5, rs.waitForCommittedRows(url, 5, 10000));
+			writer.join();
+			
+			URL finalUrl = rs.storeTableResultsJsonFinalize(jobId, 5);
+			assertEquals(url, finalUrl);
+			assertFalse(rs.isInProgress(url));
+			assertNull(rs.getInProgressURL(jobId));
+			assertEquals(5, rs.getResultsRowCount(url));
+		} finally {
+			cleanup(rs, url);
+			new java.io.File(FILE_LOC, "results_" + jobId + "_data.dat").delete();
+		}
+	}
+	
+	@Test
+	public void testLinkTableResults() throws Exception {
+		TableResultsStorage rs = new TableResultsStorage(FILE_LOC);
+		String jobId = "12451350";
+		String linkedJobId = "12451351";
+		URL url = null;
+		URL linkedUrl = null;
+		try {
+			Table tblForHeader = new Table(new String[] {"colA"}, new String[] {"String"}, new ArrayList<ArrayList<String>>());
+			rs.storeTableResultsJsonInitialize(jobId, tblForHeader.getHeaderJson());
+			rs.storeTableResultsJsonAddIncremental(jobId, "[\"apple\"]\n[\"avocado\"]");
+			
+			// results still being stored can't be linked
+			try {
+				rs.linkTableResults(rs.getInProgressURL(jobId), linkedJobId);
+				fail("Linking in-progress results did not throw");
+			} catch (Exception e) {
+			}
+			
+			url = rs.storeTableResultsJsonFinalize(jobId, 2);
+			linkedUrl = rs.linkTableResults(url, linkedJobId);
+			assertFalse(url.equals(linkedUrl));
+			
+			// deleting the source job's files, as the retention sweep does, leaves the linked job's results
+			rs.deleteStoredFile(url);
+			new java.io.File(FILE_LOC, "results_" + jobId + "_data.dat").delete();
+			assertEquals(2, rs.getResultsRowCount(linkedUrl));
+			TableResultsSerializer tss = rs.getJsonTable(linkedUrl);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			PrintWriter pw = new PrintWriter(baos);
+			tss.writeToStream(pw);
+			Table table = Table.fromJson((JSONObject) (new JSONParser().parse(baos.toString())));
+			assertEquals(2, table.getNumRows());
+			assertEquals("avocado", table.getCell(1, 0));
+		} finally {
+			cleanup(rs, url);
+			cleanup(rs, linkedUrl);
+			new java.io.File(FILE_LOC, "results_" + jobId + "_data.dat").delete();
+			new java.io.File(FILE_LOC, "results_" + linkedJobId + "_data.dat").delete();
+		}
+	}
+	
+	@Test
+	public void testCloseIdleDataWriters() throws Exception {
+		TableResultsStorage rs = new TableResultsStorage(FILE_LOC);
+		String jobId = "12451352";
+		URL url = null;
+		try {
+			TableResultsStorage.closeIdleDataWriters(0);
+			Table tblForHeader = new Table(new String[] {"colA"}, new String[] {"String"}, new ArrayList<ArrayList<String>>());
+			rs.storeTableResultsJsonInitialize(jobId, tblForHeader.getHeaderJson());
+			rs.storeTableResultsJsonAddIncremental(jobId, "[\"apple\"]");
+			
+			// closed writers are forgotten, not closed again on every sweep
+			assertEquals(1, TableResultsStorage.closeIdleDataWriters(0));
+			assertEquals(0, TableResultsStorage.closeIdleDataWriters(0));
+			
+			// a later incremental call opens a new writer on the same file
+			rs.storeTableResultsJsonAddIncremental(jobId, "[\"avocado\"]");
+			url = rs.storeTableResultsJsonFinalize(jobId, 2);
+			assertEquals(2, rs.getResultsRowCount(url));
+			assertEquals(0, TableResultsStorage.closeIdleDataWriters(0));
+		} finally {
+			cleanup(rs, url);
+			new java.io.File(FILE_LOC, "results_" + jobId + "_data.dat").delete();
+		}
+	}
+	
+	@Test
+	public void testCloseIdleWhileAdding() throws Exception {
+		final TableResultsStorage rs = new TableResultsStorage(FILE_LOC);
+		final String jobId = "12451353";
+		URL url = null;
+		try {
+			Table tblForHeader = new Table(new String[] {"colA"}, new String[] {"String"}, new ArrayList<ArrayList<String>>());
+			rs.storeTableResultsJsonInitialize(jobId, tblForHeader.getHeaderJson());
+			
+			// rows added while every writer is closed as idle all land in the file
+			final int adds = 500;
+			Thread adder = new Thread(() -> {
+				try {
+					for (int i = 0; i < adds; i++) {
+						rs.storeTableResultsJsonAddIncremental(jobId, "[\"row" + i + "\"]");
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			});
+			adder.start();
+			while (adder.isAlive()) {
+				TableResultsStorage.closeIdleDataWriters(0);
+			}
+			adder.join();
+			
+			url = rs.storeTableResultsJsonFinalize(jobId, adds);
+			assertEquals(adds, rs.getResultsRowCount(url));
+		} finally {
+			cleanup(rs, url);
+			new java.io.File(FILE_LOC, "results_" + jobId + "_data.dat").delete();
+		}
+	}
 	
 	private void cleanup(TableResultsStorage rs, URL url) {
 		try {
@@ -0,0 +1,125 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.load.dataset.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ge.research.semtk.load.dataset.ODBCDataset;
+import com.ge.research.semtk.query.rdb.ConnectionPool;
+import com.ge.research.semtk.query.rdb.test.FakeJdbcDriver;
+
+
+public class ODBCDatasetTest {
+
+	private static final String QUERY = "select id, name, val from t";
+	
+	@Before
+	public void setUp() {
+		ConnectionPool.closeAll();
+		FakeJdbcDriver.reset();
+	}
+	
+	@After
+	public void tearDown() {
+		ConnectionPool.closeAll();
+	}
+	
+	private ODBCDataset open(boolean prefetch) throws Exception {
+		return new ODBCDataset(FakeJdbcDriver.class.getName(), FakeJdbcDriver.URL, "user", "pw", QUERY, 4, prefetch);
+	}
+	
+	@Test
+	public void testRead() throws Exception {
+		ODBCDataset ds = open(false);
+		assertEquals(Arrays.asList("id", "name", "val"), ds.getColumnNamesinOrder());
+		
+		ArrayList<ArrayList<String>> recs = ds.getNextRecords(6);
+		assertEquals(6, recs.size());
+		assertEquals(Arrays.asList("1", "name1"), recs.get(0).subList(0, 2));
+		
+		// doubles as the shortest string that reads back as the same double
+		assertEquals("1.0E-7", recs.get(0).get(2));
+		assertEquals("3.0E-7", recs.get(2).get(2));
+		
+		assertEquals(4, ds.getNextRecords(6).size());
+		assertEquals(0, ds.getNextRecords(6).size());
+		
+		// streamed: forward only, with the fetch size
+		assertEquals(Arrays.asList(ResultSet.TYPE_FORWARD_ONLY), FakeJdbcDriver.resultSetTypes);
+		assertEquals(Arrays.asList(4), FakeJdbcDriver.fetchSizes);
+		
+		ds.close();
+		assertNull(ds.getNextRecords(6));
+		assertEquals(1, ConnectionPool.getPool(FakeJdbcDriver.class.getName(), FakeJdbcDriver.URL, "user", "pw", null).getIdleCount());
+	}
+	
+	@Test
+	public void testReset() throws Exception {
+		for (boolean prefetch : new boolean[]{false, true}) {
+			ConnectionPool.closeAll();
+			FakeJdbcDriver.reset();
+			ODBCDataset ds = open(prefetch);
+			assertEquals(6, ds.getNextRecords(6).size());
+			
+			// re-runs the query on the same connection
+			ds.reset();
+			assertEquals(2, FakeJdbcDriver.countExecuted(QUERY));
+			ArrayList<ArrayList<String>> recs = ds.getNextRecords(20);
+			assertEquals(10, recs.size());
+			assertEquals("1", recs.get(0).get(0));
+			
+			ds.reset();
+			assertEquals(10, ds.getNextRecords(20).size());
+			ds.close();
+			assertEquals(1, FakeJdbcDriver.connectionsOpened.get());
+		}
+	}
+	
+	@Test
+	public void testResetFailure() throws Exception {
+		ODBCDataset ds = open(false);
+		FakeJdbcDriver.setFailOn(QUERY);
+		try {
+			ds.reset();
+			fail("reset succeeded");
+		} catch (Exception e) {
+			assertTrue(e.getMessage().contains(QUERY));
+		}
+		
+		// closed, and the connection not returned to the pool
+		assertNull(ds.getNextRecords(6));
+		assertEquals(1, FakeJdbcDriver.connectionsClosed.get());
+	}
+	
+	@Test(expected=Exception.class)
+	public void testSelectStar() throws Exception {
+		new ODBCDataset(FakeJdbcDriver.class.getName(), FakeJdbcDriver.URL, "user", "pw", "select * from t");
+	}
+}
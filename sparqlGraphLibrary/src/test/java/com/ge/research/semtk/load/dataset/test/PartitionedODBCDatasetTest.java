@@ -0,0 +1,196 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.load.dataset.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ge.research.semtk.load.dataset.PartitionedODBCDataset;
+import com.ge.research.semtk.query.rdb.ConnectionPool;
+import com.ge.research.semtk.query.rdb.test.FakeJdbcDriver;
+
+
+public class PartitionedODBCDatasetTest {
+
+	private static final String QUERY = "select id, name, val from t";
+	
+	@Before
+	public void setUp() {
+		ConnectionPool.closeAll();
+		FakeJdbcDriver.reset();
+		FakeJdbcDriver.setRowCount(100);
+	}
+	
+	@After
+	public void tearDown() {
+		ConnectionPool.closeAll();
+		ConnectionPool.setDefaults(8, 5 * 60 * 1000, 30 * 1000, 20);
+	}
+	
+	private PartitionedODBCDataset open(String partitionColumn, int numPartitions) throws Exception {
+		return new PartitionedODBCDataset(FakeJdbcDriver.class.getName(), FakeJdbcDriver.URL, "user", "pw", QUERY, partitionColumn, numPartitions, 10);
+	}
+	
+	/**
+	 * Read the rest of the dataset, returning the ids.  Fails on a duplicate.
+	 */
+	private TreeSet<Long> readIds(PartitionedODBCDataset ds) throws Exception {
+		TreeSet<Long> ids = new TreeSet<Long>();
+		while (true) {
+			ArrayList<ArrayList<String>> recs = ds.getNextRecords(7);
+			for (ArrayList<String> rec : recs) {
+				assertTrue(ids.add(Long.parseLong(rec.get(0))));
+			}
+			if (recs.size() < 7) {
+				return ids;
+			}
+		}
+	}
+	
+	@Test
+	public void testRead() throws Exception {
+		PartitionedODBCDataset ds = open("id", 4);
+		assertEquals(4, ds.getPartitionQueries().size());
+		assertEquals("[id, name, val]", ds.getColumnNamesinOrder().toString());
+		
+		TreeSet<Long> ids = readIds(ds);
+		assertEquals(100, ids.size());
+		assertEquals(1L, (long) ids.first());
+		assertEquals(100L, (long) ids.last());
+		
+		// each partition read once, streamed
+		for (String q : ds.getPartitionQueries()) {
+			assertEquals(1, FakeJdbcDriver.countExecuted(q));
+		}
+		assertFalse(FakeJdbcDriver.resultSetTypes.contains(ResultSet.TYPE_SCROLL_INSENSITIVE));
+		
+		// every connection back in the pool
+		ds.close();
+		assertNull(ds.getNextRecords(7));
+		assertEquals(FakeJdbcDriver.connectionsOpened.get(), ConnectionPool.getPool(FakeJdbcDriver.class.getName(), FakeJdbcDriver.URL, "user", "pw", null).getIdleCount());
+	}
+	
+	@Test
+	public void testReset() throws Exception {
+		PartitionedODBCDataset ds = open("id", 4);
+		assertEquals(7, ds.getNextRecords(7).size());
+		
+		// partitions re-run from the start
+		ds.reset();
+		assertEquals(100, readIds(ds).size());
+		for (String q : ds.getPartitionQueries()) {
+			assertEquals(2, FakeJdbcDriver.countExecuted(q));
+		}
+		
+		ds.reset();
+		assertEquals(100, readIds(ds).size());
+		ds.close();
+	}
+	
+	@Test
+	public void testReadersLeaveRoomInPool() throws Exception {
+		ConnectionPool.setDefaults(4, 60000, 60000, 20);
+		PartitionedODBCDataset ds = open("id", 8);
+		assertEquals(8, ds.getPartitionQueries().size());
+		assertEquals(100, readIds(ds).size());
+		ds.close();
+		
+		// two readers at once, half of the pool
+		assertTrue(FakeJdbcDriver.connectionsOpened.get() <= 2);
+	}
+	
+	@Test
+	public void testPartitionFailure() throws Exception {
+		PartitionedODBCDataset ds = open("id", 4);
+		FakeJdbcDriver.setFailOn("id >= 51");
+		ds.reset();
+		try {
+			readIds(ds);
+			fail("read a failed partition");
+		} catch (Exception e) {
+			assertTrue(e.getMessage().contains("Failed reading partition 3"));
+		}
+		ds.close();
+	}
+	
+	@Test
+	public void testInvalidPartitionColumn() throws Exception {
+		try {
+			open("id) FROM t; DROP TABLE t; --", 4);
+			fail("accepted an invalid partition column");
+		} catch (Exception e) {
+			assertTrue(e.getMessage().contains("Invalid identifier"));
+		}
+		assertEquals(0, FakeJdbcDriver.executed.size());
+	}
+
+	@Test
+	public void testNumericPredicates() throws Exception {
+		ArrayList<String> predicates = PartitionedODBCDataset.getNumericPredicates("id", new BigDecimal(1), new BigDecimal(100), 4);
+		assertEquals(4, predicates.size());
+		assertEquals("(id < 26 OR id IS NULL)", predicates.get(0));
+		assertEquals("id >= 26 AND id < 51", predicates.get(1));
+		assertEquals("id >= 51 AND id < 76", predicates.get(2));
+		assertEquals("id >= 76", predicates.get(3));
+	}
+	
+	@Test
+	public void testNumericPredicatesFractional() throws Exception {
+		ArrayList<String> predicates = PartitionedODBCDataset.getNumericPredicates("temp", new BigDecimal("0.5"), new BigDecimal("1.5"), 2);
+		assertEquals(2, predicates.size());
+		assertEquals("(temp < 1 OR temp IS NULL)", predicates.get(0));
+		assertEquals("temp >= 1", predicates.get(1));
+	}
+	
+	@Test
+	public void testNumericPredicatesNarrowRange() throws Exception {
+		// only 3 distinct whole values: can't make 8 partitions
+		ArrayList<String> predicates = PartitionedODBCDataset.getNumericPredicates("id", new BigDecimal(5), new BigDecimal(7), 8);
+		assertEquals(3, predicates.size());
+		assertEquals("(id < 6 OR id IS NULL)", predicates.get(0));
+		assertEquals("id >= 6 AND id < 7", predicates.get(1));
+		assertEquals("id >= 7", predicates.get(2));
+		
+		// a single value: one partition
+		predicates = PartitionedODBCDataset.getNumericPredicates("id", new BigDecimal(5), new BigDecimal(5), 8);
+		assertEquals(1, predicates.size());
+	}
+	
+	@Test
+	public void testTimestampPredicates() throws Exception {
+		long day = 24 * 60 * 60 * 1000L;
+		long start = java.sql.Timestamp.valueOf("2017-01-01 00:00:00").getTime();
+		ArrayList<String> predicates = PartitionedODBCDataset.getTimestampPredicates("ts", start, start + 4 * day, 2);
+		assertEquals(2, predicates.size());
+		assertEquals("(ts < TIMESTAMP '2017-01-03 00:00:00.000' OR ts IS NULL)", predicates.get(0));
+		assertEquals("ts >= TIMESTAMP '2017-01-03 00:00:00.000'", predicates.get(1));
+	}
+}
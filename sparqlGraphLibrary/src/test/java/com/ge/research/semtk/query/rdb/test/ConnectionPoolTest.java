@@ -0,0 +1,267 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.query.rdb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ge.research.semtk.query.rdb.ConnectionPool;
+import com.ge.research.semtk.query.rdb.Connector;
+import com.ge.research.semtk.query.rdb.PreparedQuery;
+
+public class ConnectionPoolTest {
+
+	private static final String DRIVER = FakeJdbcDriver.class.getName();
+
+	@Before
+	public void setUp() {
+		ConnectionPool.closeAll();
+		FakeJdbcDriver.reset();
+	}
+
+	@After
+	public void tearDown() {
+		ConnectionPool.closeAll();
+		ConnectionPool.setDefaults(8, 5 * 60 * 1000, 30 * 1000, 20);
+	}
+
+	private ConnectionPool getPool() throws Exception {
+		return ConnectionPool.getPool(DRIVER, FakeJdbcDriver.URL, "user", "pw", null);
+	}
+
+	@Test
+	public void testBorrowAndRelease() throws Exception {
+		ConnectionPool pool = getPool();
+		ConnectionPool.PooledConnection conn = pool.borrow();
+		assertEquals(0, pool.getIdleCount());
+		conn.close();
+		conn.close();	// second close does nothing
+		assertEquals(1, pool.getIdleCount());
+
+		// reused, not reopened
+		ConnectionPool.PooledConnection again = pool.borrow();
+		assertSame(conn, again);
+		again.close();
+		assertEquals(1, FakeJdbcDriver.connectionsOpened.get());
+
+		// a discarded connection is closed, not returned
+		conn = pool.borrow();
+		conn.discard();
+		conn.close();
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(1, FakeJdbcDriver.connectionsClosed.get());
+	}
+
+	@Test
+	public void testBorrowWaitsAtMaxSize() throws Exception {
+		ConnectionPool.setDefaults(1, 60000, 60000, 20);
+		final ConnectionPool pool = getPool();
+		ConnectionPool.PooledConnection conn = pool.borrow();
+
+		final CountDownLatch borrowed = new CountDownLatch(1);
+		Thread t = new Thread(() -> {
+			try {
+				pool.borrow().close();
+				borrowed.countDown();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+		t.start();
+		assertFalse(borrowed.await(200, TimeUnit.MILLISECONDS));
+		conn.close();
+		assertTrue(borrowed.await(5, TimeUnit.SECONDS));
+		assertEquals(1, FakeJdbcDriver.connectionsOpened.get());
+	}
+
+	@Test
+	public void testValidation() throws Exception {
+		ConnectionPool.setDefaults(8, 60000, 0, 20);	// validate on every reuse
+		ConnectionPool pool = ConnectionPool.getPool(DRIVER, FakeJdbcDriver.URL, "user", "pw", "SELECT 1");
+		pool.borrow().close();
+		Thread.sleep(5);
+		pool.borrow().close();
+		assertEquals(1, FakeJdbcDriver.countExecuted("SELECT 1"));
+		assertEquals(1, FakeJdbcDriver.connectionsOpened.get());
+
+		// failed validation: replaced with a new connection
+		FakeJdbcDriver.setFailOn("SELECT 1");
+		Thread.sleep(5);
+		pool.borrow().close();
+		assertEquals(2, FakeJdbcDriver.connectionsOpened.get());
+		assertEquals(1, FakeJdbcDriver.connectionsClosed.get());
+
+		// without a validation query, Connection.isValid() is used.  A separate pool: the other is left alone.
+		ConnectionPool plain = getPool();
+		assertNotSame(pool, plain);
+		assertEquals(2, ConnectionPool.getPoolCount());
+		assertEquals(1, FakeJdbcDriver.connectionsClosed.get());
+		plain.borrow().close();
+		FakeJdbcDriver.setValid(false);
+		Thread.sleep(5);
+		plain.borrow().close();
+		assertEquals(4, FakeJdbcDriver.connectionsOpened.get());
+		assertEquals(2, FakeJdbcDriver.connectionsClosed.get());
+		assertSame(pool, ConnectionPool.getPool(DRIVER, FakeJdbcDriver.URL, "user", "pw", "SELECT 1"));
+	}
+
+	@Test
+	public void testRetiredWhileBorrowed() throws Exception {
+		ConnectionPool pool = getPool();
+		ConnectionPool.PooledConnection idle = pool.borrow();
+		ConnectionPool.PooledConnection onLoan = pool.borrow();
+		idle.close();
+
+		// a new password retires the pool: the idle connection is closed, the borrowed one still works
+		ConnectionPool newPool = ConnectionPool.getPool(DRIVER, FakeJdbcDriver.URL, "user", "pw2", null);
+		assertNotSame(pool, newPool);
+		assertEquals(1, FakeJdbcDriver.connectionsClosed.get());
+		assertFalse(onLoan.getConnection().isClosed());
+
+		// and is closed when returned
+		onLoan.close();
+		assertTrue(onLoan.getConnection().isClosed());
+		assertEquals(2, FakeJdbcDriver.connectionsClosed.get());
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test
+	public void testIdleEviction() throws Exception {
+		ConnectionPool.setDefaults(8, 50, 60000, 20);
+		ConnectionPool pool = getPool();
+		ConnectionPool.PooledConnection conn = pool.borrow();
+		pool.borrow().close();
+		assertEquals(1, ConnectionPool.getPoolCount());
+
+		// idle connection closed; pool kept while a connection is borrowed
+		Thread.sleep(100);
+		ConnectionPool.pruneIdle();
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(1, FakeJdbcDriver.connectionsClosed.get());
+		assertEquals(1, ConnectionPool.getPoolCount());
+
+		// returned, then idle too long: closed and the pool forgotten
+		conn.close();
+		Thread.sleep(100);
+		ConnectionPool.pruneIdle();
+		assertEquals(2, FakeJdbcDriver.connectionsClosed.get());
+		assertEquals(0, ConnectionPool.getPoolCount());
+		assertNotSame(pool, getPool());
+
+		// a stale idle connection is not handed out
+		pool = getPool();
+		pool.borrow().close();
+		Thread.sleep(100);
+		pool.borrow().close();
+		assertEquals(4, FakeJdbcDriver.connectionsOpened.get());
+		assertEquals(3, FakeJdbcDriver.connectionsClosed.get());
+	}
+
+	@Test
+	public void testStatementCache() throws Exception {
+		ConnectionPool.setDefaults(8, 60000, 60000, 2);
+		ConnectionPool.PooledConnection conn = getPool().borrow();
+		PreparedStatement a = conn.prepareStatement("select a from t");
+		conn.prepareStatement("select b from t");
+		assertSame(a, conn.prepareStatement("select a from t"));
+		assertEquals(2, FakeJdbcDriver.statementsPrepared.get());
+
+		// least recently used (b) is closed to make room
+		conn.prepareStatement("select c from t");
+		assertEquals(3, FakeJdbcDriver.statementsPrepared.get());
+		assertEquals(1, FakeJdbcDriver.statementsClosed.get());
+		assertFalse(a.isClosed());
+		conn.prepareStatement("select b from t");
+		assertEquals(4, FakeJdbcDriver.statementsPrepared.get());
+
+		// cached statements are closed with the connection
+		conn.discard();
+		conn.close();
+		assertEquals(4, FakeJdbcDriver.statementsClosed.get());
+	}
+
+	@Test
+	public void testSessionStatements() throws Exception {
+		ArrayList<String> set1 = new ArrayList<String>(Arrays.asList("set a=1"));
+		ArrayList<String> set2 = new ArrayList<String>(Arrays.asList("set a=2"));
+		ConnectionPool plain = getPool();
+		ConnectionPool pool1 = ConnectionPool.getPool(DRIVER, FakeJdbcDriver.URL, "user", "pw", null, set1);
+		ConnectionPool pool2 = ConnectionPool.getPool(DRIVER, FakeJdbcDriver.URL, "user", "pw", null, set2);
+		assertNotSame(plain, pool1);
+		assertNotSame(pool1, pool2);
+		assertSame(pool1, ConnectionPool.getPool(DRIVER, FakeJdbcDriver.URL, "user", "pw", null, new ArrayList<String>(set1)));
+		assertEquals(3, ConnectionPool.getPoolCount());
+
+		// run once per new connection, not per borrow
+		pool1.borrow().close();
+		pool1.borrow().close();
+		plain.borrow().close();
+		assertEquals(1, FakeJdbcDriver.countExecuted("set a=1"));
+		assertEquals(0, FakeJdbcDriver.countExecuted("set a=2"));
+
+		// a new password retires the old pool
+		assertNotSame(pool1, ConnectionPool.getPool(DRIVER, FakeJdbcDriver.URL, "user", "pw2", null, set1));
+		assertEquals(1, FakeJdbcDriver.connectionsClosed.get());
+	}
+
+	@Test
+	public void testCachedStatementFetchSize() throws Exception {
+		Connector connector = new Connector() {
+			{
+				this.driver = DRIVER;
+				this.dbUrl = FakeJdbcDriver.URL;
+				this.username = "user";
+				this.password = "pw";
+			}
+		};
+		Connector.ResultHandler ignore = new Connector.ResultHandler() {
+			public void startTable(String[] cols, String[] colTypes) {
+			}
+			public void handleRow(ArrayList<String> row) {
+			}
+		};
+
+		connector.setFetchSize(500);
+		assertEquals(10, connector.query(new PreparedQuery("select id from t"), ignore));
+		connector.setFetchSize(0);
+		assertEquals(10, connector.query(new PreparedQuery("select id from t"), ignore));
+
+		// same cached statement, but the second query is back to the driver default
+		assertEquals(1, FakeJdbcDriver.statementsPrepared.get());
+		assertEquals(Arrays.asList(500, 0), FakeJdbcDriver.fetchSizes);
+
+		// raw SQL is not prepared, so a "?" in it is not a parameter
+		connector.setFetchSize(500);
+		assertEquals(10, connector.query("select id from t where name <> '?'", ignore));
+		assertEquals(1, FakeJdbcDriver.statementsPrepared.get());
+		assertEquals(Arrays.asList(500, 0, 500), FakeJdbcDriver.fetchSizes);
+	}
+}
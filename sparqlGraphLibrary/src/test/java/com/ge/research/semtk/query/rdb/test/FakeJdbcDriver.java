@@ -0,0 +1,371 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.query.rdb.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory JDBC driver for tests, for urls starting with jdbc:semtkfake:
+ *
+ * Every query reads one table of setRowCount() rows: ID (BIGINT, from 1), NAME (VARCHAR "name" + id)
+ * and VAL (DOUBLE, id / 10000000).  Queries are recognized by what they contain:
+ *    "1=0"            - no rows
+ *    "MIN(" / "MAX("  - the smallest and largest ID
+ *    "id >= n", "id < n" - rows in that range of ID
+ *    no "from"        - a single row (validation queries)
+ * Connections, statements and the queries run are counted so tests can check what the code under test did.
+ * Call reset() before each test.
+ */
+public class FakeJdbcDriver implements Driver {
+
+	public static final String URL = "jdbc:semtkfake:db";
+	public static final String[] COLUMNS = {"ID", "NAME", "VAL"};
+	private static final int[] COLUMN_TYPES = {Types.BIGINT, Types.VARCHAR, Types.DOUBLE};
+
+	public static final AtomicInteger connectionsOpened = new AtomicInteger(0);
+	public static final AtomicInteger connectionsClosed = new AtomicInteger(0);
+	public static final AtomicInteger statementsPrepared = new AtomicInteger(0);
+	public static final AtomicInteger statementsClosed = new AtomicInteger(0);
+	public static final List<String> executed = Collections.synchronizedList(new ArrayList<String>());		// every query and statement run
+	public static final List<Integer> fetchSizes = Collections.synchronizedList(new ArrayList<Integer>());	// fetch size in effect for each query
+	public static final List<Integer> resultSetTypes = Collections.synchronizedList(new ArrayList<Integer>());	// type of each query's result set
+
+	private static volatile int rowCount = 10;
+	private static volatile boolean valid = true;
+	private static volatile String failOn = null;
+
+	static {
+		try {
+			DriverManager.registerDriver(new FakeJdbcDriver());
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Forget everything counted, and go back to 10 rows, valid connections and no failures
+	 */
+	public static void reset() {
+		connectionsOpened.set(0);
+		connectionsClosed.set(0);
+		statementsPrepared.set(0);
+		statementsClosed.set(0);
+		executed.clear();
+		fetchSizes.clear();
+		resultSetTypes.clear();
+		rowCount = 10;
+		valid = true;
+		failOn = null;
+	}
+
+	public static void setRowCount(int n) {
+		rowCount = n;
+	}
+
+	/**
+	 * Make isValid() on existing and new connections return this
+	 */
+	public static void setValid(boolean v) {
+		valid = v;
+	}
+
+	/**
+	 * Fail any query containing this text, or none if null
+	 */
+	public static void setFailOn(String text) {
+		failOn = text;
+	}
+
+	/**
+	 * Number of times a query containing this text was run
+	 */
+	public static int countExecuted(String text) {
+		int count = 0;
+		synchronized (executed) {
+			for (String sql : executed) {
+				if (sql.contains(text)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public boolean acceptsURL(String url) {
+		return url != null && url.startsWith("jdbc:semtkfake:");
+	}
+
+	@Override
+	public Connection connect(String url, Properties info) throws SQLException {
+		if (!this.acceptsURL(url)) {
+			return null;
+		}
+		connectionsOpened.incrementAndGet();
+		return (Connection) proxy(Connection.class, new InvocationHandler() {
+			private boolean closed = false;
+
+			public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+				switch (m.getName()) {
+				case "createStatement":
+					return statement((args == null) ? ResultSet.TYPE_FORWARD_ONLY : (Integer) args[0], null);
+				case "prepareStatement":
+					statementsPrepared.incrementAndGet();
+					return statement(ResultSet.TYPE_FORWARD_ONLY, (String) args[0]);
+				case "isValid":
+					return valid && !this.closed;
+				case "isClosed":
+					return this.closed;
+				case "close":
+					if (!this.closed) {
+						this.closed = true;
+						connectionsClosed.incrementAndGet();
+					}
+					return null;
+				default:
+					return defaultValue(m);
+				}
+			}
+		});
+	}
+
+	/**
+	 * A Statement, or a PreparedStatement if sql is given
+	 */
+	private static Statement statement(final int resultSetType, final String sql) {
+		return (Statement) proxy((sql == null) ? Statement.class : PreparedStatement.class, new InvocationHandler() {
+			private int fetchSize = 0;
+			private boolean closed = false;
+
+			public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+				switch (m.getName()) {
+				case "executeQuery":
+					return resultSet((sql == null) ? (String) args[0] : sql, resultSetType, this.fetchSize);
+				case "execute":
+					executed.add((String) args[0]);
+					return false;
+				case "setFetchSize":
+					this.fetchSize = (Integer) args[0];
+					return null;
+				case "getFetchSize":
+					return this.fetchSize;
+				case "isClosed":
+					return this.closed;
+				case "close":
+					if (!this.closed && sql != null) {
+						statementsClosed.incrementAndGet();
+					}
+					this.closed = true;
+					return null;
+				default:
+					return defaultValue(m);
+				}
+			}
+		});
+	}
+
+	private static ResultSet resultSet(String sql, final int type, int fetchSize) throws SQLException {
+		executed.add(sql);
+		fetchSizes.add(fetchSize);
+		resultSetTypes.add(type);
+		if (failOn != null && sql.contains(failOn)) {
+			throw new SQLException("failed: " + sql);
+		}
+
+		final String[] columns;
+		final int[] types;
+		final List<Object[]> rows = new ArrayList<Object[]>();
+		if (sql.contains("1=0")) {
+			columns = COLUMNS;
+			types = COLUMN_TYPES;
+		} else if (sql.contains("MIN(")) {
+			columns = new String[]{"MIN", "MAX"};
+			types = new int[]{Types.BIGINT, Types.BIGINT};
+			rows.add((rowCount == 0) ? new Object[]{null, null} : new Object[]{1L, (long) rowCount});
+		} else if (!sql.toLowerCase().contains("from")) {
+			columns = new String[]{"X"};
+			types = new int[]{Types.INTEGER};
+			rows.add(new Object[]{1L});
+		} else {
+			columns = COLUMNS;
+			types = COLUMN_TYPES;
+			long lo = 1;
+			long hi = rowCount + 1;
+			Matcher m = Pattern.compile("id >= (\\d+)").matcher(sql);
+			if (m.find()) {
+				lo = Long.parseLong(m.group(1));
+			}
+			m = Pattern.compile("id < (\\d+)").matcher(sql);
+			if (m.find()) {
+				hi = Long.parseLong(m.group(1));
+			}
+			for (long id = lo; id < hi; id++) {
+				rows.add(new Object[]{id, "name" + id, id / 10000000.0});
+			}
+		}
+
+		final ResultSetMetaData meta = (ResultSetMetaData) proxy(ResultSetMetaData.class, new InvocationHandler() {
+			public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+				switch (m.getName()) {
+				case "getColumnCount":
+					return columns.length;
+				case "getColumnName":
+				case "getColumnLabel":
+					return columns[(Integer) args[0] - 1];
+				case "getColumnType":
+					return types[(Integer) args[0] - 1];
+				case "getColumnTypeName":
+					return (types[(Integer) args[0] - 1] == Types.VARCHAR) ? "varchar" : "bigint";
+				default:
+					return defaultValue(m);
+				}
+			}
+		});
+
+		return (ResultSet) proxy(ResultSet.class, new InvocationHandler() {
+			private int pos = -1;
+			private Object last = null;
+
+			public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+				switch (m.getName()) {
+				case "getMetaData":
+					return meta;
+				case "next":
+					return ++this.pos < rows.size();
+				case "beforeFirst":
+					if (type == ResultSet.TYPE_FORWARD_ONLY) {
+						throw new SQLException("Result set is forward only");
+					}
+					this.pos = -1;
+					return null;
+				case "wasNull":
+					return this.last == null;
+				case "getLong":
+				case "getInt":
+				case "getDouble":
+				case "getString":
+				case "getBigDecimal":
+				case "getObject":
+					this.last = rows.get(this.pos)[(Integer) args[0] - 1];
+					if (this.last == null) {
+						return defaultValue(m);
+					} else if (m.getName().equals("getString")) {
+						return this.last.toString();
+					} else if (m.getName().equals("getBigDecimal")) {
+						return BigDecimal.valueOf(((Number) this.last).doubleValue());
+					} else if (m.getName().equals("getDouble")) {
+						return ((Number) this.last).doubleValue();
+					} else if (m.getName().equals("getInt")) {
+						return ((Number) this.last).intValue();
+					} else if (m.getName().equals("getLong")) {
+						return ((Number) this.last).longValue();
+					}
+					return this.last;
+				default:
+					return defaultValue(m);
+				}
+			}
+		});
+	}
+
+	private static Object proxy(final Class<?> iface, final InvocationHandler handler) {
+		return Proxy.newProxyInstance(FakeJdbcDriver.class.getClassLoader(), new Class<?>[]{iface}, new InvocationHandler() {
+			public Object invoke(Object p, Method m, Object[] args) throws Throwable {
+				switch (m.getName()) {
+				case "equals":
+					return p == args[0];
+				case "hashCode":
+					return System.identityHashCode(p);
+				case "toString":
+					return "Fake" + iface.getSimpleName();
+				default:
+					return handler.invoke(p, m, args);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Do-nothing result of any other method
+	 */
+	private static Object defaultValue(Method m) {
+		Class<?> c = m.getReturnType();
+		if (c == boolean.class) {
+			return false;
+		} else if (c == int.class) {
+			return 0;
+		} else if (c == long.class) {
+			return 0L;
+		} else if (c == double.class) {
+			return 0.0;
+		} else if (c == float.class) {
+			return 0.0f;
+		} else if (c == short.class) {
+			return (short) 0;
+		} else if (c == byte.class) {
+			return (byte) 0;
+		}
+		return null;
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+
+	@Override
+	public int getMajorVersion() {
+		return 1;
+	}
+
+	@Override
+	public int getMinorVersion() {
+		return 0;
+	}
+
+	@Override
+	public boolean jdbcCompliant() {
+		return false;
+	}
+
+	@Override
+	public Logger getParentLogger() {
+		return null;
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.query.rdb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.ge.research.semtk.query.rdb.PreparedQuery;
+
+public class PreparedQueryTest {
+
+	@Test
+	public void testBuild() throws Exception {
+		PreparedQuery q = new PreparedQuery("select * from ").appendIdentifier("db.sensor")
+				.append(" where ").appendIdentifier("temp").append(" > ").appendParameter(Double.valueOf(90.5))
+				.append(" and ").appendIdentifier("site").append(" = ").appendParameter("plant 'A'");
+		
+		assertEquals("select * from db.sensor where temp > ? and site = ?", q.getSql());
+		assertEquals(Arrays.asList((Object) Double.valueOf(90.5), "plant 'A'"), q.getParameters());
+	}
+	
+	@Test
+	public void testSameShapeSameSql() throws Exception {
+		PreparedQuery q1 = new PreparedQuery("select * from t where ").appendIdentifier("c").append(" = ").appendParameter("x");
+		PreparedQuery q2 = new PreparedQuery("select * from t where ").appendIdentifier("c").append(" = ").appendParameter("y; drop table t");
+		assertEquals(q1.getSql(), q2.getSql());
+	}
+	
+	@Test
+	public void testInvalidIdentifiers() throws Exception {
+		String[] bad = { "col; drop table t", "a b", "1col", "t.c.d", "c--", "", null };
+		for (String id : bad) {
+			try {
+				PreparedQuery.validateIdentifier(id);
+				fail("Did not reject identifier: " + id);
+			} catch (Exception e) {
+				// expected
+			}
+		}
+		assertEquals("db.table_1", PreparedQuery.validateIdentifier("db.table_1"));
+	}
+	
+	@Test
+	public void testTypes() throws Exception {
+		assertEquals("int", PreparedQuery.validateType("int"));
+		assertEquals("DECIMAL(10,2)", PreparedQuery.validateType(" DECIMAL(10,2) "));
+		assertEquals("varchar(20)", PreparedQuery.validateType("varchar(20)"));
+		try {
+			PreparedQuery.validateType("int) or (1=1");
+			fail("Did not reject type");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+}
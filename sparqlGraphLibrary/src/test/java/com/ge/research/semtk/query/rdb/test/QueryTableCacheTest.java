@@ -0,0 +1,163 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.query.rdb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ge.research.semtk.query.rdb.QueryTableCache;
+import com.ge.research.semtk.resultSet.Table;
+
+public class QueryTableCacheTest {
+
+	/**
+	 * Query that counts its runs, optionally waiting on a latch before returning
+	 */
+	private static class CountingQuery implements Callable<Table> {
+		AtomicInteger runs = new AtomicInteger(0);
+		CountDownLatch release = null;
+		boolean fail = false;
+		
+		public Table call() throws Exception {
+			this.runs.incrementAndGet();
+			if (this.release != null) {
+				this.release.await();
+			}
+			if (this.fail) {
+				throw new Exception("query failed");
+			}
+			return new Table(new String[]{"count"}, new String[]{"int"}, null);
+		}
+	}
+	
+	@Test
+	public void testHitAndMiss() throws Exception {
+		QueryTableCache cache = new QueryTableCache(10, 0);
+		CountingQuery query = new CountingQuery();
+		String key = QueryTableCache.buildKey("jdbc:hive2://host:10000/db", "select count(*) from t");
+		
+		Table t1 = cache.get(key, query);
+		Table t2 = cache.get(key, query);
+		assertSame(t1, t2);
+		assertEquals(1, query.runs.get());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		
+		// same query on another database is a different entry
+		cache.get(QueryTableCache.buildKey("jdbc:hive2://host:10000/db2", "select count(*) from t"), query);
+		assertEquals(2, query.runs.get());
+	}
+	
+	@Test
+	public void testExpiration() throws Exception {
+		QueryTableCache cache = new QueryTableCache(10, 50);
+		CountingQuery query = new CountingQuery();
+		
+		cache.get("key", query);
+		Thread.sleep(100);
+		cache.get("key", query);
+		assertEquals(2, query.runs.get());
+		assertEquals(2, cache.getMisses());
+	}
+	
+	@Test
+	public void testEviction() throws Exception {
+		QueryTableCache cache = new QueryTableCache(2, 0);
+		CountingQuery query = new CountingQuery();
+		
+		cache.get("a", query);
+		cache.get("b", query);
+		cache.get("a", query);		// b is now least recently used
+		cache.get("c", query);
+		assertEquals(2, cache.size());
+		cache.get("a", query);
+		assertEquals(3, query.runs.get());
+		cache.get("b", query);
+		assertEquals(4, query.runs.get());
+	}
+	
+	@Test
+	public void testConcurrentCallersShareOneRun() throws Exception {
+		final QueryTableCache cache = new QueryTableCache(10, 0);
+		final CountingQuery query = new CountingQuery();
+		query.release = new CountDownLatch(1);
+		
+		final ArrayList<Table> results = new ArrayList<Table>();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 5; i++) {
+			Thread t = new Thread() {
+				public void run() {
+					try {
+						Table table = cache.get("key", query);
+						synchronized (results) {
+							results.add(table);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			t.start();
+			threads.add(t);
+		}
+		
+		// wait for all callers to arrive before the query finishes
+		while (cache.getMisses() + cache.getJoins() < 5) {
+			Thread.sleep(10);
+		}
+		query.release.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		
+		assertEquals(1, query.runs.get());
+		assertEquals(5, results.size());
+		for (Table table : results) {
+			assertSame(results.get(0), table);
+		}
+		assertEquals(1, cache.getMisses());
+		assertEquals(4, cache.getJoins());
+	}
+	
+	@Test
+	public void testFailureNotCached() throws Exception {
+		QueryTableCache cache = new QueryTableCache(10, 0);
+		CountingQuery query = new CountingQuery();
+		query.fail = true;
+		
+		try {
+			cache.get("key", query);
+			fail("Did not throw expected exception");
+		} catch (Exception e) {
+			assertEquals("query failed", e.getMessage());
+		}
+		assertEquals(0, cache.size());
+		
+		query.fail = false;
+		cache.get("key", query);
+		assertEquals(2, query.runs.get());
+	}
+}
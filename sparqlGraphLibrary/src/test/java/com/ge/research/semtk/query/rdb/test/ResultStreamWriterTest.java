@@ -0,0 +1,94 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.query.rdb.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import com.ge.research.semtk.query.rdb.ResultStreamWriter;
+
+public class ResultStreamWriterTest {
+
+	private static ArrayList<String> row(String... values) {
+		return new ArrayList<String>(Arrays.asList(values));
+	}
+
+	@Test
+	public void testJsonLines() throws Exception {
+		StringWriter out = new StringWriter();
+		ResultStreamWriter writer = new ResultStreamWriter(out, null);
+		writer.startTable(new String[]{"name", "count"}, new String[]{"string", "int"});
+		writer.handleRow(row("a \"quoted\" name", "1"));
+		writer.handleRow(row(null, "2"));
+		writer.finish();
+
+		String[] lines = out.toString().split("\n");
+		assertEquals(3, lines.length);
+		JSONObject header = (JSONObject) new JSONParser().parse(lines[0]);
+		assertEquals(Arrays.asList("name", "count"), header.get("columns"));
+		assertEquals(Arrays.asList("string", "int"), header.get("columnTypes"));
+		assertEquals("[\"a \\\"quoted\\\" name\",\"1\"]", lines[1]);
+		assertEquals("[null,\"2\"]", lines[2]);
+		assertEquals(2, writer.getNumRows());
+	}
+
+	@Test
+	public void testJsonLinesError() throws Exception {
+		StringWriter out = new StringWriter();
+		ResultStreamWriter writer = new ResultStreamWriter(out, ResultStreamWriter.FORMAT_JSONL);
+		writer.startTable(new String[]{"name"}, new String[]{"string"});
+		writer.handleRow(row("a"));
+		writer.writeError("connection lost");
+
+		String[] lines = out.toString().split("\n");
+		assertEquals(3, lines.length);
+		assertEquals("{\"error\":\"connection lost\"}", lines[2]);
+	}
+
+	@Test
+	public void testCsv() throws Exception {
+		StringWriter out = new StringWriter();
+		ResultStreamWriter writer = new ResultStreamWriter(out, "CSV");
+		writer.startTable(new String[]{"name", "count"}, new String[]{"string", "int"});
+		writer.handleRow(row("a, b", "1"));
+		writer.handleRow(row("say \"hi\"", "2"));
+		writer.writeError("connection lost");	// nothing written for CSV
+
+		assertEquals("name,count\r\n\"a, b\",1\r\n\"say \"\"hi\"\"\",2\r\n", out.toString());
+		assertEquals(2, writer.getNumRows());
+	}
+
+	@Test
+	public void testContentType() throws Exception {
+		assertEquals("application/x-ndjson", ResultStreamWriter.getContentType(null));
+		assertEquals("application/x-ndjson", ResultStreamWriter.getContentType("jsonl"));
+		assertEquals("text/csv", ResultStreamWriter.getContentType("csv"));
+	}
+
+	@Test(expected=Exception.class)
+	public void testUnknownFormat() throws Exception {
+		new ResultStreamWriter(new StringWriter(), "xml");
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.query.rdb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.ge.research.semtk.edc.client.ResultsClient;
+import com.ge.research.semtk.edc.client.ResultsClientConfig;
+import com.ge.research.semtk.query.rdb.ResultsStorageHandler;
+import com.ge.research.semtk.resultSet.Table;
+
+public class ResultsStorageHandlerTest {
+
+	/**
+	 * Results client that records the calls instead of sending them
+	 */
+	private static class RecordingResultsClient extends ResultsClient {
+		ArrayList<String> calls = new ArrayList<String>();
+		ArrayList<Table> batches = new ArrayList<Table>();
+
+		RecordingResultsClient() throws Exception {
+			super(new ResultsClientConfig("http", "localhost", 12052));
+		}
+
+		@Override
+		public void execStoreTableResultsJsonInitialize(String jobId, Table header) {
+			this.calls.add("initialize " + jobId + " " + Arrays.toString(header.getColumnNames()) + " " + header.getNumRows());
+		}
+
+		@Override
+		public void execStoreTableResultsJsonAddIncremental(String jobId, Table table) {
+			this.calls.add("add " + jobId + " " + table.getNumRows());
+			this.batches.add(table);
+		}
+
+		@Override
+		public void execStoreTableResultsJsonFinalize(String jobId, int rowCount) {
+			this.calls.add("finalize " + jobId + " " + rowCount);
+		}
+	}
+
+	private static ArrayList<String> row(int i) {
+		return new ArrayList<String>(Arrays.asList("name" + i, Integer.toString(i)));
+	}
+
+	@Test
+	public void testBatches() throws Exception {
+		RecordingResultsClient client = new RecordingResultsClient();
+		ResultsStorageHandler handler = new ResultsStorageHandler(client, "job1", 3);
+		handler.startTable(new String[]{"name", "count"}, new String[]{"string", "int"});
+		for (int i = 0; i < 7; i++) {
+			handler.handleRow(row(i));
+		}
+		handler.finish();
+
+		assertEquals(7, handler.getNumRows());
+		assertEquals(Arrays.asList("initialize job1 [name, count] 0", "add job1 3", "add job1 3", "add job1 1", "finalize job1 7"), client.calls);
+		assertEquals("name0", client.batches.get(0).getCell(0, 0));
+		assertEquals("name6", client.batches.get(2).getCell(0, 0));
+		assertEquals("int", client.batches.get(2).getColumnTypes()[1]);
+	}
+
+	@Test
+	public void testExactBatchesAndEmpty() throws Exception {
+		// no empty batch after a full one
+		RecordingResultsClient client = new RecordingResultsClient();
+		ResultsStorageHandler handler = new ResultsStorageHandler(client, "job2", 2);
+		handler.startTable(new String[]{"name", "count"}, new String[]{"string", "int"});
+		for (int i = 0; i < 4; i++) {
+			handler.handleRow(row(i));
+		}
+		handler.finish();
+		assertEquals(Arrays.asList("initialize job2 [name, count] 0", "add job2 2", "add job2 2", "finalize job2 4"), client.calls);
+
+		// no rows: still a stored, empty table
+		client = new RecordingResultsClient();
+		handler = new ResultsStorageHandler(client, "job3", 2);
+		handler.startTable(new String[]{"name"}, new String[]{"string"});
+		handler.finish();
+		assertEquals(Arrays.asList("initialize job3 [name] 0", "finalize job3 0"), client.calls);
+	}
+
+	@Test
+	public void testNoTable() throws Exception {
+		RecordingResultsClient client = new RecordingResultsClient();
+		ResultsStorageHandler handler = new ResultsStorageHandler(client, "job4", 2);
+		try {
+			handler.finish();
+			fail("finished without a table");
+		} catch (Exception e) {
+			assertTrue(e.getMessage().contains("job4"));
+		}
+		assertTrue(client.calls.isEmpty());
+	}
+}
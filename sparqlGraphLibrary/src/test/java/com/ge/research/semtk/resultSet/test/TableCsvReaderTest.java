@@ -0,0 +1,204 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+
+package com.ge.research.semtk.resultSet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+import com.ge.research.semtk.edc.TableResultsStorage;
+import com.ge.research.semtk.edc.client.ResultsClient;
+import com.ge.research.semtk.edc.client.ResultsClientConfig;
+import com.ge.research.semtk.resultSet.SimpleResultSet;
+import com.ge.research.semtk.resultSet.Table;
+import com.ge.research.semtk.resultSet.TableCsvReader;
+import com.ge.research.semtk.utility.Utility;
+
+public class TableCsvReaderTest {
+
+	private static TableCsvReader reader(String csv) throws Exception {
+		return new TableCsvReader(new StringReader(csv));
+	}
+
+	@Test
+	public void testQuotedValues() throws Exception {
+		String csv = "name,note,count\n" +
+				"\"a, b\",\"line1\nline2\",1\n" +
+				"\"say \"\"hi\"\"\",\"say \\\"bye\\\"\",2\r\n" +
+				"\n" +
+				"plain,,3\n";
+		TableCsvReader reader = reader(csv);
+		assertEquals(Arrays.asList("name", "note", "count"), Arrays.asList(reader.getColumnNames()));
+
+		Table table = reader.readTable(-1);
+		reader.close();
+		assertEquals(3, table.getNumRows());
+		assertEquals("a, b", table.getCell(0, 0));
+		assertEquals("line1\nline2", table.getCell(0, 1));
+		assertEquals("say \"hi\"", table.getCell(1, 0));
+		assertEquals("say \"bye\"", table.getCell(1, 1));
+		assertEquals("2", table.getCell(1, 2));
+		assertEquals("", table.getCell(2, 1));
+		assertEquals("string", table.getColumnTypes()[2]);
+	}
+
+	@Test
+	public void testResultsServiceRoundTrip() throws Exception {
+		// stored through ResultsClient as a results service would, then read back as the service's CSV
+		final TableResultsStorage storage = new TableResultsStorage(new File(".").getCanonicalPath());
+		final String jobId = "csv_round_trip";
+		ResultsClient client = new ResultsClient(new ResultsClientConfig("http", "localhost", 12052)) {
+			@Override
+			public Object execute(boolean returnRawResponse) throws Exception {
+				storage.storeTableResultsJsonAddIncremental(jobId, Utility.decompress((String) this.parametersJSON.get("contents")));
+				return new SimpleResultSet(true).toJson();
+			}
+		};
+
+		String[] cols = { "name", "note" };
+		String[][] values = {
+				{ "say \"hi\"", "a, b" },
+				{ "line1\nline2", "tab\there" },
+				{ "C:\\temp\\b", "ends in \\" },
+				{ "\\\"quoted\\\"", "" } };
+		ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+		for (String[] v : values) {
+			rows.add(new ArrayList<String>(Arrays.asList(v)));
+		}
+		Table table = new Table(cols, new String[] { "string", "string" }, rows);
+
+		URL url = null;
+		try {
+			storage.storeTableResultsJsonInitialize(jobId, table.getHeaderJson());
+			client.execStoreTableResultsJsonAddIncremental(jobId, table);
+			url = storage.storeTableResultsJsonFinalize(jobId, values.length);
+
+			StringWriter csv = new StringWriter();
+			PrintWriter pw = new PrintWriter(csv);
+			storage.getCsvTable(url).writeToStream(pw);
+			pw.flush();
+
+			TableCsvReader reader = reader(csv.toString());
+			assertEquals(Arrays.asList(cols), Arrays.asList(reader.getColumnNames()));
+			Table read = reader.readTable(-1);
+			reader.close();
+			assertEquals(values.length, read.getNumRows());
+			for (int i = 0; i < values.length; i++) {
+				assertEquals(Arrays.asList(values[i]), read.getRow(i));
+			}
+		} finally {
+			if (url != null) {
+				storage.deleteStoredFile(url);
+			}
+			new File("results_" + jobId + "_data.dat").delete();
+		}
+	}
+
+	@Test
+	public void testEmptyURL() throws Exception {
+		File empty = File.createTempFile("empty", ".csv");
+		try {
+			Table table = Utility.getURLResultsContentAsTable(empty.toURI().toURL());
+			assertEquals(Arrays.asList(""), Arrays.asList(table.getColumnNames()));
+			assertEquals(0, table.getNumRows());
+		} finally {
+			empty.delete();
+		}
+	}
+
+	@Test
+	public void testRowLengths() throws Exception {
+		TableCsvReader reader = reader("a,b,c\n1\n1,2,3,4\n");
+		assertEquals(Arrays.asList("1", "", ""), reader.readRow());
+		try {
+			reader.readRow();
+			fail("Long row did not throw");
+		} catch (CancellationException e) {
+			throw e;
+		} catch (Exception e) {
+			assertTrue(e.getMessage().contains("4 values"));
+		}
+		reader.close();
+	}
+
+	@Test
+	public void testTypesAndMaxRows() throws Exception {
+		TableCsvReader reader = reader("item,count\nx,1\ny,2\nz,3\n");
+		String [] types = { "uri", "http://www.w3.org/2001/XMLSchema#integer" };
+		reader.setColumnTypes(types);
+		try {
+			reader.setColumnTypes(new String[] { "uri" });
+			fail("Wrong number of types did not throw");
+		} catch (Exception e) {
+		}
+
+		Table table = reader.readTable(2);
+		assertEquals(2, table.getNumRows());
+		assertEquals(Arrays.asList(types), Arrays.asList(table.getColumnTypes()));
+		assertEquals("z", reader.readRow().get(0));
+		assertNull(reader.readRow());
+		reader.close();
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		TableCsvReader reader = reader("a\n1\n2\n");
+		assertEquals("1", reader.readRow().get(0));
+		reader.cancel();
+		assertTrue(reader.isCancelled());
+		try {
+			reader.readRow();
+			fail("Cancelled read did not throw");
+		} catch (CancellationException e) {
+		}
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		TableCsvReader reader = reader("");
+		assertEquals(0, reader.getColumnNames().length);
+		assertNull(reader.readRow());
+		reader.close();
+	}
+
+	@Test
+	public void testUtilityURL() throws Exception {
+		URL url = new File("src/test/resources/test.csv").toURI().toURL();
+		Table table = Utility.getURLResultsContentAsTable(url);
+		assertEquals(Arrays.asList("HEADER1", "HEADER2", "HEADER3"), Arrays.asList(table.getColumnNames()));
+		assertEquals(7, table.getNumRows());
+		assertEquals("a1", table.getCell(0, 0));
+
+		table = Utility.getURLResultsContentAsTable(url, new String[] { "string", "string", "int" }, 2);
+		assertEquals(2, table.getNumRows());
+		assertEquals("int", table.getColumnTypes()[2]);
+	}
+}
@@ -271,6 +271,94 @@ public class TableTest {
 	}
 	
 	
+	@Test
+	public void testTableMergeView() throws Exception {
+		String[] cols = {"colA","colB"};
+		String[] colsReordered = {"colB","colA"};
+		String[] colTypes = {"String","String"};
+		
+		// segments of different sizes, including empty ones, some with columns in another order
+		ArrayList<Table> tables = new ArrayList<Table>();
+		int [] sizes = {0, 3, 0, 0, 1, 5, 0, 2};
+		int n = 0;
+		for(int s = 0; s < sizes.length; s++){
+			boolean reorder = (s % 3 == 1);
+			Table t = new Table(reorder ? colsReordered : cols, colTypes, null);
+			for(int i = 0; i < sizes[s]; i++, n++){
+				ArrayList<String> row = new ArrayList<String>();
+				row.add(reorder ? "b" + n : "a" + n);
+				row.add(reorder ? "a" + n : "b" + n);
+				t.addRow(row);
+			}
+			tables.add(t);
+		}
+		int firstRows = tables.get(1).getNumRows();
+		
+		Table tableMerged = Table.merge(tables);
+		assertTrue(tableMerged.isMergedView());
+		assertEquals(n, tableMerged.getNumRows());
+		for(int i = 0; i < n; i++){
+			assertEquals("a" + i, tableMerged.getCell(i, 0));
+			assertEquals("b" + i, tableMerged.getRow(i).get(1));
+		}
+		assertEquals(n, tableMerged.getColumn("colB").length);
+		assertEquals("b" + (n - 1), tableMerged.getColumn("colB")[n - 1]);
+		assertEquals(tableMerged.toJson().get(Table.JSON_KEY_ROW_COUNT), n);
+		assertEquals(1, tableMerged.getSubsetWhereMatches("colA", "a4", new String[] {"colB"}).getNumRows());
+		assertTrue(tableMerged.isMergedView());
+		
+		// changing the merged table copies its rows, leaving the inputs alone
+		ArrayList<String> row = new ArrayList<String>();
+		row.add("a" + n);
+		row.add("b" + n);
+		tableMerged.addRow(row);
+		assertFalse(tableMerged.isMergedView());
+		assertEquals(n + 1, tableMerged.getNumRows());
+		assertEquals("b" + n, tableMerged.getCell(n, 1));
+		assertEquals("a3", tableMerged.getCell(3, 0));
+		assertEquals(firstRows, tables.get(1).getNumRows());
+	}
+	
+	@Test
+	public void testTableMergeCopy() throws Exception {
+		String[] cols = {"colA","colB"};
+		String[] colsReordered = {"colB","colA"};
+		String[] colTypes = {"String","String"};
+		
+		// enough rows to be copied by several threads
+		ArrayList<Table> tables = new ArrayList<Table>();
+		int n = 0;
+		for(int s = 0; s < 7; s++){
+			boolean reorder = (s == 3);
+			Table t = new Table(reorder ? colsReordered : cols, colTypes, null);
+			for(int i = 0; i < 9000; i++, n++){
+				ArrayList<String> row = new ArrayList<String>();
+				row.add(reorder ? "b" + n : "a" + n);
+				row.add(reorder ? "a" + n : "b" + n);
+				t.addRow(row);
+			}
+			tables.add(t);
+		}
+		
+		Table tableMerged = Table.mergeCopy(tables, 4);
+		assertFalse(tableMerged.isMergedView());
+		assertEquals(n, tableMerged.getRows().size());
+		for(int i = 0; i < n; i++){
+			assertEquals("a" + i, tableMerged.getRows().get(i).get(0));
+			assertEquals("b" + i, tableMerged.getRows().get(i).get(1));
+		}
+		assertTrue(tableMerged.getRow(0) == tables.get(0).getRow(0));  // rows in the same column order are shared
+		
+		// a single table is copied too
+		ArrayList<Table> single = new ArrayList<Table>();
+		single.add(tables.get(0));
+		tableMerged = Table.mergeCopy(single, 4);
+		tableMerged.truncate(1);
+		assertEquals(1, tableMerged.getNumRows());
+		assertEquals(9000, tables.get(0).getNumRows());
+	}
+	
+	
 	@Test
 	public void testTableGetSubsetWhereMatches() throws Exception {
 		String jsonStr = "{\"col_names\":[\"colA\",\"colB\",\"colC\"],\"rows\":[[\"apple\",\"banana\",\"coconut\"],[\"adam\",\"barbara\",\"chester\"]],\"col_type\":[\"String\",\"String\",\"String\"],\"col_count\":3,\"row_count\":2}";
@@ -0,0 +1,122 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.sparqlX.asynchronousQuery.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ge.research.semtk.sparqlX.SparqlConnection;
+import com.ge.research.semtk.sparqlX.asynchronousQuery.QueryResultsCache;
+
+public class QueryResultsCacheTest {
+
+	private static final String SERVER = "http://localhost:2420";
+	private static final String DATASET = "http://research.ge.com/test";
+	private static final String QUERY = "prefix x:<http://x#>\nselect distinct ?a where {\n\t?a x:name \"Two  Spaces\" .\n}";
+	
+	@Test
+	public void testNormalize() throws Exception {
+		assertEquals("select ?a where { ?a <p> \"a  b\" . }", QueryResultsCache.normalize("  select ?a\n where {\n\t?a <p> \"a  b\" .\n}\n"));
+		assertEquals("filter(?x = 'it\\'s  here')", QueryResultsCache.normalize("filter(?x = 'it\\'s  here')  "));
+	}
+	
+	@Test
+	public void testIsCacheable() throws Exception {
+		assertTrue(QueryResultsCache.isCacheable(QUERY));
+		assertTrue(QueryResultsCache.isCacheable("SELECT (COUNT(*) AS ?count) WHERE { ?s ?p ?o }"));
+		assertFalse(QueryResultsCache.isCacheable("prefix x:<http://x#> delete { ?a x:name ?n } where { ?a x:name ?n }"));
+		assertFalse(QueryResultsCache.isCacheable("construct { ?s ?p ?o } where { ?s ?p ?o }"));
+		
+		assertTrue(QueryResultsCache.isUpdate("prefix x:<http://x#>\n DELETE { ?a x:name ?n } where { ?a x:name ?n }"));
+		assertTrue(QueryResultsCache.isUpdate("insert data { <a> <b> <c> }"));
+		assertFalse(QueryResultsCache.isUpdate(QUERY));
+	}
+	
+	@Test
+	public void testHitIgnoresWhitespace() throws Exception {
+		QueryResultsCache cache = new QueryResultsCache(10, 0);
+		cache.put(QUERY, SERVER, DATASET, "job1");
+		
+		assertEquals("job1", cache.get(QUERY.replace("\n", "  \n  "), SERVER, DATASET));
+		assertNull(cache.get(QUERY.replace("Two  Spaces", "Two Spaces"), SERVER, DATASET));	// literal changed
+		assertNull(cache.get(QUERY, SERVER, DATASET + "/other"));								// other dataset
+	}
+	
+	@Test
+	public void testLeastRecentlyUsedEviction() throws Exception {
+		QueryResultsCache cache = new QueryResultsCache(2, 0);
+		cache.put("select ?a where {}", SERVER, DATASET, "jobA");
+		cache.put("select ?b where {}", SERVER, DATASET, "jobB");
+		cache.get("select ?a where {}", SERVER, DATASET);
+		cache.put("select ?c where {}", SERVER, DATASET, "jobC");
+		
+		assertEquals(2, cache.size());
+		assertEquals("jobA", cache.get("select ?a where {}", SERVER, DATASET));
+		assertNull(cache.get("select ?b where {}", SERVER, DATASET));
+	}
+	
+	@Test
+	public void testExpiration() throws Exception {
+		QueryResultsCache cache = new QueryResultsCache(10, 1);
+		cache.put(QUERY, SERVER, DATASET, "job1");
+		Thread.sleep(20);
+		assertNull(cache.get(QUERY, SERVER, DATASET));
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testInvalidateDataset() throws Exception {
+		QueryResultsCache cache = new QueryResultsCache(10, 0);
+		cache.put(QUERY, SERVER, DATASET, "job1");
+		cache.put(QUERY, SERVER, DATASET + "/other", "job2");
+		cache.put(QUERY, "http://otherhost:2420", DATASET, "job3");
+		
+		assertEquals(1, cache.invalidateDataset(SERVER, DATASET));
+		assertNull(cache.get(QUERY, SERVER, DATASET));
+		assertEquals("job2", cache.get(QUERY, SERVER, DATASET + "/other"));
+		
+		assertEquals(1, cache.invalidateDataset(SERVER, null));
+		assertEquals("job3", cache.get(QUERY, "http://otherhost:2420", DATASET));
+	}
+	
+	@Test
+	public void testConnectionDatasets() throws Exception {
+		SparqlConnection conn = new SparqlConnection();
+		conn.addDataInterface("virtuoso", SERVER, DATASET);
+		conn.addDataInterface("virtuoso", SERVER, DATASET + "/extra");
+		conn.addModelInterface("virtuoso", SERVER, DATASET + "/model");
+		
+		QueryResultsCache cache = new QueryResultsCache(10, 0);
+		cache.put(QUERY, conn, "job1");
+		assertEquals("job1", cache.get(QUERY, conn));
+		assertNull(cache.get(QUERY, SERVER, DATASET));	// a different set of datasets
+		
+		// a write to the model or an extra data graph forgets the results
+		assertEquals(0, cache.invalidateDataset(SERVER, DATASET + "/other"));
+		assertEquals(1, cache.invalidateDataset(SERVER, DATASET + "/model"));
+		assertNull(cache.get(QUERY, conn));
+		
+		cache.put(QUERY, conn, "job2");
+		assertEquals(1, cache.invalidateDataset(SERVER, DATASET + "/extra"));
+		assertEquals(0, cache.size());
+	}
+}
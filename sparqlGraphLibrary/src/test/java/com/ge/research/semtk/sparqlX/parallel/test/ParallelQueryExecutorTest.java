@@ -0,0 +1,159 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.sparqlX.parallel.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import com.ge.research.semtk.sparqlX.parallel.ParallelQueryExecutor;
+import com.ge.research.semtk.sparqlX.parallel.SparqlSubquery;
+
+public class ParallelQueryExecutorTest {
+
+	/**
+	 * Subquery that sleeps instead of querying, optionally failing
+	 */
+	private static class SleepingSubquery extends SparqlSubquery {
+		static AtomicInteger running = new AtomicInteger(0);
+		static AtomicInteger maxRunning = new AtomicInteger(0);
+		
+		long sleepMillis;
+		boolean fail;
+		volatile boolean finished = false;
+		
+		SleepingSubquery(String suffix, long sleepMillis, boolean fail) throws Exception {
+			this(suffix, sleepMillis, fail, "http://server:2420");
+		}
+		
+		@SuppressWarnings("unchecked")
+		SleepingSubquery(String suffix, long sleepMillis, boolean fail, String serverUrl) throws Exception {
+			super(new JSONObject() {{
+				put("dataset", "http://dataset");
+				put("servertype", "virtuoso");
+				put("serverurl", serverUrl);
+				put("resultssuffix", suffix);
+				put("query", "select ?x where { ?x ?y ?z }");
+			}});
+			this.sleepMillis = sleepMillis;
+			this.fail = fail;
+		}
+		
+		@Override
+		public void runSparqlQuery() throws Exception {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(this.sleepMillis);
+				if (this.fail) {
+					throw new Exception("failed " + this.getResultsColumnNameSuffix());
+				}
+				this.finished = true;
+			} finally {
+				running.decrementAndGet();
+			}
+		}
+	}
+	
+	@Test
+	public void testEndpointLimit() throws Exception {
+		ParallelQueryExecutor executor = new ParallelQueryExecutor(6, 2, 0);
+		SleepingSubquery.maxRunning.set(0);
+		SleepingSubquery [] subs = new SleepingSubquery[6];
+		for (int i = 0; i < subs.length; i++) {
+			subs[i] = new SleepingSubquery("_" + i, 50, false);
+		}
+		
+		executor.runQueries(Arrays.asList(subs), true);
+		executor.shutdown();
+		
+		assertEquals(2, SleepingSubquery.maxRunning.get());
+		for (SleepingSubquery s : subs) {
+			assertTrue(s.finished);
+			assertNull(s.getException());
+		}
+	}
+	
+	@Test
+	public void testSlowEndpointDoesNotHoldPool() throws Exception {
+		// more subqueries to the slow server than it may run at once, and than there are threads
+		ParallelQueryExecutor executor = new ParallelQueryExecutor(2, 1, 0);
+		SleepingSubquery [] slow = new SleepingSubquery[4];
+		for (int i = 0; i < slow.length; i++) {
+			slow[i] = new SleepingSubquery("_slow" + i, 300, false, "http://slow:2420");
+		}
+		SleepingSubquery quick = new SleepingSubquery("_quick", 10, false, "http://quick:2420");
+		
+		final long start = System.currentTimeMillis();
+		final long [] quickDone = {0};
+		executor.runQueries(Arrays.asList(slow[0], slow[1], slow[2], slow[3], quick), true, new ParallelQueryExecutor.SubqueryListener() {
+			@Override
+			public void subqueryDone(int index, SparqlSubquery subquery) {
+				if (index == 4) {
+					quickDone[0] = System.currentTimeMillis() - start;
+				}
+			}
+		});
+		long total = System.currentTimeMillis() - start;
+		executor.shutdown();
+		
+		assertTrue(quickDone[0] > 0 && quickDone[0] < 250);	// didn't wait behind the slow server's queue
+		assertTrue(total >= 1200);							// slow server's subqueries ran one at a time
+		for (SleepingSubquery s : slow) {
+			assertTrue(s.finished);
+		}
+	}
+	
+	@Test
+	public void testFailureCancelsSiblings() throws Exception {
+		ParallelQueryExecutor executor = new ParallelQueryExecutor(4, 0, 0);
+		SleepingSubquery slow = new SleepingSubquery("_slow", 10000, false);
+		SleepingSubquery bad = new SleepingSubquery("_bad", 10, true);
+		
+		long start = System.currentTimeMillis();
+		executor.runQueries(Arrays.asList(slow, bad), true);
+		executor.shutdown();
+		
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertFalse(slow.finished);
+		assertNull(slow.getException());
+		assertEquals("failed _bad", bad.getException().getMessage());
+	}
+	
+	@Test
+	public void testTimeout() throws Exception {
+		ParallelQueryExecutor executor = new ParallelQueryExecutor(4, 0, 200);
+		SleepingSubquery slow = new SleepingSubquery("_slow", 10000, false);
+		SleepingSubquery quick = new SleepingSubquery("_quick", 10, false);
+		
+		executor.runQueries(Arrays.asList(slow, quick), false);
+		executor.shutdown();
+		
+		assertNotNull(slow.getException());
+		assertTrue(slow.getException().getMessage().contains("timed out"));
+		assertTrue(quick.finished);
+		assertNull(quick.getException());
+	}
+}
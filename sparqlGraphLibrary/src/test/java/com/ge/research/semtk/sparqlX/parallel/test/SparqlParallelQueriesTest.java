@@ -0,0 +1,152 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+package com.ge.research.semtk.sparqlX.parallel.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import com.ge.research.semtk.resultSet.Table;
+import com.ge.research.semtk.resultSet.TableResultSet;
+import com.ge.research.semtk.sparqlX.parallel.SparqlParallelQueries;
+import com.ge.research.semtk.sparqlX.parallel.SparqlSubquery;
+
+public class SparqlParallelQueriesTest {
+
+	private static final String SUBQUERIES_JSON = 
+			"[ { \"dataset\" : \"http://dataset\", \"servertype\" : \"virtuoso\", \"serverurl\" : \"http://server:2420\", \"resultssuffix\" : \"_a\", \"query\" : \"select ?x where { ?x ?y ?z }\" } ]";
+
+	/**
+	 * Subquery that sleeps and then returns a fixed table instead of querying
+	 */
+	private static class TableSubquery extends SparqlSubquery {
+		Table table;
+		long sleepMillis;
+		
+		@SuppressWarnings("unchecked")
+		TableSubquery(String suffix, long sleepMillis, Table table) throws Exception {
+			super(new JSONObject() {{
+				put("dataset", "http://dataset");
+				put("servertype", "virtuoso");
+				put("serverurl", "http://server" + suffix + ":2420");
+				put("resultssuffix", suffix);
+				put("query", "select ?x where { ?x ?y ?z }");
+			}});
+			this.sleepMillis = sleepMillis;
+			this.table = table;
+		}
+		
+		@Override
+		public void runSparqlQuery() throws Exception {
+			Thread.sleep(this.sleepMillis);
+		}
+		
+		@Override
+		public Table getResponseTable() {
+			return this.table;
+		}
+		
+		@Override
+		public void releaseResponseTable() {
+			this.table = null;
+		}
+	}
+	
+	private static Table table(String [] names, String [][] rows) throws Exception {
+		String [] types = new String[names.length];
+		Arrays.fill(types, "http://www.w3.org/2001/XMLSchema#string");
+		ArrayList<ArrayList<String>> rowList = new ArrayList<ArrayList<String>>();
+		for (String [] row : rows) {
+			rowList.add(new ArrayList<String>(Arrays.asList(row)));
+		}
+		return new Table(names, types, rowList);
+	}
+	
+	/**
+	 * Run three subqueries that take the given times and return the fused table from the json written
+	 */
+	private Table runFused(boolean optional, long ... sleeps) throws Throwable {
+		SparqlParallelQueries spq = new SparqlParallelQueries(SUBQUERIES_JSON, "select", optional, "x", "x,a,b,c");
+		ArrayList<SparqlSubquery> subs = new ArrayList<SparqlSubquery>();
+		subs.add(new TableSubquery("_a", sleeps[0], table(new String[] {"x", "a"}, new String[][] {{"1", "a1"}, {"2", "a2"}, {"3", "a3"}, {"4", "a4"}})));
+		subs.add(new TableSubquery("_b", sleeps[1], table(new String[] {"x", "b"}, new String[][] {{"3", "b3"}, {"1", "b1"}, {"5", "b5"}, {"2", "b2"}})));
+		subs.add(new TableSubquery("_c", sleeps[2], table(new String[] {"x", "c"}, new String[][] {{"2", "c2"}, {"1", "c1"}, {"6", "c6"}, {"3", "c3"}, {"1", "c1b"}})));
+		spq.setSubqueries(subs);
+		
+		StringWriter out = new StringWriter();
+		int count = spq.writeFusedResultsJson(out);
+		
+		TableResultSet res = new TableResultSet((JSONObject) new JSONParser().parse(out.toString()));
+		res.throwExceptionIfUnsuccessful();
+		Table t = res.getTable();
+		assertEquals(count, t.getNumRows());
+		return t;
+	}
+	
+	@Test
+	public void testInnerOrderIgnoresTiming() throws Throwable {
+		Table first = runFused(false, 10, 60, 110);
+		Table last = runFused(false, 110, 60, 10);
+		
+		assertEquals(Arrays.asList("x", "a", "b", "c"), Arrays.asList(first.getColumnNames()));
+		assertEquals(4, first.getNumRows());
+		assertEquals(first.toCSVString(), last.toCSVString());
+		
+		// rows follow the last subquery
+		assertEquals("c2", first.getCell(0, 3));
+		assertEquals("c1", first.getCell(1, 3));
+		assertEquals("c3", first.getCell(2, 3));
+		assertEquals("c1b", first.getCell(3, 3));
+	}
+	
+	@Test
+	public void testOptionalOrderIgnoresTiming() throws Throwable {
+		Table first = runFused(true, 10, 60, 110);
+		Table last = runFused(true, 110, 60, 10);
+		
+		assertEquals(7, first.getNumRows());
+		assertEquals(first.toCSVString(), last.toCSVString());
+		
+		// keys in the order first seen, subquery by subquery
+		String [] keys = new String[first.getNumRows()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = first.getCell(i, 0);
+		}
+		assertEquals(Arrays.asList("1", "1", "2", "3", "4", "5", "6"), Arrays.asList(keys));
+	}
+	
+	@Test
+	public void testNoRows() throws Throwable {
+		SparqlParallelQueries spq = new SparqlParallelQueries(SUBQUERIES_JSON, "select", false, "x", "x,a,b");
+		ArrayList<SparqlSubquery> subs = new ArrayList<SparqlSubquery>();
+		subs.add(new TableSubquery("_a", 0, table(new String[] {"x", "a"}, new String[][] {{"1", "a1"}})));
+		subs.add(new TableSubquery("_b", 0, table(new String[] {"x", "b"}, new String[][] {{"2", "b2"}})));
+		spq.setSubqueries(subs);
+		
+		StringWriter out = new StringWriter();
+		assertEquals(0, spq.writeFusedResultsJson(out));
+		Table t = new TableResultSet((JSONObject) new JSONParser().parse(out.toString())).getTable();
+		assertEquals(0, t.getNumRows());
+		assertEquals(3, t.getNumColumns());
+	}
+}
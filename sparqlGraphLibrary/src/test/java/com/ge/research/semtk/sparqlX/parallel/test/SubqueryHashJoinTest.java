@@ -0,0 +1,136 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.sparqlX.parallel.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ge.research.semtk.resultSet.Table;
+import com.ge.research.semtk.sparqlX.parallel.SubqueryHashJoin;
+
+public class SubqueryHashJoinTest {
+
+	private static final List<String> FUSE = Arrays.asList("id");
+	private static final List<String> RETURN = Arrays.asList("id", "name", "val");
+	
+	private SubqueryHashJoin buildJoin(boolean optional) throws Exception {
+		SubqueryHashJoin join = new SubqueryHashJoin(
+				Arrays.asList(new String[]{"id", "name"}, new String[]{"val", "id"}, new String[]{"id", "val"}),
+				Arrays.asList(new String[]{"uri", "string"}, new String[]{"int", "uri"}, new String[]{"uri", "float"}),
+				Arrays.asList("_a", "_b", "_c"),
+				FUSE, RETURN, optional);
+		
+		join.addRow(0, row("1", "one"));
+		join.addRow(0, row("1", "uno"));
+		join.addRow(0, row("1", "one"));		// duplicate
+		join.addRow(0, row("2", "two"));
+		join.addRow(1, row("10", "1"));
+		join.addRow(1, row("20", "2"));
+		join.addRow(2, row("1", "1.5"));
+		join.addRow(1, row("30", "3"));
+		return join;
+	}
+	
+	@Test
+	public void testColumns() throws Exception {
+		SubqueryHashJoin join = buildJoin(false);
+		assertArrayEquals(new String[]{"id", "name", "val_b", "val_c"}, join.getColumnNames());
+		assertArrayEquals(new String[]{"uri", "string", "int", "float"}, join.getColumnTypes());
+	}
+	
+	@Test
+	public void testInner() throws Exception {
+		Table table = buildJoin(false).getTable();
+		
+		assertEquals(2, table.getNumRows());
+		assertEquals(row("1", "one", "10", "1.5"), table.getRow(0));
+		assertEquals(row("1", "uno", "10", "1.5"), table.getRow(1));
+	}
+	
+	@Test
+	public void testOptional() throws Exception {
+		Table table = buildJoin(true).getTable();
+		
+		assertEquals(4, table.getNumRows());
+		assertEquals(row("1", "one", "10", "1.5"), table.getRow(0));
+		assertEquals(row("2", "two", "20", ""), table.getRow(2));
+		assertEquals(row("3", "", "30", ""), table.getRow(3));		// id comes from the second subquery
+	}
+	
+	@Test
+	public void testCompositeKeyAndStreaming() throws Exception {
+		SubqueryHashJoin join = new SubqueryHashJoin(
+				Arrays.asList(new String[]{"a", "b", "x"}, new String[]{"b", "a", "y"}),
+				Arrays.asList(new String[]{"string", "string", "string"}, new String[]{"string", "string", "int"}),
+				Arrays.asList("_1", "_2"),
+				Arrays.asList("a", "b"), Arrays.asList("a", "b", "x", "y"), false);
+		
+		join.addRow(0, row("p", "q", "x1"));
+		join.addRow(0, row("p", "r", "x2"));
+		join.addRow(1, row("q", "p", "5"));
+		join.addRow(1, row("p", "q", "6"));		// a and b swapped: no match
+		
+		final ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+		int count = join.emitRows(new SubqueryHashJoin.RowHandler() {
+			public void handleRow(ArrayList<String> row) {
+				rows.add(row);
+			}
+		});
+		
+		assertEquals(1, count);
+		assertEquals(row("p", "q", "x1", "5"), rows.get(0));
+	}
+	
+	@Test
+	public void testProbe() throws Exception {
+		SubqueryHashJoin join = new SubqueryHashJoin(Arrays.asList("_a", "_b", "_c"), FUSE, RETURN, false);
+		
+		// the third subquery finishes first
+		join.setInputColumns(2, new String[]{"id", "val"}, new String[]{"float", "uri"});
+		join.addRow(2, row("1", "1.5"));
+		join.addRow(2, row("2", "2.5"));
+		join.setInputColumns(0, new String[]{"id", "name"}, new String[]{"uri", "string"});
+		join.addRow(0, row("1", "one"));
+		join.addRow(0, row("2", "two"));
+		join.addRow(0, row("3", "three"));
+		
+		final ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+		int count = join.probeRows(1, new String[]{"val", "id"}, new String[]{"int", "uri"},
+				Arrays.asList(row("20", "2"), row("30", "3"), row("20", "2"), row("10", "1")),
+				new SubqueryHashJoin.RowHandler() {
+					public void handleRow(ArrayList<String> row) {
+						rows.add(row);
+					}
+				});
+		
+		assertEquals(2, count);
+		assertArrayEquals(new String[]{"id", "name", "val_b", "val_c"}, join.getColumnNames());
+		assertEquals(row("2", "two", "20", "2.5"), rows.get(0));
+		assertEquals(row("1", "one", "10", "1.5"), rows.get(1));
+	}
+	
+	private static ArrayList<String> row(String... values) {
+		return new ArrayList<String>(Arrays.asList(values));
+	}
+}
@@ -31,6 +31,9 @@ public class ResultsProperties {
 	private int sampleLines = 1;
 	private Boolean cleanUpThreadEnabled = true;
 	private Integer cleanUpThreadFrequency;
+	private Integer cleanUpSweepMinutes = 10;
+	private Integer cleanUpQuotaMB = 0;			// 0 for no quota
+	private Integer cleanUpArchiveMinutes = 0;	// 0 to never archive
 	
 	public String getBaseURL() {
 		return baseURL;
@@ -62,4 +65,22 @@ public class ResultsProperties {
 	public void setCleanUpThreadFrequency(Integer cleanUpThreadFrequency) {
 		this.cleanUpThreadFrequency = cleanUpThreadFrequency;
 	}
+	public Integer getCleanUpSweepMinutes() {
+		return cleanUpSweepMinutes;
+	}
+	public void setCleanUpSweepMinutes(Integer cleanUpSweepMinutes) {
+		this.cleanUpSweepMinutes = cleanUpSweepMinutes;
+	}
+	public Integer getCleanUpQuotaMB() {
+		return cleanUpQuotaMB;
+	}
+	public void setCleanUpQuotaMB(Integer cleanUpQuotaMB) {
+		this.cleanUpQuotaMB = cleanUpQuotaMB;
+	}
+	public Integer getCleanUpArchiveMinutes() {
+		return cleanUpArchiveMinutes;
+	}
+	public void setCleanUpArchiveMinutes(Integer cleanUpArchiveMinutes) {
+		this.cleanUpArchiveMinutes = cleanUpArchiveMinutes;
+	}
 }
@@ -19,13 +19,13 @@ package com.ge.research.semtk.services.results;
 
 public class ResultsRequestBodyFinalizeTableResultsJson extends ResultsRequestBody {
 
-	private int rowCount;
+	private Integer rowCount = null;	// only sent when rows were stored before the count was known
 
-	public int getRowCount() {
+	public Integer getRowCount() {
 		return rowCount;
 	}
 
-	public void setRowCount(int rowCount) {
+	public void setRowCount(Integer rowCount) {
 		this.rowCount = rowCount;
 	}
 		
@@ -21,6 +21,7 @@ public class ResultsRequestBodyMaxRows extends ResultsRequestBody {
 	
 	public Integer maxRows;
 	public Integer startRow = 0;	
+	public Integer waitMillis = 0;		// for results still being stored: how long to wait for the requested rows
 
 	public Integer getMaxRows() {
 		return maxRows;
@@ -44,4 +45,12 @@ public class ResultsRequestBodyMaxRows extends ResultsRequestBody {
 		return this.startRow;
 	}
 	
+	public Integer getWaitMillis() {
+		return waitMillis;
+	}
+	
+	public void setWaitMillis(Integer waitMillis) {
+		this.waitMillis = waitMillis;
+	}
+	
 }
@@ -0,0 +1,48 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.services.results;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import com.ge.research.semtk.edc.TableResultsQuery;
+
+public class ResultsRequestBodyQueryTableResults extends ResultsRequestBodyMaxRows {
+
+	public String query;
+	public String newJobId;		// if set, store the output for this job instead of returning it
+
+	public TableResultsQuery getQuery() throws Exception {
+		if (query == null || query.isEmpty()) {
+			return new TableResultsQuery();
+		}
+		return TableResultsQuery.fromJson((JSONObject) (new JSONParser()).parse(query));
+	}
+
+	public void setQuery(String query) {
+		this.query = query;
+	}
+
+	public String getNewJobId() {
+		return newJobId;
+	}
+
+	public void setNewJobId(String newJobId) {
+		this.newJobId = newJobId;
+	}
+}
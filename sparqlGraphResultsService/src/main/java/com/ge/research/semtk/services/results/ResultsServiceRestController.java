@@ -41,6 +41,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URL;
@@ -51,6 +52,8 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
 import com.ge.research.semtk.edc.JobTracker;
+import com.ge.research.semtk.edc.TableResultsQuery;
+import com.ge.research.semtk.edc.TableResultsRetention;
 import com.ge.research.semtk.edc.TableResultsSerializer;
 import com.ge.research.semtk.edc.TableResultsStorage;
 import com.ge.research.semtk.logging.easyLogger.LoggerRestClient;
@@ -74,6 +77,19 @@ public class ResultsServiceRestController {
 	@Autowired
 	ResultsLoggingProperties log_prop;
 	
+	// tracks use of stored results for cleanup.  Null if cleanup is disabled.
+	private static TableResultsRetention retention = null;
+	
+	public static void setRetention(TableResultsRetention r) {
+		retention = r;
+	}
+	
+	// shared by all requests so its metadata cache is reused
+	private static TableResultsStorage storage = null;
+	
+	// longest a request waits for rows of results still being stored
+	private static final int MAX_WAIT_MILLIS = 60 * 1000;
+	
 	/**
 	 * Call 1 of 3 for storing JSON results.
 	 * Writes JSON start, column names, and column types.
@@ -90,6 +106,7 @@ public class ResultsServiceRestController {
 		SimpleResultSet res = new SimpleResultSet();
 		try{
 			getTableResultsStorage().storeTableResultsJsonInitialize(requestBody.jobId, requestBody.getJsonRenderedHeader());
+			useResults(requestBody.jobId);
 			
 		    res.setSuccess(true);
 		} catch(Exception e){
@@ -124,6 +141,7 @@ public class ResultsServiceRestController {
 
 		SimpleResultSet res = new SimpleResultSet();
 		try{
+			useResults(requestBody.jobId);
 			getTableResultsStorage().storeTableResultsJsonAddIncremental(requestBody.jobId, Utility.decompress(requestBody.getContents()));
 		    res.setSuccess(true);
 		}
@@ -151,7 +169,8 @@ public class ResultsServiceRestController {
 
 		SimpleResultSet res = new SimpleResultSet();
 		try{
-			URL url = getTableResultsStorage().storeTableResultsJsonFinalize(requestBody.jobId); 
+			URL url = getTableResultsStorage().storeTableResultsJsonFinalize(requestBody.jobId, requestBody.getRowCount()); 
+			useResults(requestBody.jobId);
 		    getJobTracker().setJobResultsURL(requestBody.jobId, url);  // store URL with the job		
 		    res.setSuccess(true);
 		} catch(Exception e){
@@ -164,14 +183,48 @@ public class ResultsServiceRestController {
 	}
 	
 	/**
-	 * Return a CSV file containing results (possibly truncated) for job
+	 * Give a job the table results already stored for another job.
+	 * The job gets its own hard link (or copy) of the data file, so either job's results may be deleted or archived independently.
+	 */
+	@CrossOrigin
+	@RequestMapping(value="/linkTableResults", method=RequestMethod.POST)
+	public JSONObject linkTableResults(@RequestBody ResultsRequestBodyLinkTableResults requestBody){
+
+		LoggerRestClient logger = LoggerRestClient.loggerConfigInitialization(log_prop);
+		LoggerRestClient.easyLog(logger, "ResultsService", "linkTableResults start", "jobId", requestBody.jobId, "sourceJobId", requestBody.sourceJobId);
+    	logToStdout("Results Service linkTableResults start JobId=" + requestBody.jobId + " SourceJobId=" + requestBody.sourceJobId);
+
+		SimpleResultSet res = new SimpleResultSet();
+		try{
+			URL url = getJobTracker().getFullResultsURL(requestBody.sourceJobId);
+			if (url == null) {
+				throw new Exception("No results are stored for job " + requestBody.sourceJobId);
+			}
+			useResults(url);		// restores the data file if archived
+			URL linkedURL = getTableResultsStorage().linkTableResults(url, requestBody.jobId);		// fails if the file has been cleaned up
+			useResults(linkedURL);
+		    getJobTracker().setJobResultsURL(requestBody.jobId, linkedURL);
+		    res.setSuccess(true);
+		} catch(Exception e){
+	    	res.setSuccess(false);
+	    	res.addRationaleMessage(e.toString());
+		    LoggerRestClient.easyLog(logger, "ResultsService", "linkTableResults exception", "message", e.toString());
+		}
+		return res.toJson();
+	}
+
+	/**
+	 * Return a CSV file containing results (possibly truncated) for job.
+	 * For results still being stored, only the rows committed so far are returned.
 	 */
 	@CrossOrigin
 	@RequestMapping(value="/getTableResultsCsv", method= RequestMethod.POST)
 	public void getTableResultsCsv(@RequestBody ResultsRequestBodyCsvMaxRows requestBody, HttpServletResponse resp){
 	
 		try{
-	    	URL url = getJobTracker().getFullResultsURL(requestBody.jobId);  
+	    	URL url = getResultsURL(requestBody.jobId);  
+	    	useResults(url);
+	    	waitForRows(url, requestBody);
 			TableResultsSerializer retval = getTableResultsStorage().getCsvTable(url, requestBody.maxRows, requestBody.getStartRow()); 			
 			
 			if(requestBody.getAppendDownloadHeaders()){
@@ -198,6 +251,7 @@ public class ResultsServiceRestController {
 			if(jobId == null){ throw new Exception("no jobId passed to endpoint."); }
 			
 	    	URL url = getJobTracker().getFullResultsURL(jobId);  
+	    	useResults(url);
 			TableResultsSerializer retval = getTableResultsStorage().getJsonTable(url, maxRows, 0); 			
 			resp.setHeader("Content-Disposition", "attachment; filename=\"" + jobId + ".json" + "\"; filename*=\"" + jobId + ".json" +"\"");
 			retval.writeToStream(resp.getWriter());
@@ -220,6 +274,7 @@ public class ResultsServiceRestController {
 			if(jobId == null){ throw new Exception("no jobId passed to endpoint."); }
 			
 	    	URL url = getJobTracker().getFullResultsURL(jobId);  
+	    	useResults(url);
 			TableResultsSerializer retval = getTableResultsStorage().getCsvTable(url, maxRows, 0); 			
 
 			resp.setHeader("Content-Disposition", "attachment; filename=\"" + jobId + ".csv" + "\"; filename*=\"" + jobId + ".csv" +"\"");
@@ -232,6 +287,51 @@ public class ResultsServiceRestController {
 		System.err.println("done writing output");
 	}
 	
+	/**
+	 * Return results (possibly truncated) for job in a typed columnar binary format.
+	 * See TableResultsColumnarWriter for the format, and TableResultsColumnarReader to read it.
+	 */
+	@CrossOrigin
+	@RequestMapping(value="/getTableResultsColumnar", method= RequestMethod.POST)
+	public void getTableResultsColumnar(@RequestBody ResultsRequestBodyMaxRows requestBody, HttpServletResponse resp){
+	
+		try{
+	    	URL url = getResultsURL(requestBody.jobId);  
+	    	useResults(url);
+	    	waitForRows(url, requestBody);
+			writeColumnar(url, requestBody.maxRows, requestBody.getStartRow(), resp);
+	    } catch (Exception e) {
+		    e.printStackTrace();
+	    }
+		System.err.println("done writing output");
+	}
+	
+	@CrossOrigin
+	@RequestMapping(value="/getTableResultsColumnarForWebClient", method= RequestMethod.GET)
+	public void getTableResultsColumnarForWebClient(@RequestParam String jobId, @RequestParam(required=false) Integer maxRows, HttpServletResponse resp){
+	
+		try{
+			if(jobId == null){ throw new Exception("no jobId passed to endpoint."); }
+			
+	    	URL url = getJobTracker().getFullResultsURL(jobId);  
+	    	useResults(url);
+			resp.setHeader("Content-Disposition", "attachment; filename=\"" + jobId + ".strc" + "\"; filename*=\"" + jobId + ".strc" +"\"");
+			writeColumnar(url, maxRows, 0, resp);
+			
+	    } catch (Exception e) {
+		    e.printStackTrace();
+	    }
+		System.err.println("done writing output");
+	}
+	
+	private void writeColumnar(URL url, Integer maxRows, Integer startRow, HttpServletResponse resp) throws Exception {
+		resp.setContentType("application/octet-stream");
+		BufferedOutputStream out = new BufferedOutputStream(resp.getOutputStream());
+		int rows = getTableResultsStorage().writeColumnarTable(url, maxRows, startRow, out);
+		out.flush();
+		System.err.println("wrote columnar rows: " + rows);
+	}
+	
 	@CrossOrigin
 	@RequestMapping(value="/getTableResultsRowCount", method= RequestMethod.POST)
 	public JSONObject getTableResultsRowCount(@RequestBody ResultsRequestBody requestBody, HttpServletResponse resp){
@@ -239,11 +339,14 @@ public class ResultsServiceRestController {
 		SimpleResultSet retTrue = null;
 		
 		try{
-	    	URL url = getJobTracker().getFullResultsURL(requestBody.jobId);  
-			int retval = getTableResultsStorage().getResultsRowCount(url);	
+	    	URL url = getResultsURL(requestBody.jobId);  
+	    	useResults(url);
+	    	boolean inProgress = getTableResultsStorage().isInProgress(url);
+			int retval = inProgress ? (int) getTableResultsStorage().getCommittedRowCount(url) : getTableResultsStorage().getResultsRowCount(url);	
 			
 			retTrue = new SimpleResultSet(true);
 			retTrue.addResult("rowCount", retval);
+			retTrue.addResult("inProgress", String.valueOf(inProgress));	// rowCount is committed rows so far
 	    } catch (Exception e) {
 		    retTrue = new SimpleResultSet(false, e.getMessage());
 	    }
@@ -253,14 +356,17 @@ public class ResultsServiceRestController {
 	
 	
 	/**
-	 * Return a JSON object containing results (possibly truncated) for job
+	 * Return a JSON object containing results (possibly truncated) for job.
+	 * For results still being stored, only the rows committed so far are returned.
 	 */
 	@CrossOrigin
 	@RequestMapping(value="/getTableResultsJson", method= RequestMethod.POST)
 	public void getTableResultsJson(@RequestBody ResultsRequestBodyMaxRows requestBody, HttpServletResponse resp){
 	
 		try{
-	    	URL url = getJobTracker().getFullResultsURL(requestBody.jobId);  
+	    	URL url = getResultsURL(requestBody.jobId);  
+	    	useResults(url);
+	    	waitForRows(url, requestBody);
 			TableResultsSerializer retval = getTableResultsStorage().getJsonTable(url, requestBody.maxRows, requestBody.getStartRow());	
 			
 			
@@ -286,6 +392,54 @@ public class ResultsServiceRestController {
 		
 	}
 	
+	/**
+	 * Run simple operators (filter, select, group-by count, distinct, sort) over a job's stored results.
+	 * If newJobId is given, the output is stored as that job's results.
+	 * Otherwise the page of output from startRow (up to maxRows) is returned as a table.
+	 */
+	@CrossOrigin
+	@RequestMapping(value="/queryTableResults", method= RequestMethod.POST)
+	public JSONObject queryTableResults(@RequestBody ResultsRequestBodyQueryTableResults requestBody){
+
+		LoggerRestClient logger = LoggerRestClient.loggerConfigInitialization(log_prop);
+		LoggerRestClient.easyLog(logger, "ResultsService", "queryTableResults start", "jobId", requestBody.jobId, "query", String.valueOf(requestBody.query));
+		logToStdout("Results Service queryTableResults start JobId=" + requestBody.jobId);
+
+		try{
+			URL url = getJobTracker().getFullResultsURL(requestBody.jobId);
+			if (url == null) {
+				throw new Exception("No results are stored for job " + requestBody.jobId);
+			}
+			useResults(url);
+			TableResultsQuery query = requestBody.getQuery();
+
+			if (requestBody.newJobId != null) {
+				if (requestBody.newJobId.equals(requestBody.jobId)) {
+					throw new Exception("newJobId must differ from jobId");
+				}
+				URL newUrl = getTableResultsStorage().storeQueryResults(url, query, requestBody.newJobId);
+				useResults(requestBody.newJobId);
+				getJobTracker().setJobResultsURL(requestBody.newJobId, newUrl);
+
+				SimpleResultSet res = new SimpleResultSet(true);
+				res.addResult("jobId", requestBody.newJobId);
+				res.addResult("rowCount", getTableResultsStorage().getResultsRowCount(newUrl));
+				return res.toJson();
+			} else {
+				Table table = getTableResultsStorage().getQueryResultsTable(url, query, requestBody.getStartRow(), requestBody.maxRows);
+				TableResultSet res = new TableResultSet(true);
+				res.addResults(table);
+				return res.toJson();
+			}
+		} catch (Exception e) {
+			LoggerRestClient.easyLog(logger, "ResultsService", "queryTableResults exception", "message", e.toString());
+			e.printStackTrace();
+			TableResultSet res = new TableResultSet(false);
+			res.addRationaleMessage(e.toString());
+			return res.toJson();
+		}
+	}
+	
 	/**
 	 * Gets a CSV URL and a JSON URL containing results for a job 
 	 * Keeping this only for backwards compatibility with v1.3 or earlier
@@ -340,6 +494,9 @@ public class ResultsServiceRestController {
 	    	URL fullURL = getJobTracker().getFullResultsURL(requestBody.jobId);
 	    	if (fullURL != null) {
 	    		getTableResultsStorage().deleteStoredFile(fullURL);
+	    		if (retention != null) {
+	    			retention.remove(fullURL);		// also deletes the data file
+	    		}
 	    		getJobTracker().deleteJob(requestBody.jobId); 
 	    		LoggerRestClient.easyLog(logger, "ResultsService", "deleteStorage URLs", "fullURL", fullURL.toString());
 	    	}		    
@@ -352,8 +509,47 @@ public class ResultsServiceRestController {
 	    return res.toJson();
 	}
 	
+	/**
+	 * Note use of a job's stored results, restoring them if archived
+	 */
+	private void useResults(String jobId) throws Exception {
+		if (retention != null) {
+			retention.use(jobId);
+		}
+	}
+	
+	private void useResults(URL url) throws Exception {
+		if (retention != null && url != null) {
+			retention.use(url);
+		}
+	}
+	
+	/**
+	 * Get the URL of a job's results, whether finalized or still being stored
+	 */
+	private URL getResultsURL(String jobId) throws Exception {
+		URL url = getTableResultsStorage().getInProgressURL(jobId);
+		return (url != null) ? url : getJobTracker().getFullResultsURL(jobId);
+	}
+	
+	/**
+	 * For results still being stored, wait a while for the requested rows to be committed
+	 */
+	private void waitForRows(URL url, ResultsRequestBodyMaxRows requestBody) throws Exception {
+		Integer wait = requestBody.getWaitMillis();
+		if (wait != null && wait > 0) {
+			long rowsWanted = (requestBody.maxRows == null) ? Long.MAX_VALUE : (long) requestBody.getStartRow() + requestBody.maxRows;
+			getTableResultsStorage().waitForCommittedRows(url, rowsWanted, Math.min(wait, MAX_WAIT_MILLIS));
+		}
+	}
+	
 	private TableResultsStorage getTableResultsStorage() throws Exception {
-		return new TableResultsStorage(prop.getFileLocation());
+		synchronized (ResultsServiceRestController.class) {
+			if (storage == null) {
+				storage = new TableResultsStorage(prop.getFileLocation());
+			}
+			return storage;
+		}
 	}
 
 	private JobTracker getJobTracker() throws Exception{
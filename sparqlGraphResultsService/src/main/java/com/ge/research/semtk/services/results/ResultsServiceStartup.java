@@ -23,12 +23,14 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
 
-import com.ge.research.semtk.services.results.cleanUp.DeleteThread;
+import com.ge.research.semtk.edc.TableResultsRetention;
+import com.ge.research.semtk.services.results.cleanUp.RetentionThread;
 
 @Component
 public class ResultsServiceStartup implements ApplicationListener<ApplicationReadyEvent> {
 
   private static final Integer DEFAULT_CLEANUP_FREQUENCY = 120; // time in minutes.
+  private static final Integer DEFAULT_CLEANUP_SWEEP_MINUTES = 10;
 
   ResultsEdcConfigProperties edcProp;
   
@@ -49,6 +51,9 @@ public class ResultsServiceStartup implements ApplicationListener<ApplicationRea
 	  System.out.println("results.edc.services.jobEndpointPassword: " + event.getApplicationContext().getEnvironment().getProperty("results.edc.services.jobEndpointPassword"));	
 	  System.out.println("results.cleanUpThreadEnabled: " + event.getApplicationContext().getEnvironment().getProperty("results.cleanUpThreadEnabled"));
 	  System.out.println("results.cleanUpThreadFrequency: " + event.getApplicationContext().getEnvironment().getProperty("results.cleanUpThreadFrequency"));
+	  System.out.println("results.cleanUpSweepMinutes: " + event.getApplicationContext().getEnvironment().getProperty("results.cleanUpSweepMinutes"));
+	  System.out.println("results.cleanUpQuotaMB: " + event.getApplicationContext().getEnvironment().getProperty("results.cleanUpQuotaMB"));
+	  System.out.println("results.cleanUpArchiveMinutes: " + event.getApplicationContext().getEnvironment().getProperty("results.cleanUpArchiveMinutes"));
 	  System.out.println("-----------------------");
 	  
 	  cleanUpFileLocation(event);
@@ -92,8 +97,26 @@ public class ResultsServiceStartup implements ApplicationListener<ApplicationRea
 		  // get the file storage location:
 		  String fileStore = event.getApplicationContext().getEnvironment().getProperty("results.fileLocation");
 			  
+		  // results not used within cleanUpFreq are deleted, as are those past the quota (least recently used first),
+		  // along with their job metadata.
+		  // results not used within the archive time are compressed into an archive directory.
+		  int sweepMinutes = getIntProperty(event, "results.cleanUpSweepMinutes", DEFAULT_CLEANUP_SWEEP_MINUTES);
+		  long quotaMB = getIntProperty(event, "results.cleanUpQuotaMB", 0);
+		  long archiveMinutes = getIntProperty(event, "results.cleanUpArchiveMinutes", 0);
+		  
+		  TableResultsRetention retention;
+		  try{
+			  retention = new TableResultsRetention(fileStore, quotaMB * 1024 * 1024, cleanUpFreq * 60L * 1000, archiveMinutes * 60 * 1000);
+		  }
+		  catch(Exception e){
+			  System.err.println("Unable to set up results retention. no cleanup will be performed: " + e.getMessage());
+			  e.printStackTrace();
+			  return;
+		  }
+		  ResultsServiceRestController.setRetention(retention);
+			  
 		  // setup and run the actual thread. 
-		  DeleteThread ripper = new DeleteThread(fileStore, cleanUpFreq, edcProp);
+		  RetentionThread ripper = new RetentionThread(retention, Math.min(sweepMinutes, cleanUpFreq), edcProp);
 		  ripper.start();
 	  }
 	  else{
@@ -103,6 +126,17 @@ public class ResultsServiceStartup implements ApplicationListener<ApplicationRea
 	  
   }
   
+  private int getIntProperty(final ApplicationReadyEvent event, String name, int defaultValue){
+	  String val = event.getApplicationContext().getEnvironment().getProperty(name);
+	  try{
+		  return (val == null) ? defaultValue : Integer.parseInt(val.trim());
+	  }
+	  catch(NumberFormatException e){
+		  System.err.println(name + " is not an integer. Using " + defaultValue);
+		  return defaultValue;
+	  }
+  }
+  
   private void createResultsEdcConfigProperties(final ApplicationReadyEvent event){
 	  
 	  this.edcProp = new ResultsEdcConfigProperties();
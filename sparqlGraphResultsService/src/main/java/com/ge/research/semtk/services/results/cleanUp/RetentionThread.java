@@ -0,0 +1,94 @@
+/**
+ ** Copyright 2017 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.services.results.cleanUp;
+
+import java.util.ArrayList;
+
+import com.ge.research.semtk.edc.JobTracker;
+import com.ge.research.semtk.edc.TableResultsRetention;
+import com.ge.research.semtk.edc.TableResultsStorage;
+import com.ge.research.semtk.services.results.ResultsEdcConfigProperties;
+
+/**
+ * Periodically sweeps stored results (see TableResultsRetention)
+ * and deletes the job metadata of results the sweep deleted.
+ */
+public class RetentionThread extends Thread {
+
+	private TableResultsRetention retention;
+	private int runFrequencyInMilliseconds;
+	private JobTracker jTracker;
+	
+	/**
+	 * @param retention - the stored results to sweep
+	 * @param sweepFrequencyInMinutes - time between sweeps
+	 * @param edcProp
+	 */
+	public RetentionThread(TableResultsRetention retention, int sweepFrequencyInMinutes, ResultsEdcConfigProperties edcProp){
+		this.retention = retention;
+		this.runFrequencyInMilliseconds = sweepFrequencyInMinutes * 60 * 1000;
+		this.setDaemon(true);
+		try {
+			this.jTracker = new JobTracker(edcProp);
+		} catch (Exception e) {
+			// something failed when getting the jobtracker. report it but continue anyway
+			System.err.println("unable to get a job tracker instance. reason given: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+			
+	public void run() {
+		
+		System.err.println("Clean up initialized...");
+		
+		while(true){
+			try{
+				System.err.println("Clean up started...");
+				
+				// close data files of jobs no longer writing, then cleanup files.
+				TableResultsStorage.closeIdleDataWriters(this.runFrequencyInMilliseconds);
+				ArrayList<String> deletedJobIds = new ArrayList<String>();
+				System.err.println(this.retention.sweep(deletedJobIds));
+				
+				// cleanup meta data of the jobs whose results are gone.
+				if(this.jTracker != null){
+					for(String jobId : deletedJobIds){
+						try{
+							this.jTracker.deleteJob(jobId);
+						}
+						catch(Exception e){
+							System.err.println("Clean up could not delete job " + jobId + ": " + e.getMessage());
+						}
+					}
+				}
+			}
+			catch(Exception e){
+				System.err.println("Clean up failed: " + e.getMessage());
+				e.printStackTrace();
+			}
+			try {
+				System.err.println("Clean up about to sleep for " + (double)runFrequencyInMilliseconds/(60 * 1000) + " minutes. ");
+				Thread.sleep(runFrequencyInMilliseconds);
+			} catch (InterruptedException e) {
+				System.err.println("Clean up interrupted");
+				return;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+/**
+ ** Copyright 2016 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.services.sparql;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Threads and limits for running the subqueries of parallel queries.
+ */
+@Configuration
+@ConfigurationProperties(prefix="parallel", ignoreUnknownFields = true)
+public class SparqlParallelQueryProperties {
+	
+	private int poolSize = 8;
+	private int maxPerEndpoint = 4;
+	private int subqueryTimeoutSec = 0;
+	
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public int getMaxPerEndpoint() {
+		return maxPerEndpoint;
+	}
+
+	public void setMaxPerEndpoint(int maxPerEndpoint) {
+		this.maxPerEndpoint = maxPerEndpoint;
+	}
+
+	public int getSubqueryTimeoutSec() {
+		return subqueryTimeoutSec;
+	}
+
+	public void setSubqueryTimeoutSec(int subqueryTimeoutSec) {
+		this.subqueryTimeoutSec = subqueryTimeoutSec;
+	}
+}
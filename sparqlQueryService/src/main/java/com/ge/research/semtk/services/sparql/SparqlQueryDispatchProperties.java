@@ -0,0 +1,58 @@
+/**
+ ** Copyright 2017 General Electric Company
+ **
+ **
+ ** Licensed under the Apache License, Version 2.0 (the "License");
+ ** you may not use this file except in compliance with the License.
+ ** You may obtain a copy of the License at
+ ** 
+ **     http://www.apache.org/licenses/LICENSE-2.0
+ ** 
+ ** Unless required by applicable law or agreed to in writing, software
+ ** distributed under the License is distributed on an "AS IS" BASIS,
+ ** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ ** See the License for the specific language governing permissions and
+ ** limitations under the License.
+ */
+
+package com.ge.research.semtk.services.sparql;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Dispatcher to notify after auth queries change a dataset, so it drops cached results.
+ * No server means none.
+ */
+@Configuration
+@ConfigurationProperties(prefix="dispatch", ignoreUnknownFields = true)
+public class SparqlQueryDispatchProperties {
+	
+	private String serviceProtocol = "http";
+	private String serviceServer = "";
+	private int servicePort = 0;
+	
+	public String getServiceProtocol() {
+		return serviceProtocol;
+	}
+
+	public void setServiceProtocol(String serviceProtocol) {
+		this.serviceProtocol = serviceProtocol;
+	}
+
+	public String getServiceServer() {
+		return serviceServer;
+	}
+
+	public void setServiceServer(String serviceServer) {
+		this.serviceServer = serviceServer;
+	}
+
+	public int getServicePort() {
+		return servicePort;
+	}
+
+	public void setServicePort(int servicePort) {
+		this.servicePort = servicePort;
+	}
+}
@@ -35,6 +35,9 @@ import com.ge.research.semtk.resultSet.GeneralResultSet;
 import com.ge.research.semtk.resultSet.SimpleResultSet;
 import com.ge.research.semtk.sparqlX.SparqlEndpointInterface;
 import com.ge.research.semtk.sparqlX.SparqlResultTypes;
+import com.ge.research.semtk.sparqlX.asynchronousQuery.QueryResultsCache;
+import com.ge.research.semtk.sparqlX.dispatch.client.DispatchClientConfig;
+import com.ge.research.semtk.sparqlX.dispatch.client.DispatchRestClient;
 import com.ge.research.semtk.sparqlX.parallel.SparqlParallelQueries;
 
 /**
@@ -72,6 +75,8 @@ public class SparqlQueryServiceRestController {
 	
 	@Autowired
 	private SparqlQueryServiceProperties serviceProps; 
+	@Autowired
+	private SparqlQueryDispatchProperties dispatchProps;
 	/**
 	 * Execute (non-auth) query 
 	 */
@@ -148,6 +153,9 @@ public class SparqlQueryServiceRestController {
 			return (new SimpleResultSet(false, e.getMessage())).toJson();
 		}		
 		resultSet = sei.executeQueryAndBuildResultSet(requestBody.query, SparqlResultTypes.valueOf(requestBody.resultType));
+		if(QueryResultsCache.isUpdate(requestBody.query)){
+			invalidateDispatchCache(sei.getServerAndPort(), sei.getDataset());
+		}
 		System.out.println("Result code:" + resultSet.getResultCodeString());
 		return resultSet.toJson();
 	}	
@@ -179,13 +187,14 @@ public class SparqlQueryServiceRestController {
 		}		
 		String dropGraphQuery = "drop graph <" + requestBody.dataset + ">";  // drop query
 		resultSet = sei.executeQueryAndBuildResultSet(dropGraphQuery, SparqlResultTypes.CONFIRM);
+		invalidateDispatchCache(sei.getServerAndPort(), sei.getDataset());
 		return resultSet.toJson();
 	}	
 	
 	
 	/**
 	 * Executes multiple subqueries in parallel and fuses the results.  
-	 * Returns a table result set in JSON format.
+	 * Returns a table result set in JSON format, written a row at a time as the rows are fused.
 	 * 
 	 * subqueriesJson		JSON containing triple store connection and subqueries
 	 * subqueryType			"select" supported for now, perhaps others in the future
@@ -195,21 +204,25 @@ public class SparqlQueryServiceRestController {
 	 */
 	@CrossOrigin
 	@RequestMapping(value="/parallelQuery", method= RequestMethod.POST)
-	public JSONObject parallelQuery(@RequestBody SparqlParallelQueryRequestBody requestBody) {	
+	public void parallelQuery(@RequestBody SparqlParallelQueryRequestBody requestBody, HttpServletResponse resp) {	
 
 		logToStdout("Sparql Query Service start parallelQuery");
 
 		try{
+			resp.setContentType("application/json");
 			SparqlParallelQueries spq = new SparqlParallelQueries (requestBody.subqueriesJson, requestBody.subqueryType, requestBody.isSubqueryOptional, requestBody.columnsToFuseOn, requestBody.columnsToReturn);
-			spq.runQueries ();
-			JSONObject tableResultSetJSON = spq.returnFusedResults();
-			return tableResultSetJSON;			
-		} catch (Exception e) {			
-			e.printStackTrace();	
-			return (new SimpleResultSet(false, e.getMessage())).toJson();
+			spq.writeFusedResultsJson(resp.getWriter());
 		} catch (Throwable e) {
 			e.printStackTrace();	
-			return (new SimpleResultSet(false, e.getMessage())).toJson();
+			// subquery failures are thrown before any rows are written
+			if (!resp.isCommitted()) {
+				try {
+					resp.resetBuffer();
+					resp.getWriter().write((new SimpleResultSet(false, e.getMessage())).toJson().toJSONString());
+				} catch (Exception e2) {
+					e2.printStackTrace();
+				}
+			}
 		}
 	}	
 
@@ -274,6 +287,7 @@ public class SparqlQueryServiceRestController {
 		}	
 		
 		resultSet = sei.executeQueryAndBuildResultSet(query, SparqlResultTypes.CONFIRM);
+		invalidateDispatchCache(sei.getServerAndPort(), sei.getDataset());
 		return resultSet.toJson();
 	}	
 	/**
@@ -304,6 +318,7 @@ public class SparqlQueryServiceRestController {
 		}		
 		String query = "clear all";  // drop query
 		resultSet = sei.executeQueryAndBuildResultSet(query, SparqlResultTypes.CONFIRM);
+		invalidateDispatchCache(sei.getServerAndPort(), null);		// every graph on the server
 		return resultSet.toJson();
 	}	
 	
@@ -344,6 +359,7 @@ public class SparqlQueryServiceRestController {
 
 			sei = SparqlEndpointInterface.getInstance(serverType, serverAndPort, dataset, user, password);
 			simpleResultSetJson = sei.executeAuthUploadOwl(owlFile.getBytes());
+			invalidateDispatchCache(sei.getServerAndPort(), sei.getDataset());
 			 
 		} catch (Exception e) {			
 			e.printStackTrace();	
@@ -353,6 +369,24 @@ public class SparqlQueryServiceRestController {
 		return simpleResultSetJson;	
 	}	
 	
+	/**
+	 * Tell the dispatcher a dataset changed, so it stops reusing cached query results.
+	 * Does nothing if no dispatcher is configured.  Never fails the request.
+	 * @param dataset - null for every dataset on serverAndPort
+	 */
+	private void invalidateDispatchCache(String serverAndPort, String dataset){
+		if(dispatchProps.getServiceServer() == null || dispatchProps.getServiceServer().isEmpty()){
+			return;
+		}
+		try{
+			DispatchRestClient client = new DispatchRestClient(new DispatchClientConfig(dispatchProps.getServiceProtocol(), dispatchProps.getServiceServer(), dispatchProps.getServicePort()));
+			client.executeInvalidateResultsCache(serverAndPort, dataset);
+		}
+		catch(Exception e){
+			System.err.println("unable to invalidate dispatcher results cache: " + e.getMessage());
+		}
+	}
+	
 	private void logToStdout (String message) {
 		System.out.println(message);
 	}